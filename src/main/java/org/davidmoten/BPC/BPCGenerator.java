@@ -1,5 +1,7 @@
 package org.davidmoten.BPC;
 
+import org.davidmoten.Hilbert.HilbertComponent.Range;
+
 import java.math.BigInteger;
 import java.util.*;
 import java.util.stream.Stream;
@@ -43,6 +45,122 @@ public class BPCGenerator {
         return currentShiftCounts;
     }
 
+    /**
+     * 区间版本的BPC：直接由区间端点计算最小前缀覆盖，不再枚举区间内的每个值。
+     * 结果与对区间内全部值调用 GetBPCValueMap 一致。
+     *
+     * @param min  区间下界(包含)
+     * @param max  区间上界(包含)
+     * @param bits 最大位数，不超过62
+     * @return 键是右移次数(前缀中'*'的个数)，值是该层保留的前缀值(升序)
+     */
+    public static Map<Integer, List<Long>> GetBPCIntervalMap(long min, long max, int bits) {
+        return GetBPCIntervalMap(Collections.singletonList(Range.create(min, max)), bits);
+    }
+
+    /**
+     * 多个区间的BPC，区间可以无序、相邻或重叠，先合并为互不相邻的区间再逐个分解。
+     * 时间复杂度为 O(bits × 区间数)。
+     *
+     * @param ranges 区间集合，例如 SmallHilbertCurve.query 返回的 Ranges
+     * @param bits   最大位数，不超过62
+     * @return 键是右移次数(前缀中'*'的个数)，值是该层保留的前缀值(升序)
+     */
+    public static Map<Integer, List<Long>> GetBPCIntervalMap(Iterable<Range> ranges, int bits) {
+        if (bits <= 0 || bits > 62) {
+            throw new IllegalArgumentException("bits must be between 1 and 62");
+        }
+        long maxValue = (1L << bits) - 1;
+        List<Range> sorted = new ArrayList<>();
+        for (Range range : ranges) {
+            if (range.low() < 0 || range.high() > maxValue) {
+                throw new IllegalArgumentException("range " + range + " exceeds " + bits + " bits");
+            }
+            sorted.add(range);
+        }
+        sorted.sort(Comparator.comparingLong(Range::low));
+
+        Map<Integer, List<Long>> resultMap = new TreeMap<>();
+        long low = 0;
+        long high = -1;
+        for (Range range : sorted) {
+            if (high >= low && range.low() <= high + 1) {
+                // 与前一个区间相邻或重叠，合并
+                high = Math.max(high, range.high());
+                continue;
+            }
+            decomposeInterval(low, high, bits, resultMap);
+            low = range.low();
+            high = range.high();
+        }
+        decomposeInterval(low, high, bits, resultMap);
+        return resultMap;
+    }
+
+    // 将[low, high]拆分为对齐的子树：每一步取以low为起点、不超过high的最大子树
+    private static void decomposeInterval(long low, long high, int bits, Map<Integer, List<Long>> resultMap) {
+        while (low <= high) {
+            int alignment = low == 0 ? bits : Math.min(Long.numberOfTrailingZeros(low), bits);
+            int fit = 63 - Long.numberOfLeadingZeros(high - low + 1);
+            int iteration = Math.min(alignment, fit);
+            resultMap.computeIfAbsent(iteration, k -> new ArrayList<>()).add(low >>> iteration);
+            low += 1L << iteration;
+        }
+    }
+
+    /**
+     * 将 GetBPCIntervalMap 的结果转换为带'*'的前缀字符串，格式同 convertMapToPrefixString。
+     *
+     * @param resultMap GetBPCIntervalMap 的结果
+     * @param bits      最大位数
+     * @return 最佳前缀的二进制字符串列表
+     */
+    public static List<String> convertIntervalMapToPrefixString(Map<Integer, List<Long>> resultMap, int bits) {
+        List<String> binaryStrings = new ArrayList<>();
+        for (Map.Entry<Integer, List<Long>> entry : resultMap.entrySet()) {
+            for (long value : entry.getValue()) {
+                binaryStrings.add(toPrefixString(value, entry.getKey(), bits, true));
+            }
+        }
+        return binaryStrings;
+    }
+
+    /**
+     * 将 GetBPCIntervalMap 的结果转换为不带'*'的前缀字符串，格式同 convertToOnlyPrefix。
+     *
+     * @param resultMap GetBPCIntervalMap 的结果
+     * @param bits      最大位数
+     * @return 前缀的二进制字符串列表
+     */
+    public static List<String> convertIntervalMapToOnlyPrefix(Map<Integer, List<Long>> resultMap, int bits) {
+        List<String> binaryStrings = new ArrayList<>();
+        for (Map.Entry<Integer, List<Long>> entry : resultMap.entrySet()) {
+            for (long value : entry.getValue()) {
+                binaryStrings.add(toPrefixString(value, entry.getKey(), bits, false));
+            }
+        }
+        return binaryStrings;
+    }
+
+    // 前导0 + 二进制值 (+ iteration个'*')
+    private static String toPrefixString(long value, int iteration, int bits, boolean withStars) {
+        int effectiveLength = bits - iteration;
+        StringBuilder sb = new StringBuilder(bits);
+        if (effectiveLength > 0) {
+            String binaryString = Long.toBinaryString(value);
+            for (int i = binaryString.length(); i < effectiveLength; i++) {
+                sb.append('0');
+            }
+            sb.append(binaryString);
+        }
+        if (withStars) {
+            for (int i = 0; i < iteration; i++) {
+                sb.append('*');
+            }
+        }
+        return sb.toString();
+    }
+
     /**
      * 将BigInteger值转换为Order位的二进制字符串，并生成具有最佳前缀的字符串列表。
      *
@@ -0,0 +1,52 @@
+package org.davidmoten.BPC;
+
+import org.davidmoten.Hilbert.HilbertComponent.HilbertCurve;
+import org.davidmoten.Hilbert.HilbertComponent.Ranges;
+import org.davidmoten.Hilbert.HilbertComponent.SmallHilbertCurve;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 查询矩形到前缀覆盖(BPC)的转换。
+ * 先用 SmallHilbertCurve.query 将矩形分解为 Hilbert 值区间(只访问矩形边界上的格子)，
+ * 再由 BPCGenerator.GetBPCIntervalMap 按区间端点求前缀，不再逐格计算 Hilbert 值。
+ */
+public class HilbertRangeCover {
+    private final SmallHilbertCurve curve;
+    private final int bits; // Hilbert 值的总位数 order * dimension
+
+    public HilbertRangeCover(int order, int dimension) {
+        this.curve = HilbertCurve.small().bits(order).dimensions(dimension);
+        this.bits = order * dimension;
+    }
+
+    /**
+     * 矩形对应的 Hilbert 值区间，按升序排列且互不重叠。
+     *
+     * @param lowerLeft  矩形的一个顶点(包含)
+     * @param upperRight 与 lowerLeft 相对的顶点(包含)
+     * @return 精确覆盖矩形的区间
+     */
+    public Ranges ranges(long[] lowerLeft, long[] upperRight) {
+        return curve.query(lowerLeft, upperRight);
+    }
+
+    /**
+     * @return 键是右移次数，值是该层保留的前缀值，格式同 GetBPCIntervalMap
+     */
+    public Map<Integer, List<Long>> coverMap(long[] lowerLeft, long[] upperRight) {
+        return BPCGenerator.GetBPCIntervalMap(ranges(lowerLeft, upperRight), bits);
+    }
+
+    /**
+     * @return 矩形的最佳前缀字符串列表，与对矩形内全部格子调用 GetBPCValueMap 的结果一致
+     */
+    public List<String> cover(long[] lowerLeft, long[] upperRight) {
+        return BPCGenerator.convertIntervalMapToPrefixString(coverMap(lowerLeft, upperRight), bits);
+    }
+
+    public int bits() {
+        return bits;
+    }
+}
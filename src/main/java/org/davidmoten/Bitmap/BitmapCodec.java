@@ -0,0 +1,116 @@
+package org.davidmoten.Bitmap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * StoredBitmap 的二进制编码，供堆外存储与快照使用。保留原存储形式：展开的仍读回 WordBitmap，压缩的仍读回 CompressedBitmap。
+ * <p>
+ * 展开形式：类型字节 0、int 长度 n、n 个 long；
+ * 压缩形式：类型字节 1、int 基数、int 容器数，每个容器为 char 编号、类型字节(0 数组/1 位图)，
+ * 数组容器再跟 int 长度与相应个数的 char，位图容器跟 1024 个 long。
+ * 多字节值的字节序由传入 ByteBuffer 的字节序决定，读写两端需一致。
+ */
+public final class BitmapCodec {
+    private static final byte DENSE = 0;
+    private static final byte COMPRESSED = 1;
+    private static final byte ARRAY_CONTAINER = 0;
+    private static final byte BITMAP_CONTAINER = 1;
+
+    private BitmapCodec() {
+    }
+
+    /**
+     * @return write 写出的字节数
+     */
+    public static int serializedSize(StoredBitmap bitmap) {
+        if (bitmap instanceof WordBitmap) {
+            return 1 + 4 + ((WordBitmap) bitmap).words().length * 8;
+        }
+        CompressedBitmap compressed = (CompressedBitmap) bitmap;
+        int size = 1 + 4 + 4;
+        for (Object container : compressed.containers()) {
+            size += 2 + 1;
+            size += container instanceof char[] ? 4 + ((char[]) container).length * 2 : ((long[]) container).length * 8;
+        }
+        return size;
+    }
+
+    /**
+     * 从 buffer 的当前位置写入，写完后 position 前进 serializedSize(bitmap) 字节
+     */
+    public static void write(StoredBitmap bitmap, ByteBuffer buffer) {
+        if (bitmap instanceof WordBitmap) {
+            long[] words = ((WordBitmap) bitmap).words();
+            buffer.put(DENSE);
+            buffer.putInt(words.length);
+            putLongs(buffer, words);
+            return;
+        }
+        if (!(bitmap instanceof CompressedBitmap)) {
+            throw new IllegalArgumentException("unsupported bitmap type: " + bitmap.getClass());
+        }
+        CompressedBitmap compressed = (CompressedBitmap) bitmap;
+        char[] keys = compressed.keys();
+        Object[] containers = compressed.containers();
+        buffer.put(COMPRESSED);
+        buffer.putInt(compressed.cardinality());
+        buffer.putInt(keys.length);
+        for (int c = 0; c < keys.length; c++) {
+            buffer.putChar(keys[c]);
+            if (containers[c] instanceof char[]) {
+                char[] values = (char[]) containers[c];
+                buffer.put(ARRAY_CONTAINER);
+                buffer.putInt(values.length);
+                buffer.asCharBuffer().put(values);
+                buffer.position(buffer.position() + values.length * 2);
+            } else {
+                buffer.put(BITMAP_CONTAINER);
+                putLongs(buffer, (long[]) containers[c]);
+            }
+        }
+    }
+
+    /**
+     * 从 buffer 的当前位置读取一个位图，读完后 position 移到其末尾
+     */
+    public static StoredBitmap read(ByteBuffer buffer) {
+        byte type = buffer.get();
+        if (type == DENSE) {
+            long[] words = new long[buffer.getInt()];
+            getLongs(buffer, words);
+            return new WordBitmap(words);
+        }
+        if (type != COMPRESSED) {
+            throw new IllegalArgumentException("unknown bitmap type: " + type);
+        }
+        int cardinality = buffer.getInt();
+        int count = buffer.getInt();
+        char[] keys = new char[count];
+        Object[] containers = new Object[count];
+        for (int c = 0; c < count; c++) {
+            keys[c] = buffer.getChar();
+            byte kind = buffer.get();
+            if (kind == ARRAY_CONTAINER) {
+                char[] values = new char[buffer.getInt()];
+                buffer.asCharBuffer().get(values);
+                buffer.position(buffer.position() + values.length * 2);
+                containers[c] = values;
+            } else {
+                long[] bits = new long[1 << 10];
+                getLongs(buffer, bits);
+                containers[c] = bits;
+            }
+        }
+        return new CompressedBitmap(keys, containers, cardinality);
+    }
+
+    private static void putLongs(ByteBuffer buffer, long[] values) {
+        buffer.asLongBuffer().put(values);
+        buffer.position(buffer.position() + values.length * 8);
+    }
+
+    private static void getLongs(ByteBuffer buffer, long[] values) {
+        buffer.asLongBuffer().get(values);
+        buffer.position(buffer.position() + values.length * 8);
+    }
+}
@@ -0,0 +1,34 @@
+package org.davidmoten.Bitmap;
+
+/**
+ * 位图的存储策略。
+ */
+public enum BitmapStorage {
+    // 始终以 long[] 展开存储
+    DENSE {
+        @Override
+        public StoredBitmap store(WordBitmap bitmap) {
+            return bitmap;
+        }
+    },
+    // 始终以容器形式压缩存储
+    COMPRESSED {
+        @Override
+        public StoredBitmap store(WordBitmap bitmap) {
+            return CompressedBitmap.of(bitmap);
+        }
+    },
+    // 按密度选择：数组容器每个 1 占 16 位，密度低于 1/16 时压缩，否则展开
+    AUTO {
+        @Override
+        public StoredBitmap store(WordBitmap bitmap) {
+            return (long) bitmap.cardinality() * 16 < (long) bitmap.wordCount() * 64
+                    ? CompressedBitmap.of(bitmap) : bitmap;
+        }
+    };
+
+    /**
+     * 按策略转换为存储形式。DENSE 直接返回 bitmap 本身，调用方之后不能再修改它。
+     */
+    public abstract StoredBitmap store(WordBitmap bitmap);
+}
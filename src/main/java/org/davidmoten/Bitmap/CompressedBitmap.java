@@ -0,0 +1,138 @@
+package org.davidmoten.Bitmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Roaring 风格的只读压缩位图：按 2^16 位划分容器，空容器不存储；
+ * 容器中 1 的个数不超过 4096 时存为有序的 char[](每个 1 占 16 位)，否则存为 1024 个 long 的位图。
+ * <p>
+ * 单文件更新产生的位图只有一个 1(哈希掩码模式下另有低 128 位的随机位)，压缩后只占几十字节，
+ * 而展开形式的长度取决于最大的文件编号。
+ */
+public final class CompressedBitmap implements StoredBitmap {
+    private static final int CONTAINER_WORDS = 1 << 10; // 每个容器 2^16 位 = 1024 个 long
+    private static final int ARRAY_LIMIT = 4096; // 数组容器的最大基数
+    private static final int CONTAINER_HEADER_BYTES = 4; // 每个容器的编号与类型/长度
+
+    private final char[] keys; // 容器编号(位位置的高 16 位)
+    private final Object[] containers; // char[] 数组容器或 long[] 位图容器
+    private final int cardinality;
+
+    // 供同包的 BitmapCodec 反序列化使用，不做校验
+    CompressedBitmap(char[] keys, Object[] containers, int cardinality) {
+        this.keys = keys;
+        this.containers = containers;
+        this.cardinality = cardinality;
+    }
+
+    public static CompressedBitmap of(WordBitmap bitmap) {
+        long[] words = bitmap.words();
+        List<Character> keyList = new ArrayList<>();
+        List<Object> containerList = new ArrayList<>();
+        int total = 0;
+        for (int from = 0; from < words.length; from += CONTAINER_WORDS) {
+            int to = Math.min(from + CONTAINER_WORDS, words.length);
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                count += Long.bitCount(words[i]);
+            }
+            if (count == 0) {
+                continue;
+            }
+            if (count <= ARRAY_LIMIT) {
+                char[] values = new char[count];
+                int k = 0;
+                for (int i = from; i < to; i++) {
+                    long word = words[i];
+                    while (word != 0) {
+                        values[k++] = (char) (((i - from) << 6) + Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+                containerList.add(values);
+            } else {
+                containerList.add(Arrays.copyOfRange(words, from, from + CONTAINER_WORDS));
+            }
+            keyList.add((char) (from / CONTAINER_WORDS));
+            total += count;
+        }
+        char[] keys = new char[keyList.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = keyList.get(i);
+        }
+        return new CompressedBitmap(keys, containerList.toArray(), total);
+    }
+
+    @Override
+    public WordBitmap toWordBitmap() {
+        if (keys.length == 0) {
+            return new WordBitmap();
+        }
+        long[] words = new long[lastWordIndex() + 1];
+        for (int c = 0; c < keys.length; c++) {
+            int base = keys[c] * CONTAINER_WORDS;
+            Object container = containers[c];
+            if (container instanceof char[]) {
+                for (char value : (char[]) container) {
+                    words[base + (value >>> 6)] |= 1L << value;
+                }
+            } else {
+                long[] bits = (long[]) container;
+                System.arraycopy(bits, 0, words, base, Math.min(bits.length, words.length - base));
+            }
+        }
+        return new WordBitmap(words);
+    }
+
+    // 最高位 1 所在的 long 下标
+    private int lastWordIndex() {
+        int c = keys.length - 1;
+        int base = keys[c] * CONTAINER_WORDS;
+        Object container = containers[c];
+        if (container instanceof char[]) {
+            char[] values = (char[]) container;
+            return base + (values[values.length - 1] >>> 6);
+        }
+        long[] bits = (long[]) container;
+        int i = bits.length - 1;
+        while (bits[i] == 0) {
+            i--;
+        }
+        return base + i;
+    }
+
+    @Override
+    public int cardinality() {
+        return cardinality;
+    }
+
+    // 内部容器，仅供同包的编码器读取
+    char[] keys() {
+        return keys;
+    }
+
+    Object[] containers() {
+        return containers;
+    }
+
+    public int containerCount() {
+        return keys.length;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        long size = (long) keys.length * CONTAINER_HEADER_BYTES;
+        for (Object container : containers) {
+            size += container instanceof char[] ? ((char[]) container).length * 2L : ((long[]) container).length * 8L;
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "CompressedBitmap{cardinality=" + cardinality + ", containers=" + keys.length
+                + ", bytes=" + sizeInBytes() + "}";
+    }
+}
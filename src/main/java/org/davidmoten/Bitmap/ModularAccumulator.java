@@ -0,0 +1,168 @@
+package org.davidmoten.Bitmap;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * 模 n = 2^nbits 的原地累加器，用于 SKQ 的同态加法 Enc(sk, m) = sk + m mod n。
+ * <p>
+ * n 是 2 的幂，模 n 的加减就是 long[] 上带进位/借位的加减，超过 nbits 的高位直接截断，
+ * 不需要为每个密文新建 BigInteger，也不需要对 2^20 位的数调用 mod。
+ * 数组按实际用到的长度增长(低位在前，同 WordBitmap)，最多 nbits 位。非线程安全。
+ */
+public final class ModularAccumulator {
+    private final int nbits;
+    private final int maxWords;
+    private final long topMask; // 最高字中有效位的掩码
+    private long[] words = new long[0];
+
+    /**
+     * @param nbits 模数的位数，n = 2^nbits
+     */
+    public ModularAccumulator(int nbits) {
+        if (nbits <= 0) {
+            throw new IllegalArgumentException("nbits must be positive");
+        }
+        this.nbits = nbits;
+        this.maxWords = (nbits + 63) >>> 6;
+        this.topMask = (nbits & 63) == 0 ? -1L : (1L << nbits) - 1;
+    }
+
+    public int getNbits() {
+        return nbits;
+    }
+
+    // 加上 value(按低位在前的 long[] 解释)
+    public ModularAccumulator add(WordBitmap value) {
+        return add(value.words(), value.words().length);
+    }
+
+    public ModularAccumulator add(ModularAccumulator other) {
+        return add(other.words, other.words.length);
+    }
+
+    public ModularAccumulator subtract(WordBitmap value) {
+        return subtract(value.words(), value.words().length);
+    }
+
+    public ModularAccumulator subtract(ModularAccumulator other) {
+        return subtract(other.words, other.words.length);
+    }
+
+    /**
+     * 加上大端序字节数组表示的非负整数(如哈希输出)，与 add(new BigInteger(1, bytes)) 相同
+     */
+    public ModularAccumulator addBigEndian(byte[] bytes) {
+        long[] value = fromBigEndian(bytes);
+        return add(value, value.length);
+    }
+
+    // 减去大端序字节数组表示的非负整数，与 subtract(new BigInteger(1, bytes)) 相同
+    public ModularAccumulator subtractBigEndian(byte[] bytes) {
+        long[] value = fromBigEndian(bytes);
+        return subtract(value, value.length);
+    }
+
+    public ModularAccumulator add(BigInteger value) {
+        return add(WordBitmap.of(value.mod(BigInteger.ONE.shiftLeft(nbits))));
+    }
+
+    public ModularAccumulator subtract(BigInteger value) {
+        return subtract(WordBitmap.of(value.mod(BigInteger.ONE.shiftLeft(nbits))));
+    }
+
+    private ModularAccumulator add(long[] value, int length) {
+        int n = Math.min(trimmedLength(value, length), maxWords);
+        ensureWords(n);
+        long carry = 0;
+        int i = 0;
+        for (; i < n; i++) {
+            long x = words[i];
+            long y = value[i];
+            long s = x + y + carry;
+            carry = ((x & y) | ((x | y) & ~s)) >>> 63;
+            words[i] = s;
+        }
+        // 进位继续向高位传播，到 nbits 截断
+        for (; carry != 0 && i < maxWords; i++) {
+            ensureWords(i + 1);
+            words[i] += 1;
+            carry = words[i] == 0 ? 1 : 0;
+        }
+        truncate();
+        return this;
+    }
+
+    private ModularAccumulator subtract(long[] value, int length) {
+        int n = Math.min(trimmedLength(value, length), maxWords);
+        ensureWords(n);
+        long borrow = 0;
+        int i = 0;
+        for (; i < n; i++) {
+            long x = words[i];
+            long y = value[i];
+            long d = x - y - borrow;
+            borrow = ((~x & y) | (~(x ^ y) & d)) >>> 63;
+            words[i] = d;
+        }
+        // 借位向高位传播；借到 nbits 之上即加上 n，高位全部变为 1 后截断
+        for (; borrow != 0 && i < maxWords; i++) {
+            ensureWords(i + 1);
+            borrow = words[i] == 0 ? 1 : 0;
+            words[i] -= 1;
+        }
+        truncate();
+        return this;
+    }
+
+    public ModularAccumulator clear() {
+        Arrays.fill(words, 0L);
+        return this;
+    }
+
+    public boolean isZero() {
+        for (long word : words) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 当前值的副本
+    public WordBitmap toWordBitmap() {
+        return new WordBitmap(Arrays.copyOf(words, trimmedLength(words, words.length)));
+    }
+
+    public BigInteger toBigInteger() {
+        return toWordBitmap().toBigInteger();
+    }
+
+    private void ensureWords(int n) {
+        if (words.length < n) {
+            words = Arrays.copyOf(words, n);
+        }
+    }
+
+    private void truncate() {
+        if (words.length == maxWords) {
+            words[maxWords - 1] &= topMask;
+        }
+    }
+
+    // 去掉高位的 0 字后的长度
+    private static int trimmedLength(long[] value, int length) {
+        while (length > 0 && value[length - 1] == 0) {
+            length--;
+        }
+        return length;
+    }
+
+    private static long[] fromBigEndian(byte[] bytes) {
+        long[] value = new long[(bytes.length + 7) >>> 3];
+        for (int j = 0; j < bytes.length; j++) {
+            value[j >>> 3] |= (bytes[bytes.length - 1 - j] & 0xFFL) << ((j & 7) << 3);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,195 @@
+package org.davidmoten.Bitmap;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 搜索结果：匹配文件的位图，第 i 位为 1 表示文件 i 匹配。
+ * <p>
+ * 按字扫描(numberOfTrailingZeros / numberOfLeadingZeros)取出文件编号，全 0 的字一次跳过，
+ * 遍历的代价与位图的字数加命中数成正比，而不是像逐位 and(ONE)/shiftRight 那样与位宽的平方成正比。
+ * 迭代器与 forEach 不为每个命中分配对象；page 按 bitCount 跳过整字。
+ * <p>
+ * 不复制传入的位图，创建后调用者不得再修改它。
+ */
+public final class SearchResult {
+    private static final SearchResult EMPTY = new SearchResult(new WordBitmap());
+
+    private final WordBitmap bitmap;
+    private int cardinality = -1; // 惰性计算
+
+    private SearchResult(WordBitmap bitmap) {
+        this.bitmap = bitmap;
+    }
+
+    public static SearchResult of(WordBitmap bitmap) {
+        return new SearchResult(bitmap);
+    }
+
+    // ObjectSearch / Search 返回的 BigInteger 结果
+    public static SearchResult of(BigInteger bitmap) {
+        return bitmap.signum() == 0 ? EMPTY : new SearchResult(WordBitmap.of(bitmap));
+    }
+
+    public static SearchResult empty() {
+        return EMPTY;
+    }
+
+    // 匹配的文件数
+    public int cardinality() {
+        if (cardinality < 0) {
+            cardinality = bitmap.cardinality();
+        }
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return cardinality == 0 || bitmap.isEmpty();
+    }
+
+    public boolean contains(int fileId) {
+        return fileId >= 0 && bitmap.get(fileId);
+    }
+
+    // 按文件编号升序遍历
+    public PrimitiveIterator.OfInt iterator() {
+        long[] words = bitmap.words();
+        return new PrimitiveIterator.OfInt() {
+            private int index = -1; // 当前字的编号
+            private long word; // 当前字中尚未返回的位
+
+            @Override
+            public boolean hasNext() {
+                while (word == 0) {
+                    if (++index >= words.length) {
+                        index = words.length;
+                        return false;
+                    }
+                    word = words[index];
+                }
+                return true;
+            }
+
+            @Override
+            public int nextInt() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int bit = Long.numberOfTrailingZeros(word);
+                word &= word - 1; // 清除最低位的 1
+                return (index << 6) + bit;
+            }
+        };
+    }
+
+    // 按文件编号升序对每个匹配的文件调用 action
+    public void forEach(IntConsumer action) {
+        long[] words = bitmap.words();
+        for (int i = 0; i < words.length; i++) {
+            long word = words[i];
+            while (word != 0) {
+                action.accept((i << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+    }
+
+    // 按文件编号升序的流
+    public IntStream stream() {
+        int characteristics = Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.SORTED
+                | Spliterator.NONNULL | Spliterator.IMMUTABLE;
+        return StreamSupport.intStream(
+                Spliterators.spliterator(iterator(), cardinality(), characteristics), false);
+    }
+
+    /**
+     * 按文件编号升序的第 offset 个起、至多 limit 个文件编号。之前的字只统计 bitCount，不逐位展开。
+     *
+     * @param offset 跳过的命中数
+     * @param limit  最多返回的个数
+     */
+    public int[] page(int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("offset and limit must be non-negative");
+        }
+        long[] words = bitmap.words();
+        int[] out = new int[Math.max(0, Math.min(limit, cardinality() - offset))];
+        int skip = offset;
+        int n = 0;
+        for (int i = 0; i < words.length && n < out.length; i++) {
+            long word = words[i];
+            int count = Long.bitCount(word);
+            if (skip >= count) {
+                skip -= count;
+                continue;
+            }
+            for (; skip > 0; skip--) {
+                word &= word - 1;
+            }
+            while (word != 0 && n < out.length) {
+                out[n++] = (i << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * 编号最大的 k 个文件(文件编号递增分配时即最新的 k 个)，按编号降序，从高位字向低位扫描。
+     */
+    public int[] topK(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must be non-negative");
+        }
+        long[] words = bitmap.words();
+        int[] out = new int[k];
+        int n = 0;
+        for (int i = words.length - 1; i >= 0 && n < k; i--) {
+            long word = words[i];
+            while (word != 0 && n < k) {
+                int bit = 63 - Long.numberOfLeadingZeros(word);
+                out[n++] = (i << 6) + bit;
+                word &= ~(1L << bit);
+            }
+        }
+        return n == k ? out : Arrays.copyOf(out, n);
+    }
+
+    // 全部文件编号，升序
+    public int[] toArray() {
+        return page(0, cardinality());
+    }
+
+    // 底层位图，调用者不得修改
+    public WordBitmap bitmap() {
+        return bitmap;
+    }
+
+    public BigInteger toBigInteger() {
+        return bitmap.toBigInteger();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SearchResult)) return false;
+        return bitmap.equals(((SearchResult) o).bitmap);
+    }
+
+    @Override
+    public int hashCode() {
+        return bitmap.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "SearchResult{cardinality=" + cardinality() + "}";
+    }
+}
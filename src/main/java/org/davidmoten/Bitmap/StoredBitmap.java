@@ -0,0 +1,19 @@
+package org.davidmoten.Bitmap;
+
+/**
+ * 服务器端存储的位图：展开形式 WordBitmap 或压缩形式 CompressedBitmap，由 BitmapStorage 按策略选择。
+ */
+public interface StoredBitmap {
+
+    /**
+     * 展开为可原地运算的 WordBitmap。WordBitmap 返回自身，压缩形式返回新对象。
+     */
+    WordBitmap toWordBitmap();
+
+    int cardinality();
+
+    /**
+     * 位图内容实际占用的字节数(不含 Java 对象头)
+     */
+    long sizeInBytes();
+}
@@ -0,0 +1,306 @@
+package org.davidmoten.Bitmap;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * 以 long[] 存储的可变位图，第 i 位对应文件 i(words[i >> 6] 的第 i & 63 位)。
+ * xor/and/andNot/or 均原地修改并返回自身，长度按需增长，用于替代搜索循环中每次运算都会新建对象的 BigInteger。
+ * 非线程安全。
+ */
+public final class WordBitmap implements StoredBitmap {
+    private static final long[] EMPTY = new long[0];
+
+    private long[] words;
+
+    public WordBitmap() {
+        this.words = EMPTY;
+    }
+
+    /**
+     * @param nbits 预分配的位数
+     */
+    public WordBitmap(int nbits) {
+        this.words = new long[(nbits + 63) >>> 6];
+    }
+
+    WordBitmap(long[] words) {
+        this.words = words;
+    }
+
+    public static WordBitmap of(BitSet bitSet) {
+        return new WordBitmap(bitSet.toLongArray());
+    }
+
+    public static WordBitmap of(BigInteger value) {
+        if (value.signum() < 0) {
+            throw new IllegalArgumentException("value must be non-negative");
+        }
+        byte[] bytes = value.toByteArray(); // 大端序，可能带一个符号字节
+        long[] words = new long[(value.bitLength() + 63) >>> 6];
+        for (int j = 0; j < bytes.length; j++) {
+            int bit = (bytes.length - 1 - j) << 3;
+            if (bit >>> 6 < words.length) {
+                words[bit >>> 6] |= (bytes[j] & 0xFFL) << (bit & 63);
+            }
+        }
+        return new WordBitmap(words);
+    }
+
+    public WordBitmap copy() {
+        return new WordBitmap(words.clone());
+    }
+
+    // 复制 other 的内容，尽量复用已有数组
+    public WordBitmap copyFrom(WordBitmap other) {
+        ensureWords(other.words.length);
+        System.arraycopy(other.words, 0, words, 0, other.words.length);
+        Arrays.fill(words, other.words.length, words.length, 0L);
+        return this;
+    }
+
+    public WordBitmap clear() {
+        Arrays.fill(words, 0L);
+        return this;
+    }
+
+    public boolean get(int bit) {
+        int w = bit >>> 6;
+        return w < words.length && (words[w] & (1L << bit)) != 0;
+    }
+
+    public WordBitmap set(int bit) {
+        ensureWords((bit >>> 6) + 1);
+        words[bit >>> 6] |= 1L << bit;
+        return this;
+    }
+
+    public WordBitmap clear(int bit) {
+        int w = bit >>> 6;
+        if (w < words.length) {
+            words[w] &= ~(1L << bit);
+        }
+        return this;
+    }
+
+    public WordBitmap xor(WordBitmap other) {
+        ensureWords(other.words.length);
+        for (int i = 0; i < other.words.length; i++) {
+            words[i] ^= other.words[i];
+        }
+        return this;
+    }
+
+    public WordBitmap or(WordBitmap other) {
+        ensureWords(other.words.length);
+        for (int i = 0; i < other.words.length; i++) {
+            words[i] |= other.words[i];
+        }
+        return this;
+    }
+
+    public WordBitmap and(WordBitmap other) {
+        int n = Math.min(words.length, other.words.length);
+        for (int i = 0; i < n; i++) {
+            words[i] &= other.words[i];
+        }
+        Arrays.fill(words, n, words.length, 0L);
+        return this;
+    }
+
+    public WordBitmap andNot(WordBitmap other) {
+        int n = Math.min(words.length, other.words.length);
+        for (int i = 0; i < n; i++) {
+            words[i] &= ~other.words[i];
+        }
+        return this;
+    }
+
+    /**
+     * 将大端序的掩码(如哈希输出)异或到低位，与 xor(new BigInteger(1, mask)) 的结果相同。
+     *
+     * @param mask 掩码字节，mask[mask.length - 1] 对应第 0~7 位
+     */
+    public WordBitmap xorMask(byte[] mask) {
+        ensureWords((mask.length + 7) >>> 3);
+        for (int j = 0; j < mask.length; j++) {
+            words[j >>> 3] ^= (mask[mask.length - 1 - j] & 0xFFL) << ((j & 7) << 3);
+        }
+        return this;
+    }
+
+    /**
+     * 将小端序的密钥流异或到位图上，keystream 的第 k 位对应位图的第 k 位。
+     *
+     * @param keystream 密钥流
+     * @param nbytes    使用的字节数，必须是 8 的倍数
+     */
+    public WordBitmap xorKeystream(byte[] keystream, int nbytes) {
+        if ((nbytes & 7) != 0 || nbytes > keystream.length) {
+            throw new IllegalArgumentException("nbytes must be a multiple of 8 and within the keystream");
+        }
+        ensureWords(nbytes >>> 3);
+        ByteBuffer buffer = ByteBuffer.wrap(keystream).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < nbytes >>> 3; i++) {
+            words[i] ^= buffer.getLong(i << 3);
+        }
+        return this;
+    }
+
+    public boolean isEmpty() {
+        for (long word : words) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int cardinality() {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * 从 from 开始(包含)的第一个 1 的位置，按字跳过全 0 的部分，与 BitSet.nextSetBit 语义相同
+     *
+     * @return 位置，没有时返回 -1
+     */
+    public int nextSetBit(int from) {
+        if (from < 0) {
+            throw new IndexOutOfBoundsException("from < 0: " + from);
+        }
+        int w = from >>> 6;
+        if (w >= words.length) {
+            return -1;
+        }
+        long word = words[w] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++w == words.length) {
+                return -1;
+            }
+            word = words[w];
+        }
+    }
+
+    /**
+     * 从 from 开始(包含)向低位的第一个 1 的位置，与 BitSet.previousSetBit 语义相同
+     *
+     * @return 位置，没有时返回 -1
+     */
+    public int previousSetBit(int from) {
+        if (from < 0) {
+            return -1;
+        }
+        int w = from >>> 6;
+        long word;
+        if (w >= words.length) {
+            w = words.length - 1;
+            if (w < 0) {
+                return -1;
+            }
+            word = words[w];
+        } else {
+            word = words[w] & (-1L >>> -(from + 1));
+        }
+        while (true) {
+            if (word != 0) {
+                return (w << 6) + 63 - Long.numberOfLeadingZeros(word);
+            }
+            if (w-- == 0) {
+                return -1;
+            }
+            word = words[w];
+        }
+    }
+
+    // 最高位 1 的位置 + 1
+    public int length() {
+        for (int i = words.length - 1; i >= 0; i--) {
+            if (words[i] != 0) {
+                return (i << 6) + 64 - Long.numberOfLeadingZeros(words[i]);
+            }
+        }
+        return 0;
+    }
+
+    // 占用的 long 数量(含高位的 0)
+    public int wordCount() {
+        return words.length;
+    }
+
+    // 内部数组，仅供同包的编码器读取
+    long[] words() {
+        return words;
+    }
+
+    // 已是展开形式，直接返回自身
+    @Override
+    public WordBitmap toWordBitmap() {
+        return this;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return (long) words.length << 3;
+    }
+
+    public long[] toLongArray() {
+        return Arrays.copyOf(words, (length() + 63) >>> 6);
+    }
+
+    public BigInteger toBigInteger() {
+        int n = (length() + 63) >>> 6;
+        byte[] bytes = new byte[n << 3];
+        for (int i = 0; i < n; i++) {
+            long word = words[i];
+            int offset = bytes.length - ((i + 1) << 3);
+            for (int k = 7; k >= 0; k--) {
+                bytes[offset + k] = (byte) word;
+                word >>>= 8;
+            }
+        }
+        return new BigInteger(1, bytes);
+    }
+
+    private void ensureWords(int n) {
+        if (words.length < n) {
+            words = Arrays.copyOf(words, n);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof WordBitmap)) return false;
+        long[] a = words;
+        long[] b = ((WordBitmap) o).words;
+        int n = Math.max(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            if ((i < a.length ? a[i] : 0L) != (i < b.length ? b[i] : 0L)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toLongArray());
+    }
+
+    @Override
+    public String toString() {
+        return "WordBitmap{cardinality=" + cardinality() + ", length=" + length() + "}";
+    }
+}
@@ -0,0 +1,57 @@
+package org.davidmoten.Crypto;
+
+import org.bouncycastle.crypto.digests.Blake2bDigest;
+
+/**
+ * 128 位 Blake2b 哈希 H(key || data)，RSKQ 的 H1~H5 都由此计算。
+ * <p>
+ * 每个线程复用一个 Blake2bDigest(doFinal 后自动重置)，结果可以直接写入调用者的缓冲区，
+ * 计数器按字节逐个送入摘要，不再为每次调用创建摘要对象、int 缓冲区和输出数组。
+ * <p>
+ * 密钥仍作为输入前缀，而不使用 Blake2b 的带密钥模式：带密钥模式把密钥补齐成 128 字节的整块单独压缩，
+ * 而 16 字节密钥加上不超过 112 字节的数据本来只需压缩一块，换成带密钥模式每次要多压缩一块，并且会改变所有已存储的标签。
+ */
+public final class Blake2bHasher {
+    public static final int OUTPUT_BYTES = 16; // 128 位
+
+    private static final ThreadLocal<Blake2bDigest> DIGESTS =
+            ThreadLocal.withInitial(() -> new Blake2bDigest(OUTPUT_BYTES * 8));
+
+    private Blake2bHasher() {
+    }
+
+    /**
+     * 把 H(key || data) 写入 out[offset, offset + 16)
+     */
+    public static void hash(byte[] key, byte[] data, byte[] out, int offset) {
+        Blake2bDigest digest = DIGESTS.get();
+        digest.update(key, 0, key.length);
+        digest.update(data, 0, data.length);
+        digest.doFinal(out, offset);
+    }
+
+    public static byte[] hash(byte[] key, byte[] data) {
+        byte[] result = new byte[OUTPUT_BYTES];
+        hash(key, data, result, 0);
+        return result;
+    }
+
+    /**
+     * 把 H(key || counter) 写入 out[offset, offset + 16)，counter 按大端 4 字节参与哈希
+     */
+    public static void hash(byte[] key, int counter, byte[] out, int offset) {
+        Blake2bDigest digest = DIGESTS.get();
+        digest.update(key, 0, key.length);
+        digest.update((byte) (counter >> 24));
+        digest.update((byte) (counter >> 16));
+        digest.update((byte) (counter >> 8));
+        digest.update((byte) counter);
+        digest.doFinal(out, offset);
+    }
+
+    public static byte[] hash(byte[] key, int counter) {
+        byte[] result = new byte[OUTPUT_BYTES];
+        hash(key, counter, result, 0);
+        return result;
+    }
+}
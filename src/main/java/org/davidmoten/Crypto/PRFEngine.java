@@ -0,0 +1,156 @@
+package org.davidmoten.Crypto;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 令牌密钥派生引擎：(Kw, Kw') = P'(K, token)，P' 为 HMAC-SHA256，输出前半为 Kw，后半为 Kw'。
+ * <p>
+ * 每个线程持有一个已用 K 初始化好的 Mac，省去每次调用的 Mac.getInstance/init；
+ * 派生结果按令牌放入容量有界的 LRU 缓存，前缀与关键字在更新和搜索中反复出现时直接命中。
+ * 缓存返回的数组被所有调用者共享，调用者不得修改其内容。
+ */
+public final class PRFEngine {
+    public static final String HMAC_ALGORITHM = "HmacSHA256";
+    public static final int DEFAULT_CACHE_CAPACITY = 1 << 16;
+
+    private final int keyLength; // Kw 与 Kw' 各自的字节数
+    private final int capacity;
+    private final ThreadLocal<Mac> macs;
+    private final LinkedHashMap<String, TokenKeys> cache; // 访问顺序，读写需持有 cache 的监视器
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * 一个令牌派生出的密钥对
+     */
+    public static final class TokenKeys {
+        public final byte[] Kw;
+        public final byte[] Kw_prime;
+
+        TokenKeys(byte[] Kw, byte[] Kw_prime) {
+            this.Kw = Kw;
+            this.Kw_prime = Kw_prime;
+        }
+    }
+
+    public PRFEngine(byte[] key, int keyLength) {
+        this(key, keyLength, DEFAULT_CACHE_CAPACITY);
+    }
+
+    /**
+     * @param key       PRF 密钥 K
+     * @param keyLength Kw 与 Kw' 各自的字节数，两者之和不能超过 HMAC 输出长度
+     * @param capacity  缓存的令牌数上限，0 表示不缓存
+     */
+    public PRFEngine(byte[] key, int keyLength, int capacity) {
+        if (keyLength <= 0 || keyLength * 2 > 32) {
+            throw new IllegalArgumentException("keyLength must be in [1, 16]");
+        }
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must be non-negative");
+        }
+        this.keyLength = keyLength;
+        this.capacity = capacity;
+        SecretKeySpec keySpec = new SecretKeySpec(key.clone(), HMAC_ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+                mac.init(keySpec);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        this.cache = new LinkedHashMap<String, TokenKeys>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TokenKeys> eldest) {
+                return size() > PRFEngine.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * 不经过缓存，直接计算 P'(K, token) 的完整输出
+     */
+    public byte[] evaluate(String token) {
+        // doFinal 会重置 Mac，密钥保持不变，可以直接复用
+        return macs.get().doFinal(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 派生令牌的 (Kw, Kw')，优先从缓存读取
+     */
+    public TokenKeys keys(String token) {
+        if (capacity > 0) {
+            TokenKeys cached;
+            synchronized (cache) {
+                cached = cache.get(token);
+            }
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+        }
+        misses.increment();
+        byte[] combinedKey = evaluate(token);
+        byte[] Kw = new byte[keyLength];
+        byte[] Kw_prime = new byte[keyLength];
+        System.arraycopy(combinedKey, 0, Kw, 0, keyLength);
+        System.arraycopy(combinedKey, keyLength, Kw_prime, 0, keyLength);
+        TokenKeys keys = new TokenKeys(Kw, Kw_prime);
+        if (capacity > 0) {
+            synchronized (cache) {
+                // 并发未命中时保留先写入的一份，结果相同
+                TokenKeys previous = cache.putIfAbsent(token, keys);
+                if (previous != null) {
+                    return previous;
+                }
+            }
+        }
+        return keys;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getCacheSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return 命中次数 / 总派生次数，尚未派生时为 0
+     */
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    public void resetStatistics() {
+        hits.reset();
+        misses.reset();
+    }
+}
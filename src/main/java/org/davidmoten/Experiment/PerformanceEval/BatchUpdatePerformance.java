@@ -0,0 +1,61 @@
+package org.davidmoten.Experiment.PerformanceEval;
+
+import org.davidmoten.Experiment.Comparison.FixRangeCompareToConstructionOne;
+import org.davidmoten.Scheme.RSKQ.RSKQ_Biginteger;
+
+import java.util.List;
+
+import static org.davidmoten.Experiment.Comparison.FixRangeCompareToConstructionOne.loadDataFromFile;
+
+/**
+ * 批量导入实验：逐条 ObjectUpdate 与按批次合并、并行的 ObjectUpdate 的耗时对比。
+ */
+public class BatchUpdatePerformance {
+
+    public static void main(String[] args) throws Exception {
+        String filepath = "src/dataset/spatial_data_set_10W.csv";
+        int maxFiles = 1 << 20;
+        int hilbertOrder = 12;
+        int[] batchSizes = {100, 1000, 10000};
+        int[] threadCounts = {1, 4, Runtime.getRuntime().availableProcessors()};
+
+        System.out.printf("加载数据文件：%s\n", filepath);
+        List<FixRangeCompareToConstructionOne.DataRow> dataRows = loadDataFromFile(filepath);
+
+        // 逐条更新
+        RSKQ_Biginteger sequential = new RSKQ_Biginteger(maxFiles, hilbertOrder, 2);
+        long start = System.nanoTime();
+        for (FixRangeCompareToConstructionOne.DataRow row : dataRows) {
+            sequential.ObjectUpdate(new long[]{row.pointX, row.pointY}, row.keywords, new String[]{"add"}, new int[]{row.fileID});
+        }
+        System.out.printf("逐条更新: | %d 条 | %-10.3f|ms| PDB: %d | KDB: %d\n", dataRows.size(),
+                (System.nanoTime() - start) / 1e6, sequential.getPDBSize(), sequential.getKDBSize());
+
+        // 批量更新
+        for (int threads : threadCounts) {
+            for (int batchSize : batchSizes) {
+                RSKQ_Biginteger batched = new RSKQ_Biginteger(maxFiles, hilbertOrder, 2);
+                batched.setParallelism(threads);
+                start = System.nanoTime();
+                for (int from = 0; from < dataRows.size(); from += batchSize) {
+                    int size = Math.min(batchSize, dataRows.size() - from);
+                    long[][] pSets = new long[size][];
+                    String[][] Ws = new String[size][];
+                    String[][] ops = new String[size][];
+                    int[][] files = new int[size][];
+                    for (int i = 0; i < size; i++) {
+                        FixRangeCompareToConstructionOne.DataRow row = dataRows.get(from + i);
+                        pSets[i] = new long[]{row.pointX, row.pointY};
+                        Ws[i] = row.keywords;
+                        ops[i] = new String[]{"add"};
+                        files[i] = new int[]{row.fileID};
+                    }
+                    batched.ObjectUpdate(pSets, Ws, ops, files);
+                }
+                System.out.printf("批量更新: | 线程数: %d | 批大小: %d | %-10.3f|ms| PDB: %d | KDB: %d\n", threads, batchSize,
+                        (System.nanoTime() - start) / 1e6, batched.getPDBSize(), batched.getKDBSize());
+                batched.shutdown();
+            }
+        }
+    }
+}
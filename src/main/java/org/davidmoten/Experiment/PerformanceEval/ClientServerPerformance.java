@@ -0,0 +1,150 @@
+package org.davidmoten.Experiment.PerformanceEval;
+
+import org.davidmoten.Net.FrameChannel;
+import org.davidmoten.Scheme.RSKQ.RSKQ_Biginteger;
+import org.davidmoten.Scheme.RSKQ.RSKQ_Client;
+import org.davidmoten.Scheme.RSKQ.RSKQ_Server;
+
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 客户端/服务器实验：RSKQ_Client 与 RSKQ_Server 通过 localhost socket 或进程内 Pipe 通信，
+ * 测量更新与搜索的端到端延迟、服务器处理时间、线路上的字节数，并用进程内的 RSKQ_Biginteger 校验搜索结果；
+ * 最后让多个客户端(各自的密钥与数据)并发查询同一个服务器，测量服务器的吞吐量。
+ * <p>
+ * 参数：[对象数]，默认 20000。
+ */
+public class ClientServerPerformance {
+
+    private static final int MAX_FILES = 1 << 20;
+    private static final int ORDER = 12;
+    private static final int BATCH_SIZE = 1000;
+    private static final int SEARCH_TIMES = 100;
+
+    public static void main(String[] args) throws Exception {
+        int numObjects = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        Random random = new Random(15);
+        long[][] pSets = new long[numObjects][];
+        String[][] Ws = new String[numObjects][];
+        for (int i = 0; i < numObjects; i++) {
+            pSets[i] = new long[]{random.nextInt(1 << ORDER), random.nextInt(1 << ORDER)};
+            Ws[i] = new String[]{"keyword" + (random.nextInt(1000) + 1), "keyword" + (random.nextInt(1000) + 1)};
+        }
+        long[][][] queries = new long[SEARCH_TIMES][][];
+        String[][] queryWords = new String[SEARCH_TIMES][];
+        for (int i = 0; i < SEARCH_TIMES; i++) {
+            long x = random.nextInt(1 << ORDER), y = random.nextInt(1 << ORDER);
+            queries[i] = new long[][]{{x, y}, {Math.min(x + 127, (1 << ORDER) - 1), Math.min(y + 127, (1 << ORDER) - 1)}};
+            queryWords[i] = new String[]{"keyword" + (random.nextInt(1000) + 1)};
+        }
+
+        // 进程内实现作为参照
+        RSKQ_Biginteger reference = new RSKQ_Biginteger(MAX_FILES, ORDER, 2);
+        updateInBatches(reference, null, pSets, Ws, 0, numObjects);
+        BigInteger[] expected = new BigInteger[SEARCH_TIMES];
+        for (int i = 0; i < SEARCH_TIMES; i++) {
+            expected[i] = reference.ObjectSearch(queries[i][0], queries[i][1], queryWords[i]);
+        }
+        reference.shutdown();
+
+        for (boolean socket : new boolean[]{true, false}) {
+            try (RSKQ_Server server = new RSKQ_Server()) {
+                FrameChannel channel = socket ? FrameChannel.connect(server.start(0)) : server.connectInProcess();
+                try (RSKQ_Client client = new RSKQ_Client(MAX_FILES, ORDER, 2, channel)) {
+                    long start = System.nanoTime();
+                    updateInBatches(null, client, pSets, Ws, 0, numObjects);
+                    double updateMs = (System.nanoTime() - start) / 1e6;
+                    long updateBytes = client.getBytesSent() + client.getBytesReceived();
+                    System.out.printf("%s | 更新 %d 个对象 | %-10.1f|ms| 线路: %.2f MB | PDB: %d | KDB: %d\n",
+                            socket ? "socket" : "pipe  ", numObjects, updateMs, updateBytes / (1024.0 * 1024),
+                            server.getPDBSize(), server.getKDBSize());
+
+                    for (int i = 0; i < SEARCH_TIMES; i++) {
+                        BigInteger actual = client.ObjectSearch(queries[i][0], queries[i][1], queryWords[i]);
+                        if (!expected[i].equals(actual)) {
+                            throw new IllegalStateException("客户端/服务器的查询结果与 RSKQ_Biginteger 不一致: 查询 " + i);
+                        }
+                    }
+                    long searchBytes = client.getBytesSent() + client.getBytesReceived() - updateBytes;
+                    System.out.printf("%s | 搜索 %d 次 | 端到端: %.3f ms | 服务器: %.3f ms | 每次 %.1f KB | 令牌数/次: %.1f\n",
+                            socket ? "socket" : "pipe  ", SEARCH_TIMES, average(client.searchLatencies),
+                            average(client.serverSearchTimes), searchBytes / 1024.0 / SEARCH_TIMES,
+                            (double) server.getSearchTokens() / server.getSearchRequests());
+                }
+            }
+        }
+        System.out.println("客户端/服务器的 " + SEARCH_TIMES + " 个查询结果与 RSKQ_Biginteger 一致。");
+
+        // 并发客户端：每个客户端有自己的密钥，导入一部分数据后反复查询
+        for (int clients : new int[]{1, 2, 4, 8}) {
+            try (RSKQ_Server server = new RSKQ_Server()) {
+                InetSocketAddress address = server.start(0);
+                List<RSKQ_Client> clientList = new ArrayList<>();
+                int share = numObjects / clients;
+                for (int c = 0; c < clients; c++) {
+                    RSKQ_Client client = new RSKQ_Client(MAX_FILES, ORDER, 2, FrameChannel.connect(address));
+                    updateInBatches(null, client, pSets, Ws, c * share, share);
+                    clientList.add(client);
+                }
+                ExecutorService pool = Executors.newFixedThreadPool(clients);
+                List<Future<?>> futures = new ArrayList<>();
+                long start = System.nanoTime();
+                for (RSKQ_Client client : clientList) {
+                    futures.add(pool.submit(() -> {
+                        for (int i = 0; i < SEARCH_TIMES; i++) {
+                            client.ObjectSearch(queries[i][0], queries[i][1], queryWords[i]);
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+                double elapsedMs = (System.nanoTime() - start) / 1e6;
+                pool.shutdown();
+                double latency = clientList.stream().mapToDouble(c -> average(c.searchLatencies)).average().orElse(0);
+                System.out.printf("并发客户端: %d | %d 次查询 | %-10.1f|ms| 吞吐: %.1f 查询/s | 平均延迟: %.3f ms\n",
+                        clients, clients * SEARCH_TIMES, elapsedMs, clients * SEARCH_TIMES / (elapsedMs / 1000), latency);
+                for (RSKQ_Client client : clientList) {
+                    client.close();
+                }
+            }
+        }
+    }
+
+    // 将 [from, from + count) 的对象按批次导入 rskq 或 client
+    private static void updateInBatches(RSKQ_Biginteger rskq, RSKQ_Client client, long[][] pSets, String[][] Ws,
+                                        int from, int count) throws Exception {
+        for (int offset = 0; offset < count; offset += BATCH_SIZE) {
+            int size = Math.min(BATCH_SIZE, count - offset);
+            long[][] batchP = new long[size][];
+            String[][] batchW = new String[size][];
+            String[][] ops = new String[size][];
+            int[][] files = new int[size][];
+            for (int i = 0; i < size; i++) {
+                batchP[i] = pSets[from + offset + i];
+                batchW[i] = Ws[from + offset + i];
+                ops[i] = new String[]{"add"};
+                files[i] = new int[]{from + offset + i};
+            }
+            if (rskq != null) {
+                rskq.ObjectUpdate(batchP, batchW, ops, files);
+            } else {
+                client.ObjectUpdate(batchP, batchW, ops, files);
+            }
+        }
+    }
+
+    private static double average(List<Double> values) {
+        synchronized (values) {
+            return values.stream().mapToDouble(Double::doubleValue).average().orElse(0.0);
+        }
+    }
+}
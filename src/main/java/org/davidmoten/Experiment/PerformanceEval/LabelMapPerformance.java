@@ -0,0 +1,81 @@
+package org.davidmoten.Experiment.PerformanceEval;
+
+import org.davidmoten.Store.LabelMap;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 密文索引实验：比较以 new String(label, UTF_8) 为键的 ConcurrentHashMap(原实现)与以 128 位标签为键的 LabelMap，
+ * 在 put/get/remove 上的单次耗时、每条记录的堆占用，以及 String 键因 UTF-8 解码产生的碰撞数。
+ */
+public class LabelMapPerformance {
+
+    public static void main(String[] args) {
+        int[] sizes = {100000, 500000, 1000000};
+        SecureRandom random = new SecureRandom();
+        Object value = new Object();
+
+        System.out.printf("%-9s | %-34s | %-34s | %-8s\n", "entries",
+                "String 键 put/get/remove(ns) 每条(B)", "LabelMap put/get/remove(ns) 每条(B)", "String 碰撞");
+        for (int size : sizes) {
+            byte[][] labels = new byte[size][16];
+            for (byte[] label : labels) {
+                random.nextBytes(label);
+            }
+
+            long before = usedMemory();
+            ConcurrentHashMap<String, Object> stringMap = new ConcurrentHashMap<>();
+            long start = System.nanoTime();
+            for (byte[] label : labels) {
+                stringMap.put(new String(label, StandardCharsets.UTF_8), value);
+            }
+            double stringPut = (System.nanoTime() - start) / (double) size;
+            long stringBytes = (usedMemory() - before) / size;
+            int collisions = size - stringMap.size();
+            start = System.nanoTime();
+            for (byte[] label : labels) {
+                stringMap.get(new String(label, StandardCharsets.UTF_8));
+            }
+            double stringGet = (System.nanoTime() - start) / (double) size;
+            start = System.nanoTime();
+            for (byte[] label : labels) {
+                stringMap.remove(new String(label, StandardCharsets.UTF_8));
+            }
+            double stringRemove = (System.nanoTime() - start) / (double) size;
+            stringMap = null;
+
+            before = usedMemory();
+            LabelMap<Object> labelMap = new LabelMap<>();
+            start = System.nanoTime();
+            for (byte[] label : labels) {
+                labelMap.put(label, value);
+            }
+            double labelPut = (System.nanoTime() - start) / (double) size;
+            long labelBytes = (usedMemory() - before) / size;
+            start = System.nanoTime();
+            for (byte[] label : labels) {
+                labelMap.get(label);
+            }
+            double labelGet = (System.nanoTime() - start) / (double) size;
+            start = System.nanoTime();
+            for (byte[] label : labels) {
+                labelMap.remove(label);
+            }
+            double labelRemove = (System.nanoTime() - start) / (double) size;
+
+            System.out.printf("%-9d | %8.1f %8.1f %8.1f %8d | %8.1f %8.1f %8.1f %8d | %-8d\n", size,
+                    stringPut, stringGet, stringRemove, stringBytes,
+                    labelPut, labelGet, labelRemove, labelBytes, collisions);
+        }
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
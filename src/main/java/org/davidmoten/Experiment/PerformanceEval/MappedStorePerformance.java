@@ -0,0 +1,67 @@
+package org.davidmoten.Experiment.PerformanceEval;
+
+import org.davidmoten.Bitmap.BitmapStorage;
+import org.davidmoten.Scheme.RSKQ.RSKQ_Biginteger;
+import org.davidmoten.Store.MappedCipherStore;
+
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * 存储后端实验：同一批随机对象分别插入 PDB/KDB 在堆内(LabelMap)与堆外映射文件(MappedCipherStore)的 RSKQ 实例，
+ * 比较插入后的堆占用、平均更新与搜索耗时，并校验两者的搜索结果一致。
+ * <p>
+ * 参数：[对象数] [映射文件目录]，默认 5000 个对象、系统临时目录。位图以展开形式存储，文件编号在 [0, maxFiles) 中随机，
+ * 每条密文的大小与文件编号成正比，用于模拟大位图下堆内存储的压力。
+ */
+public class MappedStorePerformance {
+
+    public static void main(String[] args) throws Exception {
+        int numObjects = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        Path directory = args.length > 1 ? Paths.get(args[1]) : Files.createTempDirectory("rskq-store");
+        int maxFiles = 1 << 16;
+        int order = 12;
+        int searchTimes = 100;
+        int edgeLength = 256;
+
+        for (boolean mapped : new boolean[]{false, true}) {
+            Random random = new Random(11); // 两个实例使用相同的数据与查询
+            long heapBefore = usedMemory();
+            RSKQ_Biginteger rskq = mapped
+                    ? new RSKQ_Biginteger(maxFiles, order, 2, false, directory)
+                    : new RSKQ_Biginteger(maxFiles, order, 2);
+            rskq.setBitmapStorage(BitmapStorage.DENSE);
+            for (int i = 0; i < numObjects; i++) {
+                long[] pSet = {random.nextInt(1 << order), random.nextInt(1 << order)};
+                String[] W = {"keyword" + (random.nextInt(100) + 1), "keyword" + (random.nextInt(100) + 1)};
+                rskq.ObjectUpdate(pSet, W, new String[]{"add"}, new int[]{random.nextInt(maxFiles)});
+            }
+            long heapUsed = usedMemory() - heapBefore;
+            int entries = rskq.getPDBSize() + rskq.getKDBSize();
+            long offHeap = mapped ? ((MappedCipherStore<?>) rskq.PDB).liveBytes() + ((MappedCipherStore<?>) rskq.KDB).liveBytes() : 0;
+
+            BigInteger checksum = BigInteger.ZERO;
+            for (int i = 0; i < searchTimes; i++) {
+                long x = random.nextInt(1 << order), y = random.nextInt(1 << order);
+                long[] lowerLeft = {x, y};
+                long[] upperRight = {Math.min(x + edgeLength - 1, (1 << order) - 1), Math.min(y + edgeLength - 1, (1 << order) - 1)};
+                checksum = checksum.xor(rskq.ObjectSearch(lowerLeft, upperRight, new String[]{"keyword" + (random.nextInt(100) + 1)}));
+            }
+            System.out.printf("%-8s | 条目: %d | 堆占用: %.1f MB | 堆外存活: %.1f MB | 更新: %.3f ms | 搜索: %.3f ms | 结果校验: %s\n",
+                    mapped ? "mapped" : "heap", entries, heapUsed / (1024.0 * 1024), offHeap / (1024.0 * 1024),
+                    rskq.getAverageUpdateTime(), rskq.getAverageSearchTime(), checksum.hashCode());
+            rskq.close();
+        }
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
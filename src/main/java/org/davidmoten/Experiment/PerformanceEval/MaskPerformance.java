@@ -0,0 +1,110 @@
+package org.davidmoten.Experiment.PerformanceEval;
+
+import org.davidmoten.Bitmap.WordBitmap;
+import org.davidmoten.Scheme.RSKQ.MaskGenerator;
+import org.bouncycastle.crypto.digests.Blake2bDigest;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * 掩码实验：比较每条双位图密文的加密/解密耗时。
+ * BigInteger 128 位哈希掩码(原实现)、WordBitmap 128 位哈希掩码、WordBitmap AES-CTR 全宽密钥流掩码，
+ * 以及把同样的全宽密钥流转成 BigInteger 再异或的耗时。
+ */
+public class MaskPerformance {
+
+    public static void main(String[] args) {
+        int[] powers = {16, 18, 20, 22, 24};
+        int filesPerBitmap = 64;
+        byte[] key = new byte[16];
+        new SecureRandom().nextBytes(key);
+        Random random = new Random(7);
+
+        System.out.printf("%-8s | %-18s | %-18s | %-24s | %-22s | %-12s\n", "maxFiles",
+                "BigInteger+H(us)", "WordBitmap+H(us)", "WordBitmap+AES-CTR(us)", "BigInteger+AES-CTR(us)", "CTR(MB/s)");
+        for (int power : powers) {
+            int maxFiles = 1 << power;
+            int rounds = Math.max(20, (1 << 26) / maxFiles);
+            MaskGenerator maskGenerator = new MaskGenerator(maxFiles);
+            BitSet bitSet = new BitSet();
+            for (int i = 0; i < filesPerBitmap; i++) {
+                bitSet.set(random.nextInt(maxFiles));
+            }
+            WordBitmap bitmap = WordBitmap.of(bitSet);
+            BigInteger bigBitmap = bitmap.toBigInteger();
+
+            // 预热
+            for (int i = 0; i < rounds; i++) {
+                runBigIntegerHash(bigBitmap, key, i);
+                runWordBitmapHash(bitmap, key, i);
+                runWordBitmapKeystream(bitmap, maskGenerator, key, i);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                runBigIntegerHash(bigBitmap, key, i);
+            }
+            double bigIntegerHash = (System.nanoTime() - start) / 1e3 / rounds;
+
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                runWordBitmapHash(bitmap, key, i);
+            }
+            double wordBitmapHash = (System.nanoTime() - start) / 1e3 / rounds;
+
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                runWordBitmapKeystream(bitmap, maskGenerator, key, i);
+            }
+            double wordBitmapKeystream = (System.nanoTime() - start) / 1e3 / rounds;
+
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                runBigIntegerKeystream(bigBitmap, maskGenerator, key, i);
+            }
+            double bigIntegerKeystream = (System.nanoTime() - start) / 1e3 / rounds;
+
+            // 每轮为加密+解密，共生成两次密钥流
+            double throughput = 2.0 * maxFiles / 8 / (1 << 20) / (wordBitmapKeystream / 1e6);
+            System.out.printf("2^%-6d | %-18.3f | %-18.3f | %-24.3f | %-22.3f | %-12.1f\n", power,
+                    bigIntegerHash, wordBitmapHash, wordBitmapKeystream, bigIntegerKeystream, throughput);
+        }
+    }
+
+    private static byte[] hash(byte[] key, int counter) {
+        Blake2bDigest digest = new Blake2bDigest(128);
+        digest.update(key, 0, key.length);
+        digest.update((byte) (counter >> 24));
+        digest.update((byte) (counter >> 16));
+        digest.update((byte) (counter >> 8));
+        digest.update((byte) counter);
+        byte[] result = new byte[16];
+        digest.doFinal(result, 0);
+        return result;
+    }
+
+    // 原实现：ea = bitmap ⊕ H(Kw', i)，解密再异或一次
+    private static BigInteger runBigIntegerHash(BigInteger bitmap, byte[] key, int counter) {
+        BigInteger mask = new BigInteger(1, hash(key, counter));
+        BigInteger ea = bitmap.xor(mask);
+        return ea.xor(new BigInteger(1, hash(key, counter)));
+    }
+
+    private static WordBitmap runWordBitmapHash(WordBitmap bitmap, byte[] key, int counter) {
+        WordBitmap ea = bitmap.copy().xorMask(hash(key, counter));
+        return ea.xorMask(hash(key, counter));
+    }
+
+    private static WordBitmap runWordBitmapKeystream(WordBitmap bitmap, MaskGenerator maskGenerator, byte[] key, int counter) {
+        WordBitmap ea = maskGenerator.xorInto(bitmap.copy(), key, counter);
+        return maskGenerator.xorInto(ea, key, counter);
+    }
+
+    private static BigInteger runBigIntegerKeystream(BigInteger bitmap, MaskGenerator maskGenerator, byte[] key, int counter) {
+        BigInteger ea = bitmap.xor(new BigInteger(1, maskGenerator.keystream(key, counter)));
+        return ea.xor(new BigInteger(1, maskGenerator.keystream(key, counter)));
+    }
+}
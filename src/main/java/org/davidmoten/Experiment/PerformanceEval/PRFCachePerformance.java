@@ -0,0 +1,87 @@
+package org.davidmoten.Experiment.PerformanceEval;
+
+import org.davidmoten.Crypto.PRFEngine;
+import org.davidmoten.Scheme.RSKQ.RSKQ_Biginteger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * 令牌密钥派生实验：比较每次新建 Mac(原实现)、线程本地 Mac、线程本地 Mac + LRU 缓存三种方式派生 (Kw, Kw') 的单次耗时，
+ * 并在 RSKQ 的插入+搜索负载下统计缓存命中率。
+ */
+public class PRFCachePerformance {
+
+    public static void main(String[] args) throws Exception {
+        int lambda = RSKQ_Biginteger.LAMBDA;
+        int order = 12;
+        int rounds = 200000;
+        Random random = new Random(3);
+
+        // 令牌取 Hilbert 前缀的二进制串，与方案中的前缀令牌形态一致
+        String[] tokens = new String[rounds];
+        for (int i = 0; i < rounds; i++) {
+            long h = random.nextInt(1 << (2 * order));
+            tokens[i] = Long.toBinaryString(h | (1L << (2 * order))).substring(1, 1 + random.nextInt(2 * order) + 1);
+        }
+
+        PRFEngine uncached = new PRFEngine(new byte[lambda], lambda / 8, 0);
+        PRFEngine cached = new PRFEngine(new byte[lambda], lambda / 8);
+        // 预热
+        for (int i = 0; i < rounds; i++) {
+            newMac(new byte[lambda], tokens[i]);
+            uncached.keys(tokens[i]);
+            cached.keys(tokens[i]);
+        }
+        cached.clearCache();
+        cached.resetStatistics();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            newMac(new byte[lambda], tokens[i]);
+        }
+        double newMacTime = (System.nanoTime() - start) / 1e3 / rounds;
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            uncached.keys(tokens[i]);
+        }
+        double threadLocalTime = (System.nanoTime() - start) / 1e3 / rounds;
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            cached.keys(tokens[i]);
+        }
+        double cachedTime = (System.nanoTime() - start) / 1e3 / rounds;
+
+        System.out.printf("%-14s | %-18s | %-14s | %-10s\n", "newMac(us)", "threadLocalMac(us)", "LRU cache(us)", "hit rate");
+        System.out.printf("%-14.3f | %-18.3f | %-14.3f | %-10.4f\n", newMacTime, threadLocalTime, cachedTime, cached.getHitRate());
+
+        // RSKQ 负载下的命中率
+        RSKQ_Biginteger rskq = new RSKQ_Biginteger(1 << 16, order, 2);
+        for (int i = 0; i < 5000; i++) {
+            long[] p = {random.nextInt(1 << order), random.nextInt(1 << order)};
+            String[] W = {"keyword" + (random.nextInt(50) + 1), "keyword" + (random.nextInt(50) + 1)};
+            rskq.ObjectUpdate(p, W, new String[]{"add"}, new int[]{i});
+        }
+        for (int i = 0; i < 200; i++) {
+            long x = random.nextInt(1 << order), y = random.nextInt(1 << order);
+            long[] lowerLeft = {x, y};
+            long[] upperRight = {Math.min(x + 255, (1 << order) - 1), Math.min(y + 255, (1 << order) - 1)};
+            rskq.ObjectSearch(lowerLeft, upperRight, new String[]{"keyword" + (random.nextInt(50) + 1)});
+        }
+        PRFEngine engine = rskq.getPrfEngine();
+        System.out.printf("RSKQ 负载: 命中 %d | 未命中 %d | 命中率 %.4f | 缓存令牌数 %d/%d\n",
+                engine.getHits(), engine.getMisses(), engine.getHitRate(), engine.getCacheSize(), engine.getCapacity());
+        rskq.shutdown();
+    }
+
+    // 原实现：每次调用都新建并初始化 Mac
+    private static byte[] newMac(byte[] key, String token) throws Exception {
+        Mac hmac = Mac.getInstance(PRFEngine.HMAC_ALGORITHM);
+        hmac.init(new SecretKeySpec(key, PRFEngine.HMAC_ALGORITHM));
+        return hmac.doFinal(token.getBytes(StandardCharsets.UTF_8));
+    }
+}
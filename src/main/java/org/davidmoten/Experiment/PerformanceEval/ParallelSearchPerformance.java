@@ -0,0 +1,80 @@
+package org.davidmoten.Experiment.PerformanceEval;
+
+import org.davidmoten.Experiment.Comparison.FixRangeCompareToConstructionOne;
+import org.davidmoten.Scheme.RSKQ.RSKQ_Biginteger;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Random;
+
+import static org.davidmoten.Experiment.Comparison.FixRangeCompareToConstructionOne.loadDataFromFile;
+
+/**
+ * 搜索实验：同一组矩形+关键字查询分别在顺序、并行、批量(一次提交全部令牌)搜索模式下执行，比较客户端/服务器耗时并校验结果一致。
+ */
+public class ParallelSearchPerformance {
+
+    public static void main(String[] args) throws Exception {
+        String filepath = "src/dataset/spatial_data_set_10W.csv";
+        int maxFiles = 1 << 20;
+        int hilbertOrder = 12;
+        int[] edgeLengths = {32, 64, 128, 256, 512};
+        int searchTimes = 100;
+        int batchSize = 1000;
+
+        System.out.printf("加载数据文件：%s\n", filepath);
+        List<FixRangeCompareToConstructionOne.DataRow> dataRows = loadDataFromFile(filepath);
+
+        RSKQ_Biginteger sequential = new RSKQ_Biginteger(maxFiles, hilbertOrder, 2);
+        RSKQ_Biginteger parallel = new RSKQ_Biginteger(maxFiles, hilbertOrder, 2);
+        parallel.setParallelSearch(true);
+        RSKQ_Biginteger batched = new RSKQ_Biginteger(maxFiles, hilbertOrder, 2);
+        batched.setBatchedSearch(true);
+        for (int from = 0; from < dataRows.size(); from += batchSize) {
+            int size = Math.min(batchSize, dataRows.size() - from);
+            long[][] pSets = new long[size][];
+            String[][] Ws = new String[size][];
+            String[][] ops = new String[size][];
+            int[][] files = new int[size][];
+            for (int i = 0; i < size; i++) {
+                FixRangeCompareToConstructionOne.DataRow row = dataRows.get(from + i);
+                pSets[i] = new long[]{row.pointX, row.pointY};
+                Ws[i] = row.keywords;
+                ops[i] = new String[]{"add"};
+                files[i] = new int[]{row.fileID};
+            }
+            sequential.ObjectUpdate(pSets, Ws, ops, files);
+            parallel.ObjectUpdate(pSets, Ws, ops, files);
+            batched.ObjectUpdate(pSets, Ws, ops, files);
+        }
+
+        Random random = new Random(1);
+        long maxCoordinate = (1L << hilbertOrder) - 1;
+        for (int edgeLength : edgeLengths) {
+            sequential.clearSearchTime();
+            parallel.clearSearchTime();
+            batched.clearSearchTime();
+            for (int i = 0; i < searchTimes; i++) {
+                FixRangeCompareToConstructionOne.DataRow row = dataRows.get(random.nextInt(dataRows.size()));
+                long[] lowerLeft = {row.pointX, row.pointY};
+                long[] upperRight = {Math.min(row.pointX + edgeLength - 1, maxCoordinate),
+                        Math.min(row.pointY + edgeLength - 1, maxCoordinate)};
+                BigInteger expected = sequential.ObjectSearch(lowerLeft, upperRight, row.keywords);
+                BigInteger actual = parallel.ObjectSearch(lowerLeft, upperRight, row.keywords);
+                if (!expected.equals(actual)) {
+                    throw new IllegalStateException("并行搜索结果与顺序搜索不一致: " + row.fileID);
+                }
+                if (!expected.equals(batched.ObjectSearch(lowerLeft, upperRight, row.keywords))) {
+                    throw new IllegalStateException("批量搜索结果与顺序搜索不一致: " + row.fileID);
+                }
+            }
+            System.out.printf("边长: %d | 顺序: client %-10.3f server %-10.3f |ms| 并行(%d线程): client %-10.3f server %-10.3f |ms| 批量: client %-10.3f server %-10.3f |ms|\n",
+                    edgeLength, sequential.getAverageClientTime(), sequential.getAverageServerTime(),
+                    parallel.getParallelism(), parallel.getAverageClientTime(), parallel.getAverageServerTime(),
+                    batched.getAverageClientTime(), batched.getAverageServerTime());
+        }
+        parallel.shutdown();
+        batched.shutdown();
+        sequential.shutdown();
+    }
+}
@@ -0,0 +1,86 @@
+package org.davidmoten.Experiment.PerformanceEval;
+
+import org.davidmoten.Scheme.RSKQ.RSKQ_Biginteger;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * 查询规划实验：关键字按 Zipf 分布出现，查询的关键字一部分常见、一部分稀有或从未插入，
+ * 比较不规划与规划(先处理代价小的一侧，为空则跳过另一侧)的平均客户端/服务器耗时，
+ * 输出规划耗时、规划跳过的令牌数与密文数及估计省下的时间，并校验两者结果一致。
+ * <p>
+ * 参数：[对象数] [查询次数]，默认 20000 个对象、1000 次查询。
+ */
+public class QueryPlannerPerformance {
+
+    public static void main(String[] args) throws Exception {
+        int numObjects = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int searchTimes = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int maxFiles = 1 << 20;
+        int order = 12;
+        int batchSize = 1000;
+        int keywords = 1000;
+        int updateEvery = 10; // 每 10 次查询插入一个新对象，使链重新变长
+        Random random = new Random(19);
+
+        RSKQ_Biginteger plain = new RSKQ_Biginteger(maxFiles, order, 2);
+        RSKQ_Biginteger planned = new RSKQ_Biginteger(maxFiles, order, 2);
+        planned.setPlannedSearch(true);
+        for (int from = 0; from < numObjects; from += batchSize) {
+            int size = Math.min(batchSize, numObjects - from);
+            long[][] pSets = new long[size][];
+            String[][] Ws = new String[size][];
+            String[][] ops = new String[size][];
+            int[][] files = new int[size][];
+            for (int i = 0; i < size; i++) {
+                pSets[i] = new long[]{random.nextInt(1 << order), random.nextInt(1 << order)};
+                Ws[i] = new String[]{"keyword" + zipf(random, keywords)};
+                ops[i] = new String[]{"add"};
+                files[i] = new int[]{from + i};
+            }
+            plain.ObjectUpdate(pSets, Ws, ops, files);
+            planned.ObjectUpdate(pSets, Ws, ops, files);
+        }
+
+        int nextFile = numObjects;
+        int empty = 0;
+        for (int i = 0; i < searchTimes; i++) {
+            if (i % updateEvery == 0) {
+                long[] p = {random.nextInt(1 << order), random.nextInt(1 << order)};
+                String[] W = {"keyword" + zipf(random, keywords)};
+                plain.ObjectUpdate(p, W, new String[]{"add"}, new int[]{nextFile});
+                planned.ObjectUpdate(p, W, new String[]{"add"}, new int[]{nextFile});
+                nextFile++;
+            }
+            long x = random.nextInt(1 << order), y = random.nextInt(1 << order);
+            long[] Pl = {x, y};
+            long[] Pr = {Math.min(x + 511, (1 << order) - 1), Math.min(y + 511, (1 << order) - 1)};
+            // 一半查询带一个均匀选取的关键字(多为稀有或从未出现)，一半带常见关键字
+            String[] WQ = {"keyword" + (i % 2 == 0 ? random.nextInt(keywords * 2) + 1 : zipf(random, 10))};
+            BigInteger expected = plain.ObjectSearch(Pl, Pr, WQ);
+            BigInteger actual = planned.ObjectSearch(Pl, Pr, WQ);
+            if (!expected.equals(actual)) {
+                throw new IllegalStateException("规划后的查询结果不一致: 查询 " + i);
+            }
+            if (expected.signum() == 0) {
+                empty++;
+            }
+        }
+        System.out.printf("查询: %d (空结果 %d) | 不规划: client %-8.3f server %-8.3f |ms| 规划: client %-8.3f server %-8.3f |ms|\n",
+                searchTimes, empty, plain.getAverageClientTime(), plain.getAverageServerTime(),
+                planned.getAverageClientTime(), planned.getAverageServerTime());
+        System.out.printf("提前结束的查询: %d / %d | 跳过令牌: %d | 跳过密文(估计): %d | 规划: %.3f ms | 省下(估计): %.3f ms\n",
+                planned.getShortCircuitedSearches(), planned.getPlannedSearches(),
+                planned.getSkippedTokens(), planned.getSkippedCiphertexts(),
+                planned.getAveragePlannerTime(), planned.getAverageSavedTime());
+        System.out.println("规划后的 " + searchTimes + " 个查询结果与不规划一致。");
+        plain.shutdown();
+        planned.shutdown();
+    }
+
+    // 近似 Zipf(1) 分布，取值 1..n
+    private static int zipf(Random random, int n) {
+        return (int) Math.min(n, Math.floor(Math.exp(random.nextDouble() * Math.log(n + 1))));
+    }
+}
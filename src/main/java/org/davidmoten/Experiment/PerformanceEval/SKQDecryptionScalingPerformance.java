@@ -0,0 +1,68 @@
+package org.davidmoten.Experiment.PerformanceEval;
+
+import org.davidmoten.Bitmap.BitmapStorage;
+import org.davidmoten.Scheme.SKQ.SKQ_Biginteger;
+
+import java.util.Random;
+
+/**
+ * SKQ 客户端解密随查询范围增大的耗时实验：范围边长依次加倍，每次查询都在新插入相同对象的实例上进行，
+ * 使链上的每个密文都要解密(之后的查询只处理新增部分)，输出客户端/服务器平均耗时以及客户端平均每个命中对象的耗时。
+ * 客户端对每个取回的密文只计算一个 sk，后者应随范围增大趋于稳定(总耗时随命中数线性增长)。
+ * <p>
+ * 参数：[对象数] [查询次数] [最大文件数]，默认 5000 个对象、5 次查询、2^16 个文件。
+ */
+public class SKQDecryptionScalingPerformance {
+
+    public static void main(String[] args) throws Exception {
+        int numObjects = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int searchTimes = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int maxFiles = args.length > 2 ? Integer.parseInt(args[2]) : 1 << 16;
+        int order = 8;
+        int keywords = 100; // 关键字链较短，客户端耗时主要来自随范围增长的前缀链
+        int[] sides = {8, 16, 32, 64, 128, 256};
+
+        // 所有查询共用同一组对象
+        Random random = new Random(25);
+        long[][] points = new long[numObjects][];
+        String[][] W = new String[numObjects][];
+        int[] files = new int[numObjects];
+        for (int i = 0; i < numObjects; i++) {
+            points[i] = new long[]{random.nextInt(1 << order), random.nextInt(1 << order)};
+            W[i] = new String[]{"keyword" + (random.nextInt(keywords) + 1)};
+            files[i] = random.nextInt(maxFiles);
+        }
+
+        System.out.printf("对象: %d | 查询: %d | 最大文件数: %d\n", numObjects, searchTimes, maxFiles);
+        for (int side : sides) {
+            double client = 0, server = 0;
+            long hits = 0;
+            for (int i = 0; i < searchTimes; i++) {
+                SKQ_Biginteger instance = new SKQ_Biginteger(128, 1 << 20, maxFiles, order, 2);
+                // 密文为 128 位 sk 加稀疏位图，压缩存储避免每条密文占满 maxFiles 位
+                instance.setBitmapStorage(BitmapStorage.COMPRESSED);
+                for (int k = 0; k < numObjects; k++) {
+                    instance.update(points[k], W[k], "add", new int[]{files[k]}, maxFiles);
+                }
+
+                long x = random.nextInt((1 << order) - side + 1), y = random.nextInt((1 << order) - side + 1);
+                long[] Pl = {x, y};
+                long[] Pr = {x + side - 1, y + side - 1};
+                String[] WQ = {"keyword" + (random.nextInt(keywords) + 1)};
+                // 命中数按范围内的对象计，即客户端解密的前缀密文数
+                for (long[] p : points) {
+                    if (p[0] >= x && p[0] < x + side && p[1] >= y && p[1] < y + side) {
+                        hits++;
+                    }
+                }
+                instance.Search(Pl, Pr, WQ);
+                client += instance.getAverageClientTime();
+                server += instance.getAverageServerTime();
+            }
+
+            double perHit = hits == 0 ? 0 : client / hits * 1000;
+            System.out.printf("边长: %-4d 平均命中: %-6d client %-8.3f server %-8.3f |ms| client 每个命中对象: %.3f us\n",
+                    side, hits / searchTimes, client / searchTimes, server / searchTimes, perHit);
+        }
+    }
+}
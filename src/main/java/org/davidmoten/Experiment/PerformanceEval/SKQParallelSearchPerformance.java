@@ -0,0 +1,75 @@
+package org.davidmoten.Experiment.PerformanceEval;
+
+import org.davidmoten.Bitmap.BitmapStorage;
+import org.davidmoten.Scheme.SKQ.SKQ_Biginteger;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * SKQ 并行搜索实验：先插入大量对象使链变长，再执行查询，比较顺序与并行(不同线程数)服务器端的平均耗时与加速比，
+ * 并校验各模式的查询结果一致。第一次查询处理整条链，之后的查询只处理新增的部分。
+ * <p>
+ * 参数：[对象数] [查询次数] [最大文件数]，默认 5000 个对象、50 次查询、2^16 个文件。
+ */
+public class SKQParallelSearchPerformance {
+
+    public static void main(String[] args) throws Exception {
+        int numObjects = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int searchTimes = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int maxFiles = args.length > 2 ? Integer.parseInt(args[2]) : 1 << 16;
+        int order = 8;
+        int keywords = 10;
+        int[] parallelisms = {2, 4, Runtime.getRuntime().availableProcessors()};
+
+        SKQ_Biginteger sequential = newInstance(maxFiles, order);
+        SKQ_Biginteger[] parallel = new SKQ_Biginteger[parallelisms.length];
+        for (int k = 0; k < parallelisms.length; k++) {
+            parallel[k] = newInstance(maxFiles, order);
+            parallel[k].setParallelSearch(true);
+            parallel[k].setParallelism(parallelisms[k]);
+        }
+
+        Random random = new Random(24);
+        for (int i = 0; i < numObjects; i++) {
+            long[] p = {random.nextInt(1 << order), random.nextInt(1 << order)};
+            String[] W = {"keyword" + (random.nextInt(keywords) + 1)};
+            int[] files = {random.nextInt(maxFiles)};
+            sequential.update(p, W, "add", files, maxFiles);
+            for (SKQ_Biginteger instance : parallel) {
+                instance.update(p, W, "add", files, maxFiles);
+            }
+        }
+
+        for (int i = 0; i < searchTimes; i++) {
+            long x = random.nextInt(1 << order), y = random.nextInt(1 << order);
+            long[] Pl = {x, y};
+            long[] Pr = {Math.min(x + 63, (1 << order) - 1), Math.min(y + 63, (1 << order) - 1)};
+            String[] WQ = {"keyword" + (random.nextInt(keywords) + 1)};
+            BigInteger expected = sequential.Search(Pl, Pr, WQ);
+            for (int k = 0; k < parallel.length; k++) {
+                if (!expected.equals(parallel[k].Search(Pl, Pr, WQ))) {
+                    throw new IllegalStateException("并行搜索结果不一致: 查询 " + i + ", 线程数 " + parallelisms[k]);
+                }
+            }
+        }
+
+        double base = sequential.getAverageServerTime();
+        System.out.printf("对象: %d | 查询: %d | 最大文件数: %d | 顺序: server %-8.3f client %-8.3f |ms|\n",
+                numObjects, searchTimes, maxFiles, base, sequential.getAverageClientTime());
+        for (int k = 0; k < parallel.length; k++) {
+            double time = parallel[k].getAverageServerTime();
+            System.out.printf("并行 %2d 线程: server %-8.3f client %-8.3f |ms| 加速比: %.2fx\n",
+                    parallelisms[k], time, parallel[k].getAverageClientTime(), base / time);
+            parallel[k].shutdown();
+        }
+        System.out.println("并行搜索的 " + searchTimes + " 个查询结果与顺序搜索一致。");
+    }
+
+    private static SKQ_Biginteger newInstance(int maxFiles, int order) throws Exception {
+        SKQ_Biginteger instance = new SKQ_Biginteger(128, 1 << 20, maxFiles, order, 2);
+        // 密文为 128 位 sk 加稀疏位图，压缩存储避免每条密文占满 maxFiles 位
+        instance.setBitmapStorage(BitmapStorage.COMPRESSED);
+        return instance;
+    }
+}
@@ -0,0 +1,79 @@
+package org.davidmoten.Experiment.PerformanceEval;
+
+import org.davidmoten.Scheme.RSKQ.RSKQ_Biginteger;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * 搜索结果缓存实验：查询集中在少数热点区域，并穿插少量更新(使被更新的令牌失效)，
+ * 比较不开缓存与开启缓存的平均客户端/服务器耗时与命中率，并校验两者结果一致。
+ * <p>
+ * 参数：[对象数] [查询次数]，默认 20000 个对象、2000 次查询。
+ */
+public class SearchCachePerformance {
+
+    public static void main(String[] args) throws Exception {
+        int numObjects = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int searchTimes = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int maxFiles = 1 << 20;
+        int order = 12;
+        int batchSize = 1000;
+        int hotRegions = 20;
+        int updateEvery = 10; // 每 10 次查询插入一个新对象
+        Random random = new Random(18);
+
+        RSKQ_Biginteger plain = new RSKQ_Biginteger(maxFiles, order, 2);
+        RSKQ_Biginteger cached = new RSKQ_Biginteger(maxFiles, order, 2);
+        cached.setSearchCacheCapacity(1 << 14);
+        for (int from = 0; from < numObjects; from += batchSize) {
+            int size = Math.min(batchSize, numObjects - from);
+            long[][] pSets = new long[size][];
+            String[][] Ws = new String[size][];
+            String[][] ops = new String[size][];
+            int[][] files = new int[size][];
+            for (int i = 0; i < size; i++) {
+                pSets[i] = new long[]{random.nextInt(1 << order), random.nextInt(1 << order)};
+                Ws[i] = new String[]{"keyword" + (random.nextInt(100) + 1)};
+                ops[i] = new String[]{"add"};
+                files[i] = new int[]{from + i};
+            }
+            plain.ObjectUpdate(pSets, Ws, ops, files);
+            cached.ObjectUpdate(pSets, Ws, ops, files);
+        }
+
+        // 热点区域：固定的矩形 + 关键字
+        long[][][] regions = new long[hotRegions][][];
+        String[][] regionWords = new String[hotRegions][];
+        for (int r = 0; r < hotRegions; r++) {
+            long x = random.nextInt(1 << order), y = random.nextInt(1 << order);
+            regions[r] = new long[][]{{x, y}, {Math.min(x + 255, (1 << order) - 1), Math.min(y + 255, (1 << order) - 1)}};
+            regionWords[r] = new String[]{"keyword" + (random.nextInt(100) + 1)};
+        }
+
+        int nextFile = numObjects;
+        for (int i = 0; i < searchTimes; i++) {
+            if (i % updateEvery == 0) {
+                long[] p = {random.nextInt(1 << order), random.nextInt(1 << order)};
+                String[] W = {"keyword" + (random.nextInt(100) + 1)};
+                plain.ObjectUpdate(p, W, new String[]{"add"}, new int[]{nextFile});
+                cached.ObjectUpdate(p, W, new String[]{"add"}, new int[]{nextFile});
+                nextFile++;
+            }
+            int r = random.nextInt(hotRegions);
+            BigInteger expected = plain.ObjectSearch(regions[r][0], regions[r][1], regionWords[r]);
+            BigInteger actual = cached.ObjectSearch(regions[r][0], regions[r][1], regionWords[r]);
+            if (!expected.equals(actual)) {
+                throw new IllegalStateException("开启缓存后的查询结果不一致: 查询 " + i);
+            }
+        }
+        long hits = cached.getSearchCacheHits();
+        long misses = cached.getSearchCacheMisses();
+        System.out.printf("查询: %d | 热点区域: %d | 无缓存: client %-8.3f server %-8.3f |ms| 缓存: client %-8.3f server %-8.3f |ms| 令牌命中率: %.1f%%\n",
+                searchTimes, hotRegions, plain.getAverageClientTime(), plain.getAverageServerTime(),
+                cached.getAverageClientTime(), cached.getAverageServerTime(), 100.0 * hits / Math.max(1, hits + misses));
+        System.out.println("开启缓存后的 " + searchTimes + " 个查询结果与不开缓存一致。");
+        plain.shutdown();
+        cached.shutdown();
+    }
+}
@@ -0,0 +1,90 @@
+package org.davidmoten.Experiment.PerformanceEval;
+
+import org.davidmoten.Bitmap.BitmapStorage;
+import org.davidmoten.Scheme.RSKQ.RSKQ_Biginteger;
+
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * 快照实验：比较通过 ObjectUpdate 重建索引与从客户端/服务器快照恢复的耗时，
+ * 并用同一组查询校验恢复后的实例与原实例结果一致。
+ * <p>
+ * 参数：[对象数] [快照目录]，默认 100000 个对象、系统临时目录。
+ */
+public class SnapshotPerformance {
+
+    public static void main(String[] args) throws Exception {
+        int numObjects = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        Path directory = args.length > 1 ? Paths.get(args[1]) : Files.createTempDirectory("rskq-snapshot");
+        int maxFiles = 1 << 20;
+        int order = 12;
+        int batchSize = 1000;
+        int searchTimes = 100;
+        Random random = new Random(13);
+
+        long[][] pSets = new long[numObjects][];
+        String[][] Ws = new String[numObjects][];
+        for (int i = 0; i < numObjects; i++) {
+            pSets[i] = new long[]{random.nextInt(1 << order), random.nextInt(1 << order)};
+            Ws[i] = new String[]{"keyword" + (random.nextInt(1000) + 1), "keyword" + (random.nextInt(1000) + 1)};
+        }
+
+        RSKQ_Biginteger original = new RSKQ_Biginteger(maxFiles, order, 2);
+        original.setBitmapStorage(BitmapStorage.AUTO);
+        long start = System.nanoTime();
+        for (int from = 0; from < numObjects; from += batchSize) {
+            int size = Math.min(batchSize, numObjects - from);
+            long[][] batchP = new long[size][];
+            String[][] batchW = new String[size][];
+            String[][] ops = new String[size][];
+            int[][] files = new int[size][];
+            for (int i = 0; i < size; i++) {
+                batchP[i] = pSets[from + i];
+                batchW[i] = Ws[from + i];
+                ops[i] = new String[]{"add"};
+                files[i] = new int[]{from + i};
+            }
+            original.ObjectUpdate(batchP, batchW, ops, files);
+        }
+        double buildMs = (System.nanoTime() - start) / 1e6;
+
+        Path clientFile = directory.resolve("client.snapshot");
+        Path serverFile = directory.resolve("server.snapshot");
+        start = System.nanoTime();
+        original.saveClientState(clientFile);
+        original.saveServerState(serverFile);
+        double saveMs = (System.nanoTime() - start) / 1e6;
+
+        RSKQ_Biginteger restored = new RSKQ_Biginteger(maxFiles, order, 2);
+        restored.setBitmapStorage(BitmapStorage.AUTO);
+        start = System.nanoTime();
+        restored.loadClientState(clientFile);
+        restored.loadServerState(serverFile);
+        double loadMs = (System.nanoTime() - start) / 1e6;
+
+        System.out.printf("对象: %d | 条目: %d | 重建: %.1f ms | 保存: %.1f ms | 恢复: %.1f ms | 客户端快照: %.2f MB | 服务器快照: %.2f MB\n",
+                numObjects, original.getPDBSize() + original.getKDBSize(), buildMs, saveMs, loadMs,
+                Files.size(clientFile) / (1024.0 * 1024), Files.size(serverFile) / (1024.0 * 1024));
+
+        for (int i = 0; i < searchTimes; i++) {
+            long x = random.nextInt(1 << order), y = random.nextInt(1 << order);
+            long[] lowerLeft = {x, y};
+            long[] upperRight = {Math.min(x + 127, (1 << order) - 1), Math.min(y + 127, (1 << order) - 1)};
+            String[] WQ = {"keyword" + (random.nextInt(1000) + 1)};
+            BigInteger expected = original.ObjectSearch(lowerLeft, upperRight, WQ);
+            BigInteger actual = restored.ObjectSearch(lowerLeft, upperRight, WQ);
+            if (!expected.equals(actual)) {
+                throw new IllegalStateException("恢复后的查询结果不一致: 查询 " + i);
+            }
+        }
+        System.out.println("恢复后的 " + searchTimes + " 个查询结果与原实例一致。");
+        original.shutdown();
+        restored.shutdown();
+        Files.deleteIfExists(clientFile);
+        Files.deleteIfExists(serverFile);
+    }
+}
@@ -1,5 +1,6 @@
 package org.davidmoten.Experiment.PerformanceEval;
 
+import org.davidmoten.Bitmap.BitmapStorage;
 import org.davidmoten.Experiment.Comparison.FixRangeCompareToConstructionOne;
 import org.davidmoten.Scheme.Construction.ConstructionOne;
 import org.davidmoten.Scheme.RSKQ.RSKQ_Biginteger;
@@ -75,6 +76,22 @@ public class Storage_Test {
                 double totalSizeGB = totalSizeBits / (8.0 * 1024 * 1024 * 1024); // 转换为GB
                 System.out.println("Total size (GB): " + totalSizeGB);
 
+                // 按不同的位图存储形式实际插入数据，统计服务器存储的字节数
+                for (BitmapStorage bitmapStorage : BitmapStorage.values()) {
+                    RSKQ_Biginteger rskq = new RSKQ_Biginteger(maxFiles, hilbertOrder, 2);
+                    rskq.setBitmapStorage(bitmapStorage);
+                    SKQ_Biginteger skq = new SKQ_Biginteger(lambda, rangePredicate, maxFiles, hilbertOrder, 2);
+                    skq.setBitmapStorage(bitmapStorage);
+                    for (FixRangeCompareToConstructionOne.DataRow dataRow : dataRows) {
+                        long[] pSet = new long[]{dataRow.pointX, dataRow.pointY};
+                        rskq.ObjectUpdate(pSet, dataRow.keywords, new String[]{"add"}, new int[]{dataRow.fileID});
+                        skq.update(pSet, dataRow.keywords, "add", new int[]{dataRow.fileID}, rangePredicate);
+                    }
+                    System.out.printf("Storage mode: %-10s | RSKQ: %d entries, %.3f MB | SKQ: %d entries, %.3f MB\n",
+                            bitmapStorage, rskq.getPDBSize() + rskq.getKDBSize(), rskq.getStorageBytes() / (1024.0 * 1024),
+                            skq.getPDBSize() + skq.getKDBSize(), skq.getStorageBytes() / (1024.0 * 1024));
+                }
+
                 // 循环遍历数据行
                 for (int i = 0; i < maxCoordinate; i++) {
                     FixRangeCompareToConstructionOne.DataRow dataRow = dataRows.get(i - dataRows.size() < 0 ? i : i - dataRows.size());
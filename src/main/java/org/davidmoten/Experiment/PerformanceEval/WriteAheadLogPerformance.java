@@ -0,0 +1,117 @@
+package org.davidmoten.Experiment.PerformanceEval;
+
+import org.davidmoten.Scheme.RSKQ.RSKQ_Biginteger;
+
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * 预写日志实验：比较不写日志、写日志(只写入操作系统缓存)、写日志并 fsync 三种情况下的更新吞吐量，
+ * 分别测逐条 ObjectUpdate(每次更新一次提交)与批量并行 ObjectUpdate(组提交合并刷盘)；
+ * 然后模拟崩溃，在新实例上从日志目录恢复，并用同一组查询与不写日志的实例对比结果。
+ * <p>
+ * 参数：[对象数] [日志目录]，默认 20000 个对象、系统临时目录。
+ */
+public class WriteAheadLogPerformance {
+
+    private static final int MAX_FILES = 1 << 20;
+    private static final int ORDER = 12;
+    private static final int BATCH_SIZE = 1000;
+    private static final long CHECKPOINT_BYTES = 256L << 20;
+
+    public static void main(String[] args) throws Exception {
+        int numObjects = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        Path directory = args.length > 1 ? Paths.get(args[1]) : Files.createTempDirectory("rskq-wal");
+        int searchTimes = 100;
+        Random random = new Random(14);
+
+        long[][] pSets = new long[numObjects][];
+        String[][] Ws = new String[numObjects][];
+        for (int i = 0; i < numObjects; i++) {
+            pSets[i] = new long[]{random.nextInt(1 << ORDER), random.nextInt(1 << ORDER)};
+            Ws[i] = new String[]{"keyword" + (random.nextInt(1000) + 1), "keyword" + (random.nextInt(1000) + 1)};
+        }
+
+        // 不写日志的实例同时作为恢复后查询结果的参照
+        RSKQ_Biginteger reference = null;
+        Path recoverFrom = null;
+        String[] modes = {"无日志", "日志", "日志+fsync"};
+        for (int mode = 0; mode < modes.length; mode++) {
+            for (boolean batched : new boolean[]{false, true}) {
+                Path logDirectory = directory.resolve("mode" + mode + (batched ? "-batch" : "-single"));
+                RSKQ_Biginteger rskq = new RSKQ_Biginteger(MAX_FILES, ORDER, 2);
+                if (mode > 0) {
+                    rskq.openWriteAheadLog(logDirectory, mode == 2);
+                    rskq.setCheckpointInterval(CHECKPOINT_BYTES);
+                }
+                long start = System.nanoTime();
+                if (batched) {
+                    updateInBatches(rskq, pSets, Ws);
+                } else {
+                    for (int i = 0; i < numObjects; i++) {
+                        rskq.ObjectUpdate(pSets[i], Ws[i], new String[]{"add"}, new int[]{i});
+                    }
+                }
+                double elapsedMs = (System.nanoTime() - start) / 1e6;
+                System.out.printf("%-10s | %s | %d 个对象 | %-10.1f|ms| %.0f 对象/s",
+                        modes[mode], batched ? "批量" : "逐条", numObjects, elapsedMs, numObjects / (elapsedMs / 1000));
+                if (mode > 0) {
+                    System.out.printf(" | 日志: %.2f MB | 刷盘次数: %d",
+                            rskq.getWriteAheadLogBytes() / (1024.0 * 1024), rskq.getWriteAheadLogSyncs());
+                }
+                System.out.println();
+
+                if (mode == 0 && batched) {
+                    reference = rskq;
+                } else if (mode == 2 && batched) {
+                    // 不关闭日志直接丢弃实例，模拟进程崩溃
+                    recoverFrom = logDirectory;
+                    rskq.shutdown();
+                } else {
+                    rskq.close();
+                }
+            }
+        }
+
+        RSKQ_Biginteger recovered = new RSKQ_Biginteger(MAX_FILES, ORDER, 2);
+        long start = System.nanoTime();
+        long replayed = recovered.openWriteAheadLog(recoverFrom, true);
+        System.out.printf("崩溃恢复: 重放 %d 条日志记录 | %-10.1f|ms| PDB: %d | KDB: %d\n",
+                replayed, (System.nanoTime() - start) / 1e6, recovered.getPDBSize(), recovered.getKDBSize());
+
+        for (int i = 0; i < searchTimes; i++) {
+            long x = random.nextInt(1 << ORDER), y = random.nextInt(1 << ORDER);
+            long[] lowerLeft = {x, y};
+            long[] upperRight = {Math.min(x + 127, (1 << ORDER) - 1), Math.min(y + 127, (1 << ORDER) - 1)};
+            String[] WQ = {"keyword" + (random.nextInt(1000) + 1)};
+            BigInteger expected = reference.ObjectSearch(lowerLeft, upperRight, WQ);
+            BigInteger actual = recovered.ObjectSearch(lowerLeft, upperRight, WQ);
+            if (!expected.equals(actual)) {
+                throw new IllegalStateException("恢复后的查询结果不一致: 查询 " + i);
+            }
+        }
+        System.out.println("恢复后的 " + searchTimes + " 个查询结果与不写日志的实例一致。");
+        reference.close();
+        recovered.close();
+    }
+
+    private static void updateInBatches(RSKQ_Biginteger rskq, long[][] pSets, String[][] Ws) throws Exception {
+        for (int from = 0; from < pSets.length; from += BATCH_SIZE) {
+            int size = Math.min(BATCH_SIZE, pSets.length - from);
+            long[][] batchP = new long[size][];
+            String[][] batchW = new String[size][];
+            String[][] ops = new String[size][];
+            int[][] files = new int[size][];
+            for (int i = 0; i < size; i++) {
+                batchP[i] = pSets[from + i];
+                batchW[i] = Ws[from + i];
+                ops[i] = new String[]{"add"};
+                files[i] = new int[]{from + i};
+            }
+            rskq.ObjectUpdate(batchP, batchW, ops, files);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.davidmoten.Experiment.SearchCorrectness;
+
+import org.davidmoten.Scheme.RSKQ.RSKQ_Biginteger;
+
+import java.math.BigInteger;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * RSKQ 并发压力测试：多个线程同时对同一个 RSKQ_Biginteger 实例执行更新与搜索，
+ * 最后用同一批查询比较并发实例与单线程实例的结果是否一致。
+ * <p>
+ * 阶段1：并发插入所有对象；阶段2：并发删除部分文件，同时穿插搜索(搜索会重写 SS 并删除 PDB/KDB 链)；
+ * 阶段3：并发执行所有查询并与单线程结果逐一比较。
+ * <p>
+ * 传入一个目录参数时，并发实例的 PDB/KDB 使用该目录下的堆外映射存储。
+ */
+public class RSKQ_ConcurrencyCorrectness {
+
+    public static void main(String[] args) throws Exception {
+        int maxFiles = 1 << 12;
+        int order = 8;
+        int numObjects = 2000;
+        int numDeletes = 400;
+        int numQueries = 200;
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        Random random = new Random(42);
+
+        // 生成对象：每个对象一个点、3个关键字、一个唯一文件
+        long[][] pSets = new long[numObjects][];
+        String[][] WSets = new String[numObjects][];
+        int[][] fileSets = new int[numObjects][];
+        for (int i = 0; i < numObjects; i++) {
+            pSets[i] = new long[]{random.nextInt(1 << order), random.nextInt(1 << order)};
+            WSets[i] = new String[3];
+            for (int j = 0; j < 3; j++) {
+                WSets[i][j] = "keyword" + (random.nextInt(30) + 1);
+            }
+            fileSets[i] = new int[]{i};
+        }
+        // 要删除的对象
+        int[] deletes = random.ints(0, numObjects).distinct().limit(numDeletes).toArray();
+        // 查询：随机矩形 + 一个关键字
+        long[][] lowerLefts = new long[numQueries][];
+        long[][] upperRights = new long[numQueries][];
+        String[][] WQs = new String[numQueries][];
+        for (int i = 0; i < numQueries; i++) {
+            long x = random.nextInt(1 << order), y = random.nextInt(1 << order);
+            int edge = random.nextInt(64) + 1;
+            lowerLefts[i] = new long[]{x, y};
+            upperRights[i] = new long[]{Math.min(x + edge, (1 << order) - 1), Math.min(y + edge, (1 << order) - 1)};
+            WQs[i] = new String[]{"keyword" + (random.nextInt(30) + 1)};
+        }
+
+        // 单线程基准
+        RSKQ_Biginteger sequential = new RSKQ_Biginteger(maxFiles, order, 2);
+        for (int i = 0; i < numObjects; i++) {
+            sequential.ObjectUpdate(pSets[i], WSets[i], new String[]{"add"}, fileSets[i]);
+        }
+        for (int i = 0; i < numQueries; i++) {
+            sequential.ObjectSearch(lowerLefts[i], upperRights[i], WQs[i]);
+        }
+        for (int d : deletes) {
+            sequential.ObjectUpdate(pSets[d], WSets[d], new String[]{"del"}, fileSets[d]);
+        }
+        BigInteger[] expected = new BigInteger[numQueries];
+        for (int i = 0; i < numQueries; i++) {
+            expected[i] = sequential.ObjectSearch(lowerLefts[i], upperRights[i], WQs[i]);
+        }
+
+        // 并发实例
+        RSKQ_Biginteger concurrent = args.length > 0
+                ? new RSKQ_Biginteger(maxFiles, order, 2, false, Paths.get(args[0]))
+                : new RSKQ_Biginteger(maxFiles, order, 2);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            long start = System.nanoTime();
+            // 阶段1：并发插入
+            List<Callable<BigInteger>> tasks = new ArrayList<>();
+            for (int i = 0; i < numObjects; i++) {
+                int k = i;
+                tasks.add(() -> {
+                    concurrent.ObjectUpdate(pSets[k], WSets[k], new String[]{"add"}, fileSets[k]);
+                    return null;
+                });
+            }
+            runAll(executor, tasks);
+            // 阶段2：并发删除，同时穿插搜索
+            tasks.clear();
+            for (int i = 0; i < Math.max(numDeletes, numQueries); i++) {
+                int k = i;
+                if (k < numDeletes) {
+                    int d = deletes[k];
+                    tasks.add(() -> {
+                        concurrent.ObjectUpdate(pSets[d], WSets[d], new String[]{"del"}, fileSets[d]);
+                        return null;
+                    });
+                }
+                if (k < numQueries) {
+                    tasks.add(() -> concurrent.ObjectSearch(lowerLefts[k], upperRights[k], WQs[k]));
+                }
+            }
+            runAll(executor, tasks);
+            // 阶段3：并发查询
+            tasks.clear();
+            for (int i = 0; i < numQueries; i++) {
+                int k = i;
+                tasks.add(() -> concurrent.ObjectSearch(lowerLefts[k], upperRights[k], WQs[k]));
+            }
+            List<BigInteger> actual = runAll(executor, tasks);
+            System.out.printf("并发线程数: %d | 对象: %d | 删除: %d | 查询: %d | 耗时: %.3f ms\n",
+                    threads, numObjects, numDeletes, numQueries, (System.nanoTime() - start) / 1e6);
+
+            int mismatches = 0;
+            for (int i = 0; i < numQueries; i++) {
+                if (!expected[i].equals(actual.get(i))) {
+                    mismatches++;
+                    System.out.printf("查询 %d 结果不一致: 单线程 %d 个文件, 并发 %d 个文件\n",
+                            i, expected[i].bitCount(), actual.get(i).bitCount());
+                }
+            }
+            System.out.printf("PDB: %d vs %d | KDB: %d vs %d\n", sequential.getPDBSize(), concurrent.getPDBSize(),
+                    sequential.getKDBSize(), concurrent.getKDBSize());
+            if (mismatches > 0) {
+                throw new IllegalStateException(mismatches + " 个查询结果与单线程不一致");
+            }
+            System.out.println("所有查询结果与单线程一致。");
+        } finally {
+            executor.shutdown();
+            concurrent.close();
+        }
+    }
+
+    private static List<BigInteger> runAll(ExecutorService executor, List<Callable<BigInteger>> tasks) throws Exception {
+        List<BigInteger> results = new ArrayList<>(tasks.size());
+        for (Future<BigInteger> future : executor.invokeAll(tasks)) {
+            results.add(future.get());
+        }
+        return results;
+    }
+}
@@ -1,5 +1,6 @@
 package org.davidmoten.Experiment.SearchCorrectness;
 
+import org.davidmoten.Bitmap.SearchResult;
 import org.davidmoten.BPC.BPCGenerator;
 import org.davidmoten.Hilbert.HilbertComponent.HilbertCurve;
 import org.davidmoten.Scheme.SKQ.DPRF.BRC_DPRF;
@@ -655,31 +656,15 @@ public class SKQ_SearchCorrectness {
     }
 
     public static void findIndexesOfOne(BigInteger number) {
-        // 收集所有位索引
-        List<Integer> indexes = new ArrayList<>();
-        int index = 0;
-
-        // 遍历所有可能的位
-        while (number.signum() != 0) {
-            // 检查当前最低位是否为1
-            if (number.and(BigInteger.ONE).equals(BigInteger.ONE)) {
-                // 收集当前位的索引
-                indexes.add(index);
-            }
-
-            // 右移一位处理下一位
-            number = number.shiftRight(1);
-            index++;
-        }
+        // 按字取出所有 1 的位置索引，不再逐位 and(ONE)/shiftRight
+        SearchResult result = SearchResult.of(number);
 
         // 打印结果
-        if (indexes.isEmpty()) {
+        if (result.isEmpty()) {
             System.out.println("没有找到1位。");
         } else {
             System.out.println("位图中1的位置索引为：");
-            for (Integer idx : indexes) {
-                System.out.println("索引: " + idx);
-            }
+            result.forEach(idx -> System.out.println("索引: " + idx));
         }
     }
 }
\ No newline at end of file
@@ -13,6 +13,24 @@ public class BRQComparisonInput {
     public static BigInteger[][] generateHilbertMatrix(HilbertCurve hilbertCurve, int startX, int startY, int width, int height) {
         BigInteger[][] matrix = new BigInteger[width][height];
 
+        if (hilbertCurve.fitsInLong()) {
+            // 按列批量计算 Hilbert 值，复用同一组缓冲区
+            long[] xs = new long[height];
+            long[] ys = new long[height];
+            long[] indexes = new long[height];
+            for (int y = 0; y < height; y++) {
+                ys[y] = startY + y;
+            }
+            for (int x = 0; x < width; x++) {
+                Arrays.fill(xs, startX + x);
+                hilbertCurve.index(xs, ys, indexes);
+                for (int y = 0; y < height; y++) {
+                    matrix[x][y] = BigInteger.valueOf(indexes[y]);
+                }
+            }
+            return matrix;
+        }
+
         for (int x = 0; x < width; x++) {
             for (int y = 0; y < height; y++) {
                 matrix[x][y] = hilbertCurve.index(startX + x, startY + y);
@@ -22,12 +22,15 @@ public final class HilbertCurve {
     private final int dimensions;
     // cached calculations
     private final int length;
+    // allocation-free delegate used when the index fits in a long (null otherwise)
+    private final SmallHilbertCurve small;
 
     private HilbertCurve(int bits, int dimensions) {
         this.bits = bits;
         this.dimensions = dimensions;
         // cache a calculated values for small perf improvements
         this.length = bits * dimensions;
+        this.small = length <= 63 ? small().bits(bits).dimensions(dimensions) : null;
     }
 
     /**
@@ -78,9 +81,61 @@ public final class HilbertCurve {
      */
     public BigInteger index(long... point) {
         Preconditions.checkArgument(point.length == dimensions);
+        if (small != null) {
+            return BigInteger.valueOf(small.index(point));
+        }
         return toIndex(transposedIndex(bits, point));
     }
 
+    /**
+     * Returns true if and only if every index of this curve fits in a
+     * {@code long} (that is bits * dimensions &lt;= 63). When true the
+     * {@code long} based methods of this class can be used and the
+     * {@code BigInteger} methods use them internally.
+     * 
+     * @return true if indexes fit in a long
+     */
+    public boolean fitsInLong() {
+        return small != null;
+    }
+
+    /**
+     * Converts a point to its Hilbert curve index without creating a
+     * {@link BigInteger}.
+     * 
+     * @param point
+     *            an array of {@code long}. Each ordinate can be between 0 and
+     *            2<sup>bits</sup>-1.
+     * @return index in the range 0 to 2<sup>bits * dimensions</sup> - 1
+     * @throws IllegalArgumentException
+     *             if the index does not fit in a long (see
+     *             {@link #fitsInLong()}) or if the length of point is not equal
+     *             to the number of dimensions
+     */
+    public long indexAsLong(long... point) {
+        checkFitsInLong();
+        return small.index(point);
+    }
+
+    /**
+     * Converts a batch of 2-dimensional points to their Hilbert curve indexes.
+     * No objects are allocated per point.
+     * 
+     * @param xs
+     *            first ordinate of each point
+     * @param ys
+     *            second ordinate of each point
+     * @param out
+     *            receives the index of point i at position i
+     * @throws IllegalArgumentException
+     *             if the index does not fit in a long or the curve is not
+     *             2-dimensional
+     */
+    public void index(long[] xs, long[] ys, long[] out) {
+        checkFitsInLong();
+        small.index(xs, ys, out);
+    }
+
     /**
      * Converts a {@link BigInteger} index (distance along the Hilbert Curve from 0)
      * to a point of dimensions defined in the constructor of {@code this}.
@@ -97,19 +152,56 @@ public final class HilbertCurve {
     public long[] point(BigInteger index) {
         Preconditions.checkNotNull(index);
         Preconditions.checkArgument(index.signum() != -1, "index cannot be negative");
+        if (small != null && index.bitLength() <= 63) {
+            return small.point(index.longValue());
+        }
         return transposedIndexToPoint(bits, transpose(index));
     }
 
     public void point(BigInteger index, long[] x) {
         Preconditions.checkNotNull(index);
         Preconditions.checkArgument(index.signum() != -1, "index cannot be negative");
+        if (small != null && index.bitLength() <= 63) {
+            small.point(index.longValue(), x);
+            return;
+        }
         Util.zero(x);
         transpose(index, x);
         transposedIndexToPoint(bits, x);
     }
 
     public void point(long i, long[] x) {
-        point(BigInteger.valueOf(i), x);
+        if (small != null) {
+            Preconditions.checkArgument(i >= 0, "index cannot be negative");
+            small.point(i, x);
+        } else {
+            point(BigInteger.valueOf(i), x);
+        }
+    }
+
+    /**
+     * Converts a batch of indexes to 2-dimensional points. No objects are
+     * allocated per index.
+     * 
+     * @param indexes
+     *            indexes along the Hilbert curve
+     * @param xs
+     *            receives the first ordinate of the point for index i at
+     *            position i
+     * @param ys
+     *            receives the second ordinate of the point for index i at
+     *            position i
+     * @throws IllegalArgumentException
+     *             if the index does not fit in a long or the curve is not
+     *             2-dimensional
+     */
+    public void point(long[] indexes, long[] xs, long[] ys) {
+        checkFitsInLong();
+        small.point(indexes, xs, ys);
+    }
+
+    private void checkFitsInLong() {
+        Preconditions.checkArgument(small != null, "bits * dimensions must be less than or equal to 63");
     }
 
     /**
@@ -185,9 +277,16 @@ public final class HilbertCurve {
      */
     @VisibleForTesting
     static long[] transposedIndex(int bits, long... point) {
+        return transposedIndexInPlace(bits, Arrays.copyOf(point, point.length));
+    }
+
+    /**
+     * As {@link #transposedIndex(int, long...)} but overwrites {@code x} (the
+     * point) with the transposed index to avoid allocation.
+     */
+    static long[] transposedIndexInPlace(int bits, long[] x) {
         final long M = 1L << (bits - 1);
-        final int n = point.length; // n: Number of dimensions
-        final long[] x = Arrays.copyOf(point, n);
+        final int n = x.length; // n: Number of dimensions
         long p, q, t;
         int i;
         // Inverse undo
@@ -72,6 +72,50 @@ public final class SmallHilbertCurve {
         HilbertCurve.transposedIndexToPoint(bits, x);
     }
 
+    /**
+     * Converts a batch of 2-dimensional points to their Hilbert curve indexes.
+     * No objects are allocated per point.
+     * 
+     * @param xs  first ordinate of each point
+     * @param ys  second ordinate of each point
+     * @param out receives the index of point i at position i
+     * @throws IllegalArgumentException if the curve is not 2-dimensional or the
+     *                                  array lengths do not match
+     */
+    public void index(long[] xs, long[] ys, long[] out) {
+        Preconditions.checkArgument(dimensions == 2, "batch methods require 2 dimensions");
+        Preconditions.checkArgument(xs.length == ys.length && out.length >= xs.length);
+        long[] x = new long[2];
+        for (int i = 0; i < xs.length; i++) {
+            x[0] = xs[i];
+            x[1] = ys[i];
+            out[i] = toIndex(HilbertCurve.transposedIndexInPlace(bits, x));
+        }
+    }
+
+    /**
+     * Converts a batch of indexes to 2-dimensional points. No objects are
+     * allocated per index.
+     * 
+     * @param indexes indexes along the Hilbert curve
+     * @param xs      receives the first ordinate of the point for index i at
+     *                position i
+     * @param ys      receives the second ordinate of the point for index i at
+     *                position i
+     * @throws IllegalArgumentException if the curve is not 2-dimensional or the
+     *                                  array lengths do not match
+     */
+    public void point(long[] indexes, long[] xs, long[] ys) {
+        Preconditions.checkArgument(dimensions == 2, "batch methods require 2 dimensions");
+        Preconditions.checkArgument(xs.length >= indexes.length && ys.length >= indexes.length);
+        long[] x = new long[2];
+        for (int i = 0; i < indexes.length; i++) {
+            point(indexes[i], x);
+            xs[i] = x[0];
+            ys[i] = x[1];
+        }
+    }
+
     // untranspose
     private long toIndex(long... transposedIndex) {
         long b = 0;
@@ -0,0 +1,131 @@
+package org.davidmoten.Net;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于字节通道的分帧二进制消息。每帧为 int 内容长度 + byte 类型 + 内容，
+ * 底层可以是 localhost 上的 SocketChannel，也可以是进程内的一对 Pipe。
+ * <p>
+ * 同一时刻只能有一个线程发送、一个线程接收；收发的字节数(含帧头)分别累计，用于统计线路上的流量。
+ */
+public final class FrameChannel implements Closeable {
+    public static final int HEADER_BYTES = 5;
+    public static final int MAX_FRAME_BYTES = 1 << 30;
+
+    private final ReadableByteChannel in;
+    private final WritableByteChannel out;
+    private final ByteBuffer sendHeader = ByteBuffer.allocate(HEADER_BYTES);
+    private final ByteBuffer receiveHeader = ByteBuffer.allocate(HEADER_BYTES);
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    /**
+     * 收到的一帧，payload 的 position 到 limit 即为内容
+     */
+    public static final class Frame {
+        public final byte type;
+        public final ByteBuffer payload;
+
+        Frame(byte type, ByteBuffer payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+    }
+
+    public FrameChannel(ReadableByteChannel in, WritableByteChannel out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    /**
+     * 连接到 address 上的服务器，关闭 Nagle 算法使小帧立即发出
+     */
+    public static FrameChannel connect(InetSocketAddress address) throws IOException {
+        SocketChannel socket = SocketChannel.open(address);
+        socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        return new FrameChannel(socket, socket);
+    }
+
+    /**
+     * 发送一帧
+     *
+     * @param payload 已 flip 的内容，发送后 position 等于 limit
+     */
+    public void send(byte type, ByteBuffer payload) throws IOException {
+        int length = payload.remaining();
+        sendHeader.clear();
+        sendHeader.putInt(length).put(type).flip();
+        writeFully(sendHeader);
+        writeFully(payload);
+        bytesSent.addAndGet(HEADER_BYTES + length);
+    }
+
+    /**
+     * 阻塞直到收到一帧
+     *
+     * @return 收到的帧；对端在帧边界处关闭连接时返回 null
+     * @throws EOFException 对端在一帧的中间关闭连接
+     */
+    public Frame receive() throws IOException {
+        receiveHeader.clear();
+        if (!readFully(receiveHeader, true)) {
+            return null;
+        }
+        receiveHeader.flip();
+        int length = receiveHeader.getInt();
+        byte type = receiveHeader.get();
+        if (length < 0 || length > MAX_FRAME_BYTES) {
+            throw new IOException("invalid frame length " + length);
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        readFully(payload, false);
+        payload.flip();
+        bytesReceived.addAndGet(HEADER_BYTES + length);
+        return new Frame(type, payload);
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            in.close();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    // 读满 buffer；atBoundary 为 true 时，一个字节都没读到就遇到 EOF 返回 false
+    private boolean readFully(ByteBuffer buffer, boolean atBoundary) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                if (atBoundary && buffer.position() == 0) {
+                    return false;
+                }
+                throw new EOFException("connection closed in the middle of a frame");
+            }
+        }
+        return true;
+    }
+}
@@ -1,14 +1,15 @@
 package org.davidmoten.Scheme.RSKQ;
 
-import java.math.BigInteger;
+import org.davidmoten.Bitmap.StoredBitmap;
+import org.davidmoten.Bitmap.WordBitmap;
 
 // 创建 CipherTextBytes 类来替代 Object[]
 public class CipherTextBytes {
     private final byte[] C;
-    private final BigInteger ea;
-    private final BigInteger eb;
+    private final StoredBitmap ea;
+    private final StoredBitmap eb;
 
-    public CipherTextBytes(byte[] C, BigInteger ea, BigInteger eb) {
+    public CipherTextBytes(byte[] C, StoredBitmap ea, StoredBitmap eb) {
         this.C = C;
         this.ea = ea;
         this.eb = eb;
@@ -18,11 +19,26 @@ public class CipherTextBytes {
         return C;
     }
 
-    public BigInteger getEa() {
+    // 展开形式存储时返回的就是存储的对象本身
+    public WordBitmap getEa() {
+        return ea.toWordBitmap();
+    }
+
+    public WordBitmap getEb() {
+        return eb.toWordBitmap();
+    }
+
+    // 存储形式本身，供编码器按原形式写出
+    public StoredBitmap getStoredEa() {
         return ea;
     }
 
-    public BigInteger getEb() {
+    public StoredBitmap getStoredEb() {
         return eb;
     }
+
+    // C、ea、eb 实际占用的字节数
+    public long sizeInBytes() {
+        return C.length + ea.sizeInBytes() + eb.sizeInBytes();
+    }
 }
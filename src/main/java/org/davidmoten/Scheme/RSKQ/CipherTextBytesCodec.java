@@ -0,0 +1,42 @@
+package org.davidmoten.Scheme.RSKQ;
+
+import org.davidmoten.Bitmap.BitmapCodec;
+import org.davidmoten.Bitmap.StoredBitmap;
+import org.davidmoten.Store.RecordCodec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * (C, ea, eb) 的记录编码：short 长度 + C，随后依次为 ea、eb 的 BitmapCodec 编码。
+ * ea、eb 保留写入时的存储形式(展开或压缩)。
+ */
+public final class CipherTextBytesCodec implements RecordCodec<CipherTextBytes> {
+    public static final CipherTextBytesCodec INSTANCE = new CipherTextBytesCodec();
+
+    private CipherTextBytesCodec() {
+    }
+
+    @Override
+    public int size(CipherTextBytes value) {
+        return 2 + value.getC().length + BitmapCodec.serializedSize(value.getStoredEa())
+                + BitmapCodec.serializedSize(value.getStoredEb());
+    }
+
+    @Override
+    public void write(CipherTextBytes value, ByteBuffer buffer) {
+        byte[] C = value.getC();
+        buffer.putShort((short) C.length);
+        buffer.put(C);
+        BitmapCodec.write(value.getStoredEa(), buffer);
+        BitmapCodec.write(value.getStoredEb(), buffer);
+    }
+
+    @Override
+    public CipherTextBytes read(ByteBuffer buffer, int length) {
+        byte[] C = new byte[buffer.getShort()];
+        buffer.get(C);
+        StoredBitmap ea = BitmapCodec.read(buffer);
+        StoredBitmap eb = BitmapCodec.read(buffer);
+        return new CipherTextBytes(C, ea, eb);
+    }
+}
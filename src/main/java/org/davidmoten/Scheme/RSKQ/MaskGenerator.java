@@ -0,0 +1,91 @@
+package org.davidmoten.Scheme.RSKQ;
+
+import org.davidmoten.Bitmap.WordBitmap;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+
+/**
+ * 位图加密掩码生成器：把 (Kw', 计数器) 用 AES-CTR 扩展为 bits 位的密钥流，
+ * 使整个双位图(而不只是低 128 位)都被掩盖。
+ * <p>
+ * Kw' 作为 AES-128 密钥，计数器写入 IV 的高 4 字节，IV 的低位作为块计数，因此不同计数器的密钥流互不重叠。
+ * 每个线程复用自己的 Cipher 与输出缓冲区，生成过程不分配与 bits 成比例的内存。
+ */
+public final class MaskGenerator {
+    private static final String CIPHER_ALGORITHM = "AES/CTR/NoPadding";
+
+    private final int bits;
+    private final int nbytes; // 按 long 对齐的字节数
+    private final byte[] zeros;
+    private final ThreadLocal<Cipher> ciphers;
+    private final ThreadLocal<byte[]> buffers;
+
+    /**
+     * @param bits 掩码位数，通常为 maxFiles
+     */
+    public MaskGenerator(int bits) {
+        if (bits <= 0) {
+            throw new IllegalArgumentException("bits must be positive");
+        }
+        this.bits = bits;
+        this.nbytes = ((bits + 63) >>> 6) << 3;
+        this.zeros = new byte[nbytes];
+        this.ciphers = ThreadLocal.withInitial(() -> {
+            try {
+                return Cipher.getInstance(CIPHER_ALGORITHM);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        this.buffers = ThreadLocal.withInitial(() -> new byte[nbytes]);
+    }
+
+    public int bits() {
+        return bits;
+    }
+
+    /**
+     * 生成 (key, counter) 对应的密钥流。返回的数组是当前线程的缓冲区，下一次调用会覆盖其内容。
+     *
+     * @param key     16 字节密钥 Kw'
+     * @param counter 计数器
+     * @return 长度为 bits 向上取整到 64 位的密钥流
+     */
+    public byte[] keystream(byte[] key, int counter) {
+        byte[] iv = new byte[16];
+        iv[0] = (byte) (counter >> 24);
+        iv[1] = (byte) (counter >> 16);
+        iv[2] = (byte) (counter >> 8);
+        iv[3] = (byte) counter;
+        byte[] out = buffers.get();
+        try {
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+            cipher.update(zeros, 0, nbytes, out, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        return out;
+    }
+
+    /**
+     * 将 (key, counter) 的密钥流异或到 target 上。
+     *
+     * @return target
+     */
+    public WordBitmap xorInto(WordBitmap target, byte[] key, int counter) {
+        return xorInto(target, keystream(key, counter));
+    }
+
+    /**
+     * 将已生成的密钥流异或到 target 上，便于同一掩码作用于 ea 和 eb。
+     *
+     * @return target
+     */
+    public WordBitmap xorInto(WordBitmap target, byte[] keystream) {
+        return target.xorKeystream(keystream, nbytes);
+    }
+}
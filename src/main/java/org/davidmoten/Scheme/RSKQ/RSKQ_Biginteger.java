@@ -1,47 +1,68 @@
 package org.davidmoten.Scheme.RSKQ;
 
 
-import org.bouncycastle.crypto.digests.Blake2bDigest;
 import org.davidmoten.BPC.BPCGenerator;
+import org.davidmoten.Crypto.Blake2bHasher;
+import org.davidmoten.Crypto.PRFEngine;
+import org.davidmoten.Bitmap.BitmapStorage;
+import org.davidmoten.Bitmap.SearchResult;
+import org.davidmoten.Bitmap.StoredBitmap;
+import org.davidmoten.Bitmap.WordBitmap;
+import org.davidmoten.BPC.HilbertRangeCover;
 import org.davidmoten.SpatialDataProcessor.StaticData.DataSetAccess;
+import org.davidmoten.Store.CipherStore;
+import org.davidmoten.Store.LabelMap;
+import org.davidmoten.Store.MappedCipherStore;
+import org.davidmoten.Store.SnapshotReader;
+import org.davidmoten.Store.SnapshotWriter;
 import org.davidmoten.Hilbert.HilbertComponent.HilbertCurve;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
-import java.security.InvalidKeyException;
-import java.security.MessageDigest;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 
 import static org.davidmoten.Experiment.TestByUserInput.BRQComparisonInput.generateHilbertMatrix;
 
 
 public class RSKQ_Biginteger {
-    public ConcurrentHashMap<String, CipherTextBytes> PDB; // 服务器存储的密文数据库
-    public ConcurrentHashMap<String, CipherTextBytes> KDB; // 服务器存储的密文数据库
+    public final CipherStore<CipherTextBytes> PDB; // 服务器存储的密文数据库，以 128 位标签 I 为键
+    public final CipherStore<CipherTextBytes> KDB; // 服务器存储的密文数据库，以 128 位标签 I 为键
     // 列表用于存储 update 和 search 的时间
-    public List<Double> totalUpdateTimes = new ArrayList<>();    // 存储 update 操作的总耗时
-    public List<Double> clientSearchTimes = new ArrayList<>();   // 存储客户端 search 操作的时间
-    public List<Double> serverSearchTimes = new ArrayList<>();   // 存储服务器 search 操作的时间
+    public List<Double> totalUpdateTimes = Collections.synchronizedList(new ArrayList<>());    // 存储 update 操作的总耗时
+    public List<Double> clientSearchTimes = Collections.synchronizedList(new ArrayList<>());   // 存储客户端 search 操作的时间
+    public List<Double> serverSearchTimes = Collections.synchronizedList(new ArrayList<>());   // 存储服务器 search 操作的时间
+    public List<Double> plannerSearchTimes = Collections.synchronizedList(new ArrayList<>());  // 规划查询的规划耗时(已计入客户端时间)
+    public List<Double> savedSearchTimes = Collections.synchronizedList(new ArrayList<>());    // 规划查询提前结束省下的时间(估计)
     private static final int HASH_OUTPUT_LENGTH = 16; // 128 位（16 字节）
-    public static final int LAMBDA = 128;  // 安全参数 λ    // 缓存的MessageDigest实例
+    public static final int LAMBDA = 128;  // 安全参数 λ
+    private static final int LOCK_STRIPES = 256; // 令牌条带锁的数量
+    private static final int CLIENT_SNAPSHOT_MAGIC = 0x52534B43; // "RSKC"
+    private static final int SERVER_SNAPSHOT_MAGIC = 0x52534B53; // "RSKS"
+    private static final int SNAPSHOT_VERSION = 1;
     private final SecureRandom secureRandom; // 用于生成随机数
-    private final MessageDigest messageDigest;
-    private final byte[] intBuffer = new byte[4]; // 用于缓存int转byte的缓冲区
-    private HashMap<String, ClientStateBytes> SC;  // 客户端状态
-    private HashMap<String, BigInteger> SS;  // 服务器状态
+    private ConcurrentHashMap<String, ClientStateBytes> SC;  // 客户端状态，可被多个线程并发读写
+    private LabelMap<StoredBitmap> SS;  // 服务器状态，以 Kw 为键
+    private final Path storeDirectory; // PDB/KDB 的堆外存储目录，堆内存储时为 null
+    // 按令牌(前缀/关键字)分段的锁：同一令牌的 SC、SS 与 PDB/KDB 链的读改写互斥，不同令牌互不阻塞
+    private final ReentrantLock[] tokenLocks;
 //    private ConcurrentHashMap<String, Object[]> PDB; // 服务器存储的密文数据库
 //    private ConcurrentHashMap<String, Object[]> KDB; // 服务器存储的密文数据库
 
-    // 伪随机函数的哈希算法
-    private static final String HASH_ALGORITHM = "SHA-256";
-    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    // 伪随机函数 P'：线程本地 Mac + 按令牌缓存的 (Kw, Kw')
+    private final PRFEngine prf;
 
 
     //    private int maxnums_w; // 关键字最大数量
@@ -50,37 +71,76 @@ public class RSKQ_Biginteger {
     private int dimension; // 2维数据
     private int order; // Hilbert curve 阶数
     public HilbertCurve hilbertCurve;
+    private final HilbertRangeCover rangeCover; // 查询矩形 -> BPC
+    private int parallelism = Runtime.getRuntime().availableProcessors(); // 批量更新与并行搜索的线程数
+    private ForkJoinPool pool; // 按需创建
+    // 批量搜索的服务器阶段专用，按需创建：搜索方持有条带锁时提交到这里，其中的任务不获取条带锁，
+    // 不会被占满 pool 并等待这些锁的更新任务阻塞
+    private ForkJoinPool fetchPool;
+    private volatile boolean parallelSearch = false; // 是否并行处理各前缀/关键字的搜索链
+    private volatile boolean batchedSearch = false; // 是否先生成全部搜索令牌再一次交给服务器处理
+    private volatile SearchResultCache searchCache; // 客户端的搜索结果缓存，未开启时为 null
+    private volatile boolean plannedSearch = false; // 是否按估计代价安排前缀与关键字的处理顺序
+    private final LongAdder plannedSearches = new LongAdder(); // 规划执行的查询数
+    private final LongAdder shortCircuitedSearches = new LongAdder(); // 其中提前确定结果为空的查询数
+    private final LongAdder skippedTokens = new LongAdder(); // 因此未搜索的令牌数
+    private final LongAdder skippedCiphertexts = new LongAdder(); // 未搜索令牌链上的密文数(按 c - c0 + 1 估计)
+    private final LongAdder searchedCost = new LongAdder(); // 规划查询实际搜索的代价之和
+    private final LongAdder searchedNanos = new LongAdder(); // 以及对应的客户端 + 服务器耗时，用于估计省下的时间
+    private final MaskGenerator maskGenerator; // 全宽掩码；为 null 时使用 128 位的哈希掩码
+    private volatile BitmapStorage bitmapStorage = BitmapStorage.DENSE; // 密文位图与 SS 的存储形式
+    private volatile UpdateJournal journal; // 预写日志，未开启时为 null
+    private volatile long checkpointInterval; // 日志超过该字节数时自动做检查点，0 为不自动
 
     // 修改后的构造函数
     public RSKQ_Biginteger(int maxFiles, int order, int dimension) throws NoSuchAlgorithmException {
-        this.messageDigest = MessageDigest.getInstance(HASH_ALGORITHM);
+        this(maxFiles, order, dimension, false);
+    }
+
+    /**
+     * @param fullWidthMask 为 true 时双位图用 AES-CTR 密钥流扩展出的 maxFiles 位掩码加密；
+     *                      为 false 时沿用 H(Kw', i) 的 128 位掩码，高位不被掩盖
+     */
+    public RSKQ_Biginteger(int maxFiles, int order, int dimension, boolean fullWidthMask) throws NoSuchAlgorithmException {
+        this(maxFiles, order, dimension, fullWidthMask, null, new LabelMap<>(), new LabelMap<>());
+    }
+
+    /**
+     * @param storeDirectory 不为 null 时 PDB/KDB 使用该目录下内存映射文件的堆外存储(MappedCipherStore)，
+     *                       密文总量不受 JVM 堆限制；为 null 时使用堆内的 LabelMap。堆外存储的文件在 close() 时删除
+     */
+    public RSKQ_Biginteger(int maxFiles, int order, int dimension, boolean fullWidthMask, Path storeDirectory)
+            throws NoSuchAlgorithmException, IOException {
+        this(maxFiles, order, dimension, fullWidthMask, storeDirectory,
+                openStore(storeDirectory, "PDB"), openStore(storeDirectory, "KDB"));
+    }
+
+    private RSKQ_Biginteger(int maxFiles, int order, int dimension, boolean fullWidthMask, Path storeDirectory,
+                            CipherStore<CipherTextBytes> PDB, CipherStore<CipherTextBytes> KDB) throws NoSuchAlgorithmException {
 //        this.filePath = filePath;
-//        this.maxFiles = maxFiles;
+        this.maxFiles = maxFiles;
+        this.storeDirectory = storeDirectory;
+        this.maskGenerator = fullWidthMask ? new MaskGenerator(maxFiles) : null;
 
-        this.SC = new HashMap<>();
-        this.SS = new HashMap<>();
-        this.PDB = new ConcurrentHashMap<>();
-        this.KDB = new ConcurrentHashMap<>();
+        this.SC = new ConcurrentHashMap<>();
+        this.SS = new LabelMap<>();
+        this.PDB = PDB;
+        this.KDB = KDB;
 
         this.order = order;
         this.dimension = dimension;
         this.hilbertCurve = HilbertCurve.bits(order).dimensions(dimension);
+        this.rangeCover = new HilbertRangeCover(order, dimension);
         this.secureRandom = new SecureRandom(); // 初始化 SecureRandom 实例
+        this.prf = new PRFEngine(new byte[LAMBDA], LAMBDA / 8);
+        this.tokenLocks = new ReentrantLock[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            this.tokenLocks[i] = new ReentrantLock();
+        }
     }
-    /**
-     * 伪随机函数 P'
-     *
-     * @param key     安全密钥
-     * @param keyword 关键词
-     * @return 伪随机生成的密钥
-     * @throws NoSuchAlgorithmException
-     * @throws InvalidKeyException
-     */
-    private byte[] pseudoRandomFunction(byte[] key, String keyword) throws NoSuchAlgorithmException, InvalidKeyException {
-        Mac hmac = Mac.getInstance(HMAC_ALGORITHM);
-        SecretKeySpec keySpec = new SecretKeySpec(key, HMAC_ALGORITHM);
-        hmac.init(keySpec);
-        return hmac.doFinal(keyword.getBytes(StandardCharsets.UTF_8));
+    static CipherStore<CipherTextBytes> openStore(Path storeDirectory, String name) throws IOException {
+        return storeDirectory == null ? new LabelMap<>()
+                : new MappedCipherStore<>(storeDirectory.resolve(name), CipherTextBytesCodec.INSTANCE);
     }
 
     /**
@@ -91,17 +151,9 @@ public class RSKQ_Biginteger {
      * @return 哈希后的值
      * @throws NoSuchAlgorithmException
      */
-    private byte[] hashFunction(byte[] input1, byte[] input2) {
-        Blake2bDigest digest = new Blake2bDigest(HASH_OUTPUT_LENGTH * 8); // 输出位数为 128 位
-
-        // 更新哈希数据
-        digest.update(input1, 0, input1.length);
-        digest.update(input2, 0, input2.length);
-
-        // 输出哈希值
-        byte[] result = new byte[HASH_OUTPUT_LENGTH];
-        digest.doFinal(result, 0);
-        return result;
+    static byte[] hashFunction(byte[] input1, byte[] input2) {
+        // 线程本地的摘要，不再每次创建 Blake2bDigest
+        return Blake2bHasher.hash(input1, input2);
     }
     /**
      * 安全哈希函数 H3, H4, H5
@@ -111,24 +163,32 @@ public class RSKQ_Biginteger {
      * @return 哈希后的值
      * @throws NoSuchAlgorithmException
      */
-    private byte[] hashFunction(byte[] input1, int input2) {
-        Blake2bDigest digest = new Blake2bDigest(HASH_OUTPUT_LENGTH * 8); // 设置输出位数为 128 位
+    static byte[] hashFunction(byte[] input1, int input2) {
+        return Blake2bHasher.hash(input1, input2);
+    }
 
-        // 更新哈希数据
-        digest.update(input1, 0, input1.length);
+    // 线程本地的哈希输出缓冲区：[0] 存标签 I，[1] 存掩码；更新时两者同时使用，因此分开
+    private static final ThreadLocal<byte[][]> HASH_OUTPUTS =
+            ThreadLocal.withInitial(() -> new byte[2][Blake2bHasher.OUTPUT_BYTES]);
 
-        // 将 int 转为 byte[] 并添加到哈希
-        intBuffer[0] = (byte) (input2 >> 24);
-        intBuffer[1] = (byte) (input2 >> 16);
-        intBuffer[2] = (byte) (input2 >> 8);
-        intBuffer[3] = (byte) input2;
-        digest.update(intBuffer, 0, intBuffer.length);
+    /**
+     * 标签 I = H1(Kw, R)，写入线程本地缓冲区并返回它。同一线程下一次调用时被覆盖，需要保留时调用者自行复制
+     */
+    static byte[] labelHash(byte[] Kw, byte[] R) {
+        byte[] out = HASH_OUTPUTS.get()[0];
+        Blake2bHasher.hash(Kw, R, out, 0);
+        return out;
+    }
 
-        // 输出哈希值
-        byte[] result = new byte[HASH_OUTPUT_LENGTH];
-        digest.doFinal(result, 0);
-        return result;
+    /**
+     * 掩码 H(Kw', counter)，写入另一个线程本地缓冲区，可以与 labelHash 的结果同时使用
+     */
+    static byte[] maskHash(byte[] Kw_prime, int counter) {
+        byte[] out = HASH_OUTPUTS.get()[1];
+        Blake2bHasher.hash(Kw_prime, counter, out, 0);
+        return out;
     }
+
     // 生成长度为 λ 的随机数 Rc+1
     private byte[] generateRandomRc() {
         byte[] randomBytes = new byte[LAMBDA / 8]; // λ bits = λ / 8 bytes
@@ -137,14 +197,28 @@ public class RSKQ_Biginteger {
     }
 
     public List<String> preCode(long[] pSet) {
-        // 计算点的 Hilbert 索引
-        BigInteger pointHilbertIndex = this.hilbertCurve.index(pSet);
+        return preCode(hilbertCurve, order, pSet);
+    }
 
+    // 点的 Hilbert 编码及其逐位替换为 '*' 的全部前缀，RSKQ_Client 共用
+    static List<String> preCode(HilbertCurve hilbertCurve, int order, long[] pSet) {
         // 必要的长度为 2 * order 位
         int requiredLength = 2 * order;
 
         // 获取 Hilbert 索引的二进制字符串，并补充前导零
-        String binaryString = String.format("%" + requiredLength + "s", pointHilbertIndex.toString(2)).replace(' ', '0');
+        String binaryString;
+        if (hilbertCurve.fitsInLong()) {
+            // 索引不超过 63 位时直接用 long 计算，不产生 BigInteger
+            long pointHilbertIndex = hilbertCurve.indexAsLong(pSet);
+            char[] binary = new char[requiredLength];
+            for (int i = 0; i < requiredLength; i++) {
+                binary[i] = ((pointHilbertIndex >>> (requiredLength - 1 - i)) & 1L) == 0 ? '0' : '1';
+            }
+            binaryString = new String(binary);
+        } else {
+            BigInteger pointHilbertIndex = hilbertCurve.index(pSet);
+            binaryString = String.format("%" + requiredLength + "s", pointHilbertIndex.toString(2)).replace(' ', '0');
+        }
 
         // 初始化结果列表
         List<String> prefixList = new ArrayList<>(requiredLength + 1);
@@ -163,15 +237,10 @@ public class RSKQ_Biginteger {
     }
 
     public List<String> preCover(BigInteger min, BigInteger max) {
-        //生成min到max的所有Bigint
-        BigInteger[] R = Stream.iterate(min, n -> n.add(BigInteger.ONE))
-                .limit(max.subtract(min).add(BigInteger.ONE).intValueExact())
-                .toArray(BigInteger[]::new);
-
-        // 获取BPC结果（包括分组）
-        Map<Integer, List<BigInteger>> resultMap = BPCGenerator.GetBPCValueMap(R, this.order * 2);
-//        System.out.println("BPC:" + BPCGenerator.convertMapToPrefixString(resultMap,this.order*2));
-        return BPCGenerator.convertMapToPrefixString(resultMap, this.order * 2);
+        // 直接由区间端点计算BPC，无需生成min到max的所有Bigint
+        Map<Integer, List<Long>> resultMap = BPCGenerator.GetBPCIntervalMap(
+                min.longValueExact(), max.longValueExact(), this.order * 2);
+        return BPCGenerator.convertIntervalMapToPrefixString(resultMap, this.order * 2);
     }
 
     public List<String> preCover(BigInteger[][] Matrix) {
@@ -187,6 +256,17 @@ public class RSKQ_Biginteger {
         return BPCGenerator.convertMapToPrefixString(resultMap, this.order * 2);
     }
 
+    /**
+     * 查询矩形的BPC：由 Hilbert 区间分解直接得到前缀，不逐格计算 Hilbert 值。
+     *
+     * @param lowerLeft  矩形左下角(包含)
+     * @param upperRight 矩形右上角(包含)
+     * @return 与 preCover(generateHilbertMatrix(...)) 相同的前缀集合
+     */
+    public List<String> preCover(long[] lowerLeft, long[] upperRight) {
+        return rangeCover.cover(lowerLeft, upperRight);
+    }
+
     /**
      * Setup 初始化操作
      *
@@ -198,799 +278,1144 @@ public class RSKQ_Biginteger {
     }
 
     public BigInteger ObjectSearch(BigInteger R_min, BigInteger R_max, String[] WQ) throws Exception {
-        long totalLoopTime = 0; // 初始化总时间变量
-        // 客户端：生成搜索请求
-        long startTime = System.nanoTime();
+        // 客户端：生成搜索请求 (不计入 preCover 耗时)
         List<String> BPC = preCover(R_min, R_max);
-        long precoverTime = System.nanoTime() - startTime;
-//        System.out.println("PreCover time: " + precoverTime + " ns (" + (precoverTime/1e6) + " ms).");
-        // 累积的客户端和服务器时间
-        double totalClientTime = 0.0;
-        double totalServerTime = 0.0;
-        //存储p位图结果
-        BigInteger Sump = BigInteger.ZERO;
-        boolean exist = true;
-        // 客户端处理前缀集合
-        for (String p : BPC) {
-            //Sump = Sump.or(search(p));
-            // 记录单次循环的开始时间
-            long loopStartTime = System.nanoTime();
-            // 客户端部分计时
-            long client_time1 = System.nanoTime();
+        return ObjectSearch(BPC, WQ, 0).toBigInteger();
+    }
 
-            // Step 1: 生成Kw和Kw_prime (客户端)
-            byte[] combinedKey = pseudoRandomFunction(new byte[LAMBDA], p);
-            byte[] Kp = new byte[LAMBDA / 8];
-            byte[] Kp_prime = new byte[LAMBDA / 8];
-            System.arraycopy(combinedKey, 0, Kp, 0, LAMBDA / 8);
-            System.arraycopy(combinedKey, LAMBDA / 8, Kp_prime, 0, LAMBDA / 8);
+    public double ObjectUpdate(long[] pSet, String[] W, String[] op, int[] files) throws Exception {
+        long startTime = System.nanoTime();
+        BitSet bitmap_a = new BitSet();
+        BitSet bitmap_b = new BitSet();
+        // 根据操作设置 bsa 和 bsb
+        for (int i = 0; i < files.length; i++) {
+            bitmap_a.set(files[i]);
+            if ("add".equals(op[i])) {
+                bitmap_b.set(files[i]);
+            }  //bsb = bsb.clearBit(fileIndex);  // 删除操作，清除bsb中相应位（设置为0）
+        }
+        List<String> P = preCode(pSet);
+        for (String p : P) {
+            updateToken(p, bitmap_a, bitmap_b, PDB);
+        }
+        for (String w : W) {
+            updateToken(w, bitmap_a, bitmap_b, KDB);
+        }
+        commitJournal();
+        // 输出总耗时
+        double totalLoopTimeMs = (System.nanoTime() - startTime) / 1e6;
+        // 存储到列表中
+        totalUpdateTimes.add(totalLoopTimeMs);
+        return totalLoopTimeMs;
+    }
 
-            // Step 2: 获取客户端的当前关键词状态
-            ClientStateBytes state = SC.get(p);
-            // 客户端部分结束计时
-            long client_time2 = System.nanoTime();
-            // 若state为null，则跳出循环
-            if (state == null) {
-//                exist = false;
-//                System.out.println("没有匹配:"+p+"的结果");
-                double msclient_time1 = (client_time2 - client_time1) / 1e6;
-                totalClientTime += msclient_time1;
-                totalServerTime += 0; // 没有进行服务器操作，因此设为0
-                continue;
+    /**
+     * 批量更新多个对象。
+     * 同一批次中相同的前缀/关键字只生成一条合并后的双位图密文(同一文件以批次中最后一次操作为准)，
+     * 因此每个令牌的计数器在一个批次内只增加1；各令牌的PRF、哈希和加密在线程池中并行执行。
+     *
+     * @param pSets 每个对象的坐标
+     * @param Ws    每个对象的关键字
+     * @param ops   每个对象的操作，与 files 中的文件一一对应
+     * @param files 每个对象关联的文件
+     * @return 本批次的总耗时(ms)
+     */
+    public double ObjectUpdate(long[][] pSets, String[][] Ws, String[][] ops, int[][] files) throws Exception {
+        if (pSets.length != Ws.length || pSets.length != ops.length || pSets.length != files.length) {
+            throw new IllegalArgumentException("pSets, Ws, ops and files must have the same length");
+        }
+        long startTime = System.nanoTime();
+        // 按令牌合并位图: token -> {bitmap_a, bitmap_b}
+        Map<String, BitSet[]> prefixGroups = new LinkedHashMap<>();
+        Map<String, BitSet[]> keywordGroups = new LinkedHashMap<>();
+        for (int i = 0; i < pSets.length; i++) {
+            for (String p : preCode(pSets[i])) {
+                mergeBiBitmap(prefixGroups, p, ops[i], files[i]);
             }
-            // Step 3: 检查状态是否为null
+            for (String w : Ws[i]) {
+                mergeBiBitmap(keywordGroups, w, ops[i], files[i]);
+            }
+        }
 
-            // 记录 Rc, c0, c (客户端)
-            byte[] Ri = state.getRc();
-            int c0 = state.getC0();
-            int c = state.getC();
+        List<Callable<Void>> tasks = new ArrayList<>(prefixGroups.size() + keywordGroups.size());
+        for (Map.Entry<String, BitSet[]> entry : prefixGroups.entrySet()) {
+            tasks.add(() -> {
+                updateToken(entry.getKey(), entry.getValue()[0], entry.getValue()[1], PDB);
+                return null;
+            });
+        }
+        for (Map.Entry<String, BitSet[]> entry : keywordGroups.entrySet()) {
+            tasks.add(() -> {
+                updateToken(entry.getKey(), entry.getValue()[0], entry.getValue()[1], KDB);
+                return null;
+            });
+        }
+        invokeAll(tasks);
+        commitJournal();
 
+        double totalLoopTimeMs = (System.nanoTime() - startTime) / 1e6;
+        totalUpdateTimes.add(totalLoopTimeMs);
+        return totalLoopTimeMs;
+    }
 
-            // 开始服务器部分计时
-            long server_time1 = System.nanoTime();
-
-            // Step 1: 检查 SS[Kw] 的状态 (服务器)
-            // 如果不存在，则初始化为全0的BigInteger
-            BigInteger ep = SS.getOrDefault(new String(Kp, StandardCharsets.UTF_8), BigInteger.ZERO); // 从SS中读取
-            // Step 2: 初始化一个空的map来存储结果E (服务器)
-            Map<Integer, BigInteger[]> E = new HashMap<>();
-
-            // Step 3: 从c到c0进行循环 (服务器)
-//            int Ri = Rc;
-            for (int i = c; i >= c0; i--) {
-                // Step 4: 计算I
-                byte[] I = hashFunction(Kp, Ri);
-
-                // Step 5: 从PDB中检索密文
-//                Object[] ciphertext = PDB.get(new String(I, StandardCharsets.UTF_8));
-                CipherTextBytes ciphertext = PDB.get(new String(I, StandardCharsets.UTF_8));
-
-                // Step 6: 将检索到的密文存储在E中 (只存储ea和eb)
-                BigInteger ea = ciphertext.getEa();
-                BigInteger eb = ciphertext.getEb();
-                E.put(i - c0, new BigInteger[]{ea, eb});
-
-                // Step 7: 从PDB中移除该密文
-                PDB.remove(new String(I, StandardCharsets.UTF_8));
-
-                // Step 8: 更新Ri-1 = C ⊕ H2(Kw, Ri)
-                byte[] C = ciphertext.getC();
-//                Ri = new BigInteger(C).xor(new BigInteger(hashFunction(Kp, Ri)));
-                Ri = xorBytes(C, hashFunction(Kp, Ri));
+    // 将一个对象的文件操作合并到 token 的双位图中，后出现的操作覆盖先出现的操作
+    static void mergeBiBitmap(Map<String, BitSet[]> groups, String token, String[] op, int[] files) {
+        BitSet[] biBitmap = groups.computeIfAbsent(token, k -> new BitSet[]{new BitSet(), new BitSet()});
+        for (int i = 0; i < files.length; i++) {
+            biBitmap[0].set(files[i]);
+            if ("add".equals(op[i])) {
+                biBitmap[1].set(files[i]);
+            } else {
+                biBitmap[1].clear(files[i]);
             }
+        }
+    }
 
-            // 服务器部分结束计时
-            long server_time2 = System.nanoTime();
-
-            // 开始客户端接收并处理部分计时
-            long client_time3 = System.nanoTime();
+    /**
+     * 为一个前缀或关键字生成一条密文 (I, C, (ea, eb)) 并写入服务器数据库，同时推进客户端状态。
+     *
+     * @param token    前缀或关键字
+     * @param bitmap_a 双位图 bsa
+     * @param bitmap_b 双位图 bsb
+     * @param DB       PDB 或 KDB
+     */
+    private void updateToken(String token, BitSet bitmap_a, BitSet bitmap_b,
+                             CipherStore<CipherTextBytes> DB) throws Exception {
+        //Client
+        PRFEngine.TokenKeys keys = prf.keys(token);
+        byte[] Kw = keys.Kw;
+        byte[] Kw_prime = keys.Kw_prime;
+        WordBitmap bsa = WordBitmap.of(bitmap_a);
+        WordBitmap bsb = WordBitmap.of(bitmap_b);
+        // Step 3: 随机生成 Rc+1
+        byte[] Rc_plus_1 = generateRandomRc();
+        // 日志与 DB.put 都只复制 I 的内容，不保留数组
+        byte[] I = labelHash(Kw, Rc_plus_1);
+        ReentrantLock lock = lockFor(token);
+        lock.lock();
+        try {
+            // Step 2: 获取客户端的当前关键词状态
+            ClientStateBytes state = SC.getOrDefault(token, new ClientStateBytes(0, -1, generateRandomRc()));
+            mask(Kw_prime, state.getC() + 1, bsa, bsb);
+            ClientStateBytes nextState = new ClientStateBytes(state.getC0(), state.getC() + 1, Rc_plus_1);
+            CipherTextBytes ciphertext = new CipherTextBytes(
+                    xorBytes(I, state.getRc()),
+                    bitmapStorage.store(bsa),
+                    bitmapStorage.store(bsb)
+            );
+            UpdateJournal journal = this.journal;
+            if (journal != null) {
+                // 先写日志再修改状态，同一令牌的记录顺序与修改顺序一致
+                journal.logUpdate(DB == KDB, token, nextState, I, ciphertext);
+            }
+            // Step 7: 更新客户端状态
+            SC.put(token, nextState);
+            SearchResultCache cache = searchCache;
+            if (cache != null) {
+                cache.invalidate(token);
+            }
+            //Server
+            // Step 8: 将 (I, C, (ea, eb)) 发送到服务器（存入PDB/KDB）
+            DB.put(I, ciphertext);
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            // Step 1: 初始化匹配文件的位图 (客户端)
-            BigInteger bsp = BigInteger.ZERO;
+    // 在线程池中执行所有任务，按提交顺序返回结果，并把任务抛出的异常原样抛出
+    private <T> List<T> invokeAll(List<Callable<T>> tasks) throws Exception {
+        return invokeAll(pool(), tasks);
+    }
 
-            // Step 2-3: 解密ep (客户端)
-            if (!ep.equals(BigInteger.ZERO)) {
-                byte[] H5 = hashFunction(Kp_prime, c0);
-                BigInteger H5BigIntHash = new BigInteger(1, H5);
-                bsp = ep.xor(H5BigIntHash);  // 执行异或操作
+    private static <T> List<T> invokeAll(ForkJoinPool pool, List<Callable<T>> tasks) throws Exception {
+        List<T> results = new ArrayList<>(tasks.size());
+        for (Future<T> future : pool.invokeAll(tasks)) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
             }
+        }
+        return results;
+    }
 
-            // Step 5: 循环解密每个密文并更新bsw (客户端)
-            for (int i = c0; i <= c; i++) {
-                BigInteger[] encryptPDBiBitmap = E.get(i - c0);
-                BigInteger ea = encryptPDBiBitmap[0];
-                BigInteger eb = encryptPDBiBitmap[1];
+    /**
+     * 设置批量更新与并行搜索使用的线程数，默认为CPU核数。
+     *
+     * @param parallelism 线程数
+     */
+    public synchronized void setParallelism(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.parallelism = parallelism;
+        shutdown();
+    }
 
-                BigInteger hashKw_prime_H3 = new BigInteger(1, hashFunction(Kp_prime, i));
-//                BigInteger hashKw_prime_H4 = new BigInteger(1, hashFunction(Kw_prime, i));
-                BigInteger bsa = ea.xor(hashKw_prime_H3);
-                BigInteger bsb = eb.xor(hashKw_prime_H3);
+    public synchronized int getParallelism() {
+        return parallelism;
+    }
 
-                // 更新bsw,not按位取反，negate取负数
-                bsp = bsp.and(bsa.not()).xor(bsa.and(bsb));
-            }
+    /**
+     * 开启后，ObjectSearch/GRQSearch 在线程池中并发处理各前缀和关键字的搜索链，最后再合并位图。
+     * 默认关闭，按顺序逐个处理。
+     *
+     * @param parallelSearch 是否并行搜索
+     */
+    public void setParallelSearch(boolean parallelSearch) {
+        this.parallelSearch = parallelSearch;
+    }
 
-            // Step 10: 更新客户端状态
-            byte[] Rc_plus_1 = generateRandomRc();
-            SC.put(p, new ClientStateBytes(c + 1, c, Rc_plus_1));
-            // Step 11: 重新加密 bsw
-            byte[] H5 = hashFunction(Kp_prime, c + 1);
-            ep = bsp.xor(new BigInteger(1, H5));
+    public boolean isParallelSearch() {
+        return parallelSearch;
+    }
 
-            // 客户端接收部分结束计时
-            long client_time4 = System.nanoTime();
-            // 记录结束时间并计算本次迭代的耗时
-            long loopEndTime = System.nanoTime();
-            long loopDurationNs = loopEndTime - loopStartTime;
-            totalLoopTime += loopDurationNs; // 累加每次迭代的时间
+    /**
+     * 开启后，ObjectSearch/GRQSearch 先在客户端生成全部前缀和关键字的搜索令牌，服务器一次处理所有链，
+     * 客户端再批量解密与重新加密，对应部署时一次往返完成查询。可与并行搜索同时开启，此时服务器并发处理各链。
+     * 默认关闭，逐个令牌交替执行客户端与服务器部分。
+     *
+     * @param batchedSearch 是否批量搜索
+     */
+    public void setBatchedSearch(boolean batchedSearch) {
+        this.batchedSearch = batchedSearch;
+    }
 
-//            double loopDurationMs = loopDurationNs / 1e6;
-            //System.out.println(" search took " + loopDurationNs + " ns (" + loopDurationMs + " ms).");
+    public boolean isBatchedSearch() {
+        return batchedSearch;
+    }
 
+    /**
+     * 开启查询规划：ObjectSearch 先根据客户端状态估计前缀侧与关键字侧的代价(各令牌链上的密文数 c - c0 + 1，加上 SS 中的 ew)，
+     * 先处理代价小的一侧；若该侧的并集为空，结果必为空，另一侧不再搜索。缺少状态的关键字使结果为空，此时不做任何搜索。
+     * 两侧内部仍按顺序/并行/批量模式处理。默认关闭。
+     * 每次规划查询的规划耗时与提前结束省下的时间(估计)分别记入 plannerSearchTimes 与 savedSearchTimes。
+     *
+     * @param plannedSearch 是否规划查询
+     */
+    public void setPlannedSearch(boolean plannedSearch) {
+        this.plannedSearch = plannedSearch;
+    }
 
-            // 服务器更新 SS
-            SS.put(new String(Kp, StandardCharsets.UTF_8), ep);
-            // 输出客户端和服务器端的时间消耗
-            double msclient_time1 = (client_time2 - client_time1) / 1e6;
-            double msclient_time2 = (client_time4 - client_time3) / 1e6;
-            double msserver_time = (server_time2 - server_time1) / 1e6;
-            // 累加客户端和服务器的时间
-            totalClientTime += msclient_time1 + msclient_time2;
-            totalServerTime += msserver_time;
-            double total_time = msclient_time1 + msclient_time2 + msserver_time;
-//            System.out.println("prefix encode: Client time part 1: " + msclient_time1 + " ms, Client time part 2: " + msclient_time2 + " ms, Server time: " + msserver_time + " ms, Total time: " + total_time + " ms");
+    public boolean isPlannedSearch() {
+        return plannedSearch;
+    }
 
-//            System.out.println(" search took " + loopDurationNs + " ns (" + loopDurationMs + " ms).");
-            Sump = Sump.or(bsp);
-        }
+    // 规划执行的查询数
+    public long getPlannedSearches() {
+        return plannedSearches.sum();
+    }
 
-        //存储w位图结果
-        BigInteger Sumw = BigInteger.ZERO;
-        // 客户端处理关键字集合
-        for (String w : WQ) {
-            // 记录单次循环的开始时间
-            long loopStartTime = System.nanoTime();
-            // 客户端部分计时
-            long client_time1 = System.nanoTime();
+    // 规划时提前确定结果为空、跳过了部分或全部搜索的查询数
+    public long getShortCircuitedSearches() {
+        return shortCircuitedSearches.sum();
+    }
 
-            // Step 1: 生成Kw和Kw_prime (客户端)
-            byte[] combinedKey = pseudoRandomFunction(new byte[LAMBDA], w);
-            byte[] Kw = new byte[LAMBDA / 8];
-            byte[] Kw_prime = new byte[LAMBDA / 8];
-            System.arraycopy(combinedKey, 0, Kw, 0, LAMBDA / 8);
-            System.arraycopy(combinedKey, LAMBDA / 8, Kw_prime, 0, LAMBDA / 8);
+    // 规划跳过的令牌数
+    public long getSkippedTokens() {
+        return skippedTokens.sum();
+    }
 
-            // Step 2: 获取客户端的当前关键词状态
-            ClientStateBytes state = SC.get(w);
-            // 客户端部分结束计时
-            long client_time2 = System.nanoTime();
-            if (state == null) {
-                exist = false;
-//                System.out.println("没有匹配:"+w+"的结果");
-                double msclient_time1 = (client_time2 - client_time1) / 1e6;
-                totalClientTime += msclient_time1;
-                totalServerTime += 0; // 没有服务器操作
-                break;
-            }
-            // Step 3: 检查状态是否为null
+    // 规划跳过的令牌链上的密文数(估计值)
+    public long getSkippedCiphertexts() {
+        return skippedCiphertexts.sum();
+    }
 
-            // 记录 Rc, c0, c (客户端)
-            byte[] Ri = state.getRc();
-            int c0 = state.getC0();
-            int c = state.getC();
+    public void resetPlannerStatistics() {
+        plannedSearches.reset();
+        shortCircuitedSearches.reset();
+        skippedTokens.reset();
+        skippedCiphertexts.reset();
+        searchedCost.reset();
+        searchedNanos.reset();
+    }
 
+    /**
+     * 开启客户端的搜索结果缓存：搜索过的前缀/关键字在客户端状态不变(期间没有更新)时，再次搜索直接返回上次解密的位图，
+     * 不遍历服务器的链也不解密。缓存按令牌保存，最多 capacity 个，按 LRU 淘汰；0 表示关闭并丢弃缓存。
+     * 每个缓存的位图约占 maxFiles / 8 字节。
+     *
+     * @param capacity 缓存的令牌数上限
+     */
+    public void setSearchCacheCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must be non-negative");
+        }
+        lockAll();
+        try {
+            searchCache = capacity == 0 ? null : new SearchResultCache(capacity);
+        } finally {
+            unlockAll();
+        }
+    }
 
-            // 开始服务器部分计时
-            long server_time1 = System.nanoTime();
+    public int getSearchCacheCapacity() {
+        SearchResultCache cache = searchCache;
+        return cache == null ? 0 : cache.getCapacity();
+    }
 
-            // Step 1: 检查 SS[Kw] 的状态 (服务器)
-            // 如果不存在，则初始化为全0的BigInteger
-            BigInteger ew = SS.getOrDefault(new String(Kw, StandardCharsets.UTF_8), BigInteger.ZERO); // 从SS中读取
-            // Step 2: 初始化一个空的map来存储结果E (服务器)
-            Map<Integer, BigInteger[]> E = new HashMap<>();
+    // 搜索时命中缓存的令牌数
+    public long getSearchCacheHits() {
+        SearchResultCache cache = searchCache;
+        return cache == null ? 0 : cache.getHits();
+    }
 
-            // Step 3: 从c到c0进行循环 (服务器)
-            for (int i = c; i >= c0; i--) {
-                // Step 4: 计算I
-                byte[] I = hashFunction(Kw, Ri);
+    public long getSearchCacheMisses() {
+        SearchResultCache cache = searchCache;
+        return cache == null ? 0 : cache.getMisses();
+    }
 
-                // Step 5: 从PDB中检索密文
-                CipherTextBytes ciphertext = KDB.get(new String(I, StandardCharsets.UTF_8));
+    /**
+     * 设置之后写入的密文位图与 SS 的存储形式，默认 DENSE。已存储的数据保持原形式，读取时自动识别，因此可随时切换。
+     * 全宽掩码下的密文接近随机，压缩没有收益，AUTO 会保持展开形式。
+     *
+     * @param bitmapStorage 存储策略
+     */
+    public void setBitmapStorage(BitmapStorage bitmapStorage) {
+        this.bitmapStorage = Objects.requireNonNull(bitmapStorage);
+    }
 
-                // Step 6: 将检索到的密文存储在E中 (只存储ea和eb)
-                BigInteger ea = ciphertext.getEa();
-                BigInteger eb = ciphertext.getEb();
-                E.put(i - c0, new BigInteger[]{ea, eb});
+    public BitmapStorage getBitmapStorage() {
+        return bitmapStorage;
+    }
 
-                // Step 7: 从PDB中移除该密文
-                KDB.remove(new String(I, StandardCharsets.UTF_8));
+    // 令牌密钥派生引擎，可读取缓存命中率
+    public PRFEngine getPrfEngine() {
+        return prf;
+    }
 
-                // Step 8: 更新Ri-1 = C ⊕ H2(Kw, Ri)
-                byte[] C = ciphertext.getC();
-                Ri = xorBytes(C, hashFunction(Kw, Ri));
-            }
+    private synchronized ForkJoinPool pool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
 
-            // 服务器部分结束计时
-            long server_time2 = System.nanoTime();
+    private synchronized ForkJoinPool fetchPool() {
+        if (fetchPool == null) {
+            fetchPool = new ForkJoinPool(parallelism);
+        }
+        return fetchPool;
+    }
 
-            // 开始客户端接收并处理部分计时
-            long client_time3 = System.nanoTime();
+    // 关闭线程池
+    public synchronized void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        if (fetchPool != null) {
+            fetchPool.shutdown();
+            fetchPool = null;
+        }
+    }
 
-            // Step 1: 初始化匹配文件的位图 (客户端)
-            BigInteger bsw = BigInteger.ZERO;
+    // 关闭线程池、预写日志并释放 PDB/KDB 的存储，之后不能再使用该实例
+    public void close() throws IOException {
+        shutdown();
+        closeWriteAheadLog();
+        PDB.close();
+        KDB.close();
+    }
 
-            // Step 2-3: 解密ew (客户端)
-            if (!ew.equals(BigInteger.ZERO)) {
-                bsw = ew;
-                byte[] H5 = hashFunction(Kw_prime, c0);
-                BigInteger H5BigInt = new BigInteger(1, H5);
-                bsw = bsw.xor(H5BigInt);  // 执行异或操作
-            }
+    public BigInteger ObjectSearch(BigInteger[][] Matrix, String[] WQ) throws Exception {
+        // 客户端：生成搜索请求
+        long startTime = System.nanoTime();
+        List<String> BPC = preCover(Matrix);
+        return ObjectSearch(BPC, WQ, System.nanoTime() - startTime).toBigInteger();
+    }
 
-            // Step 5: 循环解密每个密文并更新bsw (客户端)
-            for (int i = c0; i <= c; i++) {
-                BigInteger[] encryptPDBiBitmap = E.get(i - c0);
-                BigInteger ea = encryptPDBiBitmap[0];
-                BigInteger eb = encryptPDBiBitmap[1];
+    /**
+     * 矩形范围 + 关键字查询，BPC 由 preCover(lowerLeft, upperRight) 生成。
+     *
+     * @param lowerLeft  矩形左下角(包含)
+     * @param upperRight 矩形右上角(包含)
+     * @param WQ         查询关键字
+     * @return 匹配文件的位图
+     */
+    public BigInteger ObjectSearch(long[] lowerLeft, long[] upperRight, String[] WQ) throws Exception {
+        return ObjectSearchResult(lowerLeft, upperRight, WQ).toBigInteger();
+    }
 
-                BigInteger hashKw_prime_H3 = new BigInteger(1, hashFunction(Kw_prime, i));
-                BigInteger hashKw_prime_H4 = new BigInteger(1, hashFunction(Kw_prime, i));
-                BigInteger bsa = ea.xor(hashKw_prime_H3);
-                BigInteger bsb = eb.xor(hashKw_prime_H4);
+    /**
+     * 同 ObjectSearch(lowerLeft, upperRight, WQ)，但直接返回位图形式的结果，不转换为 BigInteger，
+     * 可以按字遍历匹配的文件编号、分页或取编号最大的 k 个。
+     */
+    public SearchResult ObjectSearchResult(long[] lowerLeft, long[] upperRight, String[] WQ) throws Exception {
+        // 客户端：生成搜索请求
+        long startTime = System.nanoTime();
+        List<String> BPC = preCover(lowerLeft, upperRight);
+        return SearchResult.of(ObjectSearch(BPC, WQ, System.nanoTime() - startTime));
+    }
 
-                // 更新bsw,not按位取反，negate取负数
-                bsw = bsw.and(bsa.not()).xor(bsa.and(bsb));
+    private WordBitmap ObjectSearch(List<String> BPC, String[] WQ, long precoverTime) throws Exception {
+        // 累积的客户端和服务器时间, times[0] 为客户端, times[1] 为服务器
+        long[] times = {precoverTime, 0};
+        //存储p位图结果
+        WordBitmap Sump = new WordBitmap();
+        boolean exist = true;
+        //存储w位图结果
+        WordBitmap Sumw = new WordBitmap();
+        if (plannedSearch) {
+            exist = searchPlanned(BPC, WQ, times, Sump, Sumw);
+        } else if (batchedSearch || parallelSearch) {
+            // 前缀链与关键字链批量或并发处理，结果按提交顺序合并
+            List<WordBitmap> results = batchedSearch ? searchTokensBatched(BPC, WQ, times)
+                    : searchTokensInParallel(BPC, WQ, times);
+            for (int i = 0; i < results.size(); i++) {
+                WordBitmap bs = results.get(i);
+                if (i < BPC.size()) {
+                    if (bs != null) {
+                        Sump.or(bs);
+                    }
+                } else if (bs == null) {
+                    exist = false;
+                } else {
+                    Sumw.or(bs);
+                }
+            }
+        } else {
+            // 客户端处理前缀集合
+            for (String p : BPC) {
+                WordBitmap bsp = searchToken(p, PDB, times);
+                // 若state为null，则该前缀没有匹配结果
+                if (bsp != null) {
+                    Sump.or(bsp);
+                }
+            }
+            // 客户端处理关键字集合
+            for (String w : WQ) {
+                WordBitmap bsw = searchToken(w, KDB, times);
+                if (bsw == null) {
+                    exist = false;
+                    break;
+                }
+                Sumw.or(bsw);
             }
-
-            // Step 10: 更新客户端状态
-            byte[] Rc_plus_1 = generateRandomRc();
-            SC.put(w, new ClientStateBytes(c + 1, c, Rc_plus_1));
-            // Step 11: 重新加密 bsw
-            byte[] H5 = hashFunction(Kw_prime, c + 1);
-            ew = bsw.xor(new BigInteger(1, H5));
-
-            // 客户端接收部分结束计时
-            long client_time4 = System.nanoTime();
-            // 记录结束时间并计算本次迭代的耗时
-            long loopEndTime = System.nanoTime();
-            long loopDurationNs = loopEndTime - loopStartTime;
-            totalLoopTime += loopDurationNs; // 累加每次迭代的时间
-
-//            double loopDurationMs = loopDurationNs / 1e6;
-            //System.out.println(" search took " + loopDurationNs + " ns (" + loopDurationMs + " ms).");
-
-            // 服务器更新 SS
-            SS.put(new String(Kw, StandardCharsets.UTF_8), ew);
-            // 输出客户端和服务器端的时间消耗
-            double msclient_time1 = (client_time2 - client_time1) / 1e6;
-            double msclient_time2 = (client_time4 - client_time3) / 1e6;
-            double msserver_time = (server_time2 - server_time1) / 1e6;
-            // 累加客户端和服务器的时间
-            totalClientTime += msclient_time1 + msclient_time2;
-            totalServerTime += msserver_time;
-            double total_time = msclient_time1 + msclient_time2 + msserver_time;
-//            System.out.println("keyword: Client time part 1: " + msclient_time1 + " ms, Client time part 2: " + msclient_time2 + " ms, Server time: " + msserver_time + " ms, Total time: " + total_time + " ms");
-
-//            System.out.println(" search took " + loopDurationNs + " ns (" + loopDurationMs + " ms).");
-            Sumw = Sumw.or(bsw);
         }
+        commitJournal();
         // 将累计的客户端和服务器时间分别存储到列表中
-        clientSearchTimes.add(totalClientTime);
-        serverSearchTimes.add(totalServerTime);
-        if (!exist) return BigInteger.ZERO;
-        // 输出总耗时
-//        double totalLoopTimeMs = totalLoopTime / 1e6;
-//        findIndexesOfOne(Sump);
-//        findIndexesOfOne(Sumw);
-//        System.out.println("Total loop time: " + totalLoopTime + " ns (" + totalLoopTimeMs + " ms).");
-//        System.out.println("RSKQ_Biginteger Total search time: " + (totalLoopTime+precoverTime) + " ns (" + (totalLoopTimeMs+(precoverTime/1e6)) + " ms).");
+        clientSearchTimes.add(times[0] / 1e6);
+        serverSearchTimes.add(times[1] / 1e6);
+        if (!exist) return new WordBitmap();
         return Sump.and(Sumw);
     }
 
-    public double ObjectUpdate(long[] pSet, String[] W, String[] op, int[] files) throws Exception {
-        byte[] combinedKey;
-        byte[] Kw = new byte[LAMBDA / 8];
-        byte[] Kw_prime = new byte[LAMBDA / 8];
-        long startTime = System.nanoTime();
-        List<String> P = preCode(pSet);
-        for (String p : P) {
-            //Client
-            combinedKey = pseudoRandomFunction(new byte[LAMBDA], p);
-            System.arraycopy(combinedKey, 0, Kw, 0, LAMBDA / 8);
-            System.arraycopy(combinedKey, LAMBDA / 8, Kw_prime, 0, LAMBDA / 8);
-            // Step 2: 获取客户端的当前关键词状态
-            ClientStateBytes state = SC.getOrDefault(p, new ClientStateBytes(0, -1, generateRandomRc()));
-            // Step 3: 随机生成 Rc+1
-            byte[] Rc_plus_1 = generateRandomRc();
-            BitSet bitmap_a = new BitSet();
-            BitSet bitmap_b = new BitSet();
-            // 根据操作设置 bsa 和 bsb
-            for (int i = 0; i < files.length; i++) {
-                bitmap_a.set(files[i]);
-                if ("add".equals(op[i])) {
-                    bitmap_b.set(files[i]);
-                }  //bsb = bsb.clearBit(fileIndex);  // 删除操作，清除bsb中相应位（设置为0）
+    /**
+     * 按估计代价安排前缀侧与关键字侧的处理顺序，见 setPlannedSearch。规划本身计入客户端耗时，
+     * 另记入 plannerSearchTimes；提前结束时按已搜索令牌的平均单位代价耗时估计省下的时间，记入 savedSearchTimes。
+     *
+     * @param Sump 累加前缀侧的位图
+     * @param Sumw 累加关键字侧的位图
+     * @return false 表示结果已确定为空
+     */
+    private boolean searchPlanned(List<String> BPC, String[] WQ, long[] times, WordBitmap Sump, WordBitmap Sumw)
+            throws Exception {
+        plannedSearches.increment();
+        long planStart = System.nanoTime();
+        // 没有状态的前缀不会匹配任何文件，不参与搜索
+        List<String> prefixes = new ArrayList<>(BPC.size());
+        long prefixCost = 0;
+        for (String p : BPC) {
+            ClientStateBytes state = SC.get(p);
+            if (state != null) {
+                prefixes.add(p);
+                prefixCost += estimateCost(state);
             }
-            byte[] hashKw_prime = hashFunction(Kw_prime, state.getC() + 1);
-            // Step 7: 更新客户端状态
-            SC.put(p, new ClientStateBytes(state.getC0(), state.getC() + 1, Rc_plus_1));
-            //Server
-            // Step 8: 将 (I, C, (ea, eb)) 发送到服务器（存入PDB）
-            String key = new String(hashFunction(Kw, Rc_plus_1), StandardCharsets.UTF_8);
-
-            PDB.put(key,
-                    new CipherTextBytes(
-                            xorBytes(hashFunction(Kw, Rc_plus_1), state.getRc()),
-                            new BigInteger(1, hashKw_prime).xor(new BigInteger(1, bitmap_a.toByteArray())),
-                            new BigInteger(1, hashKw_prime).xor(bitmap_b.isEmpty() ? BigInteger.ZERO : new BigInteger(1, bitmap_b.toByteArray()))
-                    )
-            );
-//            PDB.put(new String(hashFunction(Kw, Rc_plus_1), StandardCharsets.UTF_8),
-//                    new CipherTextBytes(xorBytes(hashFunction(Kw, Rc_plus_1), intToBytes(state[2])),
-//                    new BigInteger(1, xorBytes(hashKw_prime, bitmap_a.toByteArray())),
-//                    new BigInteger(1, xorBytes(hashKw_prime, bitmap_b.toByteArray()))));
         }
-        long pTime = System.nanoTime();
-        for (String w : W) {
-            //Client
-            combinedKey = pseudoRandomFunction(new byte[LAMBDA], w);
-            System.arraycopy(combinedKey, 0, Kw, 0, LAMBDA / 8);
-            System.arraycopy(combinedKey, LAMBDA / 8, Kw_prime, 0, LAMBDA / 8);
-            // Step 2: 获取客户端的当前关键词状态
-            ClientStateBytes state = SC.getOrDefault(w, new ClientStateBytes(0, -1, generateRandomRc()));
-            // Step 3: 随机生成 Rc+1
-            byte[] Rc_plus_1 = generateRandomRc();
-
-            // Step 4: 计算 I,C = hashFunction(Kw, Rc_plus_1) ⊕ state[2]
-//            byte[] I = hashFunction(Kw, Rc_plus_1); // 根据Kw和Rc+1计算索引I
-//            byte[] C = xorBytes(hashFunction(Kw, Rc_plus_1), intToBytes(state[2]));
-//            // Step 5: 根据操作选择 bi-bitmap (bsa, bsb)
-//            BigInteger bsa = BigInteger.ZERO;  // 使用 BigInteger 作为位图
-//            BigInteger bsb = BigInteger.ZERO;
-//
-//            // 根据操作设置 bsa 和 bsb
-//            for (int fileIndex : files) {
-//                if ("add".equals(op)) {
-//                    bsa = bsa.setBit(fileIndex);  // 添加操作，设置bsa中相应位为1
-//                    bsb = bsb.setBit(fileIndex);  // 添加操作，设置bsb中相应位为1
-//                } else if ("del".equals(op)) {
-//                    bsa = bsa.setBit(fileIndex);  // 删除操作，设置bsa中相应位为1
-//                    //bsb = bsb.clearBit(fileIndex);  // 删除操作，清除bsb中相应位（设置为0）
-//                }
-//            }
-//            // Step 6: 加密 bsa 和 bsb，不使用加密函数，而是和 hashFunction(Kw_prime, state[1] + 1) 异或
-//            BigInteger hashKw_prime = new BigInteger(1, hashFunction(Kw_prime, state[1] + 1));
-//            BigInteger ea = bsa.xor(hashKw_prime);
-//            BigInteger eb = bsb.xor(hashKw_prime);
-            BitSet bitmap_a = new BitSet();
-            BitSet bitmap_b = new BitSet();
-            // 根据操作设置 bsa 和 bsb
-            for (int i = 0; i < files.length; i++) {
-                bitmap_a.set(files[i]);
-                if ("add".equals(op[i])) {
-                    bitmap_b.set(files[i]);
-                }  //bsb = bsb.clearBit(fileIndex);  // 删除操作，清除bsb中相应位（设置为0）
+        long keywordCost = 0;
+        int keywordTokens = 0;
+        boolean missing = false;
+        for (String w : WQ) {
+            ClientStateBytes state = SC.get(w);
+            if (state == null) {
+                missing = true;
+            } else {
+                keywordTokens++;
+                keywordCost += estimateCost(state);
+            }
+        }
+        long planTime = System.nanoTime() - planStart;
+        times[0] += planTime;
+        plannerSearchTimes.add(planTime / 1e6);
+        if (missing) {
+            // 缺少状态的关键字：结果为空，前缀与其余关键字都不必搜索
+            shortCircuit(prefixes.size() + keywordTokens, prefixCost + keywordCost);
+            return false;
+        }
 
+        boolean keywordsFirst = keywordCost <= prefixCost;
+        List<String> noPrefixes = Collections.emptyList();
+        String[] noKeywords = new String[0];
+        for (int side = 0; side < 2; side++) {
+            boolean keywords = keywordsFirst == (side == 0);
+            WordBitmap sum = keywords ? Sumw : Sump;
+            long before = times[0] + times[1];
+            for (WordBitmap bs : keywords ? searchTokens(noPrefixes, WQ, times) : searchTokens(prefixes, noKeywords, times)) {
+                if (bs != null) {
+                    sum.or(bs);
+                }
+            }
+            searchedCost.add(keywords ? keywordCost : prefixCost);
+            searchedNanos.add(times[0] + times[1] - before);
+            if (side == 0 && sum.isEmpty()) {
+                // 先处理的一侧为空，交集必为空
+                shortCircuit(keywords ? prefixes.size() : WQ.length, keywords ? prefixCost : keywordCost);
+                return false;
             }
-            byte[] hashKw_prime = hashFunction(Kw_prime, state.getC() + 1);
-            // Step 7: 更新客户端状态
-            SC.put(w, new ClientStateBytes(state.getC0(), state.getC() + 1, Rc_plus_1));
-            //Server
-            // Step 8: 将 (I, C, (ea, eb)) 发送到服务器（存入PDB）
-            // 计算键值
-            String key = new String(hashFunction(Kw, Rc_plus_1), StandardCharsets.UTF_8);
-
-            KDB.put(key,
-                    new CipherTextBytes(
-                            xorBytes(hashFunction(Kw, Rc_plus_1), state.getRc()),
-                            new BigInteger(1, hashKw_prime).xor(new BigInteger(1, bitmap_a.toByteArray())),
-                            new BigInteger(1, hashKw_prime).xor(bitmap_b.isEmpty() ? BigInteger.ZERO : new BigInteger(1, bitmap_b.toByteArray()))
-                    )
-            );
-            // 检查键是否已存在
-//            if (KDB.containsKey(key)) {
-//                // 键已存在，打印日志说明
-////                System.out.println("Key already exists in KDB: " + key);
-////                System.out.print(findRIndexes(Rc_plus_1));
-//            } else {
-//                // 键不存在，执行 put 操作
-//                KDB.put(key,
-//                        new CipherTextBytes(
-//                                xorBytes(hashFunction(Kw, Rc_plus_1), state.getRc()),
-//                                new BigInteger(1, hashKw_prime).xor(new BigInteger(1, bitmap_a.toByteArray())),
-//                                new BigInteger(1, hashKw_prime).xor(bitmap_b.isEmpty()? BigInteger.ZERO : new BigInteger(1,bitmap_b.toByteArray()))
-//                        )
-//                );
-//            }
         }
-        long wTime = System.nanoTime();
-        // 输出总耗时
-        double totalLoopTimeMs = (System.nanoTime() - startTime) / 1e6;
-//        System.out.println("RSKQ_Biginteger ptime: " + (pTime-startTime) / 1e6 + " ms.");
-//        System.out.println("RSKQ_Biginteger wtime: " + (wTime-pTime) / 1e6 + " ms.");
-//        System.out.println("RSKQ_Biginteger Total update time: " + totalLoopTimeMs + " ms.");
-        // 存储到列表中
-        totalUpdateTimes.add(totalLoopTimeMs);
-//        System.out.println("Update operation completed.");
-        return totalLoopTimeMs;
+        savedSearchTimes.add(0.0);
+        return true;
     }
 
-    public BigInteger ObjectSearch(BigInteger[][] Matrix, String[] WQ) throws Exception {
-        long totalLoopTime = 0; // 初始化总时间变量
-        // 客户端：生成搜索请求
-        long startTime = System.nanoTime();
-        List<String> BPC = preCover(Matrix);
-//        System.out.println("PreCover time: " + precoverTime + " ns (" + (precoverTime/1e6) + " ms).");
-        // 累积的客户端和服务器时间
-        long totalClientTime = System.nanoTime() - startTime;
-        long totalServerTime = 0;
-        //存储p位图结果
-        BigInteger Sump = BigInteger.ZERO;
-        boolean exist = true;
-        // 客户端处理前缀集合
-        for (String p : BPC) {
-            // 客户端部分计时
-            long client_time_loop_start = System.nanoTime();
+    // 令牌的搜索代价：链上的密文数加上 SS 中的 ew
+    private static long estimateCost(ClientStateBytes state) {
+        return Math.max(state.getC() - state.getC0() + 1, 0) + 1;
+    }
 
-            // Step 1: 生成Kw和Kw_prime (客户端)
-            byte[] combinedKey = pseudoRandomFunction(new byte[LAMBDA], p);
-            byte[] Kp = new byte[LAMBDA / 8];
-            byte[] Kp_prime = new byte[LAMBDA / 8];
-            System.arraycopy(combinedKey, 0, Kp, 0, LAMBDA / 8);
-            System.arraycopy(combinedKey, LAMBDA / 8, Kp_prime, 0, LAMBDA / 8);
+    /**
+     * 记录一次提前结束：tokens 个令牌未搜索，cost 为这些令牌的代价之和(每个令牌含一个 ew)
+     */
+    private void shortCircuit(int tokens, long cost) {
+        shortCircuitedSearches.increment();
+        skippedTokens.add(tokens);
+        skippedCiphertexts.add(cost - tokens);
+        long units = searchedCost.sum();
+        savedSearchTimes.add(units == 0 ? 0.0 : cost * ((double) searchedNanos.sum() / units) / 1e6);
+    }
 
-            // Step 2: 获取客户端的当前关键词状态
-            ClientStateBytes state = SC.get(p);
-            // 客户端部分结束计时
-            long client_time_loop_end = System.nanoTime();
-            // 若state为null，则跳出循环
-            if (state == null) {
-//                exist = false;
-//                System.out.println("没有匹配:"+p+"的结果");
-                totalClientTime += (client_time_loop_end - client_time_loop_start);
-                // 没有进行服务器操作，因此设为0
-                continue;
-            }
-            // Step 3: 检查状态是否为null
+    // 按当前的顺序/并行/批量模式搜索一组前缀和关键字，结果顺序同 searchTokensInParallel
+    private List<WordBitmap> searchTokens(List<String> prefixes, String[] keywords, long[] times) throws Exception {
+        if (batchedSearch) {
+            return searchTokensBatched(prefixes, keywords, times);
+        }
+        if (parallelSearch) {
+            return searchTokensInParallel(prefixes, keywords, times);
+        }
+        List<WordBitmap> results = new ArrayList<>(prefixes.size() + keywords.length);
+        for (String p : prefixes) {
+            results.add(searchToken(p, PDB, times));
+        }
+        for (String w : keywords) {
+            results.add(searchToken(w, KDB, times));
+        }
+        return results;
+    }
 
-            // 记录 Rc, c0, c (客户端)
-            byte[] Ri = state.getRc();
-            int c0 = state.getC0();
-            int c = state.getC();
+    /**
+     * 搜索单个前缀或关键字：服务器沿 c..c0 的链取出并删除密文，客户端解密出位图后推进状态，
+     * 并把重新加密的结果写回 SS。整个过程持有该令牌的条带锁，不同令牌的搜索/更新可以并发执行。
+     *
+     * @param token 前缀或关键字
+     * @param DB    PDB 或 KDB
+     * @param times 累加的客户端/服务器耗时(ns)
+     * @return 匹配文件的位图；客户端没有该令牌的状态时返回 null
+     */
+    private WordBitmap searchToken(String token, CipherStore<CipherTextBytes> DB, long[] times) throws Exception {
+        // 客户端部分计时
+        long client_time_start = System.nanoTime();
 
-            totalClientTime += (client_time_loop_end - client_time_loop_start);
+        ReentrantLock lock = lockFor(token);
+        lock.lock();
+        try {
+            // Step 2: 获取客户端的当前关键词状态
+            ClientStateBytes state = SC.get(token);
+            WordBitmap cached = state == null ? null : cachedResult(token, state);
+            if (state == null || cached != null) {
+                // 客户端部分结束计时；没有状态或状态未变时不进行服务器操作
+                times[0] += System.nanoTime() - client_time_start;
+                return cached;
+            }
+            // Step 1: 生成Kw和Kw_prime (客户端)
+            PRFEngine.TokenKeys keys = prf.keys(token);
+            // 客户端部分结束计时
+            times[0] += System.nanoTime() - client_time_start;
 
             // 开始服务器部分计时
-            long server_time_loop_start = System.nanoTime();
-
-            // Step 1: 检查 SS[Kw] 的状态 (服务器)
-            // 如果不存在，则初始化为全0的BigInteger
-            BigInteger ep = SS.getOrDefault(new String(Kp, StandardCharsets.UTF_8), BigInteger.ZERO); // 从SS中读取
-            // Step 2: 初始化一个空的map来存储结果E (服务器)
-            Map<Integer, BigInteger[]> E = new HashMap<>();
-
-            // Step 3: 从c到c0进行循环 (服务器)
-//            int Ri = Rc;
-            for (int i = c; i >= c0; i--) {
-                // Step 4: 计算I
-//                byte[] I = hashFunction(Kp, Ri);
-                String keyI = new String(hashFunction(Kp, Ri), StandardCharsets.UTF_8);
-                if (!PDB.containsKey(keyI)) {
-//                    System.out.println("Key does not exist in PDB: " + keyI);
-//                    System.out.printf("p: %s |", p);
-                    continue;
-//                System.out.print(findRIndexes(Rc_plus_1));
-                }
-                // Step 5: 从PDB中检索密文
-                CipherTextBytes ciphertext = PDB.get(keyI);
-
-                // Step 6: 将检索到的密文存储在E中 (只存储ea和eb)
-                E.put(i - c0, new BigInteger[]{ciphertext.getEa(), ciphertext.getEb()});
+            long server_time_start = System.nanoTime();
+            SearchChain chain = fetchChain(keys.Kw, state, DB);
+            // 服务器部分结束计时
+            long server_time_end = System.nanoTime();
+            times[1] += server_time_end - server_time_start;
 
-                // Step 7: 从PDB中移除该密文
-                PDB.remove(keyI);
+            WordBitmap bsw = finishToken(token, keys, state, chain, DB);
+            // 客户端接收部分结束计时
+            times[0] += System.nanoTime() - server_time_end;
+            return bsw;
+        } finally {
+            lock.unlock();
+        }
+    }
 
-                // Step 8: 更新Ri-1 = C ⊕ H2(Kw, Ri)
-                byte[] C = ciphertext.getC();
-//                Ri = new BigInteger(C).xor(new BigInteger(hashFunction(Kp, Ri))).intValue();
-                Ri = xorBytes(C, hashFunction(Kp, Ri));
+    /**
+     * 服务器对一个令牌取出的内容：SS[Kw] 与链上的密文，E[i - c0] 对应计数器 i；开启日志时还记录删除的标签
+     */
+    private static final class SearchChain {
+        final StoredBitmap ew;
+        final CipherTextBytes[] E;
+        final List<byte[]> removed;
+
+        SearchChain(StoredBitmap ew, CipherTextBytes[] E, List<byte[]> removed) {
+            this.ew = ew;
+            this.E = E;
+            this.removed = removed;
+        }
+    }
 
+    /**
+     * 服务器部分：检查 SS[Kw]，从 c 到 c0 沿链计算标签 I，取出并删除密文。调用者须持有该令牌的条带锁。
+     */
+    private SearchChain fetchChain(byte[] Kw, ClientStateBytes state, CipherStore<CipherTextBytes> DB) {
+        byte[] Ri = state.getRc();
+        int c0 = state.getC0();
+        int c = state.getC();
+        // Step 1: 检查 SS[Kw] 的状态 (服务器)
+        StoredBitmap ew = SS.get(Kw);
+        // Step 2: 初始化一个空的数组来存储结果E (服务器)，E[i - c0] 对应计数器 i
+        CipherTextBytes[] E = new CipherTextBytes[Math.max(c - c0 + 1, 0)];
+        List<byte[]> removed = journal == null ? null : new ArrayList<>(E.length);
+        // 整条链复用两个缓冲区：I 与下一个 Ri
+        byte[] I = new byte[Blake2bHasher.OUTPUT_BYTES];
+        byte[] next = new byte[Blake2bHasher.OUTPUT_BYTES];
+
+        // Step 3: 从c到c0进行循环 (服务器)
+        for (int i = c; i >= c0; i--) {
+            // Step 4-7: 计算I，检索并移除密文
+            Blake2bHasher.hash(Kw, Ri, I, 0);
+            CipherTextBytes ciphertext = DB.remove(I);
+            if (ciphertext == null) {
+                continue;
             }
+            if (removed != null) {
+                removed.add(I.clone());
+            }
+            // 只使用ea和eb
+            E[i - c0] = ciphertext;
+            // Step 8: 更新Ri-1 = C ⊕ H2(Kw, Ri)，H2(Kw, Ri) 与 I 相同，不再重复计算
+            System.arraycopy(I, 0, next, 0, I.length);
+            Ri = xorBytes(ciphertext.getC(), next);
+        }
+        return new SearchChain(ew, E, removed);
+    }
 
-            // 服务器部分结束计时
-            long server_time_loop_end = System.nanoTime();
-            totalServerTime += (server_time_loop_end - server_time_loop_start);
-            // 开始客户端接收并处理部分计时
-//            long client_time_dec_start = System.nanoTime();
-
-            // Step 1: 初始化匹配文件的位图 (客户端)
-            BigInteger bsp = BigInteger.ZERO;
-            // Step 2-3: 解密ep (客户端)
-            if (!ep.equals(BigInteger.ZERO)) {
-                byte[] H5 = hashFunction(Kp_prime, c0);
-                bsp = ep.xor(new BigInteger(1, H5));  // 执行异或操作
+    /**
+     * 客户端部分：解密 ew 与链上的密文得到位图，推进客户端状态，并把重新加密的 ew 写回 SS。调用者须持有该令牌的条带锁。
+     *
+     * @return 匹配文件的位图
+     */
+    private WordBitmap finishToken(String token, PRFEngine.TokenKeys keys, ClientStateBytes state, SearchChain chain,
+                                   CipherStore<CipherTextBytes> DB) throws IOException {
+        byte[] Kw_prime = keys.Kw_prime;
+        int c0 = state.getC0();
+        int c = state.getC();
+        // 取出的密文和旧的 ew 已不再被服务器引用，以下解密均在其位图上原地进行
+        // Step 1-3: 初始化匹配文件的位图并解密ew (客户端)
+        WordBitmap bsw = chain.ew == null ? new WordBitmap() : mask(Kw_prime, c0, chain.ew.toWordBitmap());
+
+        // Step 5: 循环解密每个密文并更新bsw (客户端)
+        for (int i = c0; i <= c; i++) {
+            CipherTextBytes encryptedBiBitmap = chain.E[i - c0];
+            if (encryptedBiBitmap == null) {
+                continue;
             }
+            WordBitmap bsa = encryptedBiBitmap.getEa();
+            WordBitmap bsb = encryptedBiBitmap.getEb();
+            mask(Kw_prime, i, bsa, bsb);
+            // 更新bsw = (bsw & ~bsa) ^ (bsa & bsb)
+            bsw.andNot(bsa).xor(bsb.and(bsa));
+        }
 
-            // Step 5: 循环解密每个密文并更新bsw (客户端)
-            for (int i = c0; i <= c; i++) {
-                BigInteger hashKw_prime_H3 = new BigInteger(1, hashFunction(Kp_prime, i));
-//                BigInteger hashKw_prime_H4 = new BigInteger(1, hashFunction(Kw_prime, i));
+        ClientStateBytes nextState = new ClientStateBytes(c + 1, c, generateRandomRc());
+        // Step 11: 重新加密 bsw
+        StoredBitmap ew = bitmapStorage.store(mask(Kw_prime, c + 1, bsw.copy()));
+        UpdateJournal journal = this.journal;
+        if (journal != null) {
+            journal.logSearch(DB == KDB, token, nextState, chain.removed, keys.Kw, ew);
+        }
+        // Step 10: 更新客户端状态
+        SC.put(token, nextState);
+        SearchResultCache cache = searchCache;
+        if (cache != null) {
+            cache.put(token, nextState, bsw);
+        }
+        // 服务器更新 SS
+        SS.put(keys.Kw, ew);
+        return bsw;
+    }
 
-                if (E.containsKey(i - c0)) {
-                    BigInteger bsa = E.get(i - c0)[0].xor(hashKw_prime_H3);
-                    BigInteger bsb = E.get(i - c0)[1].xor(hashKw_prime_H3);
+    // 客户端状态未变时上次搜索的位图，缓存未开启或未命中时为 null
+    private WordBitmap cachedResult(String token, ClientStateBytes state) {
+        SearchResultCache cache = searchCache;
+        return cache == null ? null : cache.get(token, state);
+    }
 
-                    // 更新bsw,not按位取反，negate取负数
-                    bsp = bsp.and(bsa.not()).xor(bsa.and(bsb));
+    /**
+     * 批量搜索：客户端先为所有前缀与关键字生成搜索令牌 (Kw, Rc, c0, c)，作为一个请求交给服务器；
+     * 服务器处理全部链后一次返回(开启并行搜索时各链在线程池中并发处理)，客户端再批量解密并重新加密。
+     * 部署时整个查询只需一次往返，而不是每个前缀/关键字一次。
+     * <p>
+     * 三个阶段期间按条带编号升序持有所有涉及令牌的条带锁，与 lockAll 的顺序一致，不会死锁。
+     * 持锁期间的并行取链在 fetchPool 中执行而不是 pool：批量更新的任务可能占满 pool 并等待这些锁。
+     * 客户端/服务器耗时按阶段直接计入 times，不需要折算。
+     *
+     * @return 各前缀的位图，随后是各关键字的位图；没有状态的令牌对应 null
+     */
+    private List<WordBitmap> searchTokensBatched(List<String> prefixes, String[] keywords, long[] times) throws Exception {
+        int n = prefixes.size() + keywords.length;
+        String[] tokens = new String[n];
+        for (int k = 0; k < n; k++) {
+            tokens[k] = k < prefixes.size() ? prefixes.get(k) : keywords[k - prefixes.size()];
+        }
+        int[] stripes = Arrays.stream(tokens).mapToInt(this::stripeOf).distinct().sorted().toArray();
+        for (int stripe : stripes) {
+            tokenLocks[stripe].lock();
+        }
+        try {
+            // 客户端：生成全部搜索令牌
+            long clientStart = System.nanoTime();
+            PRFEngine.TokenKeys[] keys = new PRFEngine.TokenKeys[n];
+            ClientStateBytes[] states = new ClientStateBytes[n];
+            WordBitmap[] cached = new WordBitmap[n];
+            // 重复的令牌只搜索一次，沿用第一次出现时的结果；否则第二次会用已经过期的状态
+            int[] firstIndex = new int[n];
+            Map<String, Integer> seen = new HashMap<>();
+            for (int k = 0; k < n; k++) {
+                Integer first = seen.putIfAbsent(tokens[k], k);
+                firstIndex[k] = first == null ? k : first;
+            }
+            for (int k = 0; k < n; k++) {
+                if (firstIndex[k] != k) {
+                    continue;
+                }
+                ClientStateBytes state = SC.get(tokens[k]);
+                if (state != null && (cached[k] = cachedResult(tokens[k], state)) == null) {
+                    // 缓存命中的令牌不发送给服务器
+                    keys[k] = prf.keys(tokens[k]);
+                    states[k] = state;
+                }
+            }
+            long serverStart = System.nanoTime();
+            times[0] += serverStart - clientStart;
+
+            // 服务器：一次处理全部链
+            SearchChain[] chains = new SearchChain[n];
+            if (parallelSearch) {
+                List<Callable<SearchChain>> tasks = new ArrayList<>(n);
+                for (int k = 0; k < n; k++) {
+                    int i = k;
+                    tasks.add(() -> states[i] == null ? null
+                            : fetchChain(keys[i].Kw, states[i], i < prefixes.size() ? PDB : KDB));
+                }
+                invokeAll(fetchPool(), tasks).toArray(chains);
+            } else {
+                for (int k = 0; k < n; k++) {
+                    if (states[k] != null) {
+                        chains[k] = fetchChain(keys[k].Kw, states[k], k < prefixes.size() ? PDB : KDB);
+                    }
+                }
+            }
+            long clientResume = System.nanoTime();
+            times[1] += clientResume - serverStart;
+
+            // 客户端：批量解密并重新加密
+            List<WordBitmap> results = new ArrayList<>(n);
+            for (int k = 0; k < n; k++) {
+                if (firstIndex[k] != k) {
+                    results.add(results.get(firstIndex[k]));
+                    continue;
                 }
+                results.add(chains[k] == null ? cached[k]
+                        : finishToken(tokens[k], keys[k], states[k], chains[k], k < prefixes.size() ? PDB : KDB));
             }
+            times[0] += System.nanoTime() - clientResume;
+            return results;
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                tokenLocks[stripes[i]].unlock();
+            }
+        }
+    }
 
-            // Step 10: 更新客户端状态
-            byte[] Rc_plus_1 = generateRandomRc();
-            SC.put(p, new ClientStateBytes(c + 1, c, Rc_plus_1));
-            // Step 11: 重新加密 bsw
-            byte[] H5 = hashFunction(Kp_prime, c + 1);
-            ep = bsp.xor(new BigInteger(1, H5));
+    /**
+     * 在线程池中并发搜索所有前缀(PDB)和关键字(KDB)，每条链由 searchToken 独立处理。
+     * 各任务的客户端/服务器耗时之和会超过实际延迟，因此按两者的比例折算到本阶段的墙钟时间后再累加到 times。
+     *
+     * @param prefixes 前缀集合
+     * @param keywords 关键字集合
+     * @param times    累加的客户端/服务器耗时(ns)
+     * @return 各前缀的位图，随后是各关键字的位图；没有状态的令牌对应 null
+     */
+    private List<WordBitmap> searchTokensInParallel(List<String> prefixes, String[] keywords, long[] times) throws Exception {
+        int n = prefixes.size() + keywords.length;
+        long[][] taskTimes = new long[n][2];
+        List<Callable<WordBitmap>> tasks = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int k = i;
+            tasks.add(() -> k < prefixes.size()
+                    ? searchToken(prefixes.get(k), PDB, taskTimes[k])
+                    : searchToken(keywords[k - prefixes.size()], KDB, taskTimes[k]));
+        }
+        long startTime = System.nanoTime();
+        List<WordBitmap> results = invokeAll(tasks);
+        long wallTime = System.nanoTime() - startTime;
+
+        long clientTime = 0;
+        long serverTime = 0;
+        for (long[] t : taskTimes) {
+            clientTime += t[0];
+            serverTime += t[1];
+        }
+        long serverShare = clientTime + serverTime == 0 ? 0
+                : Math.round(wallTime * ((double) serverTime / (clientTime + serverTime)));
+        times[0] += wallTime - serverShare;
+        times[1] += serverShare;
+        return results;
+    }
 
-            // 客户端接收部分结束计时
-            long client_time_dec_end = System.nanoTime();
-            // 服务器更新 SS
-            SS.put(new String(Kp, StandardCharsets.UTF_8), ep);
-            // 累加客户端和服务器的时间
-            totalClientTime += (client_time_dec_end - server_time_loop_end);
-            Sump = Sump.or(bsp);
+    /**
+     * 用计数器 counter 的掩码原地加密/解密位图：全宽模式下为 AES-CTR 密钥流，否则为 H(Kw', counter)。
+     * 同一掩码只生成一次，异或到所有 targets 上。
+     *
+     * @return targets[0]
+     */
+    private WordBitmap mask(byte[] Kw_prime, int counter, WordBitmap... targets) {
+        if (maskGenerator != null) {
+            byte[] keystream = maskGenerator.keystream(Kw_prime, counter);
+            for (WordBitmap target : targets) {
+                maskGenerator.xorInto(target, keystream);
+            }
+        } else {
+            byte[] hash = maskHash(Kw_prime, counter);
+            for (WordBitmap target : targets) {
+                target.xorMask(hash);
+            }
         }
-        //存储w位图结果
-        BigInteger Sumw = BigInteger.ZERO;
-        // 客户端处理关键字集合
-        for (String w : WQ) {
-            // 客户端部分计时
-            long client_time1 = System.nanoTime();
+        return targets[0];
+    }
 
-            // Step 1: 生成Kw和Kw_prime (客户端)
-            byte[] combinedKey = pseudoRandomFunction(new byte[LAMBDA], w);
-            byte[] Kw = new byte[LAMBDA / 8];
-            byte[] Kw_prime = new byte[LAMBDA / 8];
-            System.arraycopy(combinedKey, 0, Kw, 0, LAMBDA / 8);
-            System.arraycopy(combinedKey, LAMBDA / 8, Kw_prime, 0, LAMBDA / 8);
+    // 令牌 -> 条带锁
+    private ReentrantLock lockFor(String token) {
+        return tokenLocks[stripeOf(token)];
+    }
 
-            // Step 2: 获取客户端的当前关键词状态
-            ClientStateBytes state = SC.get(w);
-            // 客户端部分结束计时
-            long client_time2 = System.nanoTime();
-            if (state == null) {
-                exist = false;
-//                System.out.println("没有匹配:"+w+"的结果");
-                totalClientTime += (client_time2 - client_time1);
-                // 服务器耗时不增
-                break;
-            }
-            // Step 3: 检查状态是否为null
+    private int stripeOf(String token) {
+        return (token.hashCode() & 0x7fffffff) % tokenLocks.length;
+    }
 
-            // 记录 Rc, c0, c (客户端)
-            byte[] Ri = state.getRc();
-            int c0 = state.getC0();
-            int c = state.getC();
-            totalClientTime += (client_time2 - client_time1);
+    // 按固定顺序获取全部条带锁，期间所有更新与搜索都被阻塞
+    private void lockAll() {
+        for (ReentrantLock lock : tokenLocks) {
+            lock.lock();
+        }
+    }
 
-            // 开始服务器部分计时
-            long server_time_loop_start = System.nanoTime();
-
-            // Step 1: 检查 SS[Kw] 的状态 (服务器)
-            // 如果不存在，则初始化为全0的BigInteger
-            BigInteger ew = SS.getOrDefault(new String(Kw, StandardCharsets.UTF_8), BigInteger.ZERO); // 从SS中读取
-            // Step 2: 初始化一个空的map来存储结果E (服务器)
-            Map<Integer, BigInteger[]> E = new HashMap<>();
-
-            // Step 3: 从c到c0进行循环 (服务器)
-            for (int i = c; i >= c0; i--) {
-                // Step 4: 计算I
-                byte[] I = hashFunction(Kw, Ri);
-
-                // Step 5: 从PDB中检索密文
-                CipherTextBytes ciphertext = KDB.get(new String(I, StandardCharsets.UTF_8));
-
-                // Step 6: 将检索到的密文存储在E中 (只存储ea和eb)
-                BigInteger ea = ciphertext.getEa();
-                BigInteger eb = ciphertext.getEb();
-                E.put(i - c0, new BigInteger[]{ea, eb});
-
-                // Step 7: 从PDB中移除该密文
-                KDB.remove(new String(I, StandardCharsets.UTF_8));
-
-                // Step 8: 更新Ri-1 = C ⊕ H2(Kw, Ri)
-                byte[] C = ciphertext.getC();
-//                Ri = new BigInteger(C).xor(new BigInteger(hashFunction(Kw, Ri))).intValue();
-                Ri = xorBytes(C, hashFunction(Kw, Ri));
-            }
+    private void unlockAll() {
+        for (int i = tokenLocks.length - 1; i >= 0; i--) {
+            tokenLocks[i].unlock();
+        }
+    }
 
-            // 服务器部分结束计时
-            long server_time_loop_end = System.nanoTime();
-            totalServerTime += (server_time_loop_end - server_time_loop_start);
-            // 开始客户端接收并处理部分计时
-//            long client_time3 = System.nanoTime();
-
-            // Step 1: 初始化匹配文件的位图 (客户端)
-            BigInteger bsw = BigInteger.ZERO;
-
-            // Step 2-3: 解密ew (客户端)
-            if (!ew.equals(BigInteger.ZERO)) {
-                bsw = ew;
-                byte[] H5 = hashFunction(Kw_prime, c0);
-                BigInteger H5BigInt = new BigInteger(1, H5);
-                bsw = bsw.xor(H5BigInt);  // 执行异或操作
+    /**
+     * 保存客户端状态 SC 的快照。PRF 密钥是固定的，不写入快照。
+     * 保存期间持有全部条带锁，快照是某一时刻的一致状态。
+     * <p>
+     * 格式：参数(maxFiles, order, dimension, 是否全宽掩码)后，每个令牌一条记录：
+     * int 长度 + UTF-8 令牌、int c0、int c、int 长度 + Rc，以长度 -1 结束。
+     */
+    public void saveClientState(Path file) throws IOException {
+        lockAll();
+        try (SnapshotWriter out = new SnapshotWriter(file, CLIENT_SNAPSHOT_MAGIC, SNAPSHOT_VERSION)) {
+            writeParameters(out);
+            for (Map.Entry<String, ClientStateBytes> entry : SC.entrySet()) {
+                byte[] token = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                ClientStateBytes state = entry.getValue();
+                byte[] Rc = state.getRc();
+                out.reserve(4 + token.length + 4 + 4 + 4 + Rc.length)
+                        .putInt(token.length).put(token)
+                        .putInt(state.getC0()).putInt(state.getC())
+                        .putInt(Rc.length).put(Rc);
             }
+            out.endSection();
+            out.commit();
+        } finally {
+            unlockAll();
+        }
+    }
 
-            // Step 5: 循环解密每个密文并更新bsw (客户端)
-            for (int i = c0; i <= c; i++) {
-                BigInteger[] encryptPDBiBitmap = E.get(i - c0);
-                BigInteger ea = encryptPDBiBitmap[0];
-                BigInteger eb = encryptPDBiBitmap[1];
+    /**
+     * 用快照替换当前的客户端状态 SC。整个文件读完并检查无误后才替换，文件损坏时 SC 保持不变
+     *
+     * @throws IOException 文件损坏，或快照的参数与本实例不同
+     */
+    public void loadClientState(Path file) throws IOException {
+        lockAll();
+        try (SnapshotReader in = new SnapshotReader(file, CLIENT_SNAPSHOT_MAGIC, SNAPSHOT_VERSION)) {
+            checkParameters(in, file);
+            Map<String, ClientStateBytes> loaded = new HashMap<>();
+            int length;
+            while ((length = in.getInt()) != -1) {
+                byte[] token = new byte[length];
+                in.require(length).get(token);
+                int c0 = in.getInt();
+                int c = in.getInt();
+                byte[] Rc = in.getBytes();
+                loaded.put(new String(token, StandardCharsets.UTF_8), new ClientStateBytes(c0, c, Rc));
+            }
+            in.requireEnd();
+            SC.clear();
+            SC.putAll(loaded);
+            clearSearchCache();
+        } finally {
+            unlockAll();
+        }
+    }
 
-                BigInteger hashKw_prime_H3 = new BigInteger(1, hashFunction(Kw_prime, i));
-                BigInteger hashKw_prime_H4 = new BigInteger(1, hashFunction(Kw_prime, i));
-                BigInteger bsa = ea.xor(hashKw_prime_H3);
-                BigInteger bsb = eb.xor(hashKw_prime_H4);
+    /**
+     * 保存服务器状态 PDB、KDB、SS 的快照，密文保留各自的存储形式(展开或压缩)。
+     * 格式：参数后依次为 PDB、KDB、SS 三节，每条记录为 int 长度 + 128 位标签 + 编码内容。
+     */
+    public void saveServerState(Path file) throws IOException {
+        lockAll();
+        try (SnapshotWriter out = new SnapshotWriter(file, SERVER_SNAPSHOT_MAGIC, SNAPSHOT_VERSION)) {
+            writeParameters(out);
+            out.writeStore(PDB, CipherTextBytesCodec.INSTANCE);
+            out.writeStore(KDB, CipherTextBytesCodec.INSTANCE);
+            out.writeStore(SS, StoredBitmapCodec.INSTANCE);
+            out.commit();
+        } finally {
+            unlockAll();
+        }
+    }
 
-                // 更新bsw,not按位取反，negate取负数
-                bsw = bsw.and(bsa.not()).xor(bsa.and(bsb));
+    /**
+     * 用快照替换当前的服务器状态；PDB/KDB 为堆外存储时直接写入映射文件。
+     * 快照先解码到新的存储中(堆外存储时位于 storeDirectory/loading 下)，整个文件读完并检查无误后才替换
+     * PDB、KDB、SS 的内容，文件损坏时当前状态保持不变
+     *
+     * @throws IOException 文件损坏，或快照的参数与本实例不同
+     */
+    public void loadServerState(Path file) throws IOException {
+        lockAll();
+        Path loading = storeDirectory == null ? null : storeDirectory.resolve("loading");
+        try (SnapshotReader in = new SnapshotReader(file, SERVER_SNAPSHOT_MAGIC, SNAPSHOT_VERSION);
+             CipherStore<CipherTextBytes> loadedPDB = openStore(loading, "PDB");
+             CipherStore<CipherTextBytes> loadedKDB = openStore(loading, "KDB")) {
+            checkParameters(in, file);
+            LabelMap<StoredBitmap> loadedSS = new LabelMap<>();
+            in.readStore(loadedPDB, CipherTextBytesCodec.INSTANCE);
+            in.readStore(loadedKDB, CipherTextBytesCodec.INSTANCE);
+            in.readStore(loadedSS, StoredBitmapCodec.INSTANCE);
+            in.requireEnd();
+            replaceContents(PDB, loadedPDB);
+            replaceContents(KDB, loadedKDB);
+            replaceContents(SS, loadedSS);
+        } finally {
+            try {
+                if (loading != null) {
+                    // 关闭时已删除其中的文件，只剩空目录
+                    Files.deleteIfExists(loading.resolve("PDB"));
+                    Files.deleteIfExists(loading.resolve("KDB"));
+                    Files.deleteIfExists(loading);
+                }
+            } finally {
+                unlockAll();
             }
+        }
+    }
 
-            // Step 10: 更新客户端状态
-            byte[] Rc_plus_1 = generateRandomRc();
-            SC.put(w, new ClientStateBytes(c + 1, c, Rc_plus_1));
-            // Step 11: 重新加密 bsw
-            byte[] H5 = hashFunction(Kw_prime, c + 1);
-            ew = bsw.xor(new BigInteger(1, H5));
+    // 存储对象本身不换，预写日志等持有的引用仍然有效
+    private static <V> void replaceContents(CipherStore<V> store, CipherStore<V> loaded) {
+        store.clear();
+        loaded.forEach(store::put);
+    }
 
-            // 客户端接收部分结束计时
-            long client_time_dec_end = System.nanoTime();
-            // 记录结束时间并计算本次迭代的耗时
-//            long loopEndTime = System.nanoTime();
-//            long loopDurationNs = loopEndTime - loopStartTime;
-//            totalLoopTime += loopDurationNs; // 累加每次迭代的时间
+    /**
+     * 开启预写日志。之后每次 ObjectUpdate 以及搜索对 SC、SS 的改写都先记入 directory 下的日志，
+     * 操作返回前日志已写出(fsync 为 true 时已刷盘)；并发的操作共享同一次刷盘(组提交)。
+     * <p>
+     * directory 中已有检查点快照时先用它替换本实例的状态，然后按顺序重放其后的日志，即崩溃恢复；
+     * 恢复完成后立即做一次检查点，使目录包含本实例的全部状态。
+     *
+     * @param fsync 为 false 时只写入操作系统缓存，进程崩溃不丢失更新，断电可能丢失
+     * @return 重放的日志记录数
+     */
+    public long openWriteAheadLog(Path directory, boolean fsync) throws IOException {
+        lockAll();
+        try {
+            if (journal != null) {
+                throw new IllegalStateException("write-ahead log is already open");
+            }
+            UpdateJournal opened = new UpdateJournal(directory, fsync, SC, SS, PDB, KDB);
+            if (Files.exists(opened.clientSnapshot())) {
+                loadClientState(opened.clientSnapshot());
+            }
+            if (Files.exists(opened.serverSnapshot())) {
+                loadServerState(opened.serverSnapshot());
+            }
+            long replayed = opened.recover();
+            // 重放直接改写了 SC
+            clearSearchCache();
+            journal = opened;
+            checkpoint();
+            return replayed;
+        } finally {
+            unlockAll();
+        }
+    }
 
-//            double loopDurationMs = loopDurationNs / 1e6;
-            //System.out.println(" search took " + loopDurationNs + " ns (" + loopDurationMs + " ms).");
+    /**
+     * 检查点：换到新的一代日志，把当前状态写成 client.snapshot / server.snapshot，再删除旧日志。
+     * 期间持有全部条带锁。
+     */
+    public void checkpoint() throws IOException {
+        lockAll();
+        try {
+            UpdateJournal journal = requireJournal();
+            // 先换日志：若在写快照时崩溃，旧快照加上旧日志仍能恢复
+            journal.rotate();
+            saveClientState(journal.clientSnapshot());
+            saveServerState(journal.serverSnapshot());
+            journal.deleteOldGenerations();
+        } finally {
+            unlockAll();
+        }
+    }
 
-            // 服务器更新 SS
-            SS.put(new String(Kw, StandardCharsets.UTF_8), ew);
-            // 累加客户端和服务器的时间
-            totalClientTime += (client_time_dec_end - server_time_loop_end);
-            Sumw = Sumw.or(bsw);
+    /**
+     * 设置自动检查点的阈值：当前一代日志超过 bytes 字节后，下一次更新或搜索结束时做检查点。0 表示不自动做检查点。
+     */
+    public void setCheckpointInterval(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("checkpoint interval must not be negative");
         }
-        // 将累计的客户端和服务器时间分别存储到列表中
-        clientSearchTimes.add(totalClientTime / 1e6);
-        serverSearchTimes.add(totalServerTime / 1e6);
-        if (!exist) return BigInteger.ZERO;
-        // 输出总耗时
-//        double totalLoopTimeMs = totalLoopTime / 1e6;
-//        findIndexesOfOne(Sump);
-//        findIndexesOfOne(Sumw);
-//        System.out.println("Total loop time: " + totalLoopTime + " ns (" + totalLoopTimeMs + " ms).");
-//        System.out.println("RSKQ_Biginteger Total search time: " + (totalLoopTime+precoverTime) + " ns (" + (totalLoopTimeMs+(precoverTime/1e6)) + " ms).");
-        return Sump.and(Sumw);
+        this.checkpointInterval = bytes;
     }
 
-    public BigInteger GRQSearch(BigInteger[][] Matrix) throws Exception {
-        long totalLoopTime = 0; // 初始化总时间变量
-        // 客户端：生成搜索请求
-        long startTime = System.nanoTime();
-        List<String> BPC = preCover(Matrix);
-//        System.out.println("PreCover time: " + precoverTime + " ns (" + (precoverTime/1e6) + " ms).");
-        // 累积的客户端和服务器时间
-        long totalClientTime = System.nanoTime() - startTime;
-        long totalServerTime = 0;
-        //存储p位图结果
-        BigInteger Sump = BigInteger.ZERO;
-        boolean exist = true;
-        // 客户端处理前缀集合
-        for (String p : BPC) {
-            // 客户端部分计时
-            long client_time_loop_start = System.nanoTime();
+    // 关闭预写日志，已追加的记录全部写出；未开启时不做任何事
+    public void closeWriteAheadLog() throws IOException {
+        lockAll();
+        try {
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
+        } finally {
+            unlockAll();
+        }
+    }
 
-            // Step 1: 生成Kw和Kw_prime (客户端)
-            byte[] combinedKey = pseudoRandomFunction(new byte[LAMBDA], p);
-            byte[] Kp = new byte[LAMBDA / 8];
-            byte[] Kp_prime = new byte[LAMBDA / 8];
-            System.arraycopy(combinedKey, 0, Kp, 0, LAMBDA / 8);
-            System.arraycopy(combinedKey, LAMBDA / 8, Kp_prime, 0, LAMBDA / 8);
+    // 当前一代日志的字节数
+    public long getWriteAheadLogBytes() {
+        return requireJournal().size();
+    }
 
-            // Step 2: 获取客户端的当前关键词状态
-            ClientStateBytes state = SC.get(p);
-            // 客户端部分结束计时
-            long client_time_loop_end = System.nanoTime();
-            // 若state为null，则跳出循环
-            if (state == null) {
-//                exist = false;
-//                System.out.println("没有匹配:"+p+"的结果");
-                totalClientTime += (client_time_loop_end - client_time_loop_start);
-                // 没有进行服务器操作，因此设为0
-                continue;
-            }
-            // Step 3: 检查状态是否为null
+    // 日志实际写出/刷盘的次数，与更新的令牌数之比反映组提交的合并程度
+    public long getWriteAheadLogSyncs() {
+        return requireJournal().syncCount();
+    }
 
-            // 记录 Rc, c0, c (客户端)
-            byte[] Ri = state.getRc();
-            int c0 = state.getC0();
-            int c = state.getC();
+    private void clearSearchCache() {
+        SearchResultCache cache = searchCache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
 
-            totalClientTime += (client_time_loop_end - client_time_loop_start);
+    private UpdateJournal requireJournal() {
+        UpdateJournal journal = this.journal;
+        if (journal == null) {
+            throw new IllegalStateException("write-ahead log is not open");
+        }
+        return journal;
+    }
 
-            // 开始服务器部分计时
-            long server_time_loop_start = System.nanoTime();
-
-            // Step 1: 检查 SS[Kw] 的状态 (服务器)
-            // 如果不存在，则初始化为全0的BigInteger
-            BigInteger ep = SS.getOrDefault(new String(Kp, StandardCharsets.UTF_8), BigInteger.ZERO); // 从SS中读取
-            // Step 2: 初始化一个空的map来存储结果E (服务器)
-            Map<Integer, BigInteger[]> E = new HashMap<>();
-
-            // Step 3: 从c到c0进行循环 (服务器)
-            for (int i = c; i >= c0; i--) {
-                // Step 4: 计算I
-                String keyI = new String(hashFunction(Kp, Ri), StandardCharsets.UTF_8);
-                if (!PDB.containsKey(keyI)) {
-//                    System.out.println("Key does not exist in PDB: " + keyI);
-//                    System.out.printf("p: %s |", p);
-                    continue;
-//                System.out.print(findRIndexes(Rc_plus_1));
+    // 等待本次操作的日志记录持久化，日志超过阈值时做检查点
+    private void commitJournal() throws IOException {
+        UpdateJournal journal = this.journal;
+        if (journal == null) {
+            return;
+        }
+        journal.sync();
+        long interval = checkpointInterval;
+        if (interval > 0 && journal.size() >= interval) {
+            lockAll();
+            try {
+                // 并发的操作可能已经做过检查点
+                if (this.journal == journal && journal.size() >= interval) {
+                    checkpoint();
                 }
-                // Step 5: 从PDB中检索密文
-                CipherTextBytes ciphertext = PDB.get(keyI);
+            } finally {
+                unlockAll();
+            }
+        }
+    }
 
-                // Step 6: 将检索到的密文存储在E中 (只存储ea和eb)
-                E.put(i - c0, new BigInteger[]{ciphertext.getEa(), ciphertext.getEb()});
+    private void writeParameters(SnapshotWriter out) throws IOException {
+        out.putInt(maxFiles);
+        out.putInt(order);
+        out.putInt(dimension);
+        out.putBoolean(maskGenerator != null);
+    }
 
-                // Step 7: 从PDB中移除该密文
-                PDB.remove(keyI);
+    private void checkParameters(SnapshotReader in, Path file) throws IOException {
+        int snapshotMaxFiles = in.getInt();
+        int snapshotOrder = in.getInt();
+        int snapshotDimension = in.getInt();
+        boolean snapshotFullWidthMask = in.getBoolean();
+        if (snapshotMaxFiles != maxFiles || snapshotOrder != order || snapshotDimension != dimension
+                || snapshotFullWidthMask != (maskGenerator != null)) {
+            throw new IOException(String.format(
+                    "snapshot %s was taken with maxFiles=%d, order=%d, dimension=%d, fullWidthMask=%b",
+                    file, snapshotMaxFiles, snapshotOrder, snapshotDimension, snapshotFullWidthMask));
+        }
+    }
 
-                // Step 8: 更新Ri-1 = C ⊕ H2(Kw, Ri)
-                byte[] C = ciphertext.getC();
-                Ri = xorBytes(C, hashFunction(Kp, Ri));
-            }
+    public BigInteger GRQSearch(BigInteger[][] Matrix) throws Exception {
+        // 客户端：生成搜索请求
+        long startTime = System.nanoTime();
+        List<String> BPC = preCover(Matrix);
+        return GRQSearch(BPC, System.nanoTime() - startTime).toBigInteger();
+    }
 
-            // 服务器部分结束计时
-            long server_time_loop_end = System.nanoTime();
-            totalServerTime += (server_time_loop_end - server_time_loop_start);
-            // 开始客户端接收并处理部分计时
-//            long client_time_dec_start = System.nanoTime();
+    public BigInteger GRQSearch(long[] lowerLeft, long[] upperRight) throws Exception {
+        return GRQSearchResult(lowerLeft, upperRight).toBigInteger();
+    }
 
-            // Step 1: 初始化匹配文件的位图 (客户端)
-            BigInteger bsp = BigInteger.ZERO;
+    // 同 GRQSearch(lowerLeft, upperRight)，直接返回位图形式的结果
+    public SearchResult GRQSearchResult(long[] lowerLeft, long[] upperRight) throws Exception {
+        // 客户端：生成搜索请求
+        long startTime = System.nanoTime();
+        List<String> BPC = preCover(lowerLeft, upperRight);
+        return SearchResult.of(GRQSearch(BPC, System.nanoTime() - startTime));
+    }
 
-            // Step 2-3: 解密ep (客户端)
-            if (!ep.equals(BigInteger.ZERO)) {
-                bsp = ep.xor(new BigInteger(1, hashFunction(Kp_prime, c0)));  // 执行异或操作
+    private WordBitmap GRQSearch(List<String> BPC, long precoverTime) throws Exception {
+        // 累积的客户端和服务器时间, times[0] 为客户端, times[1] 为服务器
+        long[] times = {precoverTime, 0};
+        //存储p位图结果
+        WordBitmap Sump = new WordBitmap();
+        // 客户端处理前缀集合
+        List<WordBitmap> results;
+        if (batchedSearch) {
+            results = searchTokensBatched(BPC, new String[0], times);
+        } else if (parallelSearch) {
+            results = searchTokensInParallel(BPC, new String[0], times);
+        } else {
+            results = new ArrayList<>(BPC.size());
+            for (String p : BPC) {
+                results.add(searchToken(p, PDB, times));
             }
-
-            // Step 5: 循环解密每个密文并更新bsw (客户端)
-            for (int i = c0; i <= c; i++) {
-                BigInteger hashKw_prime_H3 = new BigInteger(1, hashFunction(Kp_prime, i));
-//                BigInteger hashKw_prime_H4 = new BigInteger(1, hashFunction(Kw_prime, i));
-                if (E.containsKey(i - c0)) {
-                    BigInteger bsa = E.get(i - c0)[0].xor(hashKw_prime_H3);
-                    BigInteger bsb = E.get(i - c0)[1].xor(hashKw_prime_H3);
-                    // 更新bsw,not按位取反，negate取负数
-                    bsp = bsp.and(bsa.not()).xor(bsa.and(bsb));
-                }
+        }
+        for (WordBitmap bsp : results) {
+            // 若state为null，则该前缀没有匹配结果
+            if (bsp != null) {
+                Sump.or(bsp);
             }
-            // Step 10: 更新客户端状态
-            SC.put(p, new ClientStateBytes(c + 1, c, generateRandomRc()));
-            // Step 11: 重新加密 bsw
-            ep = bsp.xor(new BigInteger(1, hashFunction(Kp_prime, c + 1)));
-            // 客户端接收部分结束计时
-            long client_time_dec_end = System.nanoTime();
-            // 服务器更新 SS
-            SS.put(new String(Kp, StandardCharsets.UTF_8), ep);
-            // 累加客户端和服务器的时间
-            totalClientTime += (client_time_dec_end - server_time_loop_end);
-            Sump = Sump.or(bsp);
         }
+        commitJournal();
         // 将累计的客户端和服务器时间分别存储到列表中
-        clientSearchTimes.add(totalClientTime / 1e6);
-        serverSearchTimes.add(totalServerTime / 1e6);
-        if (!exist) return BigInteger.ZERO;
+        clientSearchTimes.add(times[0] / 1e6);
+        serverSearchTimes.add(times[1] / 1e6);
         return Sump;
     }
 
@@ -1177,7 +1602,7 @@ public class RSKQ_Biginteger {
      * @param b 字节数组b
      * @return 异或后的结果
      */
-    private byte[] xorBytes(byte[] a, byte[] b) {
+    static byte[] xorBytes(byte[] a, byte[] b) {
         if (b.length < a.length) {
             throw new IllegalArgumentException("Input array 'b' must be at least as long as 'a'");
         }
@@ -1200,6 +1625,18 @@ public class RSKQ_Biginteger {
         return this.KDB.size();
     }
 
+    /**
+     * 服务器存储 PDB、KDB、SS 实际占用的字节数：每条记录计 16 字节的标签，加上 C、ea、eb 或 SS 位图的大小。
+     */
+    public long getStorageBytes() {
+        // 堆外存储逐条解码遍历，不一次性取出所有密文
+        long[] bytes = new long[1];
+        PDB.forEachValue(ciphertext -> bytes[0] += HASH_OUTPUT_LENGTH + ciphertext.sizeInBytes());
+        KDB.forEachValue(ciphertext -> bytes[0] += HASH_OUTPUT_LENGTH + ciphertext.sizeInBytes());
+        SS.forEachValue(ew -> bytes[0] += HASH_OUTPUT_LENGTH + ew.sizeInBytes());
+        return bytes[0];
+    }
+
     // 获取更新操作的平均时间
     public double getAverageUpdateTime() {
         return totalUpdateTimes.stream().mapToDouble(Double::doubleValue).average().orElse(0.0);
@@ -1215,6 +1652,16 @@ public class RSKQ_Biginteger {
         return serverSearchTimes.stream().mapToDouble(Double::doubleValue).average().orElse(0.0);
     }
 
+    // 规划查询的平均规划耗时
+    public double getAveragePlannerTime() {
+        return plannerSearchTimes.stream().mapToDouble(Double::doubleValue).average().orElse(0.0);
+    }
+
+    // 规划查询因提前结束平均省下的时间(估计)
+    public double getAverageSavedTime() {
+        return savedSearchTimes.stream().mapToDouble(Double::doubleValue).average().orElse(0.0);
+    }
+
     public double getAverageSearchTime() {
         if (clientSearchTimes.size() != serverSearchTimes.size() || clientSearchTimes.isEmpty()) {
             System.out.println("列表大小不一致或者为空，无法计算平均搜索时间。");
@@ -1235,6 +1682,8 @@ public class RSKQ_Biginteger {
     public void clearSearchTime() {
         serverSearchTimes.clear();
         clientSearchTimes.clear();
+        plannerSearchTimes.clear();
+        savedSearchTimes.clear();
     }
 
     public void removeExtremesUpdateTime() {
@@ -0,0 +1,443 @@
+package org.davidmoten.Scheme.RSKQ;
+
+import org.davidmoten.BPC.HilbertRangeCover;
+import org.davidmoten.Bitmap.BitmapCodec;
+import org.davidmoten.Bitmap.BitmapStorage;
+import org.davidmoten.Bitmap.SearchResult;
+import org.davidmoten.Bitmap.StoredBitmap;
+import org.davidmoten.Bitmap.WordBitmap;
+import org.davidmoten.Crypto.PRFEngine;
+import org.davidmoten.Hilbert.HilbertComponent.HilbertCurve;
+import org.davidmoten.Net.FrameChannel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * RSKQ 的客户端：持有 PRF 密钥与客户端状态 SC，通过 FrameChannel 与 RSKQ_Server 通信，协议见 WireProtocol。
+ * <p>
+ * 更新时在本地生成全部密文，一个 UPDATE 帧发出并等待确认；
+ * 搜索时把所有前缀与关键字的 (Kw, Rc, c0, c) 放入一个 SEARCH 帧，一次往返取回各令牌的密文，
+ * 边接收边解密，最后把重新加密的 ew 用一个 STORE 帧写回，服务器此时才删除取出的密文。
+ * STORE_OK 在下一个请求之前读取，搜索仍只等待一次往返；服务器拒绝 STORE 时这些令牌的状态恢复到搜索之前，与服务器上未变的链一致。
+ * 回复无法解析或类型不符时关闭连接，之后的请求都会失败，而不是把剩余的回复当成下一个请求的回复。
+ * <p>
+ * 一个客户端对应一条连接，请求按顺序执行；并发的客户端应各自建立连接并使用不同的密钥。
+ */
+public class RSKQ_Client implements Closeable {
+    // 列表用于存储 update 和 search 的时间(ms)
+    public List<Double> totalUpdateTimes = Collections.synchronizedList(new ArrayList<>());   // 更新的端到端耗时
+    public List<Double> searchLatencies = Collections.synchronizedList(new ArrayList<>());    // 搜索的端到端耗时
+    public List<Double> serverSearchTimes = Collections.synchronizedList(new ArrayList<>());  // 服务器报告的处理时间
+
+    private final FrameChannel channel;
+    private final Map<String, ClientStateBytes> SC = new HashMap<>(); // 只在持有 this 的监视器时访问
+    private final PRFEngine prf;
+    private final MaskGenerator maskGenerator; // 全宽掩码；为 null 时使用 128 位的哈希掩码
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final int order;
+    private final HilbertCurve hilbertCurve;
+    private final HilbertRangeCover rangeCover;
+    private BitmapStorage bitmapStorage = BitmapStorage.DENSE;
+    private SearchResultCache searchCache; // 搜索结果缓存，未开启时为 null
+    private List<String> storedTokens; // 已发送 STORE、尚未读取 STORE_OK 的令牌，没有时为 null
+    private ClientStateBytes[] previousStates; // storedTokens 在搜索之前的状态
+
+    /**
+     * 使用随机生成的 PRF 密钥
+     */
+    public RSKQ_Client(int maxFiles, int order, int dimension, FrameChannel channel) {
+        this(maxFiles, order, dimension, false, randomKey(), channel);
+    }
+
+    /**
+     * @param fullWidthMask 是否使用 AES-CTR 全宽掩码，需与其他实验中的 RSKQ_Biginteger 配置一致才能比较
+     * @param key           PRF 密钥 K
+     */
+    public RSKQ_Client(int maxFiles, int order, int dimension, boolean fullWidthMask, byte[] key, FrameChannel channel) {
+        this.channel = channel;
+        this.prf = new PRFEngine(key, RSKQ_Biginteger.LAMBDA / 8);
+        this.maskGenerator = fullWidthMask ? new MaskGenerator(maxFiles) : null;
+        this.order = order;
+        this.hilbertCurve = HilbertCurve.bits(order).dimensions(dimension);
+        this.rangeCover = new HilbertRangeCover(order, dimension);
+    }
+
+    private static byte[] randomKey() {
+        byte[] key = new byte[RSKQ_Biginteger.LAMBDA / 8];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+
+    public synchronized void setBitmapStorage(BitmapStorage bitmapStorage) {
+        this.bitmapStorage = bitmapStorage;
+    }
+
+    /**
+     * 开启搜索结果缓存，语义同 RSKQ_Biginteger.setSearchCacheCapacity；命中的令牌不发送给服务器，全部命中时查询不产生往返
+     *
+     * @param capacity 缓存的令牌数上限，0 表示关闭
+     */
+    public synchronized void setSearchCacheCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must be non-negative");
+        }
+        searchCache = capacity == 0 ? null : new SearchResultCache(capacity);
+    }
+
+    public synchronized long getSearchCacheHits() {
+        return searchCache == null ? 0 : searchCache.getHits();
+    }
+
+    /**
+     * 更新一个对象：为其全部前缀与关键字各生成一条密文，一次发送
+     *
+     * @return 端到端耗时(ms)
+     */
+    public double ObjectUpdate(long[] pSet, String[] W, String[] op, int[] files) throws IOException {
+        Map<String, BitSet[]> prefixGroups = new LinkedHashMap<>();
+        Map<String, BitSet[]> keywordGroups = new LinkedHashMap<>();
+        for (String p : RSKQ_Biginteger.preCode(hilbertCurve, order, pSet)) {
+            RSKQ_Biginteger.mergeBiBitmap(prefixGroups, p, op, files);
+        }
+        for (String w : W) {
+            RSKQ_Biginteger.mergeBiBitmap(keywordGroups, w, op, files);
+        }
+        return update(prefixGroups, keywordGroups);
+    }
+
+    /**
+     * 批量更新多个对象，同一批次中相同的令牌合并为一条密文，语义与 RSKQ_Biginteger 的批量 ObjectUpdate 相同
+     *
+     * @return 端到端耗时(ms)
+     */
+    public double ObjectUpdate(long[][] pSets, String[][] Ws, String[][] ops, int[][] files) throws IOException {
+        if (pSets.length != Ws.length || pSets.length != ops.length || pSets.length != files.length) {
+            throw new IllegalArgumentException("pSets, Ws, ops and files must have the same length");
+        }
+        Map<String, BitSet[]> prefixGroups = new LinkedHashMap<>();
+        Map<String, BitSet[]> keywordGroups = new LinkedHashMap<>();
+        for (int i = 0; i < pSets.length; i++) {
+            for (String p : RSKQ_Biginteger.preCode(hilbertCurve, order, pSets[i])) {
+                RSKQ_Biginteger.mergeBiBitmap(prefixGroups, p, ops[i], files[i]);
+            }
+            for (String w : Ws[i]) {
+                RSKQ_Biginteger.mergeBiBitmap(keywordGroups, w, ops[i], files[i]);
+            }
+        }
+        return update(prefixGroups, keywordGroups);
+    }
+
+    private synchronized double update(Map<String, BitSet[]> prefixGroups, Map<String, BitSet[]> keywordGroups)
+            throws IOException {
+        long startTime = System.nanoTime();
+        awaitStoreOk();
+        int count = prefixGroups.size() + keywordGroups.size();
+        List<byte[]> labels = new ArrayList<>(count);
+        List<CipherTextBytes> ciphertexts = new ArrayList<>(count);
+        // 收到 UPDATE_OK 后才写入 SC，服务器拒绝时客户端状态不变
+        Map<String, ClientStateBytes> nextStates = new LinkedHashMap<>();
+        int size = 4;
+        for (Map<String, BitSet[]> groups : List.of(prefixGroups, keywordGroups)) {
+            for (Map.Entry<String, BitSet[]> entry : groups.entrySet()) {
+                String token = entry.getKey();
+                PRFEngine.TokenKeys keys = prf.keys(token);
+                WordBitmap bsa = WordBitmap.of(entry.getValue()[0]);
+                WordBitmap bsb = WordBitmap.of(entry.getValue()[1]);
+                // Step 3: 随机生成 Rc+1，I = H1(Kw, Rc+1)
+                byte[] Rc_plus_1 = generateRandomRc();
+                byte[] I = RSKQ_Biginteger.hashFunction(keys.Kw, Rc_plus_1);
+                ClientStateBytes state = nextStates.get(token);
+                if (state == null) {
+                    state = SC.getOrDefault(token, new ClientStateBytes(0, -1, generateRandomRc()));
+                }
+                mask(keys.Kw_prime, state.getC() + 1, bsa, bsb);
+                CipherTextBytes ciphertext = new CipherTextBytes(
+                        RSKQ_Biginteger.xorBytes(I, state.getRc()),
+                        bitmapStorage.store(bsa),
+                        bitmapStorage.store(bsb)
+                );
+                nextStates.put(token, new ClientStateBytes(state.getC0(), state.getC() + 1, Rc_plus_1));
+                labels.add(I);
+                ciphertexts.add(ciphertext);
+                size += 1 + I.length + 4 + CipherTextBytesCodec.INSTANCE.size(ciphertext);
+            }
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(count);
+        for (int k = 0; k < count; k++) {
+            CipherTextBytes ciphertext = ciphertexts.get(k);
+            out.put(k < prefixGroups.size() ? WireProtocol.PDB_ID : WireProtocol.KDB_ID);
+            out.put(labels.get(k));
+            out.putInt(CipherTextBytesCodec.INSTANCE.size(ciphertext));
+            CipherTextBytesCodec.INSTANCE.write(ciphertext, out);
+        }
+        out.flip();
+        // Step 8: 将 (I, C, (ea, eb)) 发送到服务器
+        channel.send(WireProtocol.UPDATE, out);
+        expect(WireProtocol.UPDATE_OK);
+        // Step 7: 更新客户端状态
+        for (Map.Entry<String, ClientStateBytes> entry : nextStates.entrySet()) {
+            SC.put(entry.getKey(), entry.getValue());
+            if (searchCache != null) {
+                searchCache.invalidate(entry.getKey());
+            }
+        }
+
+        double totalTimeMs = (System.nanoTime() - startTime) / 1e6;
+        totalUpdateTimes.add(totalTimeMs);
+        return totalTimeMs;
+    }
+
+    /**
+     * 矩形 + 关键字查询
+     *
+     * @param lowerLeft  矩形左下角(包含)
+     * @param upperRight 矩形右上角(包含)
+     * @return 匹配文件的位图
+     */
+    public BigInteger ObjectSearch(long[] lowerLeft, long[] upperRight, String[] WQ) throws IOException {
+        return ObjectSearch(rangeCover.cover(lowerLeft, upperRight), WQ).toBigInteger();
+    }
+
+    // 同 ObjectSearch，直接返回位图形式的结果，不转换为 BigInteger
+    public SearchResult ObjectSearchResult(long[] lowerLeft, long[] upperRight, String[] WQ) throws IOException {
+        return SearchResult.of(ObjectSearch(rangeCover.cover(lowerLeft, upperRight), WQ));
+    }
+
+    private synchronized WordBitmap ObjectSearch(List<String> BPC, String[] WQ) throws IOException {
+        long startTime = System.nanoTime();
+        awaitStoreOk();
+        WordBitmap Sump = new WordBitmap();
+        WordBitmap Sumw = new WordBitmap();
+        // 没有状态的前缀不会匹配任何文件，不发送；没有状态的关键字使结果为空，整个查询不必发送
+        for (String w : WQ) {
+            if (!SC.containsKey(w)) {
+                searchLatencies.add((System.nanoTime() - startTime) / 1e6);
+                return new WordBitmap();
+            }
+        }
+        // 缓存命中的令牌直接合并，也不发送
+        List<String> tokens = new ArrayList<>(BPC.size() + WQ.length);
+        for (String p : BPC) {
+            if (SC.containsKey(p) && !mergeCached(p, Sump)) {
+                tokens.add(p);
+            }
+        }
+        int prefixCount = tokens.size();
+        for (String w : WQ) {
+            if (!mergeCached(w, Sumw)) {
+                tokens.add(w);
+            }
+        }
+        if (tokens.isEmpty()) {
+            searchLatencies.add((System.nanoTime() - startTime) / 1e6);
+            return Sump.and(Sumw);
+        }
+
+        // 客户端：一个 SEARCH 帧携带所有令牌
+        PRFEngine.TokenKeys[] keys = new PRFEngine.TokenKeys[tokens.size()];
+        ClientStateBytes[] states = new ClientStateBytes[tokens.size()];
+        int size = 4;
+        for (int k = 0; k < tokens.size(); k++) {
+            keys[k] = prf.keys(tokens.get(k));
+            states[k] = SC.get(tokens.get(k));
+            size += 1 + keys[k].Kw.length + 4 + 4 + 4 + states[k].getRc().length;
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(tokens.size());
+        for (int k = 0; k < tokens.size(); k++) {
+            byte[] Rc = states[k].getRc();
+            out.put(k < prefixCount ? WireProtocol.PDB_ID : WireProtocol.KDB_ID);
+            out.put(keys[k].Kw);
+            out.putInt(states[k].getC0()).putInt(states[k].getC());
+            out.putInt(Rc.length).put(Rc);
+        }
+        out.flip();
+        channel.send(WireProtocol.SEARCH, out);
+
+        // 逐个接收令牌的结果并解密，同时准备写回的 ew；收到 ERROR 时服务器的链与客户端状态都没有改变
+        WordBitmap[] results = new WordBitmap[tokens.size()];
+        ClientStateBytes[] nextStates = new ClientStateBytes[tokens.size()];
+        StoredBitmap[] ews = new StoredBitmap[tokens.size()];
+        int storeSize = 4;
+        double serverTimeMs;
+        try {
+            for (int received = 0; received < tokens.size(); received++) {
+                ByteBuffer in = expect(WireProtocol.SEARCH_RESULT);
+                int k = in.getInt();
+                WordBitmap bsw = decrypt(keys[k].Kw_prime, states[k], in);
+                (k < prefixCount ? Sump : Sumw).or(bsw);
+
+                int c = states[k].getC();
+                // Step 11: 重新加密 bsw
+                results[k] = bsw;
+                nextStates[k] = new ClientStateBytes(c + 1, c, generateRandomRc());
+                ews[k] = bitmapStorage.store(mask(keys[k].Kw_prime, c + 1, bsw.copy()));
+                storeSize += keys[k].Kw.length + BitmapCodec.serializedSize(ews[k]);
+            }
+            serverTimeMs = expect(WireProtocol.SEARCH_DONE).getLong() / 1e6;
+        } catch (RuntimeException e) {
+            // 回复格式错误，剩余的回复无法跳过
+            channel.close();
+            throw e;
+        }
+
+        ByteBuffer store = ByteBuffer.allocate(storeSize);
+        store.putInt(tokens.size());
+        for (int k = 0; k < tokens.size(); k++) {
+            store.put(keys[k].Kw);
+            BitmapCodec.write(ews[k], store);
+        }
+        store.flip();
+        channel.send(WireProtocol.STORE, store);
+        // Step 10: 更新客户端状态，服务器拒绝 STORE 时由 awaitStoreOk 恢复
+        for (int k = 0; k < tokens.size(); k++) {
+            SC.put(tokens.get(k), nextStates[k]);
+            if (searchCache != null) {
+                searchCache.put(tokens.get(k), nextStates[k], results[k]);
+            }
+        }
+        storedTokens = tokens;
+        previousStates = states;
+
+        searchLatencies.add((System.nanoTime() - startTime) / 1e6);
+        serverSearchTimes.add(serverTimeMs);
+        return Sump.and(Sumw);
+    }
+
+    // 令牌的状态未变且有缓存时把缓存的位图并入 sum
+    private boolean mergeCached(String token, WordBitmap sum) {
+        if (searchCache == null) {
+            return false;
+        }
+        WordBitmap cached = searchCache.get(token, SC.get(token));
+        if (cached == null) {
+            return false;
+        }
+        sum.or(cached);
+        return true;
+    }
+
+    /**
+     * 解密一个令牌的 SEARCH_RESULT：先解开 ew，再按计数器从小到大合并各密文的双位图
+     */
+    private WordBitmap decrypt(byte[] Kw_prime, ClientStateBytes state, ByteBuffer in) {
+        int c0 = state.getC0();
+        StoredBitmap ew = WireProtocol.getOptionalBitmap(in);
+        WordBitmap bsw = ew == null ? new WordBitmap() : mask(Kw_prime, c0, ew.toWordBitmap());
+        int count = in.getInt();
+        // 服务器按计数器从大到小发送
+        int[] counters = new int[count];
+        WordBitmap[][] E = new WordBitmap[count][];
+        for (int j = 0; j < count; j++) {
+            counters[j] = in.getInt();
+            E[j] = new WordBitmap[]{BitmapCodec.read(in).toWordBitmap(), BitmapCodec.read(in).toWordBitmap()};
+        }
+        for (int j = count - 1; j >= 0; j--) {
+            WordBitmap bsa = E[j][0];
+            WordBitmap bsb = E[j][1];
+            mask(Kw_prime, counters[j], bsa, bsb);
+            // 更新bsw = (bsw & ~bsa) ^ (bsa & bsb)
+            bsw.andNot(bsa).xor(bsb.and(bsa));
+        }
+        return bsw;
+    }
+
+    // 读取上一个 STORE 的回复；服务器拒绝时它没有删除任何密文，把这些令牌的状态恢复到搜索之前
+    private void awaitStoreOk() throws IOException {
+        List<String> tokens = storedTokens;
+        if (tokens == null) {
+            return;
+        }
+        ClientStateBytes[] previous = previousStates;
+        storedTokens = null;
+        previousStates = null;
+        FrameChannel.Frame frame = receive();
+        if (frame.type == WireProtocol.ERROR) {
+            for (int k = 0; k < tokens.size(); k++) {
+                SC.put(tokens.get(k), previous[k]);
+                if (searchCache != null) {
+                    searchCache.invalidate(tokens.get(k));
+                }
+            }
+        } else if (frame.type != WireProtocol.STORE_OK) {
+            channel.close();
+            throw new IOException("unexpected frame type " + frame.type + ", expected " + WireProtocol.STORE_OK);
+        }
+    }
+
+    // 接收下一帧并检查类型，服务器回复 ERROR 时抛出；类型不符时回复已错位，关闭连接
+    private ByteBuffer expect(byte type) throws IOException {
+        FrameChannel.Frame frame = receive();
+        if (frame.type == WireProtocol.ERROR) {
+            throw new IOException("server error: " + StandardCharsets.UTF_8.decode(frame.payload));
+        }
+        if (frame.type != type) {
+            channel.close();
+            throw new IOException("unexpected frame type " + frame.type + ", expected " + type);
+        }
+        return frame.payload;
+    }
+
+    private FrameChannel.Frame receive() throws IOException {
+        FrameChannel.Frame frame = channel.receive();
+        if (frame == null) {
+            throw new IOException("server closed the connection");
+        }
+        return frame;
+    }
+
+    // 与 RSKQ_Biginteger.mask 相同：全宽模式下为 AES-CTR 密钥流，否则为 H(Kw', counter)
+    private WordBitmap mask(byte[] Kw_prime, int counter, WordBitmap... targets) {
+        if (maskGenerator != null) {
+            byte[] keystream = maskGenerator.keystream(Kw_prime, counter);
+            for (WordBitmap target : targets) {
+                maskGenerator.xorInto(target, keystream);
+            }
+        } else {
+            byte[] hash = RSKQ_Biginteger.maskHash(Kw_prime, counter);
+            for (WordBitmap target : targets) {
+                target.xorMask(hash);
+            }
+        }
+        return targets[0];
+    }
+
+    // 生成长度为 λ 的随机数 Rc+1
+    private byte[] generateRandomRc() {
+        byte[] randomBytes = new byte[RSKQ_Biginteger.LAMBDA / 8];
+        secureRandom.nextBytes(randomBytes);
+        return randomBytes;
+    }
+
+    public long getBytesSent() {
+        return channel.getBytesSent();
+    }
+
+    public long getBytesReceived() {
+        return channel.getBytesReceived();
+    }
+
+    // 先读取最后一个 STORE 的回复，服务器不会在发送时遇到已关闭的连接
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            awaitStoreOk();
+        } finally {
+            channel.close();
+        }
+    }
+}
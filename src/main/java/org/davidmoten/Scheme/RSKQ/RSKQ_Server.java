@@ -0,0 +1,348 @@
+package org.davidmoten.Scheme.RSKQ;
+
+import org.davidmoten.Bitmap.BitmapCodec;
+import org.davidmoten.Bitmap.StoredBitmap;
+import org.davidmoten.Crypto.Blake2bHasher;
+import org.davidmoten.Net.FrameChannel;
+import org.davidmoten.Store.CipherStore;
+import org.davidmoten.Store.LabelMap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.Pipe;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * RSKQ 的服务器端：保存 PDB、KDB、SS，按 WireProtocol 处理 RSKQ_Client 的更新、搜索与写回。
+ * 服务器只看到标签、Kw 与 Rc，不持有任何密钥，也不解密位图。
+ * <p>
+ * 每个连接由一个线程顺序处理，多个连接(客户端)并发访问存储；不同客户端使用不同的密钥，因此它们的令牌链互不相交。
+ * 连接可以是 localhost 上的 socket(start)，也可以是进程内的 Pipe(connectInProcess)。
+ */
+public class RSKQ_Server implements Closeable {
+    private static final Logger logger = Logger.getLogger(RSKQ_Server.class.getName());
+
+    public final CipherStore<CipherTextBytes> PDB; // 以 128 位标签 I 为键
+    public final CipherStore<CipherTextBytes> KDB; // 以 128 位标签 I 为键
+    private final LabelMap<StoredBitmap> SS; // 以 Kw 为键
+    private final ExecutorService connections = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "rskq-server-connection");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Set<FrameChannel> openChannels = ConcurrentHashMap.newKeySet();
+    private final LongAdder updateRequests = new LongAdder();
+    private final LongAdder searchRequests = new LongAdder();
+    private final LongAdder searchTokens = new LongAdder();
+    private volatile ServerSocketChannel serverChannel;
+
+    public RSKQ_Server() throws IOException {
+        this(null);
+    }
+
+    /**
+     * @param storeDirectory PDB/KDB 的堆外存储目录，为 null 时存放在堆内
+     */
+    public RSKQ_Server(Path storeDirectory) throws IOException {
+        this.PDB = RSKQ_Biginteger.openStore(storeDirectory, "PDB");
+        this.KDB = RSKQ_Biginteger.openStore(storeDirectory, "KDB");
+        this.SS = new LabelMap<>();
+    }
+
+    /**
+     * 在回环地址上监听，每个接入的连接交给一个线程处理
+     *
+     * @param port 端口，0 表示由系统分配
+     * @return 实际监听的地址
+     */
+    public synchronized InetSocketAddress start(int port) throws IOException {
+        if (serverChannel != null) {
+            throw new IllegalStateException("server is already started");
+        }
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        serverChannel = channel;
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    SocketChannel socket = channel.accept();
+                    socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    connections.execute(() -> serveQuietly(new FrameChannel(socket, socket)));
+                }
+            } catch (ClosedChannelException e) {
+                // close() 停止监听
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "监听连接时发生错误，停止接受新连接", e);
+            }
+        }, "rskq-server-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return (InetSocketAddress) channel.getLocalAddress();
+    }
+
+    /**
+     * 通过两对进程内 Pipe 建立连接，不经过网络栈
+     *
+     * @return 客户端一侧的通道
+     */
+    public FrameChannel connectInProcess() throws IOException {
+        Pipe toServer = Pipe.open();
+        Pipe toClient = Pipe.open();
+        FrameChannel serverSide = new FrameChannel(toServer.source(), toClient.sink());
+        connections.execute(() -> serveQuietly(serverSide));
+        return new FrameChannel(toClient.source(), toServer.sink());
+    }
+
+    /**
+     * 在当前线程中处理一个连接上的请求，直到对端关闭连接
+     */
+    public void serve(FrameChannel channel) throws IOException {
+        openChannels.add(channel);
+        try {
+            Session session = new Session(channel);
+            FrameChannel.Frame frame;
+            while ((frame = channel.receive()) != null) {
+                try {
+                    handle(session, frame);
+                } catch (RuntimeException e) {
+                    // 请求格式错误等，回复错误后继续处理下一个请求；失败的 SEARCH 不会等到 STORE
+                    session.pending = null;
+                    byte[] message = String.valueOf(e).getBytes(StandardCharsets.UTF_8);
+                    channel.send(WireProtocol.ERROR, ByteBuffer.wrap(message));
+                }
+            }
+        } finally {
+            try {
+                channel.close();
+            } finally {
+                openChannels.remove(channel);
+            }
+        }
+    }
+
+    private void serveQuietly(FrameChannel channel) {
+        try {
+            serve(channel);
+        } catch (ClosedChannelException e) {
+            // 服务器关闭
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "处理连接时发生错误，连接已关闭", e);
+        }
+    }
+
+    // 一个连接的状态：上一个 SEARCH 取出、等待 STORE 确认后才删除的链
+    private static final class Session {
+        final FrameChannel channel;
+        PendingSearch pending;
+
+        Session(FrameChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    // SEARCH 中各令牌的库、Kw 与链上找到的标签，下标为令牌序号
+    private static final class PendingSearch {
+        final List<CipherStore<CipherTextBytes>> DBs;
+        final List<byte[]> Kws;
+        final List<List<byte[]>> labels;
+
+        PendingSearch(int count) {
+            DBs = new ArrayList<>(count);
+            Kws = new ArrayList<>(count);
+            labels = new ArrayList<>(count);
+        }
+    }
+
+    private void handle(Session session, FrameChannel.Frame frame) throws IOException {
+        ByteBuffer in = frame.payload;
+        switch (frame.type) {
+            case WireProtocol.UPDATE:
+                handleUpdate(session.channel, in);
+                break;
+            case WireProtocol.SEARCH:
+                handleSearch(session, in);
+                break;
+            case WireProtocol.STORE:
+                handleStore(session, in);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown frame type " + frame.type);
+        }
+    }
+
+    // 写入客户端生成的密文 (I, C, (ea, eb))；先解析整帧，格式错误时不写入任何密文
+    private void handleUpdate(FrameChannel channel, ByteBuffer in) throws IOException {
+        updateRequests.increment();
+        int count = in.getInt();
+        boolean[] keyword = new boolean[count];
+        byte[][] labels = new byte[count][];
+        CipherTextBytes[] ciphertexts = new CipherTextBytes[count];
+        for (int k = 0; k < count; k++) {
+            keyword[k] = in.get() == WireProtocol.KDB_ID;
+            labels[k] = WireProtocol.getLabel(in);
+            int length = in.getInt();
+            ciphertexts[k] = CipherTextBytesCodec.INSTANCE.read(in, length);
+        }
+        for (int k = 0; k < count; k++) {
+            (keyword[k] ? KDB : PDB).put(labels[k], ciphertexts[k]);
+        }
+        ByteBuffer reply = ByteBuffer.allocate(4).putInt(count);
+        reply.flip();
+        channel.send(WireProtocol.UPDATE_OK, reply);
+    }
+
+    /**
+     * 对每个令牌沿 c..c0 的链读取密文，处理完一个令牌立即把 ew 与密文发回，
+     * 客户端可以在服务器处理后续令牌时开始解密。密文在收到 STORE 后才删除，中途失败不会丢失数据。
+     */
+    private void handleSearch(Session session, ByteBuffer in) throws IOException {
+        searchRequests.increment();
+        // 客户端没有为上一个 SEARCH 发送 STORE，放弃它，链保持不变
+        session.pending = null;
+        FrameChannel channel = session.channel;
+        long serverTime = 0;
+        int count = in.getInt();
+        searchTokens.add(count);
+        PendingSearch pending = new PendingSearch(count);
+        for (int k = 0; k < count; k++) {
+            long start = System.nanoTime();
+            CipherStore<CipherTextBytes> DB = in.get() == WireProtocol.KDB_ID ? KDB : PDB;
+            byte[] Kw = WireProtocol.getLabel(in);
+            int c0 = in.getInt();
+            int c = in.getInt();
+            byte[] Ri = WireProtocol.getBytes(in);
+
+            StoredBitmap ew = SS.get(Kw);
+            List<CipherTextBytes> found = new ArrayList<>();
+            List<Integer> counters = new ArrayList<>();
+            List<byte[]> labels = new ArrayList<>();
+            int size = 4 + WireProtocol.optionalBitmapSize(ew) + 4;
+            // 整条链复用下一个 Ri 的缓冲区；找到的 I 留到 STORE 时删除，每次重新分配
+            byte[] next = new byte[Blake2bHasher.OUTPUT_BYTES];
+            for (int i = c; i >= c0; i--) {
+                byte[] I = new byte[Blake2bHasher.OUTPUT_BYTES];
+                Blake2bHasher.hash(Kw, Ri, I, 0);
+                CipherTextBytes ciphertext = DB.get(I);
+                if (ciphertext == null) {
+                    continue;
+                }
+                found.add(ciphertext);
+                counters.add(i);
+                labels.add(I);
+                size += 4 + BitmapCodec.serializedSize(ciphertext.getStoredEa())
+                        + BitmapCodec.serializedSize(ciphertext.getStoredEb());
+                // Ri-1 = C ⊕ H2(Kw, Ri)，H2(Kw, Ri) 即 I
+                System.arraycopy(I, 0, next, 0, I.length);
+                Ri = RSKQ_Biginteger.xorBytes(ciphertext.getC(), next);
+            }
+
+            ByteBuffer out = ByteBuffer.allocate(size);
+            out.putInt(k);
+            WireProtocol.putOptionalBitmap(out, ew);
+            out.putInt(found.size());
+            for (int j = 0; j < found.size(); j++) {
+                out.putInt(counters.get(j));
+                BitmapCodec.write(found.get(j).getStoredEa(), out);
+                BitmapCodec.write(found.get(j).getStoredEb(), out);
+            }
+            out.flip();
+            pending.DBs.add(DB);
+            pending.Kws.add(Kw);
+            pending.labels.add(labels);
+            serverTime += System.nanoTime() - start;
+            channel.send(WireProtocol.SEARCH_RESULT, out);
+        }
+        session.pending = pending;
+        ByteBuffer done = ByteBuffer.allocate(8).putLong(serverTime);
+        done.flip();
+        channel.send(WireProtocol.SEARCH_DONE, done);
+    }
+
+    /**
+     * 客户端确认上一个 SEARCH：先解析并检查整帧，再删除取出的密文并把重新加密的 ew 写回 SS，
+     * 格式错误时抛出异常，不做任何修改
+     */
+    private void handleStore(Session session, ByteBuffer in) throws IOException {
+        PendingSearch pending = session.pending;
+        if (pending == null) {
+            throw new IllegalStateException("STORE without a preceding SEARCH");
+        }
+        int count = in.getInt();
+        if (count != pending.Kws.size()) {
+            throw new IllegalArgumentException("STORE has " + count + " entries, SEARCH had " + pending.Kws.size());
+        }
+        StoredBitmap[] ews = new StoredBitmap[count];
+        for (int k = 0; k < count; k++) {
+            byte[] Kw = WireProtocol.getLabel(in);
+            if (!Arrays.equals(Kw, pending.Kws.get(k))) {
+                throw new IllegalArgumentException("STORE entry " + k + " does not match the SEARCH token");
+            }
+            ews[k] = BitmapCodec.read(in);
+        }
+        session.pending = null;
+        for (int k = 0; k < count; k++) {
+            CipherStore<CipherTextBytes> DB = pending.DBs.get(k);
+            for (byte[] I : pending.labels.get(k)) {
+                DB.remove(I);
+            }
+            SS.put(pending.Kws.get(k), ews[k]);
+        }
+        ByteBuffer reply = ByteBuffer.allocate(4).putInt(count);
+        reply.flip();
+        session.channel.send(WireProtocol.STORE_OK, reply);
+    }
+
+    public int getPDBSize() {
+        return PDB.size();
+    }
+
+    public int getKDBSize() {
+        return KDB.size();
+    }
+
+    public long getUpdateRequests() {
+        return updateRequests.sum();
+    }
+
+    public long getSearchRequests() {
+        return searchRequests.sum();
+    }
+
+    // 搜索请求中令牌(前缀与关键字)的总数
+    public long getSearchTokens() {
+        return searchTokens.sum();
+    }
+
+    // 停止监听、断开所有连接并释放 PDB/KDB 的存储
+    @Override
+    public void close() throws IOException {
+        ServerSocketChannel channel = serverChannel;
+        if (channel != null) {
+            channel.close();
+        }
+        for (FrameChannel open : openChannels) {
+            open.close();
+        }
+        connections.shutdownNow();
+        PDB.close();
+        KDB.close();
+    }
+}
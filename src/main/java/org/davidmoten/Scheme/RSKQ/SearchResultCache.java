@@ -0,0 +1,103 @@
+package org.davidmoten.Scheme.RSKQ;
+
+import org.davidmoten.Bitmap.WordBitmap;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 客户端的搜索结果缓存：令牌 -> 上次搜索解密出的位图，以及搜索后的客户端状态 (c0, c, Rc)。
+ * <p>
+ * 搜索之后令牌的链为空、SS[Kw] 保存的正是该位图，只要客户端状态没有变化，再次搜索得到的结果相同，
+ * 因此状态一致时直接返回缓存，跳过服务器的链遍历与客户端解密。更新会推进状态，并由调用者显式使缓存失效。
+ * <p>
+ * 容量有界的 LRU，读写需持有 entries 的监视器。缓存的位图被所有调用者共享，调用者不得修改。
+ */
+final class SearchResultCache {
+    private final int capacity;
+    private final LinkedHashMap<String, Entry> entries; // 访问顺序
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private static final class Entry {
+        final int c0;
+        final int c;
+        final byte[] Rc;
+        final WordBitmap bitmap;
+
+        Entry(ClientStateBytes state, WordBitmap bitmap) {
+            this.c0 = state.getC0();
+            this.c = state.getC();
+            this.Rc = state.getRc().clone(); // 更新时 Rc 会被原地异或，保留副本
+            this.bitmap = bitmap;
+        }
+
+        boolean matches(ClientStateBytes state) {
+            return c0 == state.getC0() && c == state.getC() && Arrays.equals(Rc, state.getRc());
+        }
+    }
+
+    SearchResultCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > SearchResultCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * @return 令牌在 state 下的缓存位图；没有缓存或状态已经变化时返回 null
+     */
+    WordBitmap get(String token, ClientStateBytes state) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(token);
+        }
+        if (entry != null && entry.matches(state)) {
+            hits.increment();
+            return entry.bitmap;
+        }
+        misses.increment();
+        return null;
+    }
+
+    // 记录令牌搜索后的状态与位图
+    void put(String token, ClientStateBytes state, WordBitmap bitmap) {
+        Entry entry = new Entry(state, bitmap);
+        synchronized (entries) {
+            entries.put(token, entry);
+        }
+    }
+
+    // 令牌被更新，状态已推进
+    void invalidate(String token) {
+        synchronized (entries) {
+            entries.remove(token);
+        }
+    }
+
+    void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+}
@@ -0,0 +1,32 @@
+package org.davidmoten.Scheme.RSKQ;
+
+import org.davidmoten.Bitmap.BitmapCodec;
+import org.davidmoten.Bitmap.StoredBitmap;
+import org.davidmoten.Store.RecordCodec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * SS 中位图 ew 的记录编码，直接使用 BitmapCodec。
+ */
+public final class StoredBitmapCodec implements RecordCodec<StoredBitmap> {
+    public static final StoredBitmapCodec INSTANCE = new StoredBitmapCodec();
+
+    private StoredBitmapCodec() {
+    }
+
+    @Override
+    public int size(StoredBitmap value) {
+        return BitmapCodec.serializedSize(value);
+    }
+
+    @Override
+    public void write(StoredBitmap value, ByteBuffer buffer) {
+        BitmapCodec.write(value, buffer);
+    }
+
+    @Override
+    public StoredBitmap read(ByteBuffer buffer, int length) {
+        return BitmapCodec.read(buffer);
+    }
+}
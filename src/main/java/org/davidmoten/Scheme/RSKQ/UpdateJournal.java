@@ -0,0 +1,217 @@
+package org.davidmoten.Scheme.RSKQ;
+
+import org.davidmoten.Bitmap.BitmapCodec;
+import org.davidmoten.Bitmap.StoredBitmap;
+import org.davidmoten.Store.CipherStore;
+import org.davidmoten.Store.LabelMap;
+import org.davidmoten.Store.WriteAheadLog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * RSKQ 的更新日志：把 updateToken 与 searchToken 对 SC、SS、PDB/KDB 的修改写成 WriteAheadLog 记录，
+ * 崩溃后在最近一次检查点的快照上重放即可恢复。
+ * <p>
+ * 日志按代(generation)存放为目录下的 wal-&lt;代号&gt;.log，检查点写出 client.snapshot / server.snapshot 后换到新的一代并删除旧的日志。
+ * 记录中保存的都是修改后的完整值(写入的密文、新的客户端状态、删除的标签)，在更新的快照上重放旧日志得到的结果不变，
+ * 因此检查点在写快照与删除旧日志之间崩溃也能正确恢复。
+ * <p>
+ * 记录格式：
+ * UPDATE: byte 类型、byte 库(0 为 PDB，1 为 KDB)、令牌、c0、c、Rc、标签 I、CipherTextBytesCodec 编码的密文；
+ * SEARCH: byte 类型、byte 库、令牌、c0、c、Rc、int 删除的标签数及各标签、SS 标签 Kw、BitmapCodec 编码的 ew。
+ * 令牌与 Rc 为 int 长度 + 内容，标签为 16 字节。
+ */
+final class UpdateJournal {
+    static final String CLIENT_SNAPSHOT = "client.snapshot";
+    static final String SERVER_SNAPSHOT = "server.snapshot";
+    private static final String LOG_PREFIX = "wal-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final byte UPDATE = 1;
+    private static final byte SEARCH = 2;
+    private static final byte PDB_ID = 0;
+    private static final byte KDB_ID = 1;
+
+    private final Path directory;
+    private final boolean fsync;
+    private final Map<String, ClientStateBytes> SC;
+    private final LabelMap<StoredBitmap> SS;
+    private final CipherStore<CipherTextBytes> PDB;
+    private final CipherStore<CipherTextBytes> KDB;
+    private volatile WriteAheadLog log;
+    private long generation;
+    private long syncsBeforeRotation; // 已轮换掉的日志的刷盘次数
+
+    UpdateJournal(Path directory, boolean fsync, Map<String, ClientStateBytes> SC, LabelMap<StoredBitmap> SS,
+                  CipherStore<CipherTextBytes> PDB, CipherStore<CipherTextBytes> KDB) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.fsync = fsync;
+        this.SC = SC;
+        this.SS = SS;
+        this.PDB = PDB;
+        this.KDB = KDB;
+    }
+
+    Path clientSnapshot() {
+        return directory.resolve(CLIENT_SNAPSHOT);
+    }
+
+    Path serverSnapshot() {
+        return directory.resolve(SERVER_SNAPSHOT);
+    }
+
+    /**
+     * 按代号顺序重放目录中所有日志，然后打开新的一代用于追加。调用者须保证期间没有更新与搜索。
+     *
+     * @return 重放的记录数
+     */
+    long recover() throws IOException {
+        long count = 0;
+        for (long gen : generations()) {
+            count += WriteAheadLog.replay(logFile(gen), this::apply);
+            generation = gen;
+        }
+        generation++;
+        log = new WriteAheadLog(logFile(generation), fsync);
+        return count;
+    }
+
+    /**
+     * 换到新的一代日志，旧日志先全部刷盘再关闭。调用者须持有全部条带锁。
+     */
+    void rotate() throws IOException {
+        WriteAheadLog old = log;
+        old.close();
+        syncsBeforeRotation += old.syncCount();
+        generation++;
+        log = new WriteAheadLog(logFile(generation), fsync);
+    }
+
+    // 删除当前代之前的日志，须在新的快照写出之后调用
+    void deleteOldGenerations() throws IOException {
+        for (long gen : generations()) {
+            if (gen < generation) {
+                Files.deleteIfExists(logFile(gen));
+            }
+        }
+    }
+
+    void logUpdate(boolean keywordDB, String token, ClientStateBytes state, byte[] I, CipherTextBytes ciphertext)
+            throws IOException {
+        byte[] tokenBytes = token.getBytes(StandardCharsets.UTF_8);
+        byte[] Rc = state.getRc();
+        int size = 2 + 4 + tokenBytes.length + 8 + 4 + Rc.length + LabelMap.LABEL_BYTES
+                + CipherTextBytesCodec.INSTANCE.size(ciphertext);
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.put(UPDATE).put(keywordDB ? KDB_ID : PDB_ID);
+        putState(out, tokenBytes, state);
+        out.put(I);
+        CipherTextBytesCodec.INSTANCE.write(ciphertext, out);
+        log.append(out.array());
+    }
+
+    void logSearch(boolean keywordDB, String token, ClientStateBytes state, List<byte[]> removed, byte[] Kw,
+                   StoredBitmap ew) throws IOException {
+        byte[] tokenBytes = token.getBytes(StandardCharsets.UTF_8);
+        byte[] Rc = state.getRc();
+        int size = 2 + 4 + tokenBytes.length + 8 + 4 + Rc.length + 4 + removed.size() * LabelMap.LABEL_BYTES
+                + LabelMap.LABEL_BYTES + BitmapCodec.serializedSize(ew);
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.put(SEARCH).put(keywordDB ? KDB_ID : PDB_ID);
+        putState(out, tokenBytes, state);
+        out.putInt(removed.size());
+        for (byte[] label : removed) {
+            out.put(label);
+        }
+        out.put(Kw);
+        BitmapCodec.write(ew, out);
+        log.append(out.array());
+    }
+
+    // 等待已追加的全部记录持久化
+    void sync() throws IOException {
+        log.syncAll();
+    }
+
+    long size() {
+        return log.size();
+    }
+
+    long syncCount() {
+        return syncsBeforeRotation + log.syncCount();
+    }
+
+    void close() throws IOException {
+        log.close();
+    }
+
+    private static void putState(ByteBuffer out, byte[] token, ClientStateBytes state) {
+        out.putInt(token.length).put(token);
+        out.putInt(state.getC0()).putInt(state.getC());
+        out.putInt(state.getRc().length).put(state.getRc());
+    }
+
+    // 把一条记录重新作用到 SC、SS、PDB/KDB 上
+    private void apply(ByteBuffer in) {
+        byte type = in.get();
+        CipherStore<CipherTextBytes> DB = in.get() == KDB_ID ? KDB : PDB;
+        String token = new String(getBytes(in), StandardCharsets.UTF_8);
+        int c0 = in.getInt();
+        int c = in.getInt();
+        SC.put(token, new ClientStateBytes(c0, c, getBytes(in)));
+        if (type == UPDATE) {
+            byte[] I = getLabel(in);
+            DB.put(I, CipherTextBytesCodec.INSTANCE.read(in, in.remaining()));
+        } else if (type == SEARCH) {
+            int removed = in.getInt();
+            for (int i = 0; i < removed; i++) {
+                DB.remove(getLabel(in));
+            }
+            byte[] Kw = getLabel(in);
+            SS.put(Kw, BitmapCodec.read(in));
+        } else {
+            throw new IllegalStateException("unknown journal record type " + type);
+        }
+    }
+
+    private static byte[] getBytes(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] getLabel(ByteBuffer in) {
+        byte[] label = new byte[LabelMap.LABEL_BYTES];
+        in.get(label);
+        return label;
+    }
+
+    private Path logFile(long gen) {
+        return directory.resolve(LOG_PREFIX + gen + LOG_SUFFIX);
+    }
+
+    // 目录中已有日志的代号，升序
+    private List<Long> generations() throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, LOG_PREFIX + "*" + LOG_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    generations.add(Long.parseLong(name.substring(LOG_PREFIX.length(), name.length() - LOG_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // 不是本日志的文件
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+}
@@ -0,0 +1,72 @@
+package org.davidmoten.Scheme.RSKQ;
+
+import org.davidmoten.Bitmap.BitmapCodec;
+import org.davidmoten.Bitmap.StoredBitmap;
+import org.davidmoten.Store.LabelMap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * RSKQ_Client 与 RSKQ_Server 之间的帧类型与编码，帧本身由 FrameChannel 传输。
+ * <p>
+ * UPDATE: int 条数，每条为 byte 库(0 为 PDB，1 为 KDB)、16 字节标签 I、int 长度 + CipherTextBytesCodec 编码的 (C, ea, eb)；
+ * 服务器解析整帧后才写入，然后回复 UPDATE_OK(int 条数)；客户端收到后才推进状态。
+ * <p>
+ * SEARCH: int 令牌数，每个令牌为 byte 库、16 字节 Kw、int c0、int c、int 长度 + Rc。
+ * 服务器按令牌顺序逐个回复 SEARCH_RESULT：int 令牌序号、byte 是否有 ew、[ew]、int 密文数，
+ * 每个密文为 int 计数器 + ea + eb(BitmapCodec 编码，按计数器从大到小)；全部令牌处理完后回复 SEARCH_DONE(long 服务器耗时 ns)。
+ * 此时服务器只读取密文，记下各条链的标签，等待客户端的 STORE。
+ * <p>
+ * STORE: int 条数，每条为 16 字节 Kw + ew，按上一个 SEARCH 的令牌顺序排列。服务器检查整帧后才删除该 SEARCH 取出的密文
+ * 并把 ew 写回 SS，然后回复 STORE_OK(int 条数)；SEARCH 失败或客户端没有发送 STORE 时链保持不变。
+ * 同一连接上的帧按顺序处理，因此之后的请求一定能看到写回的结果，客户端可以在下一个请求之前再读取 STORE_OK。
+ * <p>
+ * ERROR: UTF-8 错误信息，服务器处理请求失败时代替该请求剩余的回复发送；被拒绝的 STORE 不做任何修改。
+ * 每个请求都有回复，因此 ERROR 总是对应客户端正在等待的那个请求。
+ */
+final class WireProtocol {
+    static final byte UPDATE = 1;
+    static final byte UPDATE_OK = 2;
+    static final byte SEARCH = 3;
+    static final byte SEARCH_RESULT = 4;
+    static final byte SEARCH_DONE = 5;
+    static final byte STORE = 6;
+    static final byte ERROR = 7;
+    static final byte STORE_OK = 8;
+
+    static final byte PDB_ID = 0;
+    static final byte KDB_ID = 1;
+
+    private WireProtocol() {
+    }
+
+    static byte[] getLabel(ByteBuffer in) {
+        byte[] label = new byte[LabelMap.LABEL_BYTES];
+        in.get(label);
+        return label;
+    }
+
+    static byte[] getBytes(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return bytes;
+    }
+
+    // 可能为 null 的位图：byte 是否存在 + BitmapCodec 编码
+    static int optionalBitmapSize(StoredBitmap bitmap) {
+        return 1 + (bitmap == null ? 0 : BitmapCodec.serializedSize(bitmap));
+    }
+
+    static void putOptionalBitmap(ByteBuffer out, StoredBitmap bitmap) {
+        if (bitmap == null) {
+            out.put((byte) 0);
+        } else {
+            out.put((byte) 1);
+            BitmapCodec.write(bitmap, out);
+        }
+    }
+
+    static StoredBitmap getOptionalBitmap(ByteBuffer in) {
+        return in.get() == 0 ? null : BitmapCodec.read(in);
+    }
+}
@@ -3,25 +3,49 @@ package org.davidmoten.Scheme.SKQ.DPRF;
 import org.davidmoten.BPC.BPCGenerator;
 
 import java.math.BigInteger;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.stream.Stream;
 
 public class BRC_DPRF {
+    private static final int DIGEST_BYTES = 32; // PRG 输出 256 位
+    private static final int HALF_BYTES = 16; // G0/G1 各 128 位
+
     private int depth;  // 树的深度
     private int maxRange;
     private int lambda; // 安全参数 λ
-    private static final MessageDigest sha256; // 全局共享的 MessageDigest 实例
+    // 每个线程一个 SHA-256 实例与逐层的输出缓冲，不再通过全局锁串行化
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
 
-    static {
-        try {
-            sha256 = MessageDigest.getInstance("SHA-256");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("SHA-256 algorithm not found", e);
+    private static final class Scratch {
+        final MessageDigest sha256;
+        byte[][] levels = new byte[0][]; // levels[h]：高度为 h 的节点的 PRG 输出
+
+        Scratch() {
+            try {
+                sha256 = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException("SHA-256 algorithm not found", e);
+            }
+        }
+
+        byte[][] levels(int height) {
+            if (levels.length <= height) {
+                byte[][] grown = Arrays.copyOf(levels, height + 1);
+                for (int h = levels.length; h <= height; h++) {
+                    grown[h] = new byte[DIGEST_BYTES];
+                }
+                levels = grown;
+            }
+            return levels;
         }
     }
 
@@ -32,11 +56,20 @@ public class BRC_DPRF {
         this.maxRange = (1 << depth) - 1;
     }
 
-    // PRG 伪随机生成器，基于全局共享的 SHA-256，输出 256 位
+    // PRG 伪随机生成器，基于线程本地的 SHA-256，输出 256 位
     public static byte[] pseudorandomGenerator(byte[] seed) {
-        synchronized (sha256) { // 确保线程安全
-            sha256.reset();
-            return sha256.digest(seed);
+        MessageDigest sha256 = SCRATCH.get().sha256;
+        sha256.reset();
+        return sha256.digest(seed);
+    }
+
+    // 一次 PRG：out[0, 32) = G(seed[offset, offset + length))，前一半为 G0，后一半为 G1。out 可以与 seed 相同
+    private static void prg(MessageDigest sha256, byte[] seed, int offset, int length, byte[] out) {
+        sha256.update(seed, offset, length);
+        try {
+            sha256.digest(out, 0, DIGEST_BYTES);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
         }
     }
 
@@ -58,28 +91,151 @@ public class BRC_DPRF {
 
     // 根据 GGM 树的机制计算 PRF 值 fk(x)
     public static byte[] computePRF(byte[] key, String binaryInput) {
-        byte[] current = key;
-        for (char bit : binaryInput.toCharArray()) {
-            current = (bit == '0') ? G0(current) : G1(current);
+        if (binaryInput.isEmpty()) {
+            return key;
+        }
+        Scratch scratch = SCRATCH.get();
+        byte[] buffer = scratch.levels(0)[0];
+        byte[] seed = key;
+        int offset = 0;
+        int length = key.length;
+        for (int k = 0; k < binaryInput.length(); k++) {
+            prg(scratch.sha256, seed, offset, length, buffer);
+            seed = buffer;
+            offset = binaryInput.charAt(k) == '0' ? 0 : HALF_BYTES;
+            length = HALF_BYTES;
+        }
+        return Arrays.copyOfRange(buffer, offset, offset + HALF_BYTES);
+    }
+
+    /**
+     * 同 computePRF(key, binaryInput)，路径取 path 的低 bits 位，从高位到低位，不构造二进制字符串
+     *
+     * @param path 路径，第 bits-1 位是第一步
+     * @param bits 路径长度，为 0 时返回 key 本身
+     */
+    public static byte[] computePRF(byte[] key, int path, int bits) {
+        if (bits == 0) {
+            return key;
         }
-        return current;
+        Scratch scratch = SCRATCH.get();
+        byte[] buffer = scratch.levels(0)[0];
+        byte[] seed = key;
+        int offset = 0;
+        int length = key.length;
+        for (int k = bits - 1; k >= 0; k--) {
+            prg(scratch.sha256, seed, offset, length, buffer);
+            seed = buffer;
+            offset = ((path >>> k) & 1) * HALF_BYTES;
+            length = HALF_BYTES;
+        }
+        return Arrays.copyOfRange(buffer, offset, offset + HALF_BYTES);
     }
 
     public byte[] deriveByIndex(int index, List<Trapdoor> delkeys) {
         for (Trapdoor delkey : delkeys) {
-            //找到当前输入的index对应哪个BRC节点，path
-            if (delkey.getPosition().contains(index)) {
-                String indexBinaryString = String.format("%" + depth + "s", Integer.toBinaryString(index)).replace(' ', '0');
-                int computeLen = indexBinaryString.length() - delkey.getPath().length();
-                if (computeLen == 0) {
-                    return delkey.getPartialPRF();
-                } else {
-                    String t = indexBinaryString.substring(depth - computeLen);
-                    return computePRF(delkey.getPartialPRF(), t);
-                }
+            //找到当前输入的index对应哪个BRC节点，从该节点沿 index 的低位继续向下
+            if (delkey.covers(index)) {
+                return computePRF(delkey.getPartialPRF(), index, delkey.getHeight());
             }
         }
         //未授权的index，返回一个相同长度的SecureRandom
+        return randomKey();
+    }
+
+    /**
+     * 批量派生 [from, to] 中所有叶子的密钥。每个陷门只展开子树中与区间相交的部分，
+     * 一次 PRG 同时得到左右两个孩子，公共前缀只计算一次：连续 m 个叶子约需 m + 2·depth 次 PRG，
+     * 而逐个 deriveByIndex 需要 m·depth 次。
+     *
+     * @return keys[i - from] 为叶子 i 的密钥，未授权的叶子为随机值(同 deriveByIndex)
+     */
+    public byte[][] deriveRange(List<Trapdoor> trapdoors, int from, int to) {
+        if (from > to) {
+            return new byte[0][];
+        }
+        byte[][] keys = new byte[to - from + 1][];
+        Scratch scratch = SCRATCH.get();
+        byte[][] levels = scratch.levels(depth);
+        for (Trapdoor trapdoor : trapdoors) {
+            int height = trapdoor.getHeight();
+            long base = (long) trapdoor.getPrefix() << height;
+            long lo = Math.max(from, base);
+            long hi = Math.min(to, base + (1L << height) - 1);
+            if (lo <= hi) {
+                byte[] seed = trapdoor.getPartialPRF();
+                expand(scratch.sha256, levels, seed, 0, seed.length, height, (int) base, (int) lo, (int) hi, from, keys);
+            }
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == null) {
+                keys[i] = randomKey();
+            }
+        }
+        return keys;
+    }
+
+    // 展开以 seed[offset, offset + length) 为根、高度为 height、最左叶子为 base 的子树中 [lo, hi] 的叶子
+    private static void expand(MessageDigest sha256, byte[][] levels, byte[] seed, int offset, int length,
+                               int height, int base, int lo, int hi, int from, byte[][] keys) {
+        if (height == 0) {
+            keys[base - from] = offset == 0 && length == seed.length ? seed
+                    : Arrays.copyOfRange(seed, offset, offset + length);
+            return;
+        }
+        // 孩子只写入更低层的缓冲，levels[height] 在两次递归之间保持不变
+        byte[] children = levels[height];
+        prg(sha256, seed, offset, length, children);
+        int mid = base + (1 << (height - 1));
+        if (lo < mid) {
+            expand(sha256, levels, children, 0, HALF_BYTES, height - 1, base, lo, Math.min(hi, mid - 1), from, keys);
+        }
+        if (hi >= mid) {
+            expand(sha256, levels, children, HALF_BYTES, HALF_BYTES, height - 1, mid, Math.max(lo, mid), hi, from, keys);
+        }
+    }
+
+    /**
+     * 按 from, from - 1, ..., 0 的顺序逐个取叶子密钥，见 DescendingKeys
+     */
+    public DescendingKeys deriveDescending(List<Trapdoor> trapdoors, int from) {
+        return new DescendingKeys(trapdoors, from);
+    }
+
+    /**
+     * 从高到低逐个取叶子密钥：每次用 deriveRange 派生一段，段长从 1 开始加倍。
+     * 搜索沿链向下遇到缺失的密文即停止，加倍保证多派生的叶子不超过实际用到的数量。
+     */
+    public final class DescendingKeys {
+        private final List<Trapdoor> trapdoors;
+        private int next; // 下一个返回的叶子
+        private int lo; // 当前段的最低叶子
+        private byte[][] chunk;
+        private int chunkSize = 1;
+
+        private DescendingKeys(List<Trapdoor> trapdoors, int from) {
+            this.trapdoors = trapdoors;
+            this.next = from;
+        }
+
+        public boolean hasNext() {
+            return next >= 0;
+        }
+
+        public byte[] next() {
+            if (next < 0) {
+                throw new NoSuchElementException();
+            }
+            if (chunk == null || next < lo) {
+                lo = Math.max(0, next - chunkSize + 1);
+                chunk = deriveRange(trapdoors, lo, next);
+                chunkSize <<= 1;
+            }
+            return chunk[next-- - lo];
+        }
+    }
+
+    private byte[] randomKey() {
         byte[] randomBytes = new byte[this.lambda / 8]; // λ bits = λ / 8 bytes
         SecureRandom prgtemp = new SecureRandom();
         prgtemp.nextBytes(randomBytes);
@@ -87,39 +243,46 @@ public class BRC_DPRF {
     }
 
     public byte[] newDerivedKey(byte[] Kp, int newIndex) {
-        String t = String.format("%" + depth + "s", Integer.toBinaryString(newIndex)).replace(' ', '0');
-        return computePRF(Kp, t);
+        return computePRF(Kp, newIndex, depth);
     }
 
-    // 陷门生成算法 T：计算覆盖范围 [a, b] 的最小子树集合
+    /**
+     * 陷门生成算法 T：计算覆盖范围 [0, currentRange] 的最小子树集合。
+     * [0, c] 即 [0, c + 1)，c + 1 的每个为 1 的位 k 对应一棵高度为 k 的完整子树，其前缀为 ((c + 1) >>> k) ^ 1，
+     * 即沿 c + 1 的路径向下、在该位向左分出的孩子。因此只需沿 c + 1 的路径走一遍，每层一次 PRG，
+     * 陷门数与 PRG 次数都不超过 depth，与 c 的大小无关。
+     */
     public List<Trapdoor> delKey(byte[] Kp, int currentRange) {
+        if (currentRange < 0 || currentRange > maxRange) {
+            throw new IllegalArgumentException("currentRange must be in [0, " + maxRange + "]: " + currentRange);
+        }
         List<Trapdoor> delKeys = new ArrayList<>();
-        BigInteger[] RangeSide = new BigInteger[]{BigInteger.ZERO, new BigInteger(String.valueOf(currentRange))};
-        //生成min到max的所有Bigint
-        BigInteger[] Range = Stream.iterate(RangeSide[0], n -> n.add(BigInteger.ONE))
-                .limit(RangeSide[1].subtract(RangeSide[0]).add(BigInteger.ONE).intValueExact())
-                .toArray(BigInteger[]::new);
-        List<String> BRC = BPCGenerator.convertToOnlyPrefix(BPCGenerator.GetBPCValueMap(Range, depth), depth);
-        for (String bpc : BRC) {
-            int shiftBits = depth - bpc.length();
-            //bpc长度等于depth时，说明是一个单独的叶子节点，否则存储多个index
-            if (shiftBits != 0) {
-//            int[] containedPos = new int[1<<(depth-bpc.length())];
-                List<Integer> containsPos = new ArrayList<>();
-                int range = 1 << shiftBits; //前缀bpc下包含了多range个子前缀编码
-                int base = 0;
-                if (!(shiftBits == depth && bpc.isEmpty())) {
-                    base = Integer.valueOf(bpc, 2) << shiftBits;  //bpc是一个二进制序列，将其左移(depth - bpc.length())位
-                }
-                for (int i = 0; i < range; i++) {
-                    containsPos.add(base + i);
-                }
-                delKeys.add(new Trapdoor(computePRF(Kp, bpc), containsPos, bpc));
+        int end = currentRange + 1;
+        if (end >>> depth != 0) {
+            // 整棵树
+            delKeys.add(new Trapdoor(Kp, 0, 0, depth));
+            return delKeys;
+        }
+        Scratch scratch = SCRATCH.get();
+        byte[] buffer = scratch.levels(0)[0];
+        byte[] seed = Kp;
+        int offset = 0;
+        int length = Kp.length;
+        for (int level = 0; level < depth; level++) {
+            int height = depth - level - 1; // 孩子的高度
+            prg(scratch.sha256, seed, offset, length, buffer);
+            if ((end >>> height & 1) != 0) {
+                // 左孩子整棵子树都在范围内，继续沿右孩子向下
+                delKeys.add(new Trapdoor(Arrays.copyOfRange(buffer, 0, HALF_BYTES), level + 1, (end >>> height) ^ 1, height));
+                offset = HALF_BYTES;
             } else {
-                List<Integer> containsPos = new ArrayList<>();
-                containsPos.add(Integer.valueOf(bpc, 2));
-                delKeys.add(new Trapdoor(computePRF(Kp, bpc), containsPos, bpc));
+                offset = 0;
+            }
+            if ((end & ((1 << height) - 1)) == 0) {
+                break; // 剩余的低位全为 0，没有更多的子树
             }
+            seed = buffer;
+            length = HALF_BYTES;
         }
         return delKeys;
     }
@@ -175,15 +338,45 @@ public class BRC_DPRF {
 
 
     // 表示单个陷门条目：部分 PRF 和深度信息
+    // 以 (level, prefix) 表示子树，覆盖叶子 [prefix << height, (prefix + 1) << height)，判断覆盖只需一次移位比较
     public static class Trapdoor {
         private final byte[] partialPRF;
-        private List<Integer> position;//代表该节点所在层数，从下往上计算
-        private final String path;
+        private List<Integer> position;//子树覆盖的叶子，按需生成
+        private String path; // 按需生成
+        private final int prefix; // path 的整数值
+        private final int level; // path 的长度，即节点所在的层，根为 0
+        private final int height; // 子树的高度，level + height 为树的深度
 
         public Trapdoor(byte[] partialPRF, List<Integer> position, String path) {
             this.partialPRF = partialPRF;
             this.position = position;
             this.path = path;
+            this.prefix = path.isEmpty() ? 0 : Integer.parseInt(path, 2);
+            this.level = path.length();
+            this.height = Integer.numberOfTrailingZeros(position.size());
+        }
+
+        public Trapdoor(byte[] partialPRF, int level, int prefix, int height) {
+            this.partialPRF = partialPRF;
+            this.level = level;
+            this.prefix = prefix;
+            this.height = height;
+        }
+
+        public int getPrefix() {
+            return prefix;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public boolean covers(int index) {
+            return index >= 0 && (index >>> height) == prefix;
         }
 
         public byte[] getPartialPRF() {
@@ -191,10 +384,33 @@ public class BRC_DPRF {
         }
 
         public List<Integer> getPosition() {
+            if (position == null) {
+                int base = prefix << height;
+                int size = 1 << height;
+                position = new AbstractList<Integer>() {
+                    @Override
+                    public Integer get(int i) {
+                        Objects.checkIndex(i, size);
+                        return base + i;
+                    }
+
+                    @Override
+                    public int size() {
+                        return size;
+                    }
+                };
+            }
             return position;
         }
 
         public String getPath() {
+            if (path == null) {
+                char[] bits = new char[level];
+                for (int i = 0; i < level; i++) {
+                    bits[i] = (prefix >>> (level - 1 - i) & 1) == 0 ? '0' : '1';
+                }
+                path = new String(bits);
+            }
             return path;
         }
     }
@@ -1,14 +1,17 @@
 package org.davidmoten.Scheme.SKQ;
 
+import org.davidmoten.Bitmap.ModularAccumulator;
+import org.davidmoten.Bitmap.SearchResult;
+import org.davidmoten.Bitmap.WordBitmap;
+
 import java.math.BigInteger;
 import java.security.SecureRandom;
-import java.util.ArrayList;
 import java.util.BitSet;
-import java.util.List;
 
 public class HomomorphicEncryption {
 
     private BigInteger n;
+    private final int maxFiles; // n = 2^maxFiles
 
     public BigInteger getN() {
         return n;
@@ -17,19 +20,37 @@ public class HomomorphicEncryption {
     public HomomorphicEncryption(int max_files) {
         // 初始化公共参数n
         this.n = BigInteger.valueOf(2).pow(max_files);
+        this.maxFiles = max_files;
+    }
+
+    // 模 n 的原地累加器：n 是 2 的幂，加减只是 long[] 上带进位的运算，多个密文可以逐个累加而不新建 BigInteger
+    public ModularAccumulator newAccumulator() {
+        return new ModularAccumulator(maxFiles);
     }
+
     // Enc方法
     public BigInteger enc(BigInteger sk, BigInteger m) {
-        return sk.add(m).mod(n);
+        return newAccumulator().add(sk).add(m).toBigInteger();
     }
+
+    // Enc方法，sk 为大端序字节(如哈希输出)
+    public WordBitmap enc(byte[] sk, WordBitmap m) {
+        return newAccumulator().addBigEndian(sk).add(m).toWordBitmap();
+    }
+
     // Dec方法
     public BigInteger dec(BigInteger sk, BigInteger e) {
-        return e.subtract(sk).add(n).mod(n);
+        return newAccumulator().add(e).subtract(sk).toBigInteger();
+    }
+
+    // Dec方法，sk 为大端序字节
+    public WordBitmap dec(byte[] sk, WordBitmap e) {
+        return newAccumulator().add(e).subtractBigEndian(sk).toWordBitmap();
     }
 
     // Add方法
     public BigInteger add(BigInteger e1, BigInteger e2) {
-        return e1.add(e2).mod(n);
+        return newAccumulator().add(e1).add(e2).toBigInteger();
     }
 
     // 将 BitSet 转换为字节数组
@@ -67,31 +88,15 @@ public class HomomorphicEncryption {
     }
 
     public static void findIndexesOfOne(BigInteger number) {
-        // 收集所有位索引
-        List<Integer> indexes = new ArrayList<>();
-        int index = 0;
-
-        // 遍历所有可能的位
-        while (number.signum() != 0) {
-            // 检查当前最低位是否为1
-            if (number.and(BigInteger.ONE).equals(BigInteger.ONE)) {
-                // 收集当前位的索引
-                indexes.add(index);
-            }
-
-            // 右移一位处理下一位
-            number = number.shiftRight(1);
-            index++;
-        }
+        // 按字取出所有 1 的位置索引，不再逐位 and(ONE)/shiftRight
+        SearchResult result = SearchResult.of(number);
 
         // 打印结果
-        if (indexes.isEmpty()) {
+        if (result.isEmpty()) {
             System.out.println("没有找到1位。");
         } else {
             System.out.println("位图中1的位置索引为：");
-            for (Integer idx : indexes) {
-                System.out.println("索引: " + idx);
-            }
+            result.forEach(idx -> System.out.println("索引: " + idx));
         }
     }
 
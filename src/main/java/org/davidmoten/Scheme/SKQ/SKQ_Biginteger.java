@@ -1,23 +1,28 @@
 package org.davidmoten.Scheme.SKQ;
 
-import org.bouncycastle.crypto.digests.Blake2bDigest;
 import org.davidmoten.BPC.BPCGenerator;
+import org.davidmoten.BPC.HilbertRangeCover;
+import org.davidmoten.Bitmap.BitmapStorage;
+import org.davidmoten.Bitmap.ModularAccumulator;
+import org.davidmoten.Bitmap.StoredBitmap;
+import org.davidmoten.Bitmap.WordBitmap;
+import org.davidmoten.Crypto.Blake2bHasher;
+import org.davidmoten.Crypto.PRFEngine;
 import org.davidmoten.SpatialDataProcessor.StaticData.DataSetAccess;
+import org.davidmoten.Store.LabelMap;
 import org.davidmoten.Hilbert.HilbertComponent.HilbertCurve;
 import org.davidmoten.Scheme.SKQ.DPRF.BRC_DPRF;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.math.BigInteger;
-import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 import static org.davidmoten.Experiment.TestByUserInput.BRQComparisonInput.generateHilbertMatrix;
 
@@ -28,7 +33,6 @@ public class SKQ_Biginteger {
     public List<Double> clientSearchTimes = new ArrayList<>();         // 存储客户端 search 操作的时间
     public List<Double> serverSearchTimes = new ArrayList<>();         // 存储服务器 search 操作的时间
     public static final int LAMBDA = 128;  // 安全参数 λ    // 缓存的MessageDigest实例
-    private final byte[] intBuffer = new byte[4]; // 用于缓存int转byte的缓冲区
 
     private static final int HASH_OUTPUT_LENGTH = 16; // 128 位（16 字节）
     private static final String HMAC_ALGORITHM = "HmacSHA256";
@@ -36,27 +40,31 @@ public class SKQ_Biginteger {
     private String KS; // 主密钥
     private int lambda; // 公共参数
     public Map<String, Integer> T; // 计数器表
-    public ConcurrentHashMap<String, BigInteger> PDB;
-    public ConcurrentHashMap<String, BigInteger> KDB;
+    private final Map<String, Folded> folded = new HashMap<>(); // 令牌 -> 上次搜索写回的合并密文
+    public LabelMap<StoredBitmap> PDB; // 以 128 位标签 UT 为键
+    public LabelMap<StoredBitmap> KDB; // 以 128 位标签 UT 为键
+    private BitmapStorage bitmapStorage = BitmapStorage.DENSE; // 密文的存储形式
     private BRC_DPRF dprf;
-    public final Mac hmac;
+    private final PRFEngine prf; // 伪随机函数 P'：线程本地 Mac + 按令牌缓存的 (Kp, Kp')
+    private ForkJoinPool pool; // 按需创建
+    private int parallelism = Runtime.getRuntime().availableProcessors(); // 并行搜索的线程数
+    private volatile boolean parallelSearch = false; // 是否并行处理搜索链
 
     private int dimension; // 2维数据
     private int order; // Hilbert curve 阶数
     public HilbertCurve hilbertCurve;
+    private final HilbertRangeCover rangeCover; // 查询矩形 -> BPC
 
     //    private int rangeLimit; // 关键字最大数量
 //    private String filePath; // 数据集路径
-    private int maxFiles; // 最大文件数
-    private BigInteger n; // 最大文件数
+    private int maxFiles; // 最大文件数，密文模 n = 2^maxFiles
 
     // 修改后的构造函数
     public SKQ_Biginteger(int securityParameter, int rangeLimit, int maxFiles, int order, int dimension) throws Exception {
 //        this.rangeLimit = rangeLimit;
 //        this.filePath = filePath;
-        this.hmac = Mac.getInstance(HMAC_ALGORITHM);
+        this.prf = new PRFEngine(new byte[LAMBDA], LAMBDA / 8);
         this.maxFiles = maxFiles;
-        this.n = BigInteger.valueOf(2).pow(maxFiles);
 
         this.KS = generateMasterKey(securityParameter);
 //        this.homomorphicEncryption = new HomomorphicEncryption(maxFiles); // 初始化同态加密实例
@@ -64,13 +72,14 @@ public class SKQ_Biginteger {
         this.dprf = new BRC_DPRF(lambda, 20);
 
         this.T = new HashMap<>();
-        this.PDB = new ConcurrentHashMap<>();
-        this.KDB = new ConcurrentHashMap<>();
+        this.PDB = new LabelMap<>();
+        this.KDB = new LabelMap<>();
 //        this.hashFunctions = new HashFunctions();
 
         this.order = order;
         this.dimension = dimension;
         this.hilbertCurve = HilbertCurve.bits(order).dimensions(dimension);
+        this.rangeCover = new HilbertRangeCover(order, dimension);
     }
 
     // 生成主密钥
@@ -94,14 +103,23 @@ public class SKQ_Biginteger {
 
 
     private List<String> preCode(long[] pSet) {
-        // 计算点的 Hilbert 索引
-        BigInteger pointHilbertIndex = this.hilbertCurve.index(pSet);
-
         // 必要的长度为 2 * order 位
         int requiredLength = 2 * order;
 
         // 获取 Hilbert 索引的二进制字符串，并补充前导零
-        String binaryString = String.format("%" + requiredLength + "s", pointHilbertIndex.toString(2)).replace(' ', '0');
+        String binaryString;
+        if (this.hilbertCurve.fitsInLong()) {
+            // 索引不超过 63 位时直接用 long 计算，不产生 BigInteger
+            long pointHilbertIndex = this.hilbertCurve.indexAsLong(pSet);
+            char[] binary = new char[requiredLength];
+            for (int i = 0; i < requiredLength; i++) {
+                binary[i] = ((pointHilbertIndex >>> (requiredLength - 1 - i)) & 1L) == 0 ? '0' : '1';
+            }
+            binaryString = new String(binary);
+        } else {
+            BigInteger pointHilbertIndex = this.hilbertCurve.index(pSet);
+            binaryString = String.format("%" + requiredLength + "s", pointHilbertIndex.toString(2)).replace(' ', '0');
+        }
 
         // 初始化结果列表
         List<String> prefixList = new ArrayList<>(requiredLength + 1);
@@ -120,15 +138,10 @@ public class SKQ_Biginteger {
     }
 
     public List<String> preCover(BigInteger min, BigInteger max) {
-        //生成min到max的所有Bigint
-        BigInteger[] R = Stream.iterate(min, n -> n.add(BigInteger.ONE))
-                .limit(max.subtract(min).add(BigInteger.ONE).intValueExact())
-                .toArray(BigInteger[]::new);
-
-        // 获取BPC结果（包括分组）
-        Map<Integer, List<BigInteger>> resultMap = BPCGenerator.GetBPCValueMap(R, this.order * 2);
-//        System.out.println("BPC:" + BPCGenerator.convertMapToPrefixString(resultMap,this.order*2));
-        return BPCGenerator.convertMapToPrefixString(resultMap, this.order * 2);
+        // 直接由区间端点计算BPC，无需生成min到max的所有Bigint
+        Map<Integer, List<Long>> resultMap = BPCGenerator.GetBPCIntervalMap(
+                min.longValueExact(), max.longValueExact(), this.order * 2);
+        return BPCGenerator.convertIntervalMapToPrefixString(resultMap, this.order * 2);
     }
 
     public List<String> preCover(BigInteger[][] Matrix) {
@@ -144,21 +157,30 @@ public class SKQ_Biginteger {
         return BPCGenerator.convertMapToPrefixString(resultMap, this.order * 2);
     }
 
+    /**
+     * 查询矩形的BPC：由 Hilbert 区间分解直接得到前缀，不逐格计算 Hilbert 值。
+     *
+     * @param lowerLeft  矩形左下角(包含)
+     * @param upperRight 矩形右上角(包含)
+     * @return 与 preCover(generateHilbertMatrix(...)) 相同的前缀集合
+     */
+    public List<String> preCover(long[] lowerLeft, long[] upperRight) {
+        return rangeCover.cover(lowerLeft, upperRight);
+    }
+
     public double update(long[] pSet, String[] W, String op, int[] files, int CounterLimits) throws Exception {
-        byte[] combinedKey;
-        byte[] Kp = new byte[LAMBDA / 8];
-        byte[] Kp_prime = new byte[LAMBDA / 8];
+        PRFEngine.TokenKeys keys;
+        byte[] Kp;
+        byte[] Kp_prime;
         // 记录开始时间
         long startTime = System.nanoTime();
         List<String> P = preCode(pSet);
         for (String p : P) {
             long startTime1 = System.nanoTime();            // 记录单次循环的开始时间
             long loopStartTime = System.nanoTime();
-            combinedKey = pseudoRandomFunction(new byte[LAMBDA], p);
-            //Kp = Arrays.copyOfRange(combinedKey, 0, LAMBDA / 8);
-            //Kp_prime = Arrays.copyOfRange(combinedKey, LAMBDA / 8, LAMBDA / 4); // 假设 LAMBDA / 4 是所需的长度
-            System.arraycopy(combinedKey, 0, Kp, 0, LAMBDA / 8);
-            System.arraycopy(combinedKey, LAMBDA / 8, Kp_prime, 0, LAMBDA / 8);
+            keys = prf.keys(p);
+            Kp = keys.Kw;
+            Kp_prime = keys.Kw_prime;
 
             int c = T.getOrDefault(p, -1);
 
@@ -169,7 +191,7 @@ public class SKQ_Biginteger {
             T.put(p, c + 1);
             byte[] UTp_c_plus_1 = hashFunction1(Kp_prime, Tp_c_plus_1);
 //            System.out.println("UTp_c_plus_1:"+ Arrays.toString(UTp_c_plus_1));
-            BigInteger skp_c1 = hashFunction2(Kp_prime, c + 1);
+            byte[] skp_c1 = hashFunction2(Kp_prime, c + 1);
 
             long startTime2 = System.nanoTime();            // 设置位图
 //            BigInteger B = BigInteger.ZERO;  // 使用 BigInteger 作为位图
@@ -187,16 +209,13 @@ public class SKQ_Biginteger {
 
 //            BigInteger ep_c1 = skp_c1.add(B).mod(n);
             long startTime4 = System.nanoTime();
-            PDB.put(new String(UTp_c_plus_1, StandardCharsets.UTF_8),
-                    skp_c1.add(new BigInteger(1, bitSet.toByteArray())).mod(n));
+            PDB.put(UTp_c_plus_1, encrypt(skp_c1, bitSet));
         }
         long pTime = System.nanoTime();
         for (String w : W) {
-            combinedKey = pseudoRandomFunction(new byte[LAMBDA], w);
-            //Kp = Arrays.copyOfRange(combinedKey, 0, LAMBDA / 8);
-            //Kp_prime = Arrays.copyOfRange(combinedKey, LAMBDA / 8, LAMBDA / 4); // 假设 LAMBDA / 4 是所需的长度
-            System.arraycopy(combinedKey, 0, Kp, 0, LAMBDA / 8);
-            System.arraycopy(combinedKey, LAMBDA / 8, Kp_prime, 0, LAMBDA / 8);
+            keys = prf.keys(w);
+            Kp = keys.Kw;
+            Kp_prime = keys.Kw_prime;
             int c = T.getOrDefault(w, -1);
 
             // 使用 DPRF_Simplify 来生成 delKey 和 Derive
@@ -204,7 +223,7 @@ public class SKQ_Biginteger {
             byte[] Tw_c1 = dprf.newDerivedKey(Kp, c + 1);
             T.put(w, c + 1);
             byte[] UTw_c1 = hashFunction1(Kp_prime, Tw_c1);
-            BigInteger skw_c1 = hashFunction2(Kp_prime, c + 1);
+            byte[] skw_c1 = hashFunction2(Kp_prime, c + 1);
             // 设置位图
 //            BigInteger B = BigInteger.ZERO;  // 使用 BigInteger 作为位图
 //            for (int fileIndex : files) {
@@ -220,9 +239,8 @@ public class SKQ_Biginteger {
                 bitSet.set(fileIndex);
             }
 //            BigInteger ew_c1 = skw_c1.add(B).mod(n);
-//            KDB.put(new String(UTw_c1, StandardCharsets.UTF_8), ew_c1);
-            KDB.put(new String(UTw_c1, StandardCharsets.UTF_8),
-                    skw_c1.add(new BigInteger(1, bitSet.toByteArray())).mod(n));
+//            KDB.put(UTw_c1, ew_c1);
+            KDB.put(UTw_c1, encrypt(skw_c1, bitSet));
         }
         long wTime = System.nanoTime();
         // 输出总耗时
@@ -237,167 +255,308 @@ public class SKQ_Biginteger {
     }
 
     public BigInteger Search(BigInteger[][] Matrix, String[] WQ) throws Exception {
-        byte[] combinedKey;
-        byte[] Kp = new byte[LAMBDA / 8];
-        byte[] Kp_prime = new byte[LAMBDA / 8];
         // 客户端：生成搜索请求
         long startTime = System.nanoTime();
         List<String> BPC = preCover(Matrix);
-        long client_time2 = System.nanoTime();
-        BigInteger SumP = BigInteger.ZERO;
-        boolean exist = true;
-        long client_time_for_plus = 0;
-        long server_time_for_plus = 0;
-        List<Integer> pCounterList = new ArrayList<>();
-        List<Integer> wCounterList = new ArrayList<>();
+        return Search(BPC, WQ, System.nanoTime() - startTime);
+    }
+
+    /**
+     * 矩形范围 + 关键字查询，BPC 由 preCover(lowerLeft, upperRight) 生成。
+     *
+     * @param lowerLeft  矩形左下角(包含)
+     * @param upperRight 矩形右上角(包含)
+     * @param WQ         查询关键字
+     * @return 匹配文件的位图
+     */
+    public BigInteger Search(long[] lowerLeft, long[] upperRight, String[] WQ) throws Exception {
+        // 客户端：生成搜索请求
+        long startTime = System.nanoTime();
+        List<String> BPC = preCover(lowerLeft, upperRight);
+        return Search(BPC, WQ, System.nanoTime() - startTime);
+    }
+
+    /**
+     * 客户端先生成全部令牌，服务器沿各链取出密文并累加(开启并行搜索时在线程池中进行)，返回每条链的和及找到的计数器；
+     * 客户端按令牌解密：每个取回的密文恰好计算一个 sk，前缀部分求和，再与各关键字部分按位与。
+     */
+    private BigInteger Search(List<String> BPC, String[] WQ, long precoverTime) throws Exception {
+        long clientStart = System.nanoTime();
+        // 缺少状态的关键字使结果为空：直接返回，不让服务器合并任何链，否则还要为这些链同步客户端的 sk 状态
+        for (String w : WQ) {
+            if (!T.containsKey(w)) {
+                clientSearchTimes.add((precoverTime + System.nanoTime() - clientStart) / 1e6);
+                serverSearchTimes.add(0.0);
+                return BigInteger.ZERO;
+            }
+        }
+        List<ChainRequest> prefixes = new ArrayList<>(BPC.size());
         for (String p : BPC) {
-            long client_loop_start = System.nanoTime();
-            // 客户端处理
-            combinedKey = pseudoRandomFunction(new byte[LAMBDA], p);
-            System.arraycopy(combinedKey, 0, Kp, 0, LAMBDA / 8);
-            System.arraycopy(combinedKey, LAMBDA / 8, Kp_prime, 0, LAMBDA / 8);
             int c = T.getOrDefault(p, -1);
-            if (c == -1) {
-//                System.out.println("没有匹配的结果");
-                continue;
+            if (c != -1) {
+                prefixes.add(newRequest(p, c, PDB));
             }
-//            Key STp = dprfSimplify.delKey(Kp, c);
-            List<BRC_DPRF.Trapdoor> STp = dprf.delKey(Kp, c);
-            long client_loop_end = System.nanoTime();
-            client_time_for_plus += client_loop_end - client_loop_start;
-            // 服务器处理
-            BigInteger SumPe = BigInteger.ZERO;
-            // 从 c 开始迭代
-            for (int i = c; i >= 0; i--) {
-//                byte[] Ti = dprfSimplify.Derive(STp, i);
-                byte[] Ti = dprf.deriveByIndex(i, STp);
-                byte[] UTi = hashFunction1(Kp_prime, Ti);
-
-                BigInteger e_p_i = PDB.get(new String(UTi, StandardCharsets.UTF_8));
-                if (e_p_i == null) {
-//                    System.out.println("e_p_i = null");
-                    break;
-                } else {
-                    pCounterList.add(i);
-                    SumPe = SumPe.add(e_p_i).mod(n);
-                    PDB.remove(new String(UTi, StandardCharsets.UTF_8)); // 将密文标记为已删除
+        }
+        // 重复的关键字只搜索一次，按位与的结果不变
+        List<ChainRequest> keywords = new ArrayList<>(WQ.length);
+        for (String w : new LinkedHashSet<>(Arrays.asList(WQ))) {
+            keywords.add(newRequest(w, T.get(w), KDB));
+        }
+        long serverStart = System.nanoTime();
+
+        // 服务器处理
+        List<ChainRequest> requests = new ArrayList<>(prefixes.size() + keywords.size());
+        requests.addAll(prefixes);
+        requests.addAll(keywords);
+        if (parallelSearch) {
+            pool().invoke(ForkJoinTask.adapt(() -> {
+                List<ForkJoinTask<?>> tasks = new ArrayList<>(requests.size());
+                for (ChainRequest request : requests) {
+                    tasks.add(ForkJoinTask.adapt(() -> aggregateChainInParallel(request)));
                 }
+                ForkJoinTask.invokeAll(tasks);
+            }));
+        } else {
+            for (ChainRequest request : requests) {
+                aggregateChain(request);
             }
-//            byte[] Tc = dprfSimplify.Derive(STp, c);
-            byte[] Tc = dprf.deriveByIndex(c, STp);
-            byte[] UTc = hashFunction1(Kp_prime, Tc);
-            PDB.put(new String(UTc, StandardCharsets.UTF_8), SumPe); // 将最新的索引更新至UTc
-            SumP = SumP.add(SumPe).mod(n);
-            long server_loop_end = System.nanoTime();
-            server_time_for_plus += (server_loop_end - client_loop_end);
-//            System.out.print(p + ":" + ((server_loop_end - client_loop_end) / 1e6) + "ms");
-        }
-        List<BigInteger> SumWList = new ArrayList<>();
-        for (String w : WQ) {
-            long client_loop_start = System.nanoTime();
-            // 客户端处理
-            combinedKey = pseudoRandomFunction(new byte[LAMBDA], w);
-            byte[] Kw = new byte[LAMBDA / 8];
-            byte[] Kw_prime = new byte[LAMBDA / 8];
-            System.arraycopy(combinedKey, 0, Kw, 0, LAMBDA / 8);
-            System.arraycopy(combinedKey, LAMBDA / 8, Kw_prime, 0, LAMBDA / 8);
-            int c = T.getOrDefault(w, -1);
-            if (c == -1) {
-                exist = false;
-//                System.out.println("没有匹配"+w+"的结果");
+        }
+        long serverEnd = System.nanoTime();
+
+        //客户端解密阶段
+        ModularAccumulator SumP = new ModularAccumulator(maxFiles);
+        for (ChainRequest request : prefixes) {
+            SumP.add(decrypt(request));
+        }
+        WordBitmap BR = SumP.toWordBitmap();
+        for (ChainRequest request : keywords) {
+            // 解密并与前缀部分进行与操作
+            BR.and(decrypt(request).toWordBitmap());
+        }
+        long clientEnd = System.nanoTime();
+
+        // 服务器耗时为服务器阶段的墙钟时间，顺序与并行模式直接可比
+        clientSearchTimes.add((precoverTime + (serverStart - clientStart) + (clientEnd - serverEnd)) / 1e6);
+        serverSearchTimes.add((serverEnd - serverStart) / 1e6);
+        return BR.toBigInteger();
+    }
+
+    private ChainRequest newRequest(String token, int c, LabelMap<StoredBitmap> DB) {
+        PRFEngine.TokenKeys keys = prf.keys(token);
+        return new ChainRequest(token, keys.Kw_prime, dprf.delKey(keys.Kw, c), c, DB);
+    }
+
+    /**
+     * 服务器端：从 c 开始沿链向下取出并删除密文，遇到缺失的密文即停止，累加后写回 UTc。
+     * 找到的计数器按从高到低的顺序记入 request.counters。
+     */
+    private void aggregateChain(ChainRequest request) {
+        ModularAccumulator Sum = new ModularAccumulator(maxFiles);
+        // 从 c 开始迭代，叶子密钥按段批量派生，第一个即写回用的 Tc
+        BRC_DPRF.DescendingKeys Ts = dprf.deriveDescending(request.ST, request.c);
+        byte[] Tc = null;
+        for (int i = request.c; i >= 0; i--) {
+            byte[] Ti = Ts.next();
+            if (i == request.c) {
+                Tc = Ti;
+            }
+            byte[] UTi = hashFunction1(request.K_prime, Ti);
+
+            StoredBitmap e_i = request.DB.get(UTi);
+            if (e_i == null) {
                 break;
+            } else {
+                request.counters.add(i);
+                Sum.add(e_i.toWordBitmap());
+                request.DB.remove(UTi); // 将密文标记为已删除
+            }
+        }
+        byte[] UTc = hashFunction1(request.K_prime, Tc);
+        request.DB.put(UTc, store(Sum)); // 将最新的索引更新至UTc
+        request.sum = Sum;
+    }
+
+    /**
+     * 客户端解密一条链的和(原地修改 request.sum)：每个找到的计数器 i 减去 H2(K', i)。
+     * 上次搜索写回 UTc 的合并密文包含了当时链上所有密文的 sk，其和记在 folded 中，直接减去而不重新计算；
+     * 解密后 folded 记为本次写回的合并密文(计数器 c)的 sk 之和。同一个 16 字节缓冲区复用于所有哈希。
+     */
+    private ModularAccumulator decrypt(ChainRequest request) {
+        Folded previous = folded.get(request.token);
+        ModularAccumulator sk = new ModularAccumulator(maxFiles);
+        byte[] buffer = new byte[HASH_OUTPUT_LENGTH];
+        for (int i : request.counters) {
+            if (previous != null && i == previous.counter) {
+                sk.add(previous.sk);
+            } else {
+                Blake2bHasher.hash(request.K_prime, i, buffer, 0);
+                sk.addBigEndian(buffer);
+            }
+        }
+        folded.put(request.token, new Folded(request.c, sk));
+        return request.sum.subtract(sk);
+    }
+
+    // 上次搜索写回 UTc 的合并密文：计数器 c 与其中所有 sk 之和
+    private static final class Folded {
+        final int counter;
+        final ModularAccumulator sk;
+
+        Folded(int counter, ModularAccumulator sk) {
+            this.counter = counter;
+            this.sk = sk;
+        }
+    }
+
+    // 一条链的搜索请求，以及服务器返回的和与找到的计数器
+    private static final class ChainRequest {
+        final String token;
+        final byte[] K_prime;
+        final List<BRC_DPRF.Trapdoor> ST;
+        final int c;
+        final LabelMap<StoredBitmap> DB;
+        ModularAccumulator sum;
+        final List<Integer> counters = new ArrayList<>();
+
+        ChainRequest(String token, byte[] K_prime, List<BRC_DPRF.Trapdoor> ST, int c, LabelMap<StoredBitmap> DB) {
+            this.token = token;
+            this.K_prime = K_prime;
+            this.ST = ST;
+            this.c = c;
+            this.DB = DB;
+        }
+    }
+
+    /**
+     * 在线程池中处理一条链：从 c 开始按段向下，段长从 1 开始加倍；每段按 PIECE_LEAVES 对齐切片，
+     * 一片落在一棵陷门子树内(或由 c 附近的几棵小子树覆盖)，片内用 deriveRange 共享公共前缀派生叶子密钥。
+     * 各片并行查找并累加自己范围内、第一个缺失密文之上的部分；随后从高到低合并，遇到缺失即停止，
+     * 与顺序模式"遇到缺失即停止"的结果相同，最后一段中缺失位置之下的片的工作被丢弃，不超过实际用到的数量。
+     */
+    private void aggregateChainInParallel(ChainRequest request) {
+        ModularAccumulator Sum = new ModularAccumulator(maxFiles);
+        byte[] UTc = null;
+        int hi = request.c;
+        int size = 1;
+        boolean missing = false;
+        while (!missing && hi >= 0) {
+            int lo = Math.max(0, hi - size + 1);
+            List<ChainPiece> pieces = new ArrayList<>();
+            for (int top = hi; top >= lo; ) {
+                int bottom = Math.max(lo, top & -PIECE_LEAVES);
+                pieces.add(new ChainPiece(request, bottom, top));
+                top = bottom - 1;
             }
-            List<BRC_DPRF.Trapdoor> STw = dprf.delKey(Kw, c);
-//            clientRequest_w.add(new Object[]{Kw_prime, STw, c});
-            BigInteger SumWe = BigInteger.ZERO;
-            long client_loop_end = System.nanoTime();
-            client_time_for_plus += client_loop_end - client_loop_start;
-            // 服务器处理
-            // 从 c 开始迭代
-            for (int i = c; i >= 0; i--) {
-//                byte[] Ti = dprfSimplify.Derive(STw, i);
-                byte[] Ti = dprf.deriveByIndex(i, STw);
-                byte[] UTi = hashFunction1(Kw_prime, Ti);
-
-                BigInteger e_p_i = KDB.get(new String(UTi, StandardCharsets.UTF_8));
-                if (e_p_i == null) {
+            if (pieces.size() == 1) {
+                pieces.get(0).invoke();
+            } else {
+                ForkJoinTask.invokeAll(pieces);
+            }
+            for (ChainPiece piece : pieces) {
+                if (UTc == null) {
+                    UTc = piece.topLabel;
+                }
+                Sum.add(piece.sum);
+                for (int k = 0; k < piece.found; k++) {
+                    request.counters.add(piece.hi - k);
+                    request.DB.remove(piece.labels[k]); // 将密文标记为已删除
+                }
+                if (piece.found < piece.hi - piece.lo + 1) {
+                    missing = true;
                     break;
-                } else {
-                    wCounterList.add(i);
-                    SumWe = SumWe.add(e_p_i).mod(n);
-                    KDB.remove(new String(UTi, StandardCharsets.UTF_8)); // 将密文标记为已删除
                 }
             }
-            byte[] Tc = dprf.deriveByIndex(c, STw);
-            byte[] UTc = hashFunction1(Kw_prime, Tc);
-            KDB.put(new String(UTc, StandardCharsets.UTF_8), SumWe); // 将最新的索引更新至UTc
-            SumWList.add(SumWe);
-            long server_loop_end = System.nanoTime();
-            server_time_for_plus += (server_loop_end - client_loop_end);
-//            System.out.print(w + ":" + ((server_loop_end - client_loop_end) / 1e6) + "ms");
-        }
-        if (!exist) {
-//            long client_time_notexist = System.nanoTime();
-            // 存储到列表中
-            double msclient_time = (client_time2 - startTime + client_time_for_plus) / 1e6;
-            double msserver_time = server_time_for_plus / 1e6;
-            clientSearchTimes.add(msclient_time);
-            serverSearchTimes.add(msserver_time);
-            return BigInteger.ZERO;
+            hi = lo - 1;
+            size <<= 1;
         }
-        //客户端解密阶段
-        long client_time_dec = System.nanoTime();
-        BigInteger SumP_sk = BigInteger.ZERO;
-        for (String p : BPC) {
-            combinedKey = pseudoRandomFunction(new byte[LAMBDA], p);
-            Kp_prime = new byte[LAMBDA / 8];
-            System.arraycopy(combinedKey, LAMBDA / 8, Kp_prime, 0, LAMBDA / 8);
-            int c = T.getOrDefault(p, -1);
-            for (int i : pCounterList) {
-                BigInteger skp_i = hashFunction2(Kp_prime, i);
-                SumP_sk = SumP_sk.add(skp_i).mod(n);
-            }
-//            for (int i = c; i >= 0; i--) {
-//                BigInteger skp_i = hashFunction2(Kp_prime, i);
-//                SumP_sk = SumP_sk.add(skp_i).mod(n);
-//            }
+        request.DB.put(UTc, store(Sum)); // 将最新的索引更新至UTc
+        request.sum = Sum;
+    }
+
+    private static final int PIECE_LEAVES = 64; // 并行搜索中一片的叶子数，2 的幂
+
+    // 链上 [lo, hi] 的一片：从 hi 向下查找，累加第一个缺失密文之上的部分，只读不删除
+    private final class ChainPiece extends RecursiveAction {
+        private static final long serialVersionUID = 4830275169357728213L;
+        final ChainRequest request;
+        final int lo;
+        final int hi;
+        final byte[][] labels;
+        byte[] topLabel; // hi 的标签
+        int found; // 从 hi 向下连续存在的密文数
+        final ModularAccumulator sum = new ModularAccumulator(maxFiles);
+
+        ChainPiece(ChainRequest request, int lo, int hi) {
+            this.request = request;
+            this.lo = lo;
+            this.hi = hi;
+            this.labels = new byte[hi - lo + 1][];
         }
-        // 解密前缀部分
-        BigInteger BR = SumP.subtract(SumP_sk).add(n).mod(n);
-//        System.out.println("BR1:");
-//        findIndexesOfOne(BR);
-        for (int j = 0; j < WQ.length; j++) {
-            String w = WQ[j];
-            combinedKey = pseudoRandomFunction(new byte[LAMBDA], w);
-            byte[] Kw_prime = new byte[LAMBDA / 8];
-            System.arraycopy(combinedKey, LAMBDA / 8, Kw_prime, 0, LAMBDA / 8);
-            int c = T.getOrDefault(w, -1);
-            BigInteger SumW_sk = BigInteger.ZERO;
-            for (int i : wCounterList) {
-                BigInteger skw_i = hashFunction2(Kw_prime, i);
-                SumW_sk = SumW_sk.add(skw_i).mod(n);
+
+        @Override
+        protected void compute() {
+            byte[][] keys = dprf.deriveRange(request.ST, lo, hi);
+            for (int i = hi; i >= lo; i--) {
+                byte[] UTi = hashFunction1(request.K_prime, keys[i - lo]);
+                if (i == hi) {
+                    topLabel = UTi;
+                }
+                StoredBitmap e_i = request.DB.get(UTi);
+                if (e_i == null) {
+                    break;
+                }
+                labels[found++] = UTi;
+                sum.add(e_i.toWordBitmap());
             }
-            // 解密并与前缀部分进行与操作
-            BR = BR.and(SumWList.get(j).subtract(SumW_sk).add(n).mod(n));
         }
-//        System.out.println("BR2:");
-//        findIndexesOfOne(BR);
-        long client_time_dec_end = System.nanoTime();
-        // 输出总耗时
-//        double totalLoopTimeMs = (System.nanoTime() - startTime) / 1e6;
-//        System.out.println("SKQ_Biginteger Total search time: " + totalLoopTimeMs + " ms).");
-        // 客户端部分结束计时
-//        long server_time2 = System.nanoTime();
-        // 输出客户端和服务器端的时间消耗
-        double msclient_time = ((client_time2 - startTime + client_time_for_plus) + (client_time_dec_end - client_time_dec)) / 1e6;
-        double msserver_time = server_time_for_plus / 1e6;
-//        double total_time = msclient_time + msserver_time;
-//        System.out.println("TDSC: Client time part 1: " + msclient_time1 + " ms, Server time: " + msserver_time + " ms, Total time: " + total_time + " ms");
+    }
 
-        // 存储到列表中
-        clientSearchTimes.add(msclient_time);
-        serverSearchTimes.add(msserver_time);
-        return BR;
+    /**
+     * 开启后，Search 在线程池中并行处理各前缀/关键字的链，每条链内部再按计数器区间切片并行累加。默认关闭。
+     *
+     * @param parallelSearch 是否并行搜索
+     */
+    public void setParallelSearch(boolean parallelSearch) {
+        this.parallelSearch = parallelSearch;
+    }
+
+    public boolean isParallelSearch() {
+        return parallelSearch;
+    }
+
+    /**
+     * 设置并行搜索使用的线程数，默认为CPU核数。
+     *
+     * @param parallelism 线程数
+     */
+    public synchronized void setParallelism(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.parallelism = parallelism;
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    public synchronized int getParallelism() {
+        return parallelism;
+    }
+
+    private synchronized ForkJoinPool pool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+
+    // 关闭线程池
+    public synchronized void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
     }
 
     public static void main(String[] args) throws Exception {
@@ -522,21 +681,6 @@ public class SKQ_Biginteger {
     }
 
 
-    /**
-     * 伪随机函数 P'
-     *
-     * @param key     安全密钥
-     * @param keyword 关键词
-     * @return 伪随机生成的密钥
-     * @throws NoSuchAlgorithmException
-     * @throws InvalidKeyException
-     */
-    private byte[] pseudoRandomFunction(byte[] key, String keyword) throws NoSuchAlgorithmException, InvalidKeyException {
-        SecretKeySpec keySpec = new SecretKeySpec(key, HMAC_ALGORITHM);
-        hmac.init(keySpec);
-        return hmac.doFinal(keyword.getBytes(StandardCharsets.UTF_8));
-    }
-
     /**
      * 安全哈希函数 H1, H2
      *
@@ -547,35 +691,13 @@ public class SKQ_Biginteger {
      */
     // 重载方法，接受byte[]类型的input2
     private byte[] hashFunction1(byte[] input1, byte[] input2) {
-        Blake2bDigest digest = new Blake2bDigest(HASH_OUTPUT_LENGTH * 8); // 输出位数为 128 位
-
-        // 更新哈希数据
-        digest.update(input1, 0, input1.length);
-        digest.update(input2, 0, input2.length);
-
-        // 输出哈希值
-        byte[] result = new byte[HASH_OUTPUT_LENGTH];
-        digest.doFinal(result, 0);
-        return result;
+        // 线程本地的 Blake2b，并行搜索的各线程互不干扰
+        return Blake2bHasher.hash(input1, input2);
     }
 
-    private BigInteger hashFunction2(byte[] input1, int input2) {
-        Blake2bDigest digest = new Blake2bDigest(HASH_OUTPUT_LENGTH * 8); // 设置输出位数为 128 位
-
-        // 更新哈希数据
-        digest.update(input1, 0, input1.length);
-
-        // 将 int 转为 byte[] 并添加到哈希
-        intBuffer[0] = (byte) (input2 >> 24);
-        intBuffer[1] = (byte) (input2 >> 16);
-        intBuffer[2] = (byte) (input2 >> 8);
-        intBuffer[3] = (byte) input2;
-        digest.update(intBuffer, 0, intBuffer.length);
-
-        // 输出哈希值
-        byte[] result = new byte[HASH_OUTPUT_LENGTH];
-        digest.doFinal(result, 0);
-        return new BigInteger(1, result);
+    // sk = H2(input1, input2)，以大端序字节返回，直接累加到 ModularAccumulator
+    private byte[] hashFunction2(byte[] input1, int input2) {
+        return Blake2bHasher.hash(input1, input2);
     }
 
     public static Object[] GetRandomItem(int W_num, String FILE_PATH) throws IOException {
@@ -713,6 +835,49 @@ public class SKQ_Biginteger {
         return this.KDB.size();
     }
 
+    /**
+     * 设置之后写入的密文(包括搜索后合并写回的密文)的存储形式，默认 DENSE，可随时切换。
+     * 密文为 128 位的 sk 加上位图，高位与位图一样稀疏，适合压缩。
+     *
+     * @param bitmapStorage 存储策略
+     */
+    public void setBitmapStorage(BitmapStorage bitmapStorage) {
+        this.bitmapStorage = Objects.requireNonNull(bitmapStorage);
+    }
+
+    public BitmapStorage getBitmapStorage() {
+        return bitmapStorage;
+    }
+
+    // 令牌密钥派生引擎，可读取缓存命中率
+    public PRFEngine getPrfEngine() {
+        return prf;
+    }
+
+    // 按存储策略保存模 n 的密文
+    private StoredBitmap store(ModularAccumulator ciphertext) {
+        return bitmapStorage.store(ciphertext.toWordBitmap());
+    }
+
+    // Enc(sk, B) = sk + B mod n，B 的第 i 位对应文件 i
+    private StoredBitmap encrypt(byte[] sk, BitSet bitSet) {
+        return store(new ModularAccumulator(maxFiles).addBigEndian(sk).add(WordBitmap.of(bitSet)));
+    }
+
+    /**
+     * 服务器存储 PDB、KDB 实际占用的字节数：每条记录计 16 字节的标签加上密文的大小。
+     */
+    public long getStorageBytes() {
+        long bytes = 0;
+        for (StoredBitmap e : PDB.values()) {
+            bytes += HASH_OUTPUT_LENGTH + e.sizeInBytes();
+        }
+        for (StoredBitmap e : KDB.values()) {
+            bytes += HASH_OUTPUT_LENGTH + e.sizeInBytes();
+        }
+        return bytes;
+    }
+
     // 获取更新操作的平均时间
     public double getAverageUpdateTime() {
         return totalUpdateTimes.stream().mapToDouble(Double::doubleValue).average().orElse(0.0);
@@ -1,17 +1,15 @@
 package org.davidmoten.Scheme.SRDSSE;
 
+import org.davidmoten.Crypto.PRFEngine;
+import org.davidmoten.Store.LabelMap;
+
 import java.math.BigInteger;
-import java.nio.charset.StandardCharsets;
-import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadLocalRandom;
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 
 public class SRDSSE {
 
@@ -20,11 +18,12 @@ public class SRDSSE {
     public static final Random random = new Random();
 
     private HashMap<String, int[]> SC;  // 客户端状态
-    private HashMap<String, BigInteger> SS;  // 服务器状态
-    private ConcurrentHashMap<String, Object[]> EDB; // 服务器存储的密文数据库
+    private LabelMap<BigInteger> SS;  // 服务器状态，以 Kw 为键
+    private LabelMap<Object[]> EDB; // 服务器存储的密文数据库，以 I(取前 128 位)或 Kw 为键
 
-    // 伪随机函数的哈希算法
-    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    // 伪随机函数 P'：线程本地 Mac + 按关键词缓存的 (Kw, Kw')
+    private final PRFEngine prf = new PRFEngine(new byte[LAMBDA], LAMBDA / 8);
+    // 哈希算法
     private static final String HASH_ALGORITHM = "SHA-256";
 
     // 预生成的随机数池
@@ -33,14 +32,19 @@ public class SRDSSE {
 
     public SRDSSE() {
         this.SC = new HashMap<>();
-        this.SS = new HashMap<>();
-        this.EDB = new ConcurrentHashMap<>();
+        this.SS = new LabelMap<>();
+        this.EDB = new LabelMap<>();
         this.randomPool = new int[10000]; // 设置随机数池大小为 10000
         this.poolIndex = 0;
         // 预生成随机数池
         fillRandomPool();
     }
 
+    // 关键词密钥派生引擎，可读取缓存命中率
+    public PRFEngine getPrfEngine() {
+        return prf;
+    }
+
     // 填充随机数池
     private void fillRandomPool() {
         for (int i = 0; i < randomPool.length; i++) {
@@ -67,7 +71,7 @@ public class SRDSSE {
         System.out.println("Setup complete with λ = " + lambda + ", n = " + n);
         // 初始化空的客户端状态SC和服务器存储的密文数据库EDB
         SC = new HashMap<>();
-        EDB = new ConcurrentHashMap<>();
+        EDB = new LabelMap<>();
     }
 
     /**
@@ -82,11 +86,9 @@ public class SRDSSE {
         // 记录开始时间
         long startTime = System.nanoTime();
         //Client
-        byte[] combinedKey = pseudoRandomFunction(new byte[LAMBDA], keyword);
-        byte[] Kw = new byte[LAMBDA / 8];
-        byte[] Kw_prime = new byte[LAMBDA / 8];
-        System.arraycopy(combinedKey, 0, Kw, 0, LAMBDA / 8);
-        System.arraycopy(combinedKey, LAMBDA / 8, Kw_prime, 0, LAMBDA / 8);
+        PRFEngine.TokenKeys keys = prf.keys(keyword);
+        byte[] Kw = keys.Kw;
+        byte[] Kw_prime = keys.Kw_prime;
 
         // Step 2: 获取客户端的当前关键词状态
         int[] state = SC.getOrDefault(keyword, new int[]{0, -1, getRandomFromPool()});
@@ -132,7 +134,7 @@ public class SRDSSE {
 
         //Server
         // Step 8: 将 (I, C, (ea, eb)) 发送到服务器（存入EDB）
-        EDB.put(new String(I, StandardCharsets.UTF_8), new Object[]{C, ea, eb});
+        EDB.put(I, new Object[]{C, ea, eb});
 
         // Step 9: 更新客户端状态
         SC.put(keyword, new int[]{state[0], state[1] + 1, Rc_plus_1});
@@ -148,11 +150,9 @@ public class SRDSSE {
         long client_time1 = System.nanoTime();
 
         // Step 1: 生成Kw和Kw_prime (客户端)
-        byte[] combinedKey = pseudoRandomFunction(new byte[LAMBDA], keyword);
-        byte[] Kw = new byte[LAMBDA / 8];
-        byte[] Kw_prime = new byte[LAMBDA / 8];
-        System.arraycopy(combinedKey, 0, Kw, 0, LAMBDA / 8);
-        System.arraycopy(combinedKey, LAMBDA / 8, Kw_prime, 0, LAMBDA / 8);
+        PRFEngine.TokenKeys keys = prf.keys(keyword);
+        byte[] Kw = keys.Kw;
+        byte[] Kw_prime = keys.Kw_prime;
 
         // Step 2: 获取客户端的当前关键词状态
         int[] state = SC.getOrDefault(keyword, new int[]{0, -1, getRandomFromPool()});
@@ -177,7 +177,7 @@ public class SRDSSE {
         // Step 1: 检查 SS[Kw] 的状态 (服务器)
         BigInteger ew;
         // 如果不存在，则初始化为全0的BigInteger
-        ew = SS.getOrDefault(new String(Kw, StandardCharsets.UTF_8), BigInteger.ZERO); // 从SS中读取
+        ew = SS.getOrDefault(Kw, BigInteger.ZERO); // 从SS中读取
 
         // Step 2: 初始化一个空的map来存储结果E (服务器)
         Map<Integer, BigInteger[]> E = new HashMap<>();
@@ -189,7 +189,7 @@ public class SRDSSE {
             byte[] I = hashFunction(Kw, Ri);
 
             // Step 5: 从EDB中检索密文
-            Object[] ciphertext = EDB.get(new String(I, StandardCharsets.UTF_8));
+            Object[] ciphertext = EDB.get(I);
 
             // Step 6: 将检索到的密文存储在E中 (只存储ea和eb)
             BigInteger ea = (BigInteger) ciphertext[1];
@@ -197,7 +197,7 @@ public class SRDSSE {
             E.put(i - c0, new BigInteger[]{ea, eb});
 
             // Step 7: 从EDB中移除该密文
-            EDB.remove(new String(I, StandardCharsets.UTF_8));
+            EDB.remove(I);
 
             // Step 8: 更新Ri-1 = C ⊕ H2(Kw, Ri)
             byte[] C = (byte[]) ciphertext[0];
@@ -256,10 +256,10 @@ public class SRDSSE {
 
 
         // Step 13: 将新的加密状态 ew 发送到服务器
-        EDB.put(new String(Kw, StandardCharsets.UTF_8), new Object[]{ew});
+        EDB.put(Kw, new Object[]{ew});
 
         // 服务器更新 SS
-        SS.put(new String(Kw, StandardCharsets.UTF_8), ew);
+        SS.put(Kw, ew);
         // 输出客户端和服务器端的时间消耗
         double msclient_time1 = (client_time2 - client_time1) / 1_000_000.0;
         double msclient_time2 = (client_time4 - client_time3) / 1_000_000.0;
@@ -270,22 +270,6 @@ public class SRDSSE {
     }
 
 
-    /**
-     * 伪随机函数 P'
-     *
-     * @param key     安全密钥
-     * @param keyword 关键词
-     * @return 伪随机生成的密钥
-     * @throws NoSuchAlgorithmException
-     * @throws InvalidKeyException
-     */
-    private byte[] pseudoRandomFunction(byte[] key, String keyword) throws NoSuchAlgorithmException, InvalidKeyException {
-        Mac hmac = Mac.getInstance(HMAC_ALGORITHM);
-        SecretKeySpec keySpec = new SecretKeySpec(key, HMAC_ALGORITHM);
-        hmac.init(keySpec);
-        return hmac.doFinal(keyword.getBytes(StandardCharsets.UTF_8));
-    }
-
     /**
      * 安全哈希函数 H1, H2, H3, H4, H5
      *
@@ -0,0 +1,59 @@
+package org.davidmoten.Store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 服务器端以 128 位标签为键的密文存储。堆内实现为 LabelMap，堆外实现为 MappedCipherStore。
+ * 实现必须允许多个线程并发访问不同的标签。
+ *
+ * @param <V> 密文类型
+ */
+public interface CipherStore<V> extends Closeable {
+
+    /**
+     * 以标签高/低 64 位访问记录的回调，用于快照等需要标签本身的场合
+     */
+    @FunctionalInterface
+    interface EntryConsumer<V> {
+        void accept(long high, long low, V value);
+    }
+
+    V get(byte[] label);
+
+    /**
+     * @return 标签原来对应的值，没有时为 null
+     */
+    V put(byte[] label, V value);
+
+    /**
+     * 以标签的高/低 64 位写入，与 put(label, value) 等价
+     */
+    V put(long high, long low, V value);
+
+    /**
+     * 删除并返回标签对应的值，搜索时服务器取出密文后即删除
+     *
+     * @return 被删除的值，没有时为 null
+     */
+    V remove(byte[] label);
+
+    int size();
+
+    void clear();
+
+    void forEachValue(Consumer<? super V> action);
+
+    void forEach(EntryConsumer<? super V> action);
+
+    List<V> values();
+
+    /**
+     * 释放存储占用的资源。堆内实现无需关闭。
+     */
+    @Override
+    default void close() throws IOException {
+    }
+}
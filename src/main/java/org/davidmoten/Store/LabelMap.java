@@ -0,0 +1,309 @@
+package org.davidmoten.Store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 以 128 位标签为键的密文索引表，用于 PDB、KDB、SS、EDB。
+ * <p>
+ * 标签取字节数组的前 16 字节，按大端拆成两个 long 直接存放在 long[] 中，不再经过 new String(bytes, UTF_8)：
+ * 随机字节按 UTF-8 解码会把非法序列替换成同一个字符，不同标签可能得到相同的 String；每次 get/put/remove 还要分配 String 与 char/byte 数组。
+ * <p>
+ * 表按标签哈希的高位分成若干段，每段是线性探测的开放寻址表，删除时回移后继元素而不留墓碑。
+ * 段内操作持有该段的监视器，不同段之间互不阻塞，因此可以被多个线程并发读写。值不能为 null。
+ *
+ * @param <V> 密文或状态的类型
+ */
+public final class LabelMap<V> implements CipherStore<V> {
+    public static final int LABEL_BYTES = 16; // 128 位标签
+    private static final int SEGMENTS = 64;
+    private static final int SEGMENT_SHIFT = 64 - Integer.numberOfTrailingZeros(SEGMENTS);
+    private static final int INITIAL_CAPACITY = 16; // 每段的初始槽数，必须是 2 的幂
+
+    private final Segment<V>[] segments;
+
+    public LabelMap() {
+        @SuppressWarnings("unchecked")
+        Segment<V>[] segments = (Segment<V>[]) new Segment<?>[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<>();
+        }
+        this.segments = segments;
+    }
+
+    /**
+     * 标签的高 64 位：前 8 字节按大端组成的 long。不足 16 字节的标签按末尾补 0 处理。
+     */
+    public static long high(byte[] label) {
+        return readLong(label, 0);
+    }
+
+    /**
+     * 标签的低 64 位：第 8..15 字节按大端组成的 long
+     */
+    public static long low(byte[] label) {
+        return readLong(label, 8);
+    }
+
+    private static long readLong(byte[] label, int offset) {
+        long v = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            v = (v << 8) | (i < label.length ? label[i] & 0xFF : 0);
+        }
+        return v;
+    }
+
+    // 标签本身来自哈希/PRF 输出，这里再做一次 64 位混合，避免调用者传入结构化标签时段和槽分布不均
+    static long mix(long high, long low) {
+        long h = high * 0x9E3779B97F4A7C15L ^ low;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private Segment<V> segmentFor(long hash) {
+        return segments[(int) (hash >>> SEGMENT_SHIFT)];
+    }
+
+    @Override
+    public V get(byte[] label) {
+        return get(high(label), low(label));
+    }
+
+    public V get(long high, long low) {
+        long hash = mix(high, low);
+        return segmentFor(hash).get(high, low, (int) hash);
+    }
+
+    public V getOrDefault(byte[] label, V defaultValue) {
+        V v = get(label);
+        return v != null ? v : defaultValue;
+    }
+
+    /**
+     * @return 标签原来对应的值，没有时为 null
+     */
+    @Override
+    public V put(byte[] label, V value) {
+        return put(high(label), low(label), value);
+    }
+
+    @Override
+    public V put(long high, long low, V value) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        long hash = mix(high, low);
+        return segmentFor(hash).put(high, low, (int) hash, value);
+    }
+
+    /**
+     * @return 被删除的值，没有时为 null
+     */
+    @Override
+    public V remove(byte[] label) {
+        return remove(high(label), low(label));
+    }
+
+    public V remove(long high, long low) {
+        long hash = mix(high, low);
+        return segmentFor(hash).remove(high, low, (int) hash);
+    }
+
+    public boolean containsKey(byte[] label) {
+        return get(label) != null;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment<V> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public void clear() {
+        for (Segment<V> segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * 逐段遍历所有值；遍历某一段时持有该段的锁，其他段的并发修改可能可见也可能不可见
+     */
+    @Override
+    public void forEachValue(Consumer<? super V> action) {
+        for (Segment<V> segment : segments) {
+            segment.forEachValue(action);
+        }
+    }
+
+    @Override
+    public void forEach(EntryConsumer<? super V> action) {
+        for (Segment<V> segment : segments) {
+            segment.forEach(action);
+        }
+    }
+
+    /**
+     * @return 所有值的快照
+     */
+    @Override
+    public List<V> values() {
+        List<V> values = new ArrayList<>();
+        forEachValue(values::add);
+        return values;
+    }
+
+    /**
+     * 表本身占用的字节数估计：每个槽两个 long 加一个引用(按 8 字节计)，不含值对象
+     */
+    public long tableBytes() {
+        long bytes = 0;
+        for (Segment<V> segment : segments) {
+            bytes += segment.capacity() * (2L * Long.BYTES + 8);
+        }
+        return bytes;
+    }
+
+    private static final class Segment<V> {
+        private long[] highs = new long[INITIAL_CAPACITY];
+        private long[] lows = new long[INITIAL_CAPACITY];
+        private Object[] values = new Object[INITIAL_CAPACITY]; // null 表示空槽
+        private int size;
+
+        @SuppressWarnings("unchecked")
+        synchronized V get(long high, long low, int hash) {
+            int mask = values.length - 1;
+            for (int i = hash & mask; values[i] != null; i = (i + 1) & mask) {
+                if (highs[i] == high && lows[i] == low) {
+                    return (V) values[i];
+                }
+            }
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized V put(long high, long low, int hash, V value) {
+            int mask = values.length - 1;
+            int i = hash & mask;
+            for (; values[i] != null; i = (i + 1) & mask) {
+                if (highs[i] == high && lows[i] == low) {
+                    V previous = (V) values[i];
+                    values[i] = value;
+                    return previous;
+                }
+            }
+            highs[i] = high;
+            lows[i] = low;
+            values[i] = value;
+            // 负载因子不超过 3/4
+            if (++size > (values.length >>> 2) * 3) {
+                resize();
+            }
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized V remove(long high, long low, int hash) {
+            int mask = values.length - 1;
+            int i = hash & mask;
+            for (; values[i] != null; i = (i + 1) & mask) {
+                if (highs[i] == high && lows[i] == low) {
+                    V previous = (V) values[i];
+                    shiftBack(i);
+                    size--;
+                    return previous;
+                }
+            }
+            return null;
+        }
+
+        // 删除槽 gap 后，把探测链上不在理想位置的后继元素前移，保持线性探测的不变式
+        private void shiftBack(int gap) {
+            int mask = values.length - 1;
+            int i = gap;
+            while (true) {
+                i = (i + 1) & mask;
+                if (values[i] == null) {
+                    break;
+                }
+                int ideal = (int) mix(highs[i], lows[i]) & mask;
+                // ideal 不在 (gap, i] 的循环区间内时，元素 i 可以移到 gap
+                if (((i - ideal) & mask) >= ((i - gap) & mask)) {
+                    highs[gap] = highs[i];
+                    lows[gap] = lows[i];
+                    values[gap] = values[i];
+                    gap = i;
+                }
+            }
+            values[gap] = null;
+        }
+
+        private void resize() {
+            long[] oldHighs = highs;
+            long[] oldLows = lows;
+            Object[] oldValues = values;
+            int capacity = oldValues.length << 1;
+            int mask = capacity - 1;
+            highs = new long[capacity];
+            lows = new long[capacity];
+            values = new Object[capacity];
+            for (int j = 0; j < oldValues.length; j++) {
+                if (oldValues[j] == null) {
+                    continue;
+                }
+                int i = (int) mix(oldHighs[j], oldLows[j]) & mask;
+                while (values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                highs[i] = oldHighs[j];
+                lows[i] = oldLows[j];
+                values[i] = oldValues[j];
+            }
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized int capacity() {
+            return values.length;
+        }
+
+        synchronized void clear() {
+            highs = new long[INITIAL_CAPACITY];
+            lows = new long[INITIAL_CAPACITY];
+            values = new Object[INITIAL_CAPACITY];
+            size = 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized void forEach(EntryConsumer<? super V> action) {
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    action.accept(highs[i], lows[i], (V) values[i]);
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized void forEachValue(Consumer<? super V> action) {
+            for (Object value : values) {
+                if (value != null) {
+                    action.accept((V) value);
+                }
+            }
+        }
+    }
+}
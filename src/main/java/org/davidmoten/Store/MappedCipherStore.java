@@ -0,0 +1,576 @@
+package org.davidmoten.Store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 堆外密文存储：记录 (标签 → 密文) 写在内存映射的数据文件中，标签索引也是内存映射的开放寻址表，
+ * 堆上只保留少量元数据，服务器可容纳的密文总量受磁盘与页缓存限制而不是 JVM 堆。
+ * <p>
+ * 数据文件按块(chunk)追加写入，每条记录为 int 长度 + codec 编码的内容。记录被删除或覆盖后只减少所在块的存活字节数，
+ * 块中不再有存活记录且不是当前写入块时整块删除；搜索会沿链删除密文，旧块因此会逐步被回收。compact() 可以主动整理。
+ * <p>
+ * 索引与 LabelMap 相同：按标签哈希分为 64 段，段内线性探测、回移删除，每段的槽为 (高 64 位, 低 64 位, 记录位置 + 1)，位置 0 表示空槽。
+ * 段内操作持有该段的监视器，记录的读取与解码也在锁内进行；追加写入位置的分配持有存储自身的监视器。
+ * <p>
+ * 删除的数据块和被替换的索引文件立即解除映射(JDK 8 通过 DirectBuffer.cleaner()，JDK 9+ 通过 Unsafe.invokeCleaner)，
+ * 磁盘空间与地址空间随即释放；两者都不可用时退回到缓冲区被 GC 回收时解除。因此 codec 解码时必须复制数据，
+ * 不能保留指向映射缓冲区的视图，clear/close 也不能与其他操作并发。
+ *
+ * @param <V> 密文类型
+ */
+public final class MappedCipherStore<V> implements CipherStore<V> {
+    public static final int DEFAULT_CHUNK_BYTES = 1 << 28; // 256MB
+    private static final int SEGMENTS = 64;
+    private static final int SEGMENT_SHIFT = 64 - Integer.numberOfTrailingZeros(SEGMENTS);
+    private static final int INITIAL_SLOTS = 1 << 10; // 每段的初始槽数，必须是 2 的幂
+    private static final int SLOT_BYTES = 24;
+    private static final int MAX_SLOTS = Integer.MAX_VALUE / SLOT_BYTES; // 单个映射不能超过 2GB
+    private static final int RECORD_HEADER = 4;
+
+    private final Path directory;
+    private final RecordCodec<V> codec;
+    private final int chunkBytes;
+    private final Segment[] segments;
+    private final Map<Integer, Chunk> chunks = new ConcurrentHashMap<>(); // 读取无需加锁，增删需持有 this
+    private Chunk active; // 当前追加写入的块
+    private int nextChunkId;
+    private long nextIndexFileId;
+    private volatile boolean closed;
+
+    public MappedCipherStore(Path directory, RecordCodec<V> codec) throws IOException {
+        this(directory, codec, DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * @param directory  数据与索引文件所在目录，不存在时创建；文件在 clear/close 时删除
+     * @param codec      密文编码
+     * @param chunkBytes 每个数据块的字节数；超过它的单条记录独占一个块
+     */
+    public MappedCipherStore(Path directory, RecordCodec<V> codec, int chunkBytes) throws IOException {
+        if (chunkBytes <= RECORD_HEADER) {
+            throw new IllegalArgumentException("chunkBytes too small");
+        }
+        this.directory = Files.createDirectories(directory);
+        this.codec = codec;
+        this.chunkBytes = chunkBytes;
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(this, INITIAL_SLOTS);
+        }
+    }
+
+    private Segment segmentFor(long hash) {
+        return segments[(int) (hash >>> SEGMENT_SHIFT)];
+    }
+
+    @Override
+    public V get(byte[] label) {
+        long high = LabelMap.high(label);
+        long low = LabelMap.low(label);
+        long hash = LabelMap.mix(high, low);
+        Segment segment = segmentFor(hash);
+        synchronized (segment) {
+            int slot = segment.find(high, low, (int) hash);
+            return slot < 0 ? null : readRecord(segment.location(slot));
+        }
+    }
+
+    @Override
+    public V put(byte[] label, V value) {
+        return put(LabelMap.high(label), LabelMap.low(label), value);
+    }
+
+    @Override
+    public V put(long high, long low, V value) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        long hash = LabelMap.mix(high, low);
+        // 先在块中写好记录，再把位置登记到索引；其他线程只有经过段锁拿到位置后才会读取
+        long location = append(value);
+        Segment segment = segmentFor(hash);
+        long previous;
+        V previousValue = null;
+        synchronized (segment) {
+            previous = segment.put(high, low, (int) hash, location);
+            if (previous >= 0) {
+                previousValue = readRecord(previous);
+                release(previous);
+            }
+        }
+        return previousValue;
+    }
+
+    @Override
+    public V remove(byte[] label) {
+        long high = LabelMap.high(label);
+        long low = LabelMap.low(label);
+        long hash = LabelMap.mix(high, low);
+        Segment segment = segmentFor(hash);
+        synchronized (segment) {
+            int slot = segment.find(high, low, (int) hash);
+            if (slot < 0) {
+                return null;
+            }
+            long location = segment.location(slot);
+            V value = readRecord(location);
+            segment.removeSlot(slot);
+            release(location);
+            return value;
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void forEachValue(Consumer<? super V> action) {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (int slot = 0; slot < segment.slots; slot++) {
+                    long location = segment.location(slot);
+                    if (location >= 0) {
+                        action.accept(readRecord(location));
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void forEach(EntryConsumer<? super V> action) {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (int slot = 0; slot < segment.slots; slot++) {
+                    long location = segment.location(slot);
+                    if (location >= 0) {
+                        action.accept(segment.high(slot), segment.low(slot), readRecord(location));
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public List<V> values() {
+        List<V> values = new ArrayList<>();
+        forEachValue(values::add);
+        return values;
+    }
+
+    /**
+     * 数据块中仍被索引引用的记录字节数(含记录头)
+     */
+    public synchronized long liveBytes() {
+        long bytes = 0;
+        for (Chunk chunk : chunks.values()) {
+            bytes += chunk.live.get();
+        }
+        return bytes;
+    }
+
+    /**
+     * 当前映射的数据块与索引文件的总字节数
+     */
+    public long mappedBytes() {
+        long bytes = 0;
+        synchronized (this) {
+            for (Chunk chunk : chunks.values()) {
+                bytes += chunk.capacity;
+            }
+        }
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                bytes += (long) segment.slots * SLOT_BYTES;
+            }
+        }
+        return bytes;
+    }
+
+    public synchronized int chunkCount() {
+        return chunks.size();
+    }
+
+    /**
+     * 把所有存活记录依次复制到新块，释放所有旧块。整理期间逐段加锁，调用者应避免同时写入。
+     */
+    public void compact() {
+        Set<Integer> old;
+        synchronized (this) {
+            old = new HashSet<>(chunks.keySet());
+            active = null; // 之后的追加写入新块
+        }
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (int slot = 0; slot < segment.slots; slot++) {
+                    long location = segment.location(slot);
+                    if (location >= 0 && old.contains((int) (location >>> 32))) {
+                        long moved = append(readRecord(location));
+                        segment.setLocation(slot, moved);
+                        release(location);
+                    }
+                }
+            }
+        }
+        // 整理前就已没有存活记录的旧写入块
+        synchronized (this) {
+            for (int id : old) {
+                Chunk chunk = chunks.get(id);
+                if (chunk != null && chunk != active && chunk.live.get() == 0) {
+                    dropChunk(chunk);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.reset(INITIAL_SLOTS);
+            }
+        }
+        synchronized (this) {
+            for (Chunk chunk : chunks.values()) {
+                chunk.delete();
+            }
+            chunks.clear();
+            active = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        clear();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.deleteFile();
+            }
+        }
+        closed = true;
+    }
+
+    // ---------------- 数据块 ----------------
+
+    private long append(V value) {
+        int length = codec.size(value);
+        Chunk chunk;
+        int position;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("store closed");
+            }
+            int recordBytes = RECORD_HEADER + length;
+            if (active == null || active.capacity - active.writePosition < recordBytes) {
+                Chunk sealed = active;
+                active = newChunk(Math.max(chunkBytes, recordBytes));
+                if (sealed != null && sealed.live.get() == 0) {
+                    dropChunk(sealed);
+                }
+            }
+            chunk = active;
+            position = chunk.writePosition;
+            chunk.writePosition += recordBytes;
+            chunk.live.addAndGet(recordBytes);
+        }
+        // 各线程写入互不重叠的区域，使用各自的 duplicate 避免共享 position
+        ByteBuffer buffer = chunk.buffer.duplicate();
+        buffer.position(position);
+        buffer.putInt(length);
+        int start = buffer.position();
+        codec.write(value, buffer);
+        if (buffer.position() - start != length) {
+            throw new IllegalStateException("codec wrote " + (buffer.position() - start) + " bytes, expected " + length);
+        }
+        return ((long) chunk.id << 32) | position;
+    }
+
+    private V readRecord(long location) {
+        ByteBuffer buffer = chunkOf(location).buffer.duplicate();
+        buffer.position((int) location);
+        int length = buffer.getInt();
+        return codec.read(buffer, length);
+    }
+
+    // 记录不再被索引引用，块中没有存活记录时删除该块
+    private void release(long location) {
+        Chunk chunk = chunkOf(location);
+        int length = chunk.buffer.getInt((int) location);
+        if (chunk.live.addAndGet(-(RECORD_HEADER + length)) == 0) {
+            synchronized (this) {
+                if (chunk != active && chunk.live.get() == 0) {
+                    dropChunk(chunk);
+                }
+            }
+        }
+    }
+
+    private Chunk chunkOf(long location) {
+        Chunk chunk = chunks.get((int) (location >>> 32));
+        if (chunk == null) {
+            throw new IllegalStateException("chunk released: " + (location >>> 32));
+        }
+        return chunk;
+    }
+
+    private Chunk newChunk(int capacity) {
+        int id = nextChunkId++;
+        File file = directory.resolve("chunk-" + id + ".dat").toFile();
+        Chunk chunk = new Chunk(id, file, map(file, capacity), capacity);
+        chunks.put(id, chunk);
+        return chunk;
+    }
+
+    private void dropChunk(Chunk chunk) {
+        if (chunks.remove(chunk.id) != null) {
+            chunk.delete();
+        }
+    }
+
+    // 立即解除映射的方式；都不可用时为 null，映射留给 GC 回收缓冲区时解除
+    private static final Unmapper UNMAPPER = unmapper();
+
+    private interface Unmapper {
+        void unmap(MappedByteBuffer buffer) throws ReflectiveOperationException;
+    }
+
+    /**
+     * 立即解除映射。调用后不能再访问该缓冲区及其 duplicate，否则 JVM 会崩溃
+     */
+    static void unmap(MappedByteBuffer buffer) {
+        if (UNMAPPER == null) {
+            return;
+        }
+        try {
+            UNMAPPER.unmap(buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // 退回到 GC 回收时解除
+        }
+    }
+
+    private static Unmapper unmapper() {
+        try {
+            // JDK 9+
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            return buffer -> invokeCleaner.invoke(unsafe, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // JDK 8 没有 invokeCleaner
+        }
+        try {
+            // JDK 8
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> {
+                Object c = cleaner.invoke(buffer);
+                if (c != null) {
+                    clean.invoke(c);
+                }
+            };
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static MappedByteBuffer map(File file, long bytes) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(bytes);
+            // 关闭文件后映射仍然有效
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static final class Chunk {
+        final int id;
+        final File file;
+        final MappedByteBuffer buffer;
+        final int capacity;
+        final AtomicLong live = new AtomicLong(); // 存活记录的字节数
+        int writePosition; // 持有 MappedCipherStore 的监视器时修改
+
+        Chunk(int id, File file, MappedByteBuffer buffer, int capacity) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+            this.capacity = capacity;
+        }
+
+        void delete() {
+            unmap(buffer);
+            file.delete();
+        }
+    }
+
+    // ---------------- 索引 ----------------
+
+    private synchronized File newIndexFile() {
+        return directory.resolve("index-" + (nextIndexFileId++) + ".idx").toFile();
+    }
+
+    private static final class Segment {
+        private final MappedCipherStore<?> store;
+        private File file;
+        private MappedByteBuffer table;
+        private int slots;
+        private int size;
+
+        Segment(MappedCipherStore<?> store, int slots) {
+            this.store = store;
+            reset(slots);
+        }
+
+        void reset(int slots) {
+            deleteFile();
+            this.file = store.newIndexFile();
+            this.table = map(file, (long) slots * SLOT_BYTES);
+            this.slots = slots;
+            this.size = 0;
+        }
+
+        // 解除索引表的映射并删除文件；之后访问该段会抛出 NullPointerException 而不是读已解除的映射
+        void deleteFile() {
+            if (table != null) {
+                unmap(table);
+                table = null;
+            }
+            if (file != null) {
+                file.delete();
+            }
+        }
+
+        long high(int slot) {
+            return table.getLong(slot * SLOT_BYTES);
+        }
+
+        long low(int slot) {
+            return table.getLong(slot * SLOT_BYTES + 8);
+        }
+
+        // 空槽返回 -1
+        long location(int slot) {
+            return table.getLong(slot * SLOT_BYTES + 16) - 1;
+        }
+
+        void setLocation(int slot, long location) {
+            table.putLong(slot * SLOT_BYTES + 16, location + 1);
+        }
+
+        private void write(int slot, long high, long low, long location) {
+            table.putLong(slot * SLOT_BYTES, high);
+            table.putLong(slot * SLOT_BYTES + 8, low);
+            setLocation(slot, location);
+        }
+
+        private void clearSlot(int slot) {
+            table.putLong(slot * SLOT_BYTES + 16, 0);
+        }
+
+        int find(long high, long low, int hash) {
+            int mask = slots - 1;
+            for (int i = hash & mask; location(i) >= 0; i = (i + 1) & mask) {
+                if (high(i) == high && low(i) == low) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // 返回原来的位置，没有时为 -1
+        long put(long high, long low, int hash, long location) {
+            int mask = slots - 1;
+            int i = hash & mask;
+            for (; location(i) >= 0; i = (i + 1) & mask) {
+                if (high(i) == high && low(i) == low) {
+                    long previous = location(i);
+                    setLocation(i, location);
+                    return previous;
+                }
+            }
+            write(i, high, low, location);
+            if (++size > (slots >>> 2) * 3) {
+                grow();
+            }
+            return -1;
+        }
+
+        void removeSlot(int gap) {
+            int mask = slots - 1;
+            int i = gap;
+            while (true) {
+                i = (i + 1) & mask;
+                if (location(i) < 0) {
+                    break;
+                }
+                int ideal = (int) LabelMap.mix(high(i), low(i)) & mask;
+                if (((i - ideal) & mask) >= ((i - gap) & mask)) {
+                    write(gap, high(i), low(i), location(i));
+                    gap = i;
+                }
+            }
+            clearSlot(gap);
+            size--;
+        }
+
+        private void grow() {
+            if (slots >= MAX_SLOTS / 2) {
+                throw new IllegalStateException("index segment full");
+            }
+            File oldFile = file;
+            MappedByteBuffer old = table;
+            int oldSlots = slots;
+            slots = oldSlots << 1;
+            file = store.newIndexFile();
+            table = map(file, (long) slots * SLOT_BYTES);
+            int mask = slots - 1;
+            for (int j = 0; j < oldSlots; j++) {
+                long location = old.getLong(j * SLOT_BYTES + 16) - 1;
+                if (location < 0) {
+                    continue;
+                }
+                long high = old.getLong(j * SLOT_BYTES);
+                long low = old.getLong(j * SLOT_BYTES + 8);
+                int i = (int) LabelMap.mix(high, low) & mask;
+                while (location(i) >= 0) {
+                    i = (i + 1) & mask;
+                }
+                write(i, high, low, location);
+            }
+            unmap(old);
+            oldFile.delete();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.davidmoten.Store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 把密文编码为定长记录，供堆外存储写入映射文件。
+ *
+ * @param <V> 密文类型
+ */
+public interface RecordCodec<V> {
+
+    /**
+     * @return write 写出的字节数
+     */
+    int size(V value);
+
+    /**
+     * 从 buffer 的当前位置写入恰好 size(value) 个字节
+     */
+    void write(V value, ByteBuffer buffer);
+
+    /**
+     * 从 buffer 的当前位置读取 length 个字节并解码
+     */
+    V read(ByteBuffer buffer, int length);
+}
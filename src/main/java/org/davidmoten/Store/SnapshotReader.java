@@ -0,0 +1,131 @@
+package org.davidmoten.Store;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * SnapshotWriter 所写快照文件的顺序读取器，按需从 FileChannel 填充直接缓冲区。
+ */
+public final class SnapshotReader implements Closeable {
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    private final FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private final int version;
+
+    /**
+     * @throws IOException magic 不符或版本高于 maxVersion 时
+     */
+    public SnapshotReader(Path file, int magic, int maxVersion) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        buffer.flip(); // 初始为空
+        try {
+            if (getInt() != magic) {
+                throw new IOException("not a snapshot of the expected kind: " + file);
+            }
+            version = getInt();
+            if (version > maxVersion) {
+                throw new IOException("unsupported snapshot version " + version + ": " + file);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int version() {
+        return version;
+    }
+
+    /**
+     * 保证缓冲区中至少有 n 个未读字节并返回它，调用者随后读取恰好 n 个字节
+     */
+    public ByteBuffer require(int n) throws IOException {
+        if (buffer.remaining() >= n) {
+            return buffer;
+        }
+        if (buffer.capacity() < n) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(n);
+            larger.put(buffer);
+            buffer = larger;
+        } else {
+            buffer.compact();
+        }
+        while (buffer.position() < n) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("snapshot truncated");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    public int getInt() throws IOException {
+        return require(4).getInt();
+    }
+
+    public long getLong() throws IOException {
+        return require(8).getLong();
+    }
+
+    public boolean getBoolean() throws IOException {
+        return require(1).get() != 0;
+    }
+
+    public byte[] getBytes() throws IOException {
+        byte[] bytes = new byte[getInt()];
+        require(bytes.length).get(bytes);
+        return bytes;
+    }
+
+    /**
+     * 读取 SnapshotWriter.writeStore 写出的一节并逐条放入 store
+     *
+     * @return 读入的记录数
+     * @throws IOException 文件截断或记录损坏；codec 无法解码的内容同样视为损坏
+     */
+    public <V> long readStore(CipherStore<V> store, RecordCodec<V> codec) throws IOException {
+        long count = 0;
+        int length;
+        while ((length = getInt()) != SnapshotWriter.END_OF_SECTION) {
+            if (length < 0 || length > Integer.MAX_VALUE - 16) {
+                throw new IOException("corrupt record length " + length + " at entry " + count);
+            }
+            ByteBuffer in = require(16 + length);
+            long high = in.getLong();
+            long low = in.getLong();
+            int start = in.position();
+            V value;
+            try {
+                value = codec.read(in, length);
+            } catch (RuntimeException e) {
+                throw new IOException("corrupt record at entry " + count, e);
+            }
+            if (in.position() - start != length) {
+                throw new IOException("corrupt record at entry " + count);
+            }
+            store.put(high, low, value);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 检查文件已读完；最后一节之后还有数据说明文件损坏
+     */
+    public void requireEnd() throws IOException {
+        if (buffer.hasRemaining() || channel.position() < channel.size()) {
+            throw new IOException("unexpected data after the last section");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
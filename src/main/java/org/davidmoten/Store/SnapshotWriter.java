@@ -0,0 +1,151 @@
+package org.davidmoten.Store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 快照文件的顺序写入器：数据先写入一个直接缓冲区，满了再整块写入 FileChannel。
+ * <p>
+ * 内容写到同目录的临时文件，写完后调用 commit() 刷盘并原子地替换目标文件；没有 commit 就 close() 时删除临时文件，
+ * 因此在 try-with-resources 中写入中途抛出异常不会破坏已有的快照。
+ * 文件以 magic 与版本号开头；存储以节(section)为单位写出，每条记录为 int 长度 + 标签高/低 64 位 + codec 编码的内容，
+ * 节以长度 -1 结束，因此写出前不需要知道记录总数。
+ */
+public final class SnapshotWriter implements Closeable {
+    private static final int BUFFER_BYTES = 1 << 20;
+    static final int END_OF_SECTION = -1;
+
+    private final Path target;
+    private final Path temp;
+    private final FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private boolean committed;
+    private boolean closed;
+
+    public SnapshotWriter(Path target, int magic, int version) throws IOException {
+        this.target = target.toAbsolutePath();
+        Path parent = this.target.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.temp = this.target.resolveSibling(this.target.getFileName() + ".tmp");
+        this.channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        putInt(magic);
+        putInt(version);
+    }
+
+    /**
+     * 保证缓冲区至少还能写入 n 个字节并返回它，调用者随后写入恰好 n 个字节
+     */
+    public ByteBuffer reserve(int n) throws IOException {
+        if (buffer.remaining() < n) {
+            flush();
+            if (buffer.capacity() < n) {
+                // 超大记录临时使用更大的缓冲区
+                buffer = ByteBuffer.allocateDirect(n);
+            }
+        }
+        return buffer;
+    }
+
+    public void putInt(int value) throws IOException {
+        reserve(4).putInt(value);
+    }
+
+    public void putLong(long value) throws IOException {
+        reserve(8).putLong(value);
+    }
+
+    public void putBoolean(boolean value) throws IOException {
+        reserve(1).put((byte) (value ? 1 : 0));
+    }
+
+    // int 长度 + 内容
+    public void putBytes(byte[] bytes) throws IOException {
+        reserve(4 + bytes.length).putInt(bytes.length).put(bytes);
+    }
+
+    /**
+     * 把存储中的所有记录写成一节
+     *
+     * @return 写出的记录数
+     */
+    public <V> long writeStore(CipherStore<V> store, RecordCodec<V> codec) throws IOException {
+        long[] count = new long[1];
+        IOException[] failure = new IOException[1];
+        store.forEach((high, low, value) -> {
+            if (failure[0] != null) {
+                return;
+            }
+            try {
+                int length = codec.size(value);
+                ByteBuffer out = reserve(4 + 16 + length);
+                out.putInt(length).putLong(high).putLong(low);
+                int start = out.position();
+                codec.write(value, out);
+                if (out.position() - start != length) {
+                    throw new IllegalStateException("codec wrote " + (out.position() - start) + " bytes, expected " + length);
+                }
+                count[0]++;
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        endSection();
+        return count[0];
+    }
+
+    public void endSection() throws IOException {
+        putInt(END_OF_SECTION);
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * 写出缓冲区中的剩余内容并刷盘，然后原子地替换目标文件。之后不能再写入。
+     */
+    public void commit() throws IOException {
+        if (closed || committed) {
+            throw new IllegalStateException("snapshot writer is closed");
+        }
+        flush();
+        channel.force(true);
+        channel.close();
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        committed = true;
+    }
+
+    /**
+     * 关闭文件；没有成功 commit 时删除临时文件，目标文件保持原样
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            channel.close();
+        } finally {
+            if (!committed) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+}
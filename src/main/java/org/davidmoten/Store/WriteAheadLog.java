@@ -0,0 +1,252 @@
+package org.davidmoten.Store;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * 只追加的预写日志。每条记录为 int 长度 + int CRC32 + 内容，文件以 magic 与版本号开头。
+ * <p>
+ * append 只把记录放入内存缓冲区并返回序号；sync(序号) 返回时该记录已写入文件(fsync 模式下已刷盘)。
+ * 提交采用组提交：第一个需要刷盘的线程成为 leader，把此刻缓冲区中所有线程的记录一次写出并 force，
+ * 其余线程等待这次刷盘完成，多个并发更新因此共享一次 fsync。
+ * <p>
+ * replay 按顺序读出完整且校验通过的记录；遇到崩溃时写了一半的尾部记录即停止，并把文件截断到最后一条完整记录。
+ */
+public final class WriteAheadLog implements Closeable {
+    private static final int MAGIC = 0x52534B4C; // "RSKL"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int RECORD_HEADER = 8;
+    private static final int INITIAL_BUFFER_BYTES = 1 << 16;
+
+    private final FileChannel channel;
+    private final boolean fsync;
+    private final Object lock = new Object();
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER_BYTES); // 尚未写出的记录
+    private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER_BYTES); // leader 写出时与 pending 交换
+    private long appendedSequence;
+    private long durableSequence;
+    private long size; // 文件字节数加上缓冲区中的字节数
+    private long syncCount;
+    private boolean flushing;
+    private IOException failure;
+    private boolean closed;
+
+    /**
+     * 打开日志用于追加；文件不存在时创建
+     *
+     * @param fsync 为 true 时每次组提交都 force 到磁盘；为 false 时只写入操作系统缓存，进程崩溃不丢数据但断电可能丢失
+     */
+    public WriteAheadLog(Path file, boolean fsync) throws IOException {
+        this.fsync = fsync;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long length = channel.size();
+        if (length == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            length = HEADER_BYTES;
+        }
+        channel.position(length);
+        this.size = length;
+    }
+
+    /**
+     * 把一条记录放入缓冲区
+     *
+     * @return 记录的序号，传给 sync 以等待其持久化
+     */
+    public long append(byte[] record) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        synchronized (lock) {
+            if (closed) {
+                throw new IOException("log closed");
+            }
+            if (pending.remaining() < RECORD_HEADER + record.length) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + RECORD_HEADER + record.length));
+                pending.flip();
+                larger.put(pending);
+                pending = larger;
+            }
+            pending.putInt(record.length).putInt((int) crc.getValue()).put(record);
+            size += RECORD_HEADER + record.length;
+            return ++appendedSequence;
+        }
+    }
+
+    /**
+     * 等待序号不超过 sequence 的记录全部持久化
+     */
+    public void sync(long sequence) throws IOException {
+        ByteBuffer batch;
+        long target;
+        synchronized (lock) {
+            while (true) {
+                if (failure != null) {
+                    throw new IOException("log write failed", failure);
+                }
+                if (durableSequence >= sequence) {
+                    return;
+                }
+                if (!flushing) {
+                    break;
+                }
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while waiting for log sync", e);
+                }
+            }
+            // 成为 leader：带走缓冲区中的全部记录，其他线程可以继续向新的缓冲区追加
+            flushing = true;
+            target = appendedSequence;
+            batch = pending;
+            pending = spare;
+            spare = null;
+        }
+        IOException error = null;
+        try {
+            batch.flip();
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            if (fsync) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            error = e;
+        }
+        synchronized (lock) {
+            batch.clear();
+            spare = batch;
+            flushing = false;
+            syncCount++;
+            if (error != null) {
+                failure = error;
+            } else {
+                durableSequence = target;
+            }
+            lock.notifyAll();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * 等待目前已追加的全部记录持久化
+     */
+    public void syncAll() throws IOException {
+        long sequence;
+        synchronized (lock) {
+            sequence = appendedSequence;
+        }
+        sync(sequence);
+    }
+
+    public long size() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    // 实际执行的写出/刷盘次数，与记录数之比反映组提交的合并程度
+    public long syncCount() {
+        synchronized (lock) {
+            return syncCount;
+        }
+    }
+
+    public long appendedCount() {
+        synchronized (lock) {
+            return appendedSequence;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            syncAll();
+        } finally {
+            synchronized (lock) {
+                closed = true;
+            }
+            channel.close();
+        }
+    }
+
+    /**
+     * 依次把日志中完整的记录交给 consumer(ByteBuffer 的 position 到 limit 即为记录内容)，并截断不完整的尾部
+     *
+     * @return 读出的记录数
+     */
+    public static long replay(Path file, Consumer<ByteBuffer> consumer) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long length = channel.size();
+            if (length < HEADER_BYTES) {
+                channel.truncate(0);
+                return 0;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() > VERSION) {
+                throw new IOException("not a write-ahead log: " + file);
+            }
+            long position = HEADER_BYTES;
+            long count = 0;
+            ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER);
+            CRC32 crc = new CRC32();
+            while (position + RECORD_HEADER <= length) {
+                recordHeader.clear();
+                readFully(channel, recordHeader, position);
+                recordHeader.flip();
+                int recordLength = recordHeader.getInt();
+                int checksum = recordHeader.getInt();
+                if (recordLength < 0 || position + RECORD_HEADER + recordLength > length) {
+                    break;
+                }
+                ByteBuffer record = ByteBuffer.allocate(recordLength);
+                readFully(channel, record, position + RECORD_HEADER);
+                crc.reset();
+                crc.update(record.array(), 0, recordLength);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                record.flip();
+                consumer.accept(record);
+                position += RECORD_HEADER + recordLength;
+                count++;
+            }
+            if (position < length) {
+                // 崩溃时写了一半的记录
+                channel.truncate(position);
+            }
+            return count;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.davidmoten.Bitmap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SKQ 搜索链上的同态累加 JMH 基准：原来每个密文 SumPe.add(e.toBigInteger()).mod(n)，
+ * 与 ModularAccumulator 在 long[] 上原地带进位相加对比；另测客户端逐个减去 128 位 sk 的解密。
+ * <p>
+ * 运行：mvn -P benchmark integration-test
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ModularAccumulatorBenchmark {
+    private static final int CHAIN = 32; // 每个令牌链上的密文数
+
+    @Param({"65536", "1048576"})
+    public int maxFiles;
+
+    private BigInteger n;
+    private WordBitmap[] ciphertexts;
+    private byte[][] sks;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(23);
+        n = BigInteger.ONE.shiftLeft(maxFiles);
+        ciphertexts = new WordBitmap[CHAIN];
+        sks = new byte[CHAIN][16];
+        for (int i = 0; i < CHAIN; i++) {
+            ciphertexts[i] = WordBitmap.of(new BigInteger(maxFiles, random));
+            random.nextBytes(sks[i]);
+        }
+    }
+
+    @Benchmark
+    public BigInteger accumulateBigInteger() {
+        BigInteger sum = BigInteger.ZERO;
+        for (WordBitmap e : ciphertexts) {
+            sum = sum.add(e.toBigInteger()).mod(n);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public ModularAccumulator accumulateInPlace() {
+        ModularAccumulator sum = new ModularAccumulator(maxFiles);
+        for (WordBitmap e : ciphertexts) {
+            sum.add(e);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public BigInteger decryptBigInteger() {
+        BigInteger sum = ciphertexts[0].toBigInteger();
+        BigInteger sk = BigInteger.ZERO;
+        for (byte[] s : sks) {
+            sk = sk.add(new BigInteger(1, s)).mod(n);
+        }
+        return sum.subtract(sk).add(n).mod(n);
+    }
+
+    @Benchmark
+    public ModularAccumulator decryptInPlace() {
+        ModularAccumulator sum = new ModularAccumulator(maxFiles).add(ciphertexts[0]);
+        for (byte[] s : sks) {
+            sum.subtractBigEndian(s);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,96 @@
+package org.davidmoten.Bitmap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 从结果位图中取出文件编号的 JMH 基准：原来逐位 and(ONE)/shiftRight 的写法与 SearchResult 按字扫描对比。
+ * 原写法的耗时与位宽的平方成正比，位宽只取到 2^16；SearchResult 另测 2^20 位宽下的遍历、分页与 top-k。
+ * <p>
+ * 运行：mvn -P benchmark integration-test
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchResultBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Bitmaps {
+        @Param({"4096", "65536", "1048576"})
+        public int width;
+
+        @Param({"10", "1000"})
+        public int hits;
+
+        BigInteger value;
+        SearchResult result;
+
+        @Setup
+        public void setup() {
+            Random random = new Random(20);
+            WordBitmap bitmap = new WordBitmap(width);
+            for (int i = 0; i < hits; i++) {
+                bitmap.set(random.nextInt(width));
+            }
+            value = bitmap.toBigInteger();
+            result = SearchResult.of(bitmap);
+        }
+    }
+
+    // 原写法，只在 width <= 65536 时有意义
+    @Benchmark
+    public List<Integer> shiftRight(Bitmaps state) {
+        if (state.width > 65536) {
+            return null;
+        }
+        List<Integer> indexes = new ArrayList<>();
+        BigInteger number = state.value;
+        int index = 0;
+        while (number.signum() != 0) {
+            if (number.and(BigInteger.ONE).equals(BigInteger.ONE)) {
+                indexes.add(index);
+            }
+            number = number.shiftRight(1);
+            index++;
+        }
+        return indexes;
+    }
+
+    // 包括由 BigInteger 转换的代价
+    @Benchmark
+    public int[] fromBigInteger(Bitmaps state) {
+        return SearchResult.of(state.value).toArray();
+    }
+
+    @Benchmark
+    public int iterator(Bitmaps state) {
+        int sum = 0;
+        PrimitiveIterator.OfInt it = state.result.iterator();
+        while (it.hasNext()) {
+            sum += it.nextInt();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int[] page(Bitmaps state) {
+        return state.result.page(state.hits / 2, 10);
+    }
+
+    @Benchmark
+    public int[] topK(Bitmaps state) {
+        return state.result.topK(10);
+    }
+}
@@ -0,0 +1,114 @@
+package org.davidmoten.Crypto;
+
+import org.bouncycastle.crypto.digests.Blake2bDigest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * H(key || data) 的 JMH 基准：RSKQ 原来每次新建 Blake2bDigest 与数组的写法，与 Blake2bHasher 的线程本地摘要对比，
+ * 以及搜索链上的一步(I、C 的异或填充、H3 掩码)原来的三次哈希与现在的两次哈希对比。
+ * <p>
+ * 运行：mvn -P benchmark integration-test
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class Blake2bHasherBenchmark {
+    private byte[] key;
+    private byte[] data;
+    private byte[] C;
+    private final byte[] out = new byte[Blake2bHasher.OUTPUT_BYTES];
+    private int counter;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(17);
+        key = new byte[16];
+        data = new byte[16];
+        C = new byte[16];
+        random.nextBytes(key);
+        random.nextBytes(data);
+        random.nextBytes(C);
+    }
+
+    @Benchmark
+    public byte[] bytesNewDigest() {
+        return oldHash(key, data);
+    }
+
+    @Benchmark
+    public byte[] bytesThreadLocal() {
+        return Blake2bHasher.hash(key, data);
+    }
+
+    @Benchmark
+    public byte[] bytesIntoBuffer() {
+        Blake2bHasher.hash(key, data, out, 0);
+        return out;
+    }
+
+    @Benchmark
+    public byte[] counterNewDigest() {
+        return oldHash(key, ++counter);
+    }
+
+    @Benchmark
+    public byte[] counterIntoBuffer() {
+        Blake2bHasher.hash(key, ++counter, out, 0);
+        return out;
+    }
+
+    // 原实现的链上一步：I = H(Kw, Ri)，Ri-1 = C ⊕ H(Kw, Ri)，掩码 H(Kw', i)
+    @Benchmark
+    public byte[] chainStepNewDigest() {
+        byte[] I = oldHash(key, data);
+        byte[] pad = oldHash(key, data);
+        for (int i = 0; i < pad.length; i++) {
+            pad[i] ^= C[i];
+        }
+        byte[] mask = oldHash(key, ++counter);
+        return I[0] == pad[0] ? mask : pad;
+    }
+
+    // 现在的链上一步：Ri-1 = C ⊕ I，只计算两次哈希
+    @Benchmark
+    public byte[] chainStepThreadLocal() {
+        byte[] I = Blake2bHasher.hash(key, data);
+        for (int i = 0; i < I.length; i++) {
+            I[i] ^= C[i];
+        }
+        Blake2bHasher.hash(key, ++counter, out, 0);
+        return I[0] == out[0] ? out : I;
+    }
+
+    private static byte[] oldHash(byte[] input1, byte[] input2) {
+        Blake2bDigest digest = new Blake2bDigest(128);
+        digest.update(input1, 0, input1.length);
+        digest.update(input2, 0, input2.length);
+        byte[] result = new byte[16];
+        digest.doFinal(result, 0);
+        return result;
+    }
+
+    private static byte[] oldHash(byte[] input1, int input2) {
+        Blake2bDigest digest = new Blake2bDigest(128);
+        digest.update(input1, 0, input1.length);
+        byte[] intBuffer = new byte[4];
+        intBuffer[0] = (byte) (input2 >> 24);
+        intBuffer[1] = (byte) (input2 >> 16);
+        intBuffer[2] = (byte) (input2 >> 8);
+        intBuffer[3] = (byte) input2;
+        digest.update(intBuffer, 0, intBuffer.length);
+        byte[] result = new byte[16];
+        digest.doFinal(result, 0);
+        return result;
+    }
+}
@@ -0,0 +1,86 @@
+package org.davidmoten.Scheme.RSKQ;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+public class RSKQ_BatchedSearchConcurrencyTest {
+    private static final int ORDER = 6;
+    private static final int ROUNDS = 150;
+    private static final int OBJECTS_PER_ROUND = 4;
+    private static final long[] LOWER_LEFT = {0, 0};
+    private static final long[] UPPER_RIGHT = {63, 63};
+    private static final String[] WQ = {"w"};
+
+    private RSKQ_Biginteger rskq;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        rskq = new RSKQ_Biginteger(ROUNDS * OBJECTS_PER_ROUND, ORDER, 2);
+        rskq.setBatchedSearch(true);
+        rskq.setParallelSearch(true);
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        rskq.close();
+    }
+
+    @Test(timeout = 60000)
+    public void batchedSearchWithParallelismOne() throws Exception {
+        searchWhileUpdating(1);
+    }
+
+    @Test(timeout = 60000)
+    public void batchedSearchWithParallelismTwo() throws Exception {
+        searchWhileUpdating(2);
+    }
+
+    @Test(timeout = 60000)
+    public void batchedSearchWithParallelismFour() throws Exception {
+        searchWhileUpdating(4);
+    }
+
+    // 一个线程反复批量搜索，另一个线程批量更新同一批前缀与关键字；搜索持有条带锁时不能等待被更新任务占满的线程池
+    private void searchWhileUpdating(int parallelism) throws Exception {
+        rskq.setParallelism(parallelism);
+        Future<?> updates = executor.submit(() -> {
+            for (int round = 0; round < ROUNDS; round++) {
+                long[][] pSets = new long[OBJECTS_PER_ROUND][];
+                String[][] Ws = new String[OBJECTS_PER_ROUND][];
+                String[][] ops = new String[OBJECTS_PER_ROUND][];
+                int[][] files = new int[OBJECTS_PER_ROUND][];
+                for (int k = 0; k < OBJECTS_PER_ROUND; k++) {
+                    pSets[k] = new long[]{k, round % 8};
+                    Ws[k] = WQ;
+                    ops[k] = new String[]{"add"};
+                    files[k] = new int[]{round * OBJECTS_PER_ROUND + k};
+                }
+                rskq.ObjectUpdate(pSets, Ws, ops, files);
+            }
+            return null;
+        });
+        Future<?> searches = executor.submit(() -> {
+            while (!updates.isDone()) {
+                rskq.ObjectSearch(LOWER_LEFT, UPPER_RIGHT, WQ);
+            }
+            return null;
+        });
+        updates.get();
+        searches.get();
+
+        // 搜索只改写链，不能丢失并发写入的文件
+        BigInteger expected = BigInteger.ONE.shiftLeft(ROUNDS * OBJECTS_PER_ROUND).subtract(BigInteger.ONE);
+        assertEquals(expected, rskq.ObjectSearch(LOWER_LEFT, UPPER_RIGHT, WQ));
+    }
+}
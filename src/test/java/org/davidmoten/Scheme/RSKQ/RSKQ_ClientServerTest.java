@@ -0,0 +1,262 @@
+package org.davidmoten.Scheme.RSKQ;
+
+import org.davidmoten.Net.FrameChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.net.InetSocketAddress;
+import java.nio.channels.Pipe;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.UnaryOperator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RSKQ_ClientServerTest {
+    private static final int MAX_FILES = 64;
+    private static final int ORDER = 6;
+    private static final long[] LOWER_LEFT = {0, 0};
+    private static final long[] UPPER_RIGHT = {7, 7};
+    private static final String[] WQ = {"a"};
+
+    private RSKQ_Server server;
+    private RSKQ_Client client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new RSKQ_Server();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (client != null) {
+            client.close();
+        }
+        server.close();
+    }
+
+    @Test(timeout = 30000)
+    public void searchOverPipe() throws IOException {
+        client = new RSKQ_Client(MAX_FILES, ORDER, 2, server.connectInProcess());
+        checkSearches(client);
+    }
+
+    @Test(timeout = 30000)
+    public void searchOverSocket() throws IOException {
+        InetSocketAddress address = server.start(0);
+        client = new RSKQ_Client(MAX_FILES, ORDER, 2, FrameChannel.connect(address));
+        checkSearches(client);
+        assertTrue(client.getBytesSent() > 0 && client.getBytesReceived() > 0);
+    }
+
+    @Test(timeout = 30000)
+    public void clientsWithSeparateKeysShareSocketServer() throws IOException {
+        InetSocketAddress address = server.start(0);
+        try (RSKQ_Client first = new RSKQ_Client(MAX_FILES, ORDER, 2, FrameChannel.connect(address));
+             RSKQ_Client second = new RSKQ_Client(MAX_FILES, ORDER, 2, FrameChannel.connect(address))) {
+            // 同一位置与关键字，不同的密钥使两个客户端的链互不相交
+            first.ObjectUpdate(new long[]{1, 1}, WQ, new String[]{"add"}, new int[]{0});
+            second.ObjectUpdate(new long[]{1, 1}, WQ, new String[]{"add"}, new int[]{1});
+            assertEquals(files(0), first.ObjectSearch(LOWER_LEFT, UPPER_RIGHT, WQ));
+            assertEquals(files(1), second.ObjectSearch(LOWER_LEFT, UPPER_RIGHT, WQ));
+            assertEquals(files(0), first.ObjectSearch(LOWER_LEFT, UPPER_RIGHT, WQ));
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void failedSearchKeepsCiphertexts() throws IOException {
+        // 去掉 SEARCH 的最后一个字节：服务器处理完前面的令牌后在最后一个令牌上失败
+        client = new RSKQ_Client(MAX_FILES, ORDER, 2, relay(WireProtocol.SEARCH,
+                payload -> copyOf(payload, payload.remaining() - 1)));
+        insertObjects();
+        int stored = server.getPDBSize() + server.getKDBSize();
+
+        try {
+            client.ObjectSearch(LOWER_LEFT, UPPER_RIGHT, WQ);
+            fail("expected the search to fail");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().startsWith("server error"));
+        }
+
+        assertEquals(stored, server.getPDBSize() + server.getKDBSize());
+        assertEquals(files(0, 2), client.ObjectSearch(LOWER_LEFT, UPPER_RIGHT, WQ));
+        assertEquals(files(0, 2), client.ObjectSearch(LOWER_LEFT, UPPER_RIGHT, WQ));
+    }
+
+    @Test(timeout = 30000)
+    public void rejectedStoreRestoresClientState() throws IOException {
+        // 改写 STORE 中第一个 Kw：服务器拒绝整帧，不删除密文也不写回 ew
+        client = new RSKQ_Client(MAX_FILES, ORDER, 2, relay(WireProtocol.STORE, payload -> {
+            ByteBuffer copy = copyOf(payload, payload.remaining());
+            copy.put(4, (byte) (copy.get(4) ^ 1));
+            return copy;
+        }));
+        insertObjects();
+
+        assertEquals(files(0, 2), client.ObjectSearch(LOWER_LEFT, UPPER_RIGHT, WQ));
+        // 下一个请求先读到 STORE 的 ERROR，客户端回到搜索之前的状态
+        client.ObjectUpdate(new long[]{3, 3}, WQ, new String[]{"add"}, new int[]{4});
+        assertEquals(files(0, 2, 4), client.ObjectSearch(LOWER_LEFT, UPPER_RIGHT, WQ));
+        assertEquals(files(0, 2, 4), client.ObjectSearch(LOWER_LEFT, UPPER_RIGHT, WQ));
+    }
+
+    @Test(timeout = 30000)
+    public void everyRequestGetsExactlyOneReply() throws IOException {
+        FrameChannel channel = server.connectInProcess();
+        try {
+            // 没有 SEARCH 的 STORE、未知类型、截断的 UPDATE 都回复 ERROR，之后的请求仍收到自己的回复
+            channel.send(WireProtocol.STORE, ints(0));
+            assertEquals(WireProtocol.ERROR, channel.receive().type);
+            channel.send((byte) 99, ints());
+            assertEquals(WireProtocol.ERROR, channel.receive().type);
+            channel.send(WireProtocol.UPDATE, ints(1));
+            assertEquals(WireProtocol.ERROR, channel.receive().type);
+            assertEquals(0, server.getPDBSize() + server.getKDBSize());
+
+            channel.send(WireProtocol.UPDATE, ints(0));
+            FrameChannel.Frame reply = channel.receive();
+            assertEquals(WireProtocol.UPDATE_OK, reply.type);
+            assertEquals(0, reply.payload.getInt());
+            channel.send(WireProtocol.SEARCH, ints(0));
+            assertEquals(WireProtocol.SEARCH_DONE, channel.receive().type);
+            channel.send(WireProtocol.STORE, ints(0));
+            assertEquals(WireProtocol.STORE_OK, channel.receive().type);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * 单个与批量插入随机对象、删除其中一部分，再用随机矩形查询，与直接计算的结果比较；每个查询执行两次，
+     * 第二次沿第一次写回的 ew 继续
+     */
+    private void checkSearches(RSKQ_Client client) throws IOException {
+        Random random = new Random(15);
+        String[] keywords = {"a", "b", "c"};
+        int n = 48;
+        long[][] points = new long[n][];
+        String[] W = new String[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = new long[]{random.nextInt(1 << ORDER), random.nextInt(1 << ORDER)};
+            W[i] = keywords[random.nextInt(keywords.length)];
+        }
+        for (int i = 0; i < n / 2; i++) {
+            client.ObjectUpdate(points[i], new String[]{W[i]}, new String[]{"add"}, new int[]{i});
+        }
+        int batch = n - n / 2;
+        long[][] pSets = new long[batch][];
+        String[][] Ws = new String[batch][];
+        String[][] ops = new String[batch][];
+        int[][] ids = new int[batch][];
+        for (int k = 0; k < batch; k++) {
+            pSets[k] = points[n / 2 + k];
+            Ws[k] = new String[]{W[n / 2 + k]};
+            ops[k] = new String[]{"add"};
+            ids[k] = new int[]{n / 2 + k};
+        }
+        client.ObjectUpdate(pSets, Ws, ops, ids);
+        boolean[] deleted = new boolean[n];
+        int deletes = 0;
+        for (int i = 0; i < n; i += 5) {
+            client.ObjectUpdate(points[i], new String[]{W[i]}, new String[]{"del"}, new int[]{i});
+            deleted[i] = true;
+            deletes++;
+        }
+
+        for (int q = 0; q < 20; q++) {
+            long x = random.nextInt(1 << ORDER), y = random.nextInt(1 << ORDER);
+            long[] lowerLeft = {x, y};
+            long[] upperRight = {Math.min(x + random.nextInt(32), (1 << ORDER) - 1),
+                    Math.min(y + random.nextInt(32), (1 << ORDER) - 1)};
+            String keyword = keywords[random.nextInt(keywords.length)];
+            BigInteger expected = BigInteger.ZERO;
+            for (int i = 0; i < n; i++) {
+                if (!deleted[i] && W[i].equals(keyword)
+                        && points[i][0] >= lowerLeft[0] && points[i][0] <= upperRight[0]
+                        && points[i][1] >= lowerLeft[1] && points[i][1] <= upperRight[1]) {
+                    expected = expected.setBit(i);
+                }
+            }
+            String[] query = {keyword};
+            assertEquals(expected, client.ObjectSearch(lowerLeft, upperRight, query));
+            assertEquals(expected.bitCount(), client.ObjectSearchResult(lowerLeft, upperRight, query).cardinality());
+        }
+        // 每次 ObjectUpdate 一个 UPDATE 帧
+        assertEquals(n / 2 + 1 + deletes, server.getUpdateRequests());
+    }
+
+    private void insertObjects() throws IOException {
+        client.ObjectUpdate(new long[]{1, 1}, WQ, new String[]{"add"}, new int[]{0});
+        client.ObjectUpdate(new long[]{2, 3}, new String[]{"b"}, new String[]{"add"}, new int[]{1});
+        client.ObjectUpdate(new long[]{5, 5}, WQ, new String[]{"add"}, new int[]{2});
+        client.ObjectUpdate(new long[]{40, 40}, WQ, new String[]{"add"}, new int[]{3});
+    }
+
+    /**
+     * 在客户端与服务器之间转发帧，客户端发出的第一个 type 帧经 rewrite 改写后再转发
+     *
+     * @return 客户端一侧的通道
+     */
+    private FrameChannel relay(byte type, UnaryOperator<ByteBuffer> rewrite) throws IOException {
+        Pipe toRelay = Pipe.open();
+        Pipe toClient = Pipe.open();
+        FrameChannel clientSide = new FrameChannel(toRelay.source(), toClient.sink());
+        FrameChannel serverSide = server.connectInProcess();
+        AtomicBoolean rewritten = new AtomicBoolean();
+        forward(clientSide, serverSide, frame -> frame.type == type && rewritten.compareAndSet(false, true)
+                ? rewrite.apply(frame.payload) : frame.payload);
+        forward(serverSide, clientSide, frame -> frame.payload);
+        return new FrameChannel(toClient.source(), toRelay.sink());
+    }
+
+    private interface Rewriter {
+        ByteBuffer payload(FrameChannel.Frame frame);
+    }
+
+    private static void forward(FrameChannel from, FrameChannel to, Rewriter rewriter) {
+        Thread thread = new Thread(() -> {
+            try {
+                FrameChannel.Frame frame;
+                while ((frame = from.receive()) != null) {
+                    to.send(frame.type, rewriter.payload(frame));
+                }
+                to.close();
+            } catch (IOException e) {
+                // 任一端关闭
+            }
+        }, "rskq-test-relay");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static ByteBuffer copyOf(ByteBuffer payload, int length) {
+        ByteBuffer copy = ByteBuffer.allocate(length);
+        ByteBuffer source = payload.duplicate();
+        source.limit(source.position() + length);
+        copy.put(source).flip();
+        return copy;
+    }
+
+    private static ByteBuffer ints(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 * values.length);
+        for (int value : values) {
+            buffer.putInt(value);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static BigInteger files(int... ids) {
+        BigInteger bitmap = BigInteger.ZERO;
+        for (int id : ids) {
+            bitmap = bitmap.setBit(id);
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,64 @@
+package org.davidmoten.Scheme.RSKQ;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class RSKQ_PlannedSearchTest {
+    private static final int ORDER = 8;
+    // 所有对象都在左下角，查询右上角的矩形时所有前缀都没有状态
+    private static final long[] LOWER_LEFT = {200, 200};
+    private static final long[] UPPER_RIGHT = {255, 255};
+
+    private RSKQ_Biginteger rskq;
+
+    @Before
+    public void setUp() throws Exception {
+        rskq = new RSKQ_Biginteger(1 << 10, ORDER, 2);
+        rskq.setPlannedSearch(true);
+        // w1、w2、w3 的链上分别有 2、3、5 个密文
+        int file = 0;
+        for (int i = 0; i < 2; i++) {
+            rskq.ObjectUpdate(new long[]{1, 1}, new String[]{"w1"}, new String[]{"add"}, new int[]{file++});
+        }
+        for (int i = 0; i < 3; i++) {
+            rskq.ObjectUpdate(new long[]{2, 1}, new String[]{"w2"}, new String[]{"add"}, new int[]{file++});
+        }
+        for (int i = 0; i < 5; i++) {
+            rskq.ObjectUpdate(new long[]{1, 2}, new String[]{"w3"}, new String[]{"add"}, new int[]{file++});
+        }
+    }
+
+    @Test
+    public void missingKeywordFirst() throws Exception {
+        assertSkipped(new String[]{"missing", "w2", "w3"}, 2, 3 + 5);
+    }
+
+    @Test
+    public void missingKeywordInTheMiddle() throws Exception {
+        assertSkipped(new String[]{"w1", "missing", "w3"}, 2, 2 + 5);
+    }
+
+    @Test
+    public void missingKeywordLast() throws Exception {
+        assertSkipped(new String[]{"w1", "w2", "missing"}, 2, 2 + 3);
+    }
+
+    @Test
+    public void onlyMissingKeywords() throws Exception {
+        assertSkipped(new String[]{"missing", "other"}, 0, 0);
+    }
+
+    private void assertSkipped(String[] WQ, long tokens, long ciphertexts) throws Exception {
+        BigInteger result = rskq.ObjectSearch(LOWER_LEFT, UPPER_RIGHT, WQ);
+        assertEquals(BigInteger.ZERO, result);
+        assertEquals(1, rskq.getShortCircuitedSearches());
+        assertEquals(tokens, rskq.getSkippedTokens());
+        assertEquals(ciphertexts, rskq.getSkippedCiphertexts());
+        assertEquals(1, rskq.plannerSearchTimes.size());
+        assertEquals(1, rskq.savedSearchTimes.size());
+    }
+}
@@ -0,0 +1,157 @@
+package org.davidmoten.Scheme.RSKQ;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * 加载损坏的快照必须抛出 IOException 并保留实例当前的状态；完整的快照照常替换状态
+ */
+public class RSKQ_SnapshotTest {
+    private static final int MAX_FILES = 64;
+    private static final int ORDER = 4;
+    private static final long[] LOWER_LEFT = {0, 0};
+    private static final long[] UPPER_RIGHT = {7, 7};
+    private static final String[] WQ = {"a"};
+
+    private Path root;
+    private RSKQ_Biginteger rskq;
+    private Path clientSnapshot;
+    private Path serverSnapshot;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("rskq-snapshot");
+        clientSnapshot = root.resolve("client.snapshot");
+        serverSnapshot = root.resolve("server.snapshot");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (rskq != null) {
+            rskq.close();
+        }
+        try (Stream<Path> files = Files.walk(root)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void truncatedServerSnapshotKeepsState() throws Exception {
+        saveThenUpdate(null);
+        truncate(serverSnapshot, Files.size(serverSnapshot) / 2);
+        assertLoadFails(serverSnapshot, false);
+        assertCurrentState();
+    }
+
+    @Test
+    public void truncatedServerSnapshotKeepsMappedState() throws Exception {
+        saveThenUpdate(root.resolve("stores"));
+        truncate(serverSnapshot, Files.size(serverSnapshot) - 3);
+        assertLoadFails(serverSnapshot, false);
+        assertCurrentState();
+        // 解码用的临时存储已删除
+        assertFalse(Files.exists(root.resolve("stores").resolve("loading")));
+    }
+
+    @Test
+    public void corruptRecordLengthKeepsState() throws Exception {
+        saveThenUpdate(null);
+        // 第一条 PDB 记录的长度：magic、版本、4 个参数(3 个 int + 1 个 boolean)之后
+        try (RandomAccessFile raf = new RandomAccessFile(serverSnapshot.toFile(), "rw")) {
+            raf.seek(4 + 4 + 3 * 4 + 1);
+            raf.writeInt(-7);
+        }
+        assertLoadFails(serverSnapshot, false);
+        assertCurrentState();
+    }
+
+    @Test
+    public void trailingDataKeepsState() throws Exception {
+        saveThenUpdate(null);
+        Files.write(serverSnapshot, new byte[]{1, 2, 3, 4}, StandardOpenOption.APPEND);
+        assertLoadFails(serverSnapshot, false);
+        assertCurrentState();
+    }
+
+    @Test
+    public void truncatedClientSnapshotKeepsState() throws Exception {
+        saveThenUpdate(null);
+        truncate(clientSnapshot, Files.size(clientSnapshot) - 1);
+        assertLoadFails(clientSnapshot, true);
+        assertCurrentState();
+    }
+
+    @Test
+    public void completeSnapshotsReplaceState() throws Exception {
+        saveThenUpdate(root.resolve("stores"));
+        rskq.loadClientState(clientSnapshot);
+        rskq.loadServerState(serverSnapshot);
+        // 回到保存时的状态：文件 3 尚未插入
+        assertEquals(files(0, 2), rskq.ObjectSearch(LOWER_LEFT, UPPER_RIGHT, WQ));
+        assertEquals(files(0, 2), rskq.ObjectSearch(LOWER_LEFT, UPPER_RIGHT, WQ));
+        assertFalse(Files.exists(root.resolve("stores").resolve("loading")));
+    }
+
+    // 插入并查询(查询会改写 SC、SS 与链)后保存快照，再插入文件 3、删除文件 2
+    private void saveThenUpdate(Path storeDirectory) throws Exception {
+        rskq = new RSKQ_Biginteger(MAX_FILES, ORDER, 2, false, storeDirectory);
+        rskq.ObjectUpdate(new long[]{1, 1}, WQ, new String[]{"add"}, new int[]{0});
+        rskq.ObjectUpdate(new long[]{2, 3}, new String[]{"b"}, new String[]{"add"}, new int[]{1});
+        rskq.ObjectUpdate(new long[]{5, 5}, WQ, new String[]{"add"}, new int[]{2});
+        assertEquals(files(0, 2), rskq.ObjectSearch(LOWER_LEFT, UPPER_RIGHT, WQ));
+        rskq.saveClientState(clientSnapshot);
+        rskq.saveServerState(serverSnapshot);
+
+        rskq.ObjectUpdate(new long[]{6, 2}, WQ, new String[]{"add"}, new int[]{3});
+        rskq.ObjectUpdate(new long[]{5, 5}, WQ, new String[]{"del"}, new int[]{2});
+    }
+
+    private void assertLoadFails(Path file, boolean client) throws Exception {
+        try {
+            if (client) {
+                rskq.loadClientState(file);
+            } else {
+                rskq.loadServerState(file);
+            }
+            fail("expected the corrupt snapshot to be rejected");
+        } catch (IOException expected) {
+            // 预期
+        }
+    }
+
+    // 保存之后的修改仍在，且实例可以继续更新与查询
+    private void assertCurrentState() throws Exception {
+        assertEquals(files(0, 3), rskq.ObjectSearch(LOWER_LEFT, UPPER_RIGHT, WQ));
+        rskq.ObjectUpdate(new long[]{7, 7}, WQ, new String[]{"add"}, new int[]{4});
+        assertEquals(files(0, 3, 4), rskq.ObjectSearch(LOWER_LEFT, UPPER_RIGHT, WQ));
+        assertEquals(files(1), rskq.ObjectSearch(LOWER_LEFT, UPPER_RIGHT, new String[]{"b"}));
+    }
+
+    private static void truncate(Path file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    private static BigInteger files(int... ids) {
+        BigInteger bitmap = BigInteger.ZERO;
+        for (int id : ids) {
+            bitmap = bitmap.setBit(id);
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,234 @@
+package org.davidmoten.Scheme.RSKQ;
+
+import org.davidmoten.Store.WriteAheadLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 崩溃恢复：在日志目录的拷贝(相当于进程在该时刻崩溃后留下的文件)上打开新实例的预写日志，
+ * 恢复后的查询结果必须与直接计算的结果一致
+ */
+public class RSKQ_WriteAheadLogTest {
+    private static final int MAX_FILES = 128;
+    private static final int ORDER = 4;
+    private static final String[] KEYWORDS = {"a", "b", "c"};
+
+    private final List<RSKQ_Biginteger> instances = new ArrayList<>();
+    private Path root;
+    private Path directory;
+    private RSKQ_Biginteger rskq;
+    private Random random;
+    // 文件 i 的位置与关键字，以及是否仍然存在
+    private final List<long[]> points = new ArrayList<>();
+    private final List<String> keywords = new ArrayList<>();
+    private final List<Boolean> alive = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("rskq-wal");
+        directory = root.resolve("log");
+        rskq = open(directory);
+        random = new Random(14);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (RSKQ_Biginteger instance : instances) {
+            instance.close();
+        }
+        try (Stream<Path> files = Files.walk(root)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void recoverReplaysLogWithoutCheckpoint() throws Exception {
+        workload(40);
+        assertSearches(open(crashImage()));
+    }
+
+    @Test
+    public void recoverReplaysOnlyLogAfterCheckpoint() throws Exception {
+        workload(40);
+        rskq.checkpoint();
+        // 检查点删除了旧日志，只剩新的一代
+        assertEquals(1, logFiles(directory).size());
+        workload(20);
+
+        Path image = crashImage();
+        long logged = WriteAheadLog.replay(lastLog(image), record -> {
+        });
+        // 检查点之前的修改来自快照，只重放新一代日志中的记录
+        assertRecovered(image, logged);
+    }
+
+    @Test
+    public void crashBetweenSnapshotAndDeleteOldGenerations() throws Exception {
+        workload(40);
+        // 检查点删除旧日志之前的文件：新快照 + 旧日志 + 新的一代
+        Path saved = root.resolve("saved");
+        Files.createDirectories(saved);
+        for (Path log : logFiles(directory)) {
+            Files.copy(log, saved.resolve(log.getFileName()));
+        }
+        rskq.checkpoint();
+        workload(20);
+
+        Path image = crashImage();
+        for (Path log : logFiles(saved)) {
+            Files.copy(log, image.resolve(log.getFileName()));
+        }
+        assertEquals(2, logFiles(image).size());
+        // 旧日志重放在更新的快照上，再由新一代日志覆盖
+        assertSearches(open(image));
+    }
+
+    @Test
+    public void tornTailIsDroppedOnRecovery() throws Exception {
+        workload(40);
+        Path image = crashImage();
+        Path log = lastLog(image);
+        long logged = WriteAheadLog.replay(log, record -> {
+        });
+        // 崩溃时正在写出的下一条记录：声明 100 字节，只写出了 20 字节
+        appendTo(log, ByteBuffer.allocate(8 + 20).putInt(100).putInt(0).array());
+
+        assertRecovered(image, logged);
+    }
+
+    @Test
+    public void tailWithBadChecksumIsDroppedOnRecovery() throws Exception {
+        workload(40);
+        Path image = crashImage();
+        Path log = lastLog(image);
+        long logged = WriteAheadLog.replay(log, record -> {
+        });
+        // 长度完整但校验和不符的记录
+        appendTo(log, ByteBuffer.allocate(8 + 16).putInt(16).putInt(12345).array());
+
+        assertRecovered(image, logged);
+    }
+
+    /**
+     * 逐个插入对象、删除一部分并穿插查询；查询会沿链删除密文并改写 SS，也记入日志
+     */
+    private void workload(int objects) throws Exception {
+        for (int i = 0; i < objects; i++) {
+            int file = points.size();
+            long[] point = {random.nextInt(1 << ORDER), random.nextInt(1 << ORDER)};
+            String keyword = KEYWORDS[random.nextInt(KEYWORDS.length)];
+            points.add(point);
+            keywords.add(keyword);
+            alive.add(true);
+            rskq.ObjectUpdate(point, new String[]{keyword}, new String[]{"add"}, new int[]{file});
+            if (i % 7 == 6) {
+                int victim = random.nextInt(points.size());
+                if (alive.get(victim)) {
+                    rskq.ObjectUpdate(points.get(victim), new String[]{keywords.get(victim)}, new String[]{"del"},
+                            new int[]{victim});
+                    alive.set(victim, false);
+                }
+            }
+            if (i % 5 == 4) {
+                assertSearch(rskq, 8 + i);
+            }
+        }
+    }
+
+    private void assertSearches(RSKQ_Biginteger instance) throws Exception {
+        for (int q = 0; q < 10; q++) {
+            assertSearch(instance, q);
+        }
+        // 恢复后的实例继续更新与查询
+        rskq = instance;
+        workload(10);
+        for (int q = 0; q < 10; q++) {
+            assertSearch(instance, q);
+        }
+    }
+
+    private void assertSearch(RSKQ_Biginteger instance, int seed) throws Exception {
+        Random query = new Random(seed);
+        int side = 1 << ORDER;
+        long x = query.nextInt(side), y = query.nextInt(side);
+        long[] lowerLeft = {x, y};
+        long[] upperRight = {Math.min(x + query.nextInt(side / 2), side - 1),
+                Math.min(y + query.nextInt(side / 2), side - 1)};
+        String keyword = KEYWORDS[query.nextInt(KEYWORDS.length)];
+        BigInteger expected = BigInteger.ZERO;
+        for (int i = 0; i < points.size(); i++) {
+            long[] p = points.get(i);
+            if (alive.get(i) && keywords.get(i).equals(keyword)
+                    && p[0] >= lowerLeft[0] && p[0] <= upperRight[0]
+                    && p[1] >= lowerLeft[1] && p[1] <= upperRight[1]) {
+                expected = expected.setBit(i);
+            }
+        }
+        assertEquals(expected, instance.ObjectSearch(lowerLeft, upperRight, new String[]{keyword}));
+    }
+
+    private RSKQ_Biginteger open(Path logDirectory) throws Exception {
+        RSKQ_Biginteger instance = new RSKQ_Biginteger(MAX_FILES, ORDER, 2);
+        instances.add(instance);
+        instance.openWriteAheadLog(logDirectory, false);
+        return instance;
+    }
+
+    // 只重放完整的记录，损坏的尾部被丢弃
+    private void assertRecovered(Path image, long logged) throws Exception {
+        RSKQ_Biginteger recovered = new RSKQ_Biginteger(MAX_FILES, ORDER, 2);
+        instances.add(recovered);
+        assertEquals(logged, recovered.openWriteAheadLog(image, false));
+        assertSearches(recovered);
+    }
+
+    // 复制日志目录中的全部文件；每次操作返回前日志已写出，拷贝即为此刻崩溃后磁盘上的内容
+    private Path crashImage() throws IOException {
+        Path image = Files.createDirectories(root.resolve("crash"));
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.copy(file, image.resolve(file.getFileName()));
+            }
+        }
+        return image;
+    }
+
+    private static List<Path> logFiles(Path dir) throws IOException {
+        List<Path> logs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "wal-*.log")) {
+            files.forEach(logs::add);
+        }
+        logs.sort(Comparator.comparingLong(RSKQ_WriteAheadLogTest::generation));
+        return logs;
+    }
+
+    private static Path lastLog(Path dir) throws IOException {
+        List<Path> logs = logFiles(dir);
+        return logs.get(logs.size() - 1);
+    }
+
+    private static long generation(Path log) {
+        String name = log.getFileName().toString();
+        return Long.parseLong(name.substring("wal-".length(), name.length() - ".log".length()));
+    }
+
+    private static void appendTo(Path file, byte[] bytes) throws IOException {
+        Files.write(file, bytes, StandardOpenOption.APPEND);
+    }
+}
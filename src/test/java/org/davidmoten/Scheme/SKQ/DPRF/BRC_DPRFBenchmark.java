@@ -0,0 +1,68 @@
+package org.davidmoten.Scheme.SKQ.DPRF;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 派生 [0, c] 全部叶子密钥的 JMH 基准(深度 20，同 SKQ_Biginteger)：逐个 deriveByIndex 每个叶子需要 depth 次 PRG，
+ * deriveRange 共享公共前缀，约 c 次 PRG；deriveDescending 为搜索使用的按段加倍派生。
+ * delKey 生成覆盖 [0, c] 的陷门，只沿 c + 1 的路径走一遍，耗时与 c 无关。
+ * <p>
+ * 运行：mvn -P benchmark integration-test
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BRC_DPRFBenchmark {
+    @Param({"100", "10000"})
+    public int c;
+
+    private final BRC_DPRF dprf = new BRC_DPRF(128, 20);
+    private final byte[] key = new byte[16];
+    private List<BRC_DPRF.Trapdoor> trapdoors;
+
+    @Setup
+    public void setup() {
+        new Random(21).nextBytes(key);
+        trapdoors = dprf.delKey(key, c);
+    }
+
+    @Benchmark
+    public List<BRC_DPRF.Trapdoor> delKey() {
+        return dprf.delKey(key, c);
+    }
+
+    @Benchmark
+    public int deriveByIndex() {
+        int sum = 0;
+        for (int i = c; i >= 0; i--) {
+            sum += dprf.deriveByIndex(i, trapdoors)[0];
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public byte[][] deriveRange() {
+        return dprf.deriveRange(trapdoors, 0, c);
+    }
+
+    @Benchmark
+    public int deriveDescending() {
+        int sum = 0;
+        BRC_DPRF.DescendingKeys keys = dprf.deriveDescending(trapdoors, c);
+        while (keys.hasNext()) {
+            sum += keys.next()[0];
+        }
+        return sum;
+    }
+}
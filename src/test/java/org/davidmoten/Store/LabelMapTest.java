@@ -0,0 +1,228 @@
+package org.davidmoten.Store;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LabelMapTest {
+    private static final int SEGMENTS = 64;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final long INITIAL_TABLE_BYTES = (long) SEGMENTS * INITIAL_CAPACITY * (2 * Long.BYTES + 8);
+
+    @Test
+    public void backwardShiftDeleteWrapsAroundTableEnd() {
+        // 同一段中理想槽为 14、15、0、1 的标签：探测链跨过表尾回到槽 0，删除时后继元素要跨表尾前移
+        List<byte[]> labels = new ArrayList<>();
+        labels.addAll(labelsInSegmentZero(14, 4));
+        labels.addAll(labelsInSegmentZero(15, 1));
+        labels.addAll(labelsInSegmentZero(0, 2));
+        labels.addAll(labelsInSegmentZero(1, 1));
+        Random random = new Random(11);
+        for (int round = 0; round < 500; round++) {
+            LabelMap<Integer> map = new LabelMap<>();
+            List<Integer> order = shuffled(labels.size(), random);
+            for (int k : order) {
+                assertNull(map.put(labels.get(k), k));
+            }
+            // 8 个元素不触发扩容，始终在 16 个槽的初始表中探测
+            assertEquals(INITIAL_TABLE_BYTES, map.tableBytes());
+
+            boolean[] removed = new boolean[labels.size()];
+            for (int k : shuffled(labels.size(), random)) {
+                assertEquals(Integer.valueOf(k), map.remove(labels.get(k)));
+                removed[k] = true;
+                for (int j = 0; j < labels.size(); j++) {
+                    if (removed[j]) {
+                        assertNull(map.get(labels.get(j)));
+                    } else {
+                        assertEquals(Integer.valueOf(j), map.get(labels.get(j)));
+                    }
+                }
+                // 删除不存在的标签不改变表
+                assertNull(map.remove(labels.get(k)));
+            }
+            assertEquals(0, map.size());
+        }
+    }
+
+    @Test
+    public void randomOperationsMatchReference() {
+        LabelMap<Integer> map = new LabelMap<>();
+        Integer[] expected = new Integer[5000];
+        int size = 0;
+        Random random = new Random(12);
+        for (int op = 0; op < 200000; op++) {
+            int key = random.nextInt(expected.length);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected[key], map.remove(label(key)));
+                if (expected[key] != null) {
+                    size--;
+                }
+                expected[key] = null;
+            } else {
+                assertEquals(expected[key], map.put(label(key), op));
+                if (expected[key] == null) {
+                    size++;
+                }
+                expected[key] = op;
+            }
+        }
+        assertEquals(size, map.size());
+        for (int key = 0; key < expected.length; key++) {
+            assertEquals(expected[key], map.get(label(key)));
+        }
+        int[] visited = new int[1];
+        map.forEach((high, low, value) -> {
+            assertEquals(expected[(int) high], value);
+            visited[0]++;
+        });
+        assertEquals(size, visited[0]);
+    }
+
+    @Test(timeout = 60000)
+    public void resizeUnderSegmentLock() throws Exception {
+        // 所有标签落在同一段，该段从 16 个槽扩容到 32768 个槽；读线程在扩容期间不能漏掉已写入的标签
+        int writers = 2;
+        int perWriter = 10000;
+        List<byte[]> labels = labelsInSegmentZero(-1, writers * perWriter);
+        LabelMap<Integer> map = new LabelMap<>();
+        AtomicInteger[] published = new AtomicInteger[writers];
+        for (int w = 0; w < writers; w++) {
+            published[w] = new AtomicInteger();
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(writers + 2);
+        try {
+            List<Future<Long>> readers = new ArrayList<>();
+            for (int r = 0; r < 2; r++) {
+                int seed = r;
+                readers.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    long reads = 0;
+                    while (!done.get()) {
+                        int w = random.nextInt(writers);
+                        int count = published[w].get();
+                        if (count == 0) {
+                            continue;
+                        }
+                        int k = w * perWriter + random.nextInt(count);
+                        assertEquals(Integer.valueOf(k), map.get(labels.get(k)));
+                        reads++;
+                    }
+                    return reads;
+                }));
+            }
+            List<Future<?>> writes = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                int writer = w;
+                writes.add(executor.submit(() -> {
+                    for (int i = 0; i < perWriter; i++) {
+                        int k = writer * perWriter + i;
+                        map.put(labels.get(k), k);
+                        published[writer].set(i + 1);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> write : writes) {
+                write.get(60, TimeUnit.SECONDS);
+            }
+            done.set(true);
+            for (Future<Long> reader : readers) {
+                assertTrue(reader.get(10, TimeUnit.SECONDS) > 0);
+            }
+        } finally {
+            done.set(true);
+            executor.shutdownNow();
+        }
+        assertEquals(labels.size(), map.size());
+        for (int k = 0; k < labels.size(); k++) {
+            assertEquals(Integer.valueOf(k), map.get(labels.get(k)));
+        }
+        // 其余 63 段保持初始大小
+        assertEquals(INITIAL_TABLE_BYTES + (32768 - INITIAL_CAPACITY) * (2L * Long.BYTES + 8), map.tableBytes());
+    }
+
+    @Test
+    public void labelsShorterThan16BytesArePaddedWithZeros() {
+        byte[] shortLabel = {1, 2, 3};
+        byte[] padded = Arrays.copyOf(shortLabel, LabelMap.LABEL_BYTES);
+        assertEquals(0x0102030000000000L, LabelMap.high(shortLabel));
+        assertEquals(0, LabelMap.low(shortLabel));
+        assertEquals(LabelMap.high(padded), LabelMap.high(shortLabel));
+
+        LabelMap<String> map = new LabelMap<>();
+        map.put(shortLabel, "short");
+        assertEquals("short", map.get(padded));
+        assertEquals("short", map.put(padded, "padded"));
+        assertEquals(1, map.size());
+
+        // 空标签与全 0 标签相同
+        map.put(new byte[0], "empty");
+        assertEquals("empty", map.get(new byte[LabelMap.LABEL_BYTES]));
+        assertEquals("empty", map.remove(new byte[9]));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void labelsLongerThan16BytesUseTheirFirst16Bytes() {
+        byte[] label = label(7);
+        byte[] longer = Arrays.copyOf(label, 32);
+        byte[] otherTail = Arrays.copyOf(label, 20);
+        otherTail[19] = 42;
+        assertEquals(LabelMap.high(label), LabelMap.high(longer));
+        assertEquals(LabelMap.low(label), LabelMap.low(longer));
+
+        LabelMap<String> map = new LabelMap<>();
+        map.put(longer, "longer");
+        assertEquals("longer", map.get(label));
+        assertEquals("longer", map.get(otherTail));
+        assertEquals("longer", map.remove(otherTail));
+        assertNull(map.get(longer));
+        assertEquals(0, map.size());
+    }
+
+    // 高 64 位为 key，低 64 位为 key 的反码
+    private static byte[] label(int key) {
+        return ByteBuffer.allocate(LabelMap.LABEL_BYTES).putLong(key).putLong(~key).array();
+    }
+
+    /**
+     * 落在第 0 段、在初始 16 个槽中理想槽为 slot 的 count 个标签；slot 为 -1 时不限槽
+     */
+    private static List<byte[]> labelsInSegmentZero(int slot, int count) {
+        List<byte[]> labels = new ArrayList<>();
+        for (long low = 0; labels.size() < count; low++) {
+            long hash = LabelMap.mix(slot, low);
+            if (hash >>> (64 - Integer.numberOfTrailingZeros(SEGMENTS)) == 0
+                    && (slot < 0 || ((int) hash & (INITIAL_CAPACITY - 1)) == slot)) {
+                labels.add(ByteBuffer.allocate(LabelMap.LABEL_BYTES).putLong(slot).putLong(low).array());
+            }
+        }
+        return labels;
+    }
+
+    private static List<Integer> shuffled(int n, Random random) {
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, random);
+        return order;
+    }
+}
@@ -0,0 +1,282 @@
+package org.davidmoten.Store;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MappedCipherStoreTest {
+    private static final int CHUNK_BYTES = 256;
+
+    private static final class BytesCodec implements RecordCodec<byte[]> {
+        @Override
+        public int size(byte[] value) {
+            return value.length;
+        }
+
+        @Override
+        public void write(byte[] value, ByteBuffer buffer) {
+            buffer.put(value);
+        }
+
+        @Override
+        public byte[] read(ByteBuffer buffer, int length) {
+            byte[] value = new byte[length];
+            buffer.get(value);
+            return value;
+        }
+    }
+
+    private Path directory;
+    private MappedCipherStore<byte[]> store;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("mapped");
+        store = new MappedCipherStore<>(directory, new BytesCodec(), CHUNK_BYTES);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void putRemoveAndOverwriteAcrossChunkBoundaries() {
+        // 每个块只能放下几条记录，随机的写入、覆盖与删除会跨越大量块边界并回收旧块
+        Map<Integer, byte[]> expected = new HashMap<>();
+        Random random = new Random(12);
+        for (int op = 0; op < 20000; op++) {
+            int key = random.nextInt(500);
+            if (random.nextInt(4) == 0) {
+                assertArrayEquals(expected.remove(key), store.remove(label(key)));
+            } else {
+                byte[] value = value(key, op, 8 + random.nextInt(60));
+                assertArrayEquals(expected.put(key, value), store.put(label(key), value));
+            }
+        }
+        // 超过块大小的记录独占一个块
+        byte[] large = value(1000, 0, CHUNK_BYTES * 3);
+        store.put(label(1000), large);
+        expected.put(1000, large);
+
+        assertMatches(expected);
+        assertEquals(liveBytes(expected), store.liveBytes());
+        assertTrue(store.chunkCount() < 20000 / 4);
+
+        for (int key : new ArrayList<>(expected.keySet())) {
+            assertArrayEquals(expected.remove(key), store.remove(label(key)));
+        }
+        assertEquals(0, store.size());
+        assertEquals(0, store.liveBytes());
+        // 只剩当前写入块
+        assertTrue(store.chunkCount() <= 1);
+    }
+
+    @Test
+    public void indexGrowsAndShrinksWithBackwardShiftDeletes() {
+        // 每段初始 1024 个槽，64 段的索引都要扩容几次
+        int n = 200000;
+        long before = store.mappedBytes();
+        for (int key = 0; key < n; key++) {
+            store.put(label(key), value(key, 0, 8));
+        }
+        assertEquals(n, store.size());
+        assertTrue(store.mappedBytes() > before);
+        // 删除一半后剩下的仍能沿探测序列找到
+        for (int key = 0; key < n; key += 2) {
+            assertArrayEquals(value(key, 0, 8), store.remove(label(key)));
+        }
+        for (int key = 0; key < n; key++) {
+            if (key % 2 == 0) {
+                assertNull(store.get(label(key)));
+            } else {
+                assertArrayEquals(value(key, 0, 8), store.get(label(key)));
+            }
+        }
+        assertEquals(n / 2, store.size());
+    }
+
+    @Test
+    public void readsWhileChunksAreRetired() throws Exception {
+        int keys = 200;
+        for (int key = 0; key < keys; key++) {
+            store.put(label(key), value(key, 0, 40));
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<Long>> readers = new ArrayList<>();
+            for (int r = 0; r < 2; r++) {
+                int seed = r;
+                readers.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    long reads = 0;
+                    while (!done.get()) {
+                        int key = random.nextInt(keys);
+                        byte[] value = store.get(label(key));
+                        // 记录可能正被覆盖或删除，但读到的内容必须完整
+                        if (value != null) {
+                            assertKey(key, value);
+                        }
+                        reads++;
+                    }
+                    return reads;
+                }));
+            }
+            // 覆盖与删除使旧块不断变空并被解除映射
+            Future<?> writer = executor.submit(() -> {
+                Random random = new Random(99);
+                for (int op = 0; op < 100000; op++) {
+                    int key = random.nextInt(keys);
+                    if (random.nextInt(3) == 0) {
+                        store.remove(label(key));
+                    } else {
+                        store.put(label(key), value(key, op, 8 + random.nextInt(60)));
+                    }
+                }
+                return null;
+            });
+            writer.get(60, TimeUnit.SECONDS);
+            done.set(true);
+            for (Future<Long> reader : readers) {
+                assertTrue(reader.get(10, TimeUnit.SECONDS) > 0);
+            }
+        } finally {
+            done.set(true);
+            executor.shutdownNow();
+        }
+        for (int key = 0; key < keys; key++) {
+            byte[] value = store.get(label(key));
+            if (value != null) {
+                assertKey(key, value);
+            }
+        }
+    }
+
+    @Test
+    public void compactMovesLiveRecordsAndDropsOldChunks() throws IOException {
+        Map<Integer, byte[]> expected = new HashMap<>();
+        for (int key = 0; key < 1000; key++) {
+            byte[] value = value(key, 0, 40);
+            store.put(label(key), value);
+            expected.put(key, value);
+        }
+        // 每块留下一部分存活记录，块无法自动回收
+        for (int key = 0; key < 1000; key++) {
+            if (key % 4 != 0) {
+                store.remove(label(key));
+                expected.remove(key);
+            }
+        }
+        int chunks = store.chunkCount();
+        long live = store.liveBytes();
+
+        store.compact();
+
+        assertTrue(store.chunkCount() < chunks / 2);
+        assertEquals(live, store.liveBytes());
+        assertEquals(store.chunkCount(), countFiles("chunk-"));
+        assertMatches(expected);
+        // 整理后仍可继续写入
+        store.put(label(5000), value(5000, 0, 40));
+        assertArrayEquals(value(5000, 0, 40), store.get(label(5000)));
+    }
+
+    @Test
+    public void clearAndCloseDeleteFiles() throws IOException {
+        for (int key = 0; key < 1000; key++) {
+            store.put(label(key), value(key, 0, 40));
+        }
+        assertTrue(countFiles("chunk-") > 1);
+
+        store.clear();
+        assertEquals(0, store.size());
+        assertEquals(0, countFiles("chunk-"));
+        assertEquals(64, countFiles("index-"));
+        store.put(label(1), value(1, 0, 40));
+        assertArrayEquals(value(1, 0, 40), store.get(label(1)));
+
+        store.close();
+        assertEquals(0, countFiles(""));
+        try {
+            store.put(label(2), value(2, 0, 40));
+            fail("expected the store to be closed");
+        } catch (IllegalStateException expected) {
+            assertEquals("store closed", expected.getMessage());
+        }
+        // 重复关闭无操作
+        store.close();
+    }
+
+    private void assertMatches(Map<Integer, byte[]> expected) {
+        assertEquals(expected.size(), store.size());
+        for (Map.Entry<Integer, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getValue(), store.get(label(entry.getKey())));
+        }
+        List<byte[]> values = store.values();
+        assertEquals(expected.size(), values.size());
+    }
+
+    private long countFiles(String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith(prefix)).count();
+        }
+    }
+
+    private static long liveBytes(Map<Integer, byte[]> values) {
+        long bytes = 0;
+        for (byte[] value : values.values()) {
+            bytes += 4 + value.length;
+        }
+        return bytes;
+    }
+
+    private static byte[] label(int key) {
+        byte[] label = new byte[LabelMap.LABEL_BYTES];
+        ByteBuffer.wrap(label).putInt(key).putInt(12, ~key);
+        return label;
+    }
+
+    // 前 4 字节为键，之后的字节从 (键, 版本) 决定的起点依次加一，读到拼接或已释放的数据时无法通过 assertKey
+    private static byte[] value(int key, int version, int length) {
+        byte[] value = new byte[length];
+        ByteBuffer.wrap(value).putInt(key);
+        for (int i = 4; i < length; i++) {
+            value[i] = (byte) (key * 31 + version * 7 + i);
+        }
+        return value;
+    }
+
+    private static void assertKey(int key, byte[] value) {
+        assertEquals(key, ByteBuffer.wrap(value).getInt());
+        for (int i = 5; i < value.length; i++) {
+            assertEquals((byte) (value[i - 1] + 1), value[i]);
+        }
+    }
+}
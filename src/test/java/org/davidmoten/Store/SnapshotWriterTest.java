@@ -0,0 +1,150 @@
+package org.davidmoten.Store;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class SnapshotWriterTest {
+    private static final int MAGIC = 0x534E4150;
+    private static final int VERSION = 1;
+
+    // 写入第 failAt 条记录时抛出异常，模拟写快照中途失败
+    private static final class FailingCodec implements RecordCodec<byte[]> {
+        private final int failAt;
+        private int written;
+
+        FailingCodec(int failAt) {
+            this.failAt = failAt;
+        }
+
+        @Override
+        public int size(byte[] value) {
+            return value.length;
+        }
+
+        @Override
+        public void write(byte[] value, ByteBuffer buffer) {
+            if (++written == failAt) {
+                throw new IllegalStateException("write failed");
+            }
+            buffer.put(value);
+        }
+
+        @Override
+        public byte[] read(ByteBuffer buffer, int length) {
+            byte[] value = new byte[length];
+            buffer.get(value);
+            return value;
+        }
+    }
+
+    private Path directory;
+    private Path target;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("snapshot");
+        target = directory.resolve("server.snapshot");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void failedWriteKeepsPreviousSnapshot() throws IOException {
+        LabelMap<byte[]> previous = store(100, (byte) 1);
+        write(previous, new FailingCodec(-1));
+
+        LabelMap<byte[]> next = store(5000, (byte) 2);
+        try {
+            // 超过一个缓冲区的数据已写入临时文件后失败
+            write(next, new FailingCodec(4000));
+            fail("expected the write to fail");
+        } catch (IllegalStateException expected) {
+            assertEquals("write failed", expected.getMessage());
+        }
+
+        assertFalse(Files.exists(directory.resolve("server.snapshot.tmp")));
+        LabelMap<byte[]> loaded = read();
+        assertEquals(previous.size(), loaded.size());
+        for (int i = 0; i < 100; i++) {
+            assertArrayEquals(previous.get(label(i)), loaded.get(label(i)));
+        }
+        assertNull(loaded.get(label(100)));
+    }
+
+    @Test
+    public void closeWithoutCommitKeepsPreviousSnapshot() throws IOException {
+        LabelMap<byte[]> previous = store(10, (byte) 1);
+        write(previous, new FailingCodec(-1));
+
+        try (SnapshotWriter out = new SnapshotWriter(target, MAGIC, VERSION)) {
+            out.writeStore(store(20, (byte) 2), new FailingCodec(-1));
+        }
+
+        assertFalse(Files.exists(directory.resolve("server.snapshot.tmp")));
+        assertEquals(previous.size(), read().size());
+    }
+
+    @Test
+    public void commitReplacesSnapshot() throws IOException {
+        write(store(10, (byte) 1), new FailingCodec(-1));
+        LabelMap<byte[]> next = store(20, (byte) 2);
+        write(next, new FailingCodec(-1));
+
+        LabelMap<byte[]> loaded = read();
+        assertEquals(next.size(), loaded.size());
+        assertArrayEquals(next.get(label(0)), loaded.get(label(0)));
+    }
+
+    private void write(LabelMap<byte[]> store, RecordCodec<byte[]> codec) throws IOException {
+        try (SnapshotWriter out = new SnapshotWriter(target, MAGIC, VERSION)) {
+            out.writeStore(store, codec);
+            out.commit();
+        }
+    }
+
+    private LabelMap<byte[]> read() throws IOException {
+        LabelMap<byte[]> store = new LabelMap<>();
+        try (SnapshotReader in = new SnapshotReader(target, MAGIC, VERSION)) {
+            in.readStore(store, new FailingCodec(-1));
+        }
+        return store;
+    }
+
+    private static LabelMap<byte[]> store(int size, byte fill) {
+        LabelMap<byte[]> store = new LabelMap<>();
+        for (int i = 0; i < size; i++) {
+            byte[] value = new byte[300];
+            value[0] = fill;
+            value[1] = (byte) i;
+            store.put(label(i), value);
+        }
+        return store;
+    }
+
+    private static byte[] label(int i) {
+        byte[] label = new byte[LabelMap.LABEL_BYTES];
+        label[0] = (byte) (i >>> 8);
+        label[1] = (byte) i;
+        label[15] = 1;
+        return label;
+    }
+}
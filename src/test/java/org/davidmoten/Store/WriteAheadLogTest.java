@@ -0,0 +1,154 @@
+package org.davidmoten.Store;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class WriteAheadLogTest {
+    private static final int FILE_HEADER = 8;
+    private static final int RECORD_HEADER = 8;
+
+    private Path directory;
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("wal");
+        file = directory.resolve("wal-1.log");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void replayReturnsRecordsInOrder() throws IOException {
+        write(10);
+        assertRecords(10, replay());
+        assertEquals(0, WriteAheadLog.replay(directory.resolve("missing.log"),
+                record -> fail("missing log has no records")));
+    }
+
+    @Test
+    public void recordTornInTheMiddleIsTruncated() throws IOException {
+        write(10);
+        long complete = Files.size(file) - recordBytes(9);
+        // 最后一条记录只写出了记录头和一部分内容
+        truncate(complete + RECORD_HEADER + 3);
+
+        assertRecords(9, replay());
+        assertEquals(complete, Files.size(file));
+        appendAfterRecovery(9);
+    }
+
+    @Test
+    public void recordTornInItsHeaderIsTruncated() throws IOException {
+        write(10);
+        long complete = Files.size(file) - recordBytes(9);
+        truncate(complete + 4);
+
+        assertRecords(9, replay());
+        assertEquals(complete, Files.size(file));
+        appendAfterRecovery(9);
+    }
+
+    @Test
+    public void tailWithBadChecksumIsDropped() throws IOException {
+        write(10);
+        long complete = Files.size(file) - recordBytes(9);
+        // 长度完整但内容损坏的尾部记录
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            long position = complete + RECORD_HEADER + 1;
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0xFF);
+        }
+
+        assertRecords(9, replay());
+        assertEquals(complete, Files.size(file));
+        appendAfterRecovery(9);
+    }
+
+    @Test
+    public void fileWithoutCompleteHeaderIsEmptied() throws IOException {
+        write(3);
+        truncate(FILE_HEADER - 2);
+
+        assertRecords(0, replay());
+        assertEquals(0, Files.size(file));
+        appendAfterRecovery(0);
+    }
+
+    // 截断后重新打开日志继续追加，新记录紧接在最后一条完整记录之后
+    private void appendAfterRecovery(int recovered) throws IOException {
+        try (WriteAheadLog log = new WriteAheadLog(file, false)) {
+            log.sync(log.append(record(recovered)));
+        }
+        assertRecords(recovered + 1, replay());
+    }
+
+    private void write(int count) throws IOException {
+        try (WriteAheadLog log = new WriteAheadLog(file, false)) {
+            long sequence = 0;
+            for (int i = 0; i < count; i++) {
+                sequence = log.append(record(i));
+            }
+            log.sync(sequence);
+        }
+    }
+
+    private List<byte[]> replay() throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        WriteAheadLog.replay(file, record -> {
+            byte[] bytes = new byte[record.remaining()];
+            record.get(bytes);
+            records.add(bytes);
+        });
+        return records;
+    }
+
+    private void truncate(long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    private static void assertRecords(int count, List<byte[]> records) {
+        assertEquals(count, records.size());
+        for (int i = 0; i < count; i++) {
+            assertArrayEquals(record(i), records.get(i));
+        }
+    }
+
+    // 第 i 条记录长 10 + i 字节
+    private static byte[] record(int i) {
+        byte[] record = new byte[10 + i];
+        ByteBuffer.wrap(record).putInt(i);
+        for (int k = 4; k < record.length; k++) {
+            record[k] = (byte) (i + k);
+        }
+        return record;
+    }
+
+    private static long recordBytes(int i) {
+        return RECORD_HEADER + record(i).length;
+    }
+}